@@ -51,6 +51,7 @@ public class JavaUtils {
                 .addCommand(UtilFASTA2DIST.getUtilName(), new UtilFASTA2DIST()) // in R
                 .addCommand(UtilFASTA2TREE.getUtilName(), new UtilFASTA2TREE()) // in R
                 .addCommand(UtilVCF2ISTATS.getUtilName(), new UtilVCF2ISTATS()) // in R
+                .addCommand(UtilVCF2BGT.getUtilName(), new UtilVCF2BGT())
 
                 //jc.addCommand(UtilDIST2Hist.getUtilName(), new UtilDIST2Hist()); //
 
@@ -26,6 +26,8 @@ import java.io.PrintStream;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.gkano.bioinfo.tree.Clade;
+import com.gkano.bioinfo.tree.DistanceFileRows;
 import com.gkano.bioinfo.tree.HierarchicalCluster;
 import com.gkano.bioinfo.var.GeneralTools;
 import com.gkano.bioinfo.var.Logger;
@@ -58,9 +60,18 @@ public class UtilDIST2TREE {
 
 	@Parameter(names = { "-o", "--output" }, description = "Tree output file")
     private String outputFile;
-	
-	//@Parameter(names = { "--numberOfThreads", "-t" })
-	//private int numOfThreads = 1;
+
+	@Parameter(names = { "--cluster-algorithm" }, description = "Pairwise, NNChain or MST (default NNChain, MST for single linkage, from " + HierarchicalCluster.NN_CHAIN_MIN_SAMPLES + " samples on)")
+	private String clusterAlgorithm = null;
+
+	@Parameter(names = { "--linkage" }, description = "Average, Complete or Single")
+	private String linkage = HierarchicalCluster.COMPLETE;
+
+	@Parameter(names = { "--stream-rows" }, description = "Single linkage: read the distance file row by row in a few passes instead of loading the matrix")
+	private boolean streamRows = false;
+
+	@Parameter(names = { "--numberOfThreads", "-t" })
+	private int numOfThreads = 1;
 
 	public void go() {
 		try (PrintStream ops = GeneralTools.getPrintStreamOrExit(outputFile, this)) {
@@ -78,6 +89,17 @@ public class UtilDIST2TREE {
 			//if(verbose) System.err.println("cpus=" + cpus);
 			//if(verbose) System.err.println("using=" + usingThreads);
 
+			if (streamRows) {
+				if (!HierarchicalCluster.SINGLE.equals(linkage) || "-".equals(inputFileName)) {
+					Logger.error(this, "--stream-rows needs single linkage and an input file.");
+					return;
+				}
+				DistanceFileRows rows = new DistanceFileRows(inputFileName);
+				HierarchicalCluster hc = new HierarchicalCluster(null, rows.getSampleNames(), linkage, verbose);
+				ops.println(Clade.cladeToString(hc.clusterSingleLinkage(rows)));
+				return;
+			}
+
 			//Read distances matrix and sample names
 			Object[] data;
 			if ("-".equals(inputFileName)) {
@@ -92,6 +114,9 @@ public class UtilDIST2TREE {
 			
 			//HCluster tree
 			HierarchicalCluster hc = new HierarchicalCluster(verbose);
+			hc.setLinkageMethod(linkage);
+			hc.setAlgorithm(clusterAlgorithm);
+			hc.setThreads(numOfThreads);
 			String treeString = (String) hc.hclusteringTree((String[])data[1], (double[][])data[0], null)[0];
 			ops.println(treeString);
 			ops.close();
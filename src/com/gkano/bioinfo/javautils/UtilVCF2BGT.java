@@ -0,0 +1,82 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.javautils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.gkano.bioinfo.var.Logger;
+import com.gkano.bioinfo.vcf.BGTWriter;
+
+@SuppressWarnings("FieldMayBeFinal")
+@Parameters(commandDescription = "VCF2BGT")
+public class UtilVCF2BGT {
+
+    public UtilVCF2BGT() {
+    }
+
+    public static String getUtilName() {
+        return "VCF2BGT";
+    }
+
+    @SuppressWarnings("unused")
+    @Parameter(names = "--help", help = true)
+    private boolean help;
+
+    @Parameter(names = {"-v", "--verbose"})
+    private boolean verbose = false;
+
+    @Parameter(description = "<positional input files>")
+    private List<String> positionalInputFiles = new ArrayList<>();
+
+    @Parameter(names = {"-i", "--input"}, description = "VCF input file(s)", variableArity = true)
+    private List<String> namedInputFiles = new ArrayList<>();
+
+    @Parameter(names = {"-o", "--output"}, description = "BGT output file", required = true)
+    private String outputFile;
+
+    @Parameter(names = {"--numberOfThreads", "-t"})
+    private int numOfThreads = 1;
+
+    @Parameter(names = {"--chunk-size"},
+               description = "Variants per independently readable chunk")
+    private int chunkSize = BGTWriter.DEFAULT_CHUNK_SIZE;
+
+    public void go() {
+        Logger.setVerbose(verbose);
+        try {
+            List<String> inputs = Stream.concat(positionalInputFiles.stream(), namedInputFiles.stream())
+                    .collect(Collectors.toList());
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("No VCF input files provided.");
+            }
+            long variants = BGTWriter.convert(inputs, outputFile, numOfThreads, chunkSize, verbose);
+            Logger.info(this, "Wrote " + variants + " variants to " + outputFile);
+        } catch (Exception e) {
+            Logger.error(this, e.getMessage());
+        }
+    }
+}
@@ -21,7 +21,10 @@
  */
 package com.gkano.bioinfo.javautils;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -32,8 +35,11 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.gkano.bioinfo.var.GeneralTools;
 import com.gkano.bioinfo.var.Logger;
+import com.gkano.bioinfo.vcf.GenomicRegion;
+import com.gkano.bioinfo.vcf.OutOfCoreDistances;
 import com.gkano.bioinfo.vcf.SNPEncoder;
 import com.gkano.bioinfo.vcf.VCFManager;
+import com.gkano.bioinfo.vcf.VCFShard;
 import com.gkano.bioinfo.vcf.VariantEmbeddingLoader;
 import com.gkano.bioinfo.vcf.VariantKeyExtractor;
 import com.gkano.bioinfo.vcf.WindowPolicy;
@@ -60,7 +66,7 @@ public class UtilVCF2DIST {
     @Parameter(description = "<positional input files>")
     private List<String> positionalInputFiles = new ArrayList<>();
 
-    @Parameter(names = {"-i", "--input"}, description = "VCF input file(s)", variableArity = true)
+    @Parameter(names = {"-i", "--input"}, description = "VCF, BCF or BGT input file(s), or PLINK fileset prefix(es)", variableArity = true)
     private List<String> namedInputFiles = new ArrayList<>();
 
     @Parameter(names = {"-o", "--output"}, description = "Distance output file")
@@ -69,6 +75,42 @@ public class UtilVCF2DIST {
     @Parameter(names = {"--numberOfThreads", "-t"})
     private int numOfThreads = 1;
 
+    @Parameter(names = {"--byte-parser"},
+               description = "Parse VCF data lines as raw bytes, without creating a String per line")
+    private boolean byteParser = false;
+
+    @Parameter(names = {"--region"},
+               description = "Only use variants in chr, chr:start or chr:start-end, or in the intervals of a BED file (repeatable; needs a bgzipped VCF with a .tbi/.csi index)")
+    private List<String> regionSpecs = new ArrayList<>();
+
+    @Parameter(names = {"--shards"},
+               description = "Read a single bgzipped VCF with N parallel readers")
+    private int shards = 1;
+
+    @Parameter(names = {"--shard-by"},
+               description = "How to split the input for --shards: BYTES (equal compressed ranges) or CHROMOSOME (needs a .tbi/.csi index)")
+    private String shardBy = "BYTES";
+
+    @Parameter(names = {"--parallel-inputs"},
+               description = "Read multiple input VCFs (e.g. one per chromosome) concurrently; all must have the same samples")
+    private boolean parallelInputs = false;
+
+    @Parameter(names = {"--mmap"},
+               description = "Memory-map uncompressed VCF inputs and split lines on the worker threads")
+    private boolean memoryMapped = false;
+
+    @Parameter(names = {"--shared-matrix"},
+               description = "Accumulate into one tiled N x N matrix shared by all threads instead of one per thread")
+    private boolean sharedMatrix = false;
+
+    @Parameter(names = {"--out-of-core"},
+               description = "Compute the matrix in passes over the input keeping accumulators within this many MB of heap, with the distances in a temporary file (for very large cohorts; not with stdin)")
+    private Integer outOfCoreMB;
+
+    @Parameter(names = {"--tmp-dir"},
+               description = "Directory for the temporary distance file of --out-of-core (default: java.io.tmpdir)")
+    private String tmpDir = System.getProperty("java.io.tmpdir");
+
     // Embedding options
     @Parameter(names = {"-e", "--embeddings"},
                description = "Variant embeddings file for embedding-based distance calculation")
@@ -116,11 +158,15 @@ public class UtilVCF2DIST {
 
     public void go() {
         try (PrintStream ops = GeneralTools.getPrintStreamOrExit(outputFile, this)) {
-            VCFManager vcfm = new VCFManager(
-                    Stream.concat(positionalInputFiles.stream(), namedInputFiles.stream()).collect(Collectors.toList()),
-                    numOfThreads,
-                    SNPEncoder.StringToStringParser,
-                    verbose);
+            if (outOfCoreMB != null) {
+                if (embeddingsFile != null || buildWindowPolicy() != null) {
+                    Logger.error(this, "--out-of-core cannot be combined with embeddings or windowed output");
+                    return;
+                }
+                goOutOfCore(ops);
+                return;
+            }
+            VCFManager vcfm = newVCFManager();
 
             // Load and set embeddings if provided
             if (embeddingsFile != null && !embeddingsFile.isEmpty()) {
@@ -182,6 +228,43 @@ public class UtilVCF2DIST {
         }
     }
 
+    private VCFManager newVCFManager() throws IOException {
+        VCFManager vcfm = new VCFManager(
+                Stream.concat(positionalInputFiles.stream(), namedInputFiles.stream()).collect(Collectors.toList()),
+                numOfThreads,
+                SNPEncoder.StringToStringParser,
+                verbose);
+        vcfm.setByteParser(byteParser);
+        vcfm.setRegions(GenomicRegion.parseAll(regionSpecs));
+        vcfm.setSharding(shards, VCFShard.Mode.valueOf(shardBy.toUpperCase()));
+        vcfm.setParallelInputs(parallelInputs);
+        vcfm.setMemoryMapped(memoryMapped);
+        vcfm.setSharedAccumulator(sharedMatrix);
+        return vcfm;
+    }
+
+    /** Compute the matrix band by band and stream it to {@code ops} row by row. */
+    private void goOutOfCore(PrintStream ops) throws Exception {
+        try (OutOfCoreDistances distances = new OutOfCoreDistances((long) outOfCoreMB << 20, Paths.get(tmpDir))) {
+            distances.compute(() -> {
+                try {
+                    return newVCFManager();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            List<String> sampleNames = distances.getSampleNames();
+            ops.println(distances.getNumSamples() + "\t" + distances.getNumVariants());
+            distances.writeRows((i, row) -> {
+                ops.print(sampleNames.get(i));
+                for (double d : row) {
+                    ops.print("\t" + GeneralTools.decimalFormat.format(d));
+                }
+                ops.println();
+            });
+        }
+    }
+
     private WindowPolicy buildWindowPolicy() {
         if (windowBp != null && windowVariants != null) {
             throw new IllegalArgumentException("--window-bp and --window-variants are mutually exclusive");
@@ -25,17 +25,21 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.gkano.bioinfo.tree.BootstrapSupport;
 import com.gkano.bioinfo.tree.Clade;
 import com.gkano.bioinfo.tree.HierarchicalCluster;
 import com.gkano.bioinfo.var.GeneralTools;
 import com.gkano.bioinfo.var.Logger;
+import com.gkano.bioinfo.vcf.GenomicRegion;
 import com.gkano.bioinfo.vcf.SNPEncoder;
 import com.gkano.bioinfo.vcf.VCFManager;
+import com.gkano.bioinfo.vcf.VCFShard;
 import com.gkano.bioinfo.vcf.VariantEmbeddingLoader;
 import com.gkano.bioinfo.vcf.VariantKeyExtractor;
 import com.gkano.bioinfo.vcf.WindowPolicy;
@@ -62,7 +66,7 @@ public class UtilVCF2TREE {
     @Parameter(description = "<positional input files>")
     private List<String> positionalInputFiles = new ArrayList<>();
 
-    @Parameter(names = {"-i", "--input"}, description = "VCF input file(s)", variableArity = true)
+    @Parameter(names = {"-i", "--input"}, description = "VCF, BCF or BGT input file(s), or PLINK fileset prefix(es)", variableArity = true)
     private List<String> namedInputFiles = new ArrayList<>();
 
     @Parameter(names = {"-o", "--output"}, description = "Tree output file")
@@ -71,9 +75,51 @@ public class UtilVCF2TREE {
     @Parameter(names = {"--numberOfThreads", "-t"})
     private int numOfThreads = 1;
 
+    @Parameter(names = {"--byte-parser"},
+               description = "Parse VCF data lines as raw bytes, without creating a String per line")
+    private boolean byteParser = false;
+
+    @Parameter(names = {"--region"},
+               description = "Only use variants in chr, chr:start or chr:start-end, or in the intervals of a BED file (repeatable; needs a bgzipped VCF with a .tbi/.csi index)")
+    private List<String> regionSpecs = new ArrayList<>();
+
+    @Parameter(names = {"--shards"},
+               description = "Read a single bgzipped VCF with N parallel readers")
+    private int shards = 1;
+
+    @Parameter(names = {"--shard-by"},
+               description = "How to split the input for --shards: BYTES (equal compressed ranges) or CHROMOSOME (needs a .tbi/.csi index)")
+    private String shardBy = "BYTES";
+
+    @Parameter(names = {"--parallel-inputs"},
+               description = "Read multiple input VCFs (e.g. one per chromosome) concurrently; all must have the same samples")
+    private boolean parallelInputs = false;
+
+    @Parameter(names = {"--mmap"},
+               description = "Memory-map uncompressed VCF inputs and split lines on the worker threads")
+    private boolean memoryMapped = false;
+
+    @Parameter(names = {"--shared-matrix"},
+               description = "Accumulate into one tiled N x N matrix shared by all threads instead of one per thread")
+    private boolean sharedMatrix = false;
+
     @Parameter(names = {"--bootstrap", "-b"}, description = "Number of bootstrap replicates")
     private int numBootstraps = 0;
 
+    @Parameter(names = {"--bootstrap-block-bp"},
+               description = "Bootstrap resamples blocks of this many base pairs per contig (default 1000000)")
+    private int bootstrapBlockBp = VCFManager.DEFAULT_BOOTSTRAP_BLOCK_BP;
+
+    @Parameter(names = {"--seed"}, description = "Seed of the bootstrap resampling")
+    private long seed = VCFManager.DEFAULT_BOOTSTRAP_SEED;
+
+    @Parameter(names = {"--cluster-algorithm"},
+               description = "Pairwise, NNChain or MST (default NNChain, MST for single linkage, from " + HierarchicalCluster.NN_CHAIN_MIN_SAMPLES + " samples on)")
+    private String clusterAlgorithm = null;
+
+    @Parameter(names = {"--linkage"}, description = "Average, Complete or Single")
+    private String linkage = HierarchicalCluster.COMPLETE;
+
     // Embedding options
     @Parameter(names = {"-e", "--embeddings"},
                description = "Variant embeddings file for embedding-based distance calculation")
@@ -122,9 +168,16 @@ public class UtilVCF2TREE {
                     numOfThreads,
                     SNPEncoder.StringToStringParser,
                     verbose);
+            vcfm.setByteParser(byteParser);
+            vcfm.setRegions(GenomicRegion.parseAll(regionSpecs));
+            vcfm.setSharding(shards, VCFShard.Mode.valueOf(shardBy.toUpperCase()));
+            vcfm.setParallelInputs(parallelInputs);
+            vcfm.setMemoryMapped(memoryMapped);
+            vcfm.setSharedAccumulator(sharedMatrix);
 
             // Set number of bootstraps
             vcfm.setNumBootstraps(numBootstraps);
+            vcfm.setBootstrapBlocks(bootstrapBlockBp, seed);
 
             WindowPolicy windowPolicy = buildWindowPolicy();
             if (windowPolicy != null) {
@@ -141,7 +194,7 @@ public class UtilVCF2TREE {
                     ops.println("# window chrom=" + chrom + " start=" + start + " end=" + end
                             + " nvariants=" + n + " nsamples=" + names.length);
                     try {
-                        ops.println((String) new HierarchicalCluster(v)
+                        ops.println((String) newHierarchicalCluster(v, 1)
                                 .hclusteringTree(names, d, null)[0]);
                     } catch (Exception e) {
                         Logger.error(this, "Failed to build per-window tree: " + e.getMessage());
@@ -181,31 +234,32 @@ public class UtilVCF2TREE {
             }
 
             if (numBootstraps > 0) {
-                List<double[][]> allDistances = vcfm.reduceDotProdToDistancesBootstraps();
-                HierarchicalCluster hc = new HierarchicalCluster(verbose);
-                Logger.info(this, allDistances.size() + " distance matrices computed (1 original + " + (allDistances.size() - 1) + " bootstraps).");
-
+                HierarchicalCluster hc = newHierarchicalCluster(verbose, numOfThreads);
+                // replicates are reduced one at a time, from the genome blocks or the embeddings
+                IntFunction<double[][]> replicate = vcfm::reduceDotProdToDistancesBootstrap;
                 if (vcfm.isEmbeddingMode()) {
                     int used = vcfm.getNumVariants() - vcfm.getSkippedVariants();
                     Logger.info(this, "Used " + used + " variants with embeddings (skipped " + vcfm.getSkippedVariants() + ")");
+                } else {
+                    int blocks = vcfm.getNumBootstrapBlocks();
+                    Logger.info(this, "Bootstrapping " + blocks + " blocks of " + bootstrapBlockBp + "bp, seed " + seed);
+                    if (blocks < 20) {
+                        Logger.warn(this, "Only " + blocks + " bootstrap blocks; consider a smaller --bootstrap-block-bp");
+                    }
                 }
 
                 // Original tree
-                Object[] originalTreeAndRoot = hc.hclusteringTree(sampleNames.toArray(String[]::new), allDistances.get(0), null);
-                String originalTree = (String) originalTreeAndRoot[0];
+                String[] labels = sampleNames.toArray(String[]::new);
+                Object[] originalTreeAndRoot = hc.hclusteringTree(labels, replicate.apply(0), null);
                 Clade originalRoot = (Clade) originalTreeAndRoot[1];
 
-                // Collect bootstrap trees
-                List<Clade> bootstrapTrees = new ArrayList<>();
-                for (int b = 1; b < allDistances.size(); b++) {
-                    Object[] bootTreeAndRoot = hc.hclusteringTree(sampleNames.toArray(String[]::new), allDistances.get(b), null);
-                    String bootTree = (String) bootTreeAndRoot[0];
-                    Clade bootRoot = (Clade) bootTreeAndRoot[1];
-                    bootstrapTrees.add(bootRoot);
-                }
+                // Bootstrap trees, counted into the support as each one is built
+                BootstrapSupport support = new BootstrapSupport(originalRoot, labels.length);
+                support.addReplicates(labels, replicate, numBootstraps, numOfThreads, () -> newHierarchicalCluster(verbose, 1));
+                Logger.info(this, (numBootstraps + 1) + " distance matrices computed (1 original + " + numBootstraps + " bootstraps).");
 
-                // Summarize bootstrap support and annotate tree
-                Clade.annotateTreeWithBootstrap(originalRoot, bootstrapTrees, sampleNames.size(), numBootstraps);
+                // Annotate the original tree
+                support.annotate(numBootstraps);
                 ops.println(Clade.cladeToString(originalRoot));
             } else {
                 double[][] distances = vcfm.reduceDotProdToDistances();
@@ -215,7 +269,7 @@ public class UtilVCF2TREE {
                     Logger.info(this, "Used " + used + " variants with embeddings (skipped " + vcfm.getSkippedVariants() + ")");
                 }
 
-                HierarchicalCluster hc = new HierarchicalCluster(verbose);
+                HierarchicalCluster hc = newHierarchicalCluster(verbose, numOfThreads);
                 String treeString = (String) hc.hclusteringTree(sampleNames.toArray(String[]::new), distances, null)[0];
                 ops.println(treeString);
             }
@@ -225,6 +279,14 @@ public class UtilVCF2TREE {
         }
     }
 
+    private HierarchicalCluster newHierarchicalCluster(boolean verbose, int threads) {
+        HierarchicalCluster hc = new HierarchicalCluster(verbose);
+        hc.setLinkageMethod(linkage);
+        hc.setAlgorithm(clusterAlgorithm);
+        hc.setThreads(threads);
+        return hc;
+    }
+
     private WindowPolicy buildWindowPolicy() {
         if (windowBp != null && windowVariants != null) {
             throw new IllegalArgumentException("--window-bp and --window-variants are mutually exclusive");
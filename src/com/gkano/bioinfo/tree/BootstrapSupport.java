@@ -0,0 +1,210 @@
+/*
+ *
+ * BioInfoJava-Utils 
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import com.gkano.bioinfo.var.Logger;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Bootstrap support of the clades of an original tree. Replicate trees
+ * are folded in with {@link #add} as soon as they are built, from any
+ * thread, so only their clade counts are kept; {@link #addReplicates}
+ * builds them on a pool of threads.
+ * <p>
+ * A clade is keyed by the XOR of random 64-bit hashes of its leaves, so
+ * the key of every clade of a tree comes from those of its children in one
+ * pass, and the clades of a replicate are looked up in a primitive map of
+ * those of the original tree instead of comparing sets of leaf names. Two
+ * different clades share a key with probability about 2^-64 per pair.
+ */
+public final class BootstrapSupport {
+
+    private final int totalLeaves;
+    private final Map<String, Long> leafHashes = new HashMap<>();
+    /** Clade key to its slot in {@link #counts}. */
+    private final TLongIntHashMap slots;
+    /** Replicate trees having the clade of each slot. */
+    private final AtomicIntegerArray counts;
+    /** Non-trivial clades of the original tree and their slots. */
+    private final List<Clade> clades = new ArrayList<>();
+    private final TIntArrayList cladeSlots = new TIntArrayList();
+
+    public BootstrapSupport(Clade originalTree, int totalLeaves) {
+        this.totalLeaves = totalLeaves;
+        SplittableRandom rand = new SplittableRandom(0x5EEDL);
+        for (Clade node : breadthFirst(originalTree)) {
+            if (node.isLeaf()) {
+                leafHashes.putIfAbsent(node.toString(), rand.nextLong());
+            }
+        }
+        slots = new TLongIntHashMap(2 * leafHashes.size(), 0.5f, 0L, -1);
+        forEachClade(originalTree, (node, key) -> {
+            int slot = slots.get(key);
+            if (slot < 0) {
+                slot = slots.size();
+                slots.put(key, slot);
+            }
+            clades.add(node);
+            cladeSlots.add(slot);
+        });
+        counts = new AtomicIntegerArray(slots.size());
+    }
+
+    /** Count the clades of the original tree that {@code bootTree} has too. Thread safe. */
+    public void add(Clade bootTree) {
+        forEachClade(bootTree, (node, key) -> {
+            int slot = slots.get(key);
+            if (slot >= 0) {
+                counts.incrementAndGet(slot);
+            }
+        });
+    }
+
+    /**
+     * Cluster replicates 1 to {@code numBootstraps}, each with a new
+     * {@link HierarchicalCluster} from {@code clusters}, and {@link #add}
+     * their trees, on up to {@code threads} threads. A
+     * replicate's distances are only asked for when a thread takes it, so
+     * at most one matrix per thread is held, and fewer threads are used
+     * when that many matrices would not fit in the free heap.
+     */
+    public void addReplicates(String[] labels, IntFunction<double[][]> replicate, int numBootstraps,
+            int threads, Supplier<HierarchicalCluster> clusters) throws Exception {
+        int concurrent = concurrentTrees(labels.length, threads);
+        Logger.info(this, "Building " + numBootstraps + " bootstrap trees on " + concurrent + " threads");
+        ExecutorService pool = Executors.newFixedThreadPool(concurrent);
+        try {
+            List<Future<?>> trees = new ArrayList<>(numBootstraps);
+            for (int b = 1; b <= numBootstraps; b++) {
+                int rep = b;
+                trees.add(pool.submit(() -> {
+                    HierarchicalCluster hc = clusters.get();
+                    add((Clade) hc.hclusteringTree(labels, replicate.apply(rep), null)[1]);
+                    return null;
+                }));
+            }
+            for (Future<?> tree : trees) {
+                try {
+                    tree.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Threads, up to {@code threads}, whose replicates fit in half of the
+     * free heap: per tree, the N x N double distances and the packed long
+     * triangle of dot products they are reduced from, about 12 N^2 bytes.
+     */
+    static int concurrentTrees(int numSamples, int threads) {
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        long perTree = 12L * numSamples * numSamples;
+        return (int) Math.max(1, Math.min(threads, free / 2 / Math.max(1, perTree)));
+    }
+
+    /** Set the support, in percent of {@code numBootstraps}, of every non-trivial clade of the original tree. */
+    public void annotate(int numBootstraps) {
+        for (int c = 0; c < clades.size(); c++) {
+            int support = (int) Math.round(100.0 * counts.get(cladeSlots.get(c)) / numBootstraps);
+            clades.get(c).setBootstrapSupport(support);
+        }
+    }
+
+    private interface CladeVisitor {
+        void visit(Clade node, long key);
+    }
+
+    /**
+     * Visit every clade of {@code root} with more than one leaf and fewer
+     * than {@link #totalLeaves}, children before parents, without
+     * recursing, as deep trees are common.
+     */
+    private void forEachClade(Clade root, CladeVisitor visitor) {
+        List<Clade> nodes = new ArrayList<>();
+        TIntArrayList parents = new TIntArrayList();
+        nodes.add(root);
+        parents.add(-1);
+        for (int n = 0; n < nodes.size(); n++) {
+            Clade node = nodes.get(n);
+            for (int i = 0; i < node.getChildCount(); i++) {
+                nodes.add((Clade) node.getChildAt(i));
+                parents.add(n);
+            }
+        }
+        long[] keys = new long[nodes.size()];
+        int[] leaves = new int[nodes.size()];
+        for (int n = nodes.size() - 1; n >= 0; n--) {
+            Clade node = nodes.get(n);
+            if (node.isLeaf()) {
+                Long hash = leafHashes.get(node.toString());
+                if (hash == null) {
+                    throw new IllegalArgumentException("Leaf " + node + " is not in the original tree");
+                }
+                keys[n] = hash;
+                leaves[n] = 1;
+            } else if (leaves[n] > 1 && leaves[n] < totalLeaves) {
+                visitor.visit(node, keys[n]);
+            }
+            int parent = parents.get(n);
+            if (parent >= 0) {
+                keys[parent] ^= keys[n];
+                leaves[parent] += leaves[n];
+            }
+        }
+    }
+
+    /** The nodes of {@code root}, breadth first. */
+    private static List<Clade> breadthFirst(Clade root) {
+        List<Clade> nodes = new ArrayList<>();
+        nodes.add(root);
+        for (int n = 0; n < nodes.size(); n++) {
+            Clade node = nodes.get(n);
+            for (int i = 0; i < node.getChildCount(); i++) {
+                nodes.add((Clade) node.getChildAt(i));
+            }
+        }
+        return nodes;
+    }
+}
@@ -23,7 +23,6 @@ package com.gkano.bioinfo.tree;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -99,24 +98,11 @@ public class Clade extends DefaultMutableTreeNode {
 	}
 
 	public static void annotateTreeWithBootstrap(Clade originalTree, List<Clade> bootstrapTrees, int totalLeaves, int numBootstraps) {
-	    Set<Set<String>> originalClades = Clade.extractCladesFromTree(originalTree, totalLeaves);
-
-	    // Count clade frequencies in bootstraps
-	    Map<Set<String>, Integer> cladeCounts = new HashMap<>();
-	    for (Set<String> clade : originalClades) {
-	        cladeCounts.put(clade, 0);
-	    }
+	    BootstrapSupport support = new BootstrapSupport(originalTree, totalLeaves);
 	    for (Clade bootTree : bootstrapTrees) {
-	        Set<Set<String>> bootClades = Clade.extractCladesFromTree(bootTree, totalLeaves);
-	        for (Set<String> clade : originalClades) {
-	            if (bootClades.contains(clade)) {
-	                cladeCounts.put(clade, cladeCounts.get(clade) + 1);
-	            }
-	        }
+	        support.add(bootTree);
 	    }
-
-	    // Annotate the original tree
-	    annotateCladeWithBootstrap(originalTree, cladeCounts, totalLeaves, numBootstraps);
+	    support.annotate(numBootstraps);
 	}
 
 	public static Set<String> annotateCladeWithBootstrap(Clade node, Map<Set<String>, Integer> cladeCounts, int totalLeaves, int numBootstraps) {
@@ -130,12 +116,9 @@ public class Clade extends DefaultMutableTreeNode {
 	        }
 	        // Only annotate non-trivial clades (not root, not singletons)
 	        if (leaves.size() > 1 && leaves.size() < totalLeaves) {
-	            for (Set<String> clade : cladeCounts.keySet()) {
-	                if (clade.equals(leaves)) {
-	                    int support = (int) Math.round(100.0 * cladeCounts.get(clade) / numBootstraps);
-	                    node.setBootstrapSupport(support);
-	                    break;
-	                }
+	            Integer count = cladeCounts.get(leaves);
+	            if (count != null) {
+	                node.setBootstrapSupport((int) Math.round(100.0 * count / numBootstraps));
 	            }
 	        }
 	    }
@@ -0,0 +1,103 @@
+/*
+ *
+ * BioInfoJava-Utils 
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.tree;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * The rows of a distance matrix file as written by VCF2DIST (the number
+ * of samples on the first line, then one line per sample with its name
+ * and distances), read from the file on every pass instead of loaded.
+ * Unparsable distances count as 1.0, as in
+ * {@code GeneralTools.readDistancesSamples}.
+ */
+public final class DistanceFileRows implements DistanceRows {
+
+    private final String fileName;
+    private final String[] sampleNames;
+
+    /** Read the sample names from {@code fileName}. */
+    public DistanceFileRows(String fileName) throws IOException {
+        this.fileName = fileName;
+        try (BufferedReader br = open()) {
+            String line = br.readLine();
+            if (line == null) {
+                throw new IOException("Empty distance file " + fileName);
+            }
+            sampleNames = new String[Integer.parseInt(line.trim().split("[\\s,\\t]+")[0])];
+            for (int i = 0; i < sampleNames.length; i++) {
+                line = br.readLine();
+                if (line == null) {
+                    throw new IOException("Distance file " + fileName + " has " + i + " of "
+                            + sampleNames.length + " rows");
+                }
+                int end = 0;
+                while (end < line.length() && " ,\t".indexOf(line.charAt(end)) < 0) end++;
+                sampleNames[i] = line.substring(0, end).trim();
+            }
+        }
+    }
+
+    public String[] getSampleNames() {
+        return sampleNames;
+    }
+
+    @Override
+    public int size() {
+        return sampleNames.length;
+    }
+
+    @Override
+    public void forEachRow(RowConsumer out) throws IOException {
+        int n = sampleNames.length;
+        double[] row = new double[n];
+        try (BufferedReader br = open()) {
+            br.readLine();
+            for (int i = 0; i < n; i++) {
+                String line = br.readLine();
+                if (line == null) {
+                    throw new IOException("Distance file " + fileName + " ends before row " + i + " of " + n);
+                }
+                String[] data = line.split("[\\s,\\t]+");
+                if (data.length < n + 1) {
+                    throw new IOException("Row " + i + " of distance file " + fileName + " has "
+                            + (data.length - 1) + " of " + n + " distances");
+                }
+                for (int j = 0; j < n; j++) {
+                    try {
+                        row[j] = Double.parseDouble(data[j + 1]);
+                    } catch (NumberFormatException e) {
+                        row[j] = 1.0;
+                    }
+                }
+                out.accept(i, row);
+            }
+        }
+    }
+
+    private BufferedReader open() throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(fileName)), 1 << 20);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *
+ * BioInfoJava-Utils 
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.tree;
+
+import java.io.IOException;
+
+/**
+ * A distance matrix read one row at a time, in order, for clustering
+ * matrices that do not fit in memory. It can be read several times.
+ */
+public interface DistanceRows {
+
+    /** Receives the rows of the matrix. */
+    interface RowConsumer {
+        void accept(int i, double[] row) throws IOException;
+    }
+
+    /** Number of rows, and of columns. */
+    int size();
+
+    /** Pass every row, in order, to {@code out}; the array may be reused between rows. */
+    void forEachRow(RowConsumer out) throws IOException;
+}
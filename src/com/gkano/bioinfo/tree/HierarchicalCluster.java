@@ -21,6 +21,7 @@
  */
 package com.gkano.bioinfo.tree;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -46,8 +47,23 @@ public class HierarchicalCluster {
     public final static String SINGLE = "Single";
     public final static String[] LINKAGE_METHODS = {AVERAGE, COMPLETE, SINGLE};
 
+    /** Rescan all remaining pairs for the closest one at every merge, O(N^3). */
+    public final static String PAIRWISE = "Pairwise";
+    /** Nearest-neighbour chain, O(N^2); same tree as {@link #PAIRWISE}. */
+    public final static String NN_CHAIN = "NNChain";
+    /** Single linkage only: join along a minimum spanning tree built by Prim's algorithm, O(N^2). */
+    public final static String MST = "MST";
+    public final static String[] ALGORITHMS = {PAIRWISE, NN_CHAIN, MST};
+    /**
+     * Samples from which {@link #cluster()} uses {@link #NN_CHAIN}, or
+     * {@link #MST} for single linkage, unless an algorithm is set.
+     */
+    public final static int NN_CHAIN_MIN_SAMPLES = 1000;
+
     private double[][] distanceMatrix; // modified during clustering
     private int linkageMethod;
+    private String algorithm; // null: by the number of samples
+    private int threads = 1;
     private String[] leafLabels;
 
     private int[] leafCount; // # leaves under each node
@@ -103,8 +119,33 @@ public class HierarchicalCluster {
         init();
 
         int rootIndex = -1; // catch bugs
-        for (int i = 0; i < distanceMatrix.length - 1; i++) {
-            rootIndex = iterate();
+        if (MST.equals(getAlgorithm())) {
+            if (!SINGLE.equals(getLinkageMethod())) {
+                throw new IllegalStateException("The " + MST + " algorithm is for single linkage only");
+            }
+            MinimumSpanningTree mst;
+            try {
+                mst = MinimumSpanningTree.prim(distanceMatrix, threads);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            rootIndex = joinAlong(mst, mst.order());
+        } else if (NN_CHAIN.equals(getAlgorithm())) {
+            if (!COMPLETE.equals(getLinkageMethod()) && hasTiedDistances()) {
+                Logger.info(this, "Tied distances, clustering by pairwise search");
+            } else {
+                rootIndex = nearestNeighbourChain();
+            }
+            if (rootIndex == -1) {
+                restore(distanceMatrix);
+                init();
+            }
+        }
+        if (rootIndex == -1) {
+            for (int i = 0; i < distanceMatrix.length - 1; i++) {
+                rootIndex = iterate();
+            }
         }
 
         Clade root = nodes[rootIndex];
@@ -112,6 +153,25 @@ public class HierarchicalCluster {
         return root;
     }
 
+    /**
+     * Single linkage clustering of distances read one row at a time, for
+     * matrices that do not fit in memory: the joins follow a minimum
+     * spanning tree found in a few passes over {@code rows}, and need the
+     * leaf labels only. The tree is that of the {@link #MST} algorithm of
+     * {@link #cluster()}: both make joins at exactly the same distance in
+     * the order of their sample indices.
+     *
+     * @param rows distances between the samples of the leaf labels
+     */
+    public Clade clusterSingleLinkage(DistanceRows rows) throws IOException {
+        if (leafLabels == null || leafLabels.length != rows.size()) {
+            throw new IllegalArgumentException("Need one leaf label per row of the distances");
+        }
+        init(rows.size());
+        MinimumSpanningTree mst = MinimumSpanningTree.boruvka(rows);
+        return nodes[joinAlong(mst, mst.order())];
+    }
+
     /**
      * perform optional conversion of a similarity matrix to a distance form (it
      * overwrites the matrix - hope that's OK!) Must do before iterations, after
@@ -131,10 +191,14 @@ public class HierarchicalCluster {
      * Perform necessary initialization.
      */
     private void init() {
-        leafCount = new int[distanceMatrix.length];
-        joinDistance = new double[distanceMatrix.length];
-        nodes = new Clade[distanceMatrix.length];
-        for (int i = 0; i < distanceMatrix.length; i++) {
+        init(distanceMatrix.length);
+    }
+
+    private void init(int n) {
+        leafCount = new int[n];
+        joinDistance = new double[n];
+        nodes = new Clade[n];
+        for (int i = 0; i < n; i++) {
             joinDistance[i] = 0.0; // not needed but it is clearer this way
             leafCount[i] = 1;
             nodes[i] = new Clade(leafLabels[i], 0);
@@ -189,7 +253,7 @@ public class HierarchicalCluster {
      * @return index of the newest node.
      */
     private int iterate() {
-        double currentCloseness, newDistance;
+        double currentCloseness;
         int one, two;
         one = two = -1; // catch bugs
 
@@ -203,6 +267,17 @@ public class HierarchicalCluster {
                 }
             }
         }
+        return merge(one, two, currentCloseness);
+    }
+
+    /**
+     * Join nodes {@code one} &gt; {@code two} at distance
+     * {@code currentCloseness}.
+     *
+     * @return index of the newest node.
+     */
+    private int merge(int one, int two, double currentCloseness) {
+        double newDistance;
         // now do the merge and some bookkeeping.
         // above assures j<i ==> one > two
         // We write into d[big][little] only and retain the larger member
@@ -229,6 +304,11 @@ public class HierarchicalCluster {
 
                     }}
 
+        return join(one, two, currentCloseness);
+    }
+
+    /** Make node {@code two} the parent of nodes {@code two} and {@code one}. */
+    private int join(int one, int two, double currentCloseness) {
         nodes[one].setBranchLength(currentCloseness - joinDistance[one]);
         nodes[two].setBranchLength(currentCloseness - joinDistance[two]);
 
@@ -243,6 +323,144 @@ public class HierarchicalCluster {
         return two;
     }
 
+    /**
+     * Nearest-neighbour chain: follow nearest neighbours from a node until
+     * two nodes are each other's nearest, and join them. For the
+     * reducible linkages (average, complete, single) those two are joined
+     * by {@link #iterate()} as well at some point, at the same distance,
+     * so the tree is the same while every nearest neighbour is unique;
+     * each search is over the remaining nodes, O(N^2) in all. Joins go
+     * through {@link #merge} and keep its node indices.
+     * <p>
+     * Of nearest neighbours at the same distance the lowest index is
+     * taken, the pair {@link #iterate()} finds first. For complete linkage
+     * that gives its tree: a joined cluster is as far as the farther of
+     * its two halves, so it never overtakes a nearest neighbour on ties.
+     * For average and single linkage it may, and the joins, the topology
+     * and the heights can differ from {@link #iterate()}; the chain then
+     * gives up on the first tie, and {@link #cluster()} does not start it
+     * on input with tied distances.
+     *
+     * @return index of the root, or -1 if a node had two nearest
+     * neighbours at the same distance under average or single linkage,
+     * leaving the matrix half clustered
+     */
+    private int nearestNeighbourChain() {
+        int n = distanceMatrix.length;
+        int[] active = new int[n]; // remaining nodes, in index order
+        for (int i = 0; i < n; i++) {
+            active[i] = i;
+        }
+        int numActive = n;
+        int[] chain = new int[n];
+        int chainLength = 0;
+        int root = 0;
+        boolean breakTies = COMPLETE.equals(getLinkageMethod());
+        while (numActive > 1) {
+            if (chainLength == 0) {
+                chain[chainLength++] = active[0];
+            }
+            int a = chain[chainLength - 1];
+            int b = -1;
+            double closest = Double.MAX_VALUE;
+            boolean tied = false;
+            for (int k = 0; k < numActive; k++) {
+                int c = active[k];
+                if (c == a) {
+                    continue;
+                }
+                double d = distanceMatrix[Math.max(a, c)][Math.min(a, c)];
+                if (d < closest) {
+                    closest = d;
+                    b = c;
+                    tied = false;
+                } else if (d == closest) {
+                    tied = true;
+                }
+            }
+            if (b == -1) {
+                throw new IllegalStateException("No finite distance from node " + a);
+            }
+            if (tied && !breakTies) {
+                return -1;
+            }
+            if (chainLength > 1 && chain[chainLength - 2] == b) {
+                chainLength -= 2;
+                root = merge(Math.max(a, b), Math.min(a, b), closest);
+                int gone = root == a ? b : a;
+                int k = Arrays.binarySearch(active, 0, numActive, gone);
+                System.arraycopy(active, k + 1, active, k, numActive - k - 1);
+                numActive--;
+            } else {
+                chain[chainLength++] = b;
+            }
+        }
+        return root;
+    }
+
+    /** Whether two pairs of samples are at exactly the same distance; sorts a copy of the triangle. */
+    private boolean hasTiedDistances() {
+        int n = distanceMatrix.length;
+        double[] values = new double[(int) ((long) n * (n - 1) / 2)];
+        int k = 0;
+        for (int i = 1; i < n; i++) {
+            System.arraycopy(distanceMatrix[i], 0, values, k, i);
+            k += i;
+        }
+        Arrays.sort(values);
+        for (k = 1; k < values.length; k++) {
+            if (values[k] == values[k - 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Join the clusters along the edges of a single linkage spanning tree,
+     * in {@code order}: each edge joins the clusters of its ends, which
+     * {@link #iterate()} would find at the edge's distance, under the
+     * indices and with the children it would give them. Edges at the same
+     * distance are joined in the order of their nodes, which may pair up
+     * the clusters otherwise than {@link #iterate()}; only the clusters
+     * below any cut height are the same.
+     *
+     * @return index of the root
+     */
+    private int joinAlong(MinimumSpanningTree mst, int[] order) {
+        int n = nodes.length;
+        int[] clusters = new int[n]; // union-find parents
+        int[] index = new int[n];    // node index of each cluster root
+        for (int i = 0; i < n; i++) {
+            clusters[i] = i;
+            index[i] = i;
+        }
+        int root = 0;
+        for (int e : order) {
+            int a = find(clusters, mst.from[e]);
+            int b = find(clusters, mst.to[e]);
+            int one = Math.max(index[a], index[b]);
+            int two = Math.min(index[a], index[b]);
+            if (leafCount[one] > leafCount[two]) {
+                int i = two;
+                two = one;
+                one = i;
+            }
+            root = join(one, two, mst.weight[e]);
+            clusters[b] = a;
+            index[a] = root;
+        }
+        return root;
+    }
+
+    private static int find(int[] clusters, int i) {
+        while (clusters[i] != i) {
+            clusters[i] = clusters[clusters[i]];
+            i = clusters[i];
+        }
+        return i;
+    }
+
     private void mergeMembers(int[] numMember, int joinedNodeIndex, int oldNodeIndex) {
         numMember[joinedNodeIndex] += numMember[oldNodeIndex];
     }
@@ -329,6 +547,33 @@ public class HierarchicalCluster {
         return LINKAGE_METHODS[linkageMethod];
     }
 
+    /** The algorithm {@link #cluster()} uses on the current matrix. */
+    public String getAlgorithm() {
+        if (algorithm != null) {
+            return algorithm;
+        }
+        if (distanceMatrix == null || distanceMatrix.length < NN_CHAIN_MIN_SAMPLES) {
+            return PAIRWISE;
+        }
+        return SINGLE.equals(getLinkageMethod()) ? MST : NN_CHAIN;
+    }
+
+    /**
+     * Either PAIRWISE, NN_CHAIN or MST, or null to pick NN_CHAIN (MST for
+     * single linkage) from {@link #NN_CHAIN_MIN_SAMPLES} samples on.
+     */
+    public void setAlgorithm(String algorithm) {
+        if (algorithm != null && !Arrays.asList(ALGORITHMS).contains(algorithm)) {
+            throw new IllegalArgumentException("Invalid clustering algorithm: " + algorithm);
+        }
+        this.algorithm = algorithm;
+    }
+
+    /** Threads relaxing the distances of the {@link #MST} algorithm. */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
     public final void setLinkageMethod(String linkageMethod) {
         this.linkageMethod = -1;
         for (int i = 0; i < LINKAGE_METHODS.length; i++) {
@@ -462,10 +707,9 @@ public class HierarchicalCluster {
         try {
             ops = ops == null ? System.err : ops;
             Logger.info(this, " Distances=" + distances.length + "x" + distances[0].length, ops);
-            String method = HierarchicalCluster.COMPLETE;
+            String method = getLinkageMethod();
             this.setDistanceMatrix(distances);
             this.setLeafLabels(sampleNames);
-            this.setLinkageMethod(method);
             Logger.info(this, "hierarchical method=" + method, ops);
             Clade root = this.cluster();
             String treeString = Clade.cladeToString(root).replace("\n", "");
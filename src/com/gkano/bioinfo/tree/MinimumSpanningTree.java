@@ -0,0 +1,286 @@
+/*
+ *
+ * BioInfoJava-Utils 
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.tree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Minimum spanning tree of a distance matrix, whose edges in increasing
+ * order are the joins of single linkage clustering. {@link #prim} builds
+ * it from a matrix in memory in O(N^2); {@link #boruvka} from a
+ * {@link DistanceRows} source in O(log N) passes over the rows, holding
+ * O(N) values.
+ * <p>
+ * Both order the edges by distance, then by their nodes, see
+ * {@link #closer}, so the tree is the same one, even with tied distances.
+ */
+final class MinimumSpanningTree {
+
+    /**
+     * Columns of a row that a thread relaxes at least; below that, meeting
+     * the other threads at every step costs more than it saves.
+     */
+    static final int MIN_CHUNK = 2 << 10;
+
+    final int[] from;
+    final int[] to;
+    final double[] weight;
+    private int size = 0;
+
+    private MinimumSpanningTree(int n) {
+        int edges = Math.max(0, n - 1);
+        from = new int[edges];
+        to = new int[edges];
+        weight = new double[edges];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void add(int u, int v, double w) {
+        from[size] = u;
+        to[size] = v;
+        weight[size] = w;
+        size++;
+    }
+
+    /**
+     * Prim's algorithm: grow the tree from node 0, each time adding the
+     * node closest to it, after relaxing the distances of the others to
+     * the node added last. The relaxation is split over {@code threads}
+     * threads when rows are long enough: each keeps its chunk of columns
+     * for the whole tree and they meet at a barrier after every step,
+     * where the closest node of all chunks is added. Of edges at the same
+     * distance the one {@link #closer} puts first is kept.
+     */
+    static MinimumSpanningTree prim(double[][] d, int threads) throws InterruptedException {
+        return prim(d, threads, MIN_CHUNK);
+    }
+
+    static MinimumSpanningTree prim(double[][] d, int threads, int minChunk) throws InterruptedException {
+        int n = d.length;
+        MinimumSpanningTree mst = new MinimumSpanningTree(n);
+        if (n < 2) {
+            return mst;
+        }
+        double[] key = new double[n];
+        int[] parent = new int[n];
+        boolean[] inTree = new boolean[n];
+        Arrays.fill(key, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        int chunks = Math.max(1, Math.min(threads, n / minChunk));
+        int[] closest = new int[chunks]; // closest node of each chunk at this step
+        int[] added = {0};
+        inTree[0] = true;
+        CyclicBarrier step = new CyclicBarrier(chunks, () -> {
+            int best = -1;
+            for (int v : closest) {
+                if (v >= 0 && (best < 0 || before(v, best, key, parent))) {
+                    best = v;
+                }
+            }
+            mst.add(parent[best], best, key[best]);
+            inTree[best] = true;
+            added[0] = best;
+        });
+        IntFunction<Callable<Void>> relaxChunk = c -> () -> {
+            int lo = (int) ((long) n * c / chunks);
+            int hi = (int) ((long) n * (c + 1) / chunks);
+            for (int s = 1; s < n; s++) {
+                int u = added[0];
+                try {
+                    closest[c] = relax(d[u], u, key, parent, inTree, lo, hi);
+                } catch (RuntimeException e) {
+                    step.reset(); // release the other chunks
+                    throw e;
+                }
+                step.await();
+            }
+            return null;
+        };
+        ExecutorService pool = chunks > 1 ? Executors.newFixedThreadPool(chunks - 1) : null;
+        List<Future<Void>> workers = new ArrayList<>();
+        try {
+            for (int c = 1; c < chunks; c++) {
+                workers.add(pool.submit(relaxChunk.apply(c)));
+            }
+            // the calling thread relaxes the first chunk
+            relaxChunk.apply(0).call();
+            for (Future<Void> f : workers) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (BrokenBarrierException e) {
+            // another chunk failed; report why
+            for (Future<Void> f : workers) {
+                try {
+                    f.get();
+                } catch (ExecutionException failed) {
+                    if (!(failed.getCause() instanceof BrokenBarrierException)) {
+                        throw new IllegalStateException(failed.getCause());
+                    }
+                }
+            }
+            throw new IllegalStateException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return mst;
+    }
+
+    /**
+     * Relax columns [lo, hi) of the nodes outside the tree with the row of
+     * node {@code u}; returns the closest of them to the tree, or -1.
+     */
+    private static int relax(double[] row, int u, double[] key, int[] parent, boolean[] inTree, int lo, int hi) {
+        int best = -1;
+        for (int v = lo; v < hi; v++) {
+            if (inTree[v]) {
+                continue;
+            }
+            double w = row[v];
+            if (w < key[v] || w == key[v] && closer(w, u, v, key[v], parent[v], v)) {
+                key[v] = w;
+                parent[v] = u;
+            }
+            if (best < 0 || before(v, best, key, parent)) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Whether the edge joining node v to the tree comes before that of node best. */
+    private static boolean before(int v, int best, double[] key, int[] parent) {
+        return key[v] < key[best] || key[v] == key[best] && closer(key[v], parent[v], v, key[best], parent[best], best);
+    }
+
+    /**
+     * Borůvka's algorithm: every pass over the rows finds, for each
+     * component, its closest edge to another component, and joins along
+     * them, at least halving the components. Edges are ordered by
+     * distance, then by their nodes, so no pass closes a cycle on ties.
+     */
+    static MinimumSpanningTree boruvka(DistanceRows rows) throws IOException {
+        int n = rows.size();
+        MinimumSpanningTree mst = new MinimumSpanningTree(n);
+        int[] components = new int[n]; // union-find parents
+        for (int i = 0; i < n; i++) {
+            components[i] = i;
+        }
+        int[] component = new int[n];
+        double[] bestWeight = new double[n];
+        int[] bestFrom = new int[n];
+        int[] bestTo = new int[n];
+        int remaining = n;
+        while (remaining > 1) {
+            for (int i = 0; i < n; i++) {
+                component[i] = find(components, i);
+            }
+            Arrays.fill(bestWeight, Double.POSITIVE_INFINITY);
+            Arrays.fill(bestFrom, -1);
+            rows.forEachRow((i, row) -> {
+                int c = component[i];
+                for (int j = 0; j < n; j++) {
+                    if (component[j] != c && closer(row[j], i, j, bestWeight[c], bestFrom[c], bestTo[c])) {
+                        bestWeight[c] = row[j];
+                        bestFrom[c] = i;
+                        bestTo[c] = j;
+                    }
+                }
+            });
+            int joined = 0;
+            for (int c = 0; c < n; c++) {
+                if (bestFrom[c] < 0) {
+                    continue;
+                }
+                int a = find(components, bestFrom[c]);
+                int b = find(components, bestTo[c]);
+                if (a != b) {
+                    components[Math.max(a, b)] = Math.min(a, b);
+                    mst.add(bestFrom[c], bestTo[c], bestWeight[c]);
+                    joined++;
+                }
+            }
+            if (joined == 0) {
+                throw new IllegalArgumentException("Distance rows leave " + remaining + " groups of samples apart");
+            }
+            remaining -= joined;
+        }
+        return mst;
+    }
+
+    /** Whether edge (i, j) of weight w comes before edge (u, v) of weight best. */
+    private static boolean closer(double w, int i, int j, double best, int u, int v) {
+        if (u < 0) {
+            return !Double.isNaN(w);
+        }
+        if (w != best) {
+            return w < best;
+        }
+        int lo = Math.min(i, j);
+        int bestLo = Math.min(u, v);
+        return lo != bestLo ? lo < bestLo : Math.max(i, j) < Math.max(u, v);
+    }
+
+    private static int find(int[] components, int i) {
+        while (components[i] != i) {
+            components[i] = components[components[i]];
+            i = components[i];
+        }
+        return i;
+    }
+
+    /** Indices of the edges by increasing distance, then by their nodes. */
+    int[] order() {
+        Integer[] edges = new Integer[size];
+        for (int e = 0; e < size; e++) {
+            edges[e] = e;
+        }
+        Arrays.sort(edges, (a, b) -> closer(weight[a], from[a], to[a], weight[b], from[b], to[b]) ? -1
+                : closer(weight[b], from[b], to[b], weight[a], from[a], to[a]) ? 1 : 0);
+        int[] order = new int[size];
+        for (int e = 0; e < size; e++) {
+            order[e] = edges[e];
+        }
+        return order;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Text header of a BCF2 file and the two dictionaries built from it: the
+ * string dictionary (IDs of ##FILTER, ##INFO and ##FORMAT lines, with PASS
+ * always at 0) that FORMAT keys refer to, and the ##contig dictionary that
+ * CHROM refers to. Explicit IDX= attributes override the implicit order.
+ */
+public final class BCFHeader {
+
+    private final List<String> lines;
+    private final List<String> sampleNames;
+    private final List<String> strings;
+    private final List<String> contigs;
+    private final int gtKey;
+
+    BCFHeader(String text) {
+        List<String> headerLines = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            line = stripTrailing(line);
+            if (!line.isEmpty()) {
+                headerLines.add(line);
+            }
+        }
+        this.lines = Collections.unmodifiableList(headerLines);
+
+        List<String> dictionary = new ArrayList<>(Collections.singletonList("PASS"));
+        Set<String> seen = new HashSet<>(dictionary);
+        List<String> contigDictionary = new ArrayList<>();
+        List<String> samples = null;
+        for (String line : headerLines) {
+            if (line.startsWith("##FILTER=<") || line.startsWith("##INFO=<") || line.startsWith("##FORMAT=<")) {
+                String id = attribute(line, "ID");
+                if (id != null && seen.add(id)) {
+                    put(dictionary, attribute(line, "IDX"), id);
+                }
+            } else if (line.startsWith("##contig=<")) {
+                String id = attribute(line, "ID");
+                if (id != null) {
+                    put(contigDictionary, attribute(line, "IDX"), id);
+                }
+            } else if (line.startsWith("#CHROM")) {
+                String[] fields = line.split("\t", -1);
+                samples = fields.length <= 9
+                        ? Collections.emptyList()
+                        : Arrays.asList(Arrays.copyOfRange(fields, 9, fields.length));
+            }
+        }
+        if (samples == null) {
+            throw new IllegalArgumentException("BCF header has no #CHROM line");
+        }
+        this.sampleNames = Collections.unmodifiableList(samples);
+        this.strings = Collections.unmodifiableList(dictionary);
+        this.contigs = Collections.unmodifiableList(contigDictionary);
+        this.gtKey = dictionary.indexOf("GT");
+    }
+
+    private static String stripTrailing(String line) {
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\0' || line.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    private static void put(List<String> dictionary, String idx, String id) {
+        int index = dictionary.size();
+        if (idx != null) {
+            try {
+                index = Integer.parseInt(idx);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid IDX=" + idx + " for " + id + " in BCF header");
+            }
+        }
+        while (dictionary.size() <= index) {
+            dictionary.add(null);
+        }
+        dictionary.set(index, id);
+    }
+
+    /**
+     * Value of {@code key} in a structured "##X=&lt;key=value,...&gt;" header
+     * line, honouring quoted values; null if absent.
+     */
+    static String attribute(String line, String key) {
+        int p = line.indexOf('<') + 1;
+        int end = line.lastIndexOf('>');
+        if (p <= 0 || end < p) {
+            return null;
+        }
+        while (p < end) {
+            int eq = line.indexOf('=', p);
+            if (eq < 0 || eq >= end) {
+                return null;
+            }
+            String name = line.substring(p, eq).trim();
+            int q = eq + 1;
+            String value;
+            if (q < end && line.charAt(q) == '"') {
+                int close = q + 1;
+                while (close < end && line.charAt(close) != '"') {
+                    if (line.charAt(close) == '\\') close++;
+                    close++;
+                }
+                value = line.substring(q + 1, Math.min(close, end));
+                q = Math.min(close + 1, end);
+            } else {
+                int comma = line.indexOf(',', q);
+                if (comma < 0 || comma > end) comma = end;
+                value = line.substring(q, comma);
+                q = comma;
+            }
+            if (name.equals(key)) {
+                return value;
+            }
+            p = q + 1;
+        }
+        return null;
+    }
+
+    /** Header lines, "##" meta lines followed by the #CHROM line. */
+    public List<String> getLines() {
+        return lines;
+    }
+
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    public List<String> getContigs() {
+        return contigs;
+    }
+
+    /** Contig name for a CHROM index, or null if the header does not define it. */
+    public String contig(int index) {
+        return index >= 0 && index < contigs.size() ? contigs.get(index) : null;
+    }
+
+    public List<String> getStrings() {
+        return strings;
+    }
+
+    /** Dictionary index of the GT FORMAT key, or -1 if the header declares none. */
+    public int getGTKey() {
+        return gtKey;
+    }
+}
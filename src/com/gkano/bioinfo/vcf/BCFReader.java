@@ -0,0 +1,133 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reader for BCF2 streams (BGZF-compressed or not; decompression is left
+ * to {@link VCFInputOpener}). The text header is parsed up front; records
+ * are then framed by their two length prefixes and returned in batches of
+ * raw bytes, to be decoded on the worker threads by {@link BCFRecordBatch}.
+ */
+public final class BCFReader implements Closeable {
+
+    static final byte[] MAGIC = {'B', 'C', 'F', 2};
+    /** A batch is closed once its records take this many bytes. */
+    static final int MAX_BATCH_BYTES = 1 << 22;
+
+    private final InputStream in;
+    private final BCFHeader header;
+    private final byte[] lengths = new byte[8];
+
+    public BCFReader(InputStream decompressed) throws IOException {
+        this.in = new BufferedInputStream(decompressed, 1 << 16);
+        byte[] magic = new byte[MAGIC.length + 1];
+        if (BGZFInputStream.readFully(in, magic, 0, magic.length) < magic.length || !isBCF(magic, magic.length)) {
+            throw new IOException("Not a BCF2 stream");
+        }
+        byte[] length = new byte[4];
+        if (BGZFInputStream.readFully(in, length, 0, 4) < 4) {
+            throw new EOFException("Truncated BCF header");
+        }
+        int textLength = BGZFInputStream.readInt(length, 0);
+        if (textLength < 0) {
+            throw new IOException("Invalid BCF header length");
+        }
+        byte[] text = new byte[textLength];
+        if (BGZFInputStream.readFully(in, text, 0, textLength) < textLength) {
+            throw new EOFException("Truncated BCF header");
+        }
+        try {
+            this.header = new BCFHeader(new String(text, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /** Whether decompressed bytes start with the BCF2 magic "BCF\2". */
+    public static boolean isBCF(byte[] head, int length) {
+        return length >= MAGIC.length && Arrays.equals(Arrays.copyOf(head, MAGIC.length), MAGIC);
+    }
+
+    /** Whether a file (possibly bgzipped) is BCF2. */
+    public static boolean isBCF(String path) throws IOException {
+        try (InputStream in = new VCFInputOpener(1).open(path)) {
+            byte[] head = new byte[MAGIC.length];
+            return isBCF(head, BGZFInputStream.readFully(in, head, 0, head.length));
+        }
+    }
+
+    public BCFHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Frame up to {@code maxRecords} records.
+     *
+     * @return the records, or null at end of stream
+     */
+    public BCFRecordBatch next(int maxRecords) throws IOException {
+        BCFRecordBatch batch = null;
+        byte[] data = null;
+        int used = 0;
+        while ((batch == null || batch.size() < maxRecords) && used < MAX_BATCH_BYTES) {
+            int n = BGZFInputStream.readFully(in, lengths, 0, lengths.length);
+            if (n == 0) {
+                break;
+            }
+            if (n < lengths.length) {
+                throw new EOFException("Truncated BCF record");
+            }
+            int sharedLength = BGZFInputStream.readInt(lengths, 0);
+            int indivLength = BGZFInputStream.readInt(lengths, 4);
+            if (sharedLength < 24 || indivLength < 0 || (long) sharedLength + indivLength > Integer.MAX_VALUE / 2) {
+                throw new IOException("Invalid BCF record lengths");
+            }
+            int recordLength = sharedLength + indivLength;
+            if (data == null) {
+                data = new byte[Math.max(1 << 16, recordLength)];
+                batch = new BCFRecordBatch(header, data, Math.max(1, maxRecords));
+            } else if (data.length - used < recordLength) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, used + recordLength));
+                batch.setData(data);
+            }
+            if (BGZFInputStream.readFully(in, data, used, recordLength) < recordLength) {
+                throw new EOFException("Truncated BCF record");
+            }
+            batch.add(used, sharedLength, indivLength);
+            used += recordLength;
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
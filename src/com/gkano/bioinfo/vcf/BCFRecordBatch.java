@@ -0,0 +1,410 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A batch of raw BCF2 records framed by {@link BCFReader}. Genotypes are
+ * decoded straight from the typed GT vectors into the {@link SNPEncoder}
+ * one-hot layout or into allele dosages; no String is created except for
+ * the ID/REF/ALT columns, and only when asked for.
+ * <p>
+ * Genotype semantics follow the text encoders: a sample with any missing
+ * allele is missing, alleles beyond the ploidy or outside [0, maxAlleles)
+ * are ignored and a short vector (e.g. a haploid call in a diploid
+ * record) just has fewer alleles.
+ */
+public final class BCFRecordBatch implements GenotypeBatch {
+
+    private static final int TYPE_INT8 = 1;
+    private static final int TYPE_INT16 = 2;
+    private static final int TYPE_INT32 = 3;
+    private static final int TYPE_FLOAT = 5;
+    private static final int TYPE_CHAR = 7;
+
+    private final BCFHeader header;
+    private byte[] data;
+    private int[] starts;
+    private int[] sharedLengths;
+    private int[] indivLengths;
+    private int size = 0;
+
+    BCFRecordBatch(BCFHeader header, byte[] data, int capacity) {
+        this.header = header;
+        this.data = data;
+        this.starts = new int[capacity];
+        this.sharedLengths = new int[capacity];
+        this.indivLengths = new int[capacity];
+    }
+
+    void setData(byte[] data) {
+        this.data = data;
+    }
+
+    void add(int start, int sharedLength, int indivLength) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            sharedLengths = Arrays.copyOf(sharedLengths, size * 2);
+            indivLengths = Arrays.copyOf(indivLengths, size * 2);
+        }
+        starts[size] = start;
+        sharedLengths[size] = sharedLength;
+        indivLengths[size] = indivLength;
+        size++;
+    }
+
+    private BCFRecordBatch(BCFHeader header, byte[] data, int[] starts, int[] sharedLengths, int[] indivLengths) {
+        this.header = header;
+        this.data = data;
+        this.starts = starts;
+        this.sharedLengths = sharedLengths;
+        this.indivLengths = indivLengths;
+        this.size = starts.length;
+    }
+
+    /** Records [from, to) of this batch as a new batch sharing the same bytes. */
+    @Override
+    public BCFRecordBatch slice(int from, int to) {
+        return new BCFRecordBatch(header, data,
+                Arrays.copyOfRange(starts, from, to),
+                Arrays.copyOfRange(sharedLengths, from, to),
+                Arrays.copyOfRange(indivLengths, from, to));
+    }
+
+    public BCFHeader header() {
+        return header;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** CHROM as an index into the header's contig dictionary. */
+    public int contigIndex(int i) {
+        return readInt32(starts[i]);
+    }
+
+    @Override
+    public String contig(int i) {
+        return header.contig(contigIndex(i));
+    }
+
+    /** 1-based POS. */
+    @Override
+    public int position(int i) {
+        return readInt32(starts[i] + 4) + 1;
+    }
+
+    public int numSamples(int i) {
+        return readInt32(starts[i] + 20) & 0xFFFFFF;
+    }
+
+    /** Values per sample of the GT vector of record {@code i}. */
+    @Override
+    public int ploidy(int i) {
+        return locateGT(i)[2];
+    }
+
+    /** n_allele of record {@code i}: REF plus the ALT alleles. */
+    @Override
+    public int alleles(int i) {
+        return Math.max(1, numAlleles(i));
+    }
+
+    private int numAlleles(int i) {
+        return readInt32(starts[i] + 16) >>> 16;
+    }
+
+    private int numFormats(int i) {
+        return readInt32(starts[i] + 20) >>> 24;
+    }
+
+    public String id(int i) {
+        return string(starts[i] + 24);
+    }
+
+    public String ref(int i) {
+        int p = skipTyped(starts[i] + 24);
+        return numAlleles(i) > 0 ? string(p) : ".";
+    }
+
+    /** ALT alleles joined by ',' as in VCF text, "." if there are none. */
+    public String alt(int i) {
+        int n = numAlleles(i);
+        if (n <= 1) {
+            return ".";
+        }
+        int p = skipTyped(skipTyped(starts[i] + 24));
+        StringBuilder alt = new StringBuilder();
+        for (int a = 1; a < n; a++) {
+            if (a > 1) alt.append(',');
+            alt.append(string(p));
+            p = skipTyped(p);
+        }
+        return alt.toString();
+    }
+
+    @Override
+    public String variantKey(int i, VariantKeyExtractor keys) {
+        return keys.extractKey(contig(i), position(i), id(i), ref(i), alt(i));
+    }
+
+    /**
+     * The GT vector of record {@code i}: {@code gt[0]} is the offset of the
+     * first sample's values, {@code gt[1]} their type and {@code gt[2]} the
+     * number of values per sample.
+     *
+     * @throws IllegalArgumentException if the record has no GT
+     */
+    private int[] locateGT(int i) {
+        int gtKey = header.getGTKey();
+        int p = starts[i] + sharedLengths[i];
+        int end = p + indivLengths[i];
+        int samples = numSamples(i);
+        for (int f = 0, n = numFormats(i); f < n && p < end; f++) {
+            int keyType = data[p] & 0x0F;
+            int key = readValue(p + 1, keyType);
+            p += 1 + typeSize(keyType);
+            int type = data[p] & 0x0F;
+            int count = (data[p] & 0xFF) >>> 4;
+            p++;
+            if (count == 15) {
+                int countType = data[p] & 0x0F;
+                count = readValue(p + 1, countType);
+                p += 1 + typeSize(countType);
+            }
+            if (key == gtKey && gtKey >= 0) {
+                if (type != TYPE_INT8 && type != TYPE_INT16 && type != TYPE_INT32) {
+                    throw new IllegalArgumentException("GT is not an integer vector");
+                }
+                return new int[]{p, type, count};
+            }
+            p += samples * count * typeSize(type);
+        }
+        throw new IllegalArgumentException("FORMAT field does not contain GT");
+    }
+
+    /**
+     * One-hot encode the genotypes of record {@code i} into {@code out},
+     * one row of (ploidy * maxAlleles + 31) / 32 ints per sample, as
+     * {@link SNPEncoder#encodeSNPOneHot} does for a text line. Every word of
+     * {@code out} is overwritten.
+     *
+     * @throws IllegalArgumentException if the record has no GT or a
+     * different number of samples
+     */
+    @Override
+    public void encodeGenotypes(int i, int ploidy, int maxAlleles, int[][] out) {
+        checkSamples(i, out.length);
+        int[] gt = locateGT(i);
+        int type = gt[1], count = gt[2], size = typeSize(type);
+        int p = gt[0];
+        for (int s = 0; s < out.length; s++, p += count * size) {
+            int[] row = out[s];
+            Arrays.fill(row, 0);
+            if (isMissing(p, type, count)) {
+                continue;
+            }
+            for (int k = 0; k < count && k < ploidy; k++) {
+                int v = readValue(p + k * size, type);
+                if (v == endOfVector(type)) {
+                    break;
+                }
+                int allele = (v >> 1) - 1;
+                if (allele < maxAlleles) {
+                    int bitIndex = k * maxAlleles + allele;
+                    row[bitIndex / 32] |= (1 << (bitIndex % 32));
+                }
+            }
+        }
+    }
+
+    /**
+     * Allele dosages of record {@code i}, as
+     * {@link SNPEncoder#computeAlleleDosage} computes them for a text line:
+     * the number of non-reference alleles, or -1 for missing.
+     */
+    @Override
+    public int[] alleleDosage(int i, int numSamples) {
+        checkSamples(i, numSamples);
+        int[] gt = locateGT(i);
+        int type = gt[1], count = gt[2], size = typeSize(type);
+        int[] dosage = new int[numSamples];
+        int p = gt[0];
+        for (int s = 0; s < numSamples; s++, p += count * size) {
+            if (isMissing(p, type, count)) {
+                dosage[s] = -1;
+                continue;
+            }
+            int alt = 0;
+            for (int k = 0; k < count; k++) {
+                int v = readValue(p + k * size, type);
+                if (v == endOfVector(type)) {
+                    break;
+                }
+                if ((v >> 1) - 1 > 0) {
+                    alt++;
+                }
+            }
+            dosage[s] = alt;
+        }
+        return dosage;
+    }
+
+    /**
+     * Ploidy and allele count of record {@code i}, probing the first
+     * samples like {@link SNPEncoder#guessPloidyAndMaxAllele(String)}.
+     */
+    public int[] guessPloidyAndMaxAllele(int i) {
+        int[] gt = locateGT(i);
+        int type = gt[1], count = gt[2], size = typeSize(type);
+        int inferredPloidy = -1;
+        int maxAllele = -1;
+        int p = gt[0];
+        for (int s = 0, probes = Math.min(8, numSamples(i)); s < probes; s++, p += count * size) {
+            int alleles = 0;
+            int m = 0;
+            boolean allMissing = true;
+            for (int k = 0; k < count; k++) {
+                int v = readValue(p + k * size, type);
+                if (v == endOfVector(type)) {
+                    break;
+                }
+                alleles++;
+                int allele = v == missingValue(type) ? -1 : (v >> 1) - 1;
+                if (allele >= 0) {
+                    allMissing = false;
+                    m = Math.max(m, allele);
+                }
+            }
+            if (alleles == 0 || (alleles == 1 && allMissing)) {
+                continue;
+            }
+            inferredPloidy = Math.max(inferredPloidy, alleles);
+            maxAllele = Math.max(maxAllele, m);
+        }
+        if (inferredPloidy <= 0) throw new IllegalArgumentException("Could not infer ploidy from GTs.");
+        return new int[]{inferredPloidy, maxAllele + 1};
+    }
+
+    private void checkSamples(int i, int expected) {
+        if (numSamples(i) != expected) {
+            throw new IllegalArgumentException("BCF record has " + numSamples(i) + " samples, expected " + expected);
+        }
+    }
+
+    /** Whether any allele of the sample's GT at {@code p} is missing. */
+    private boolean isMissing(int p, int type, int count) {
+        int size = typeSize(type);
+        if (count == 0) {
+            return true;
+        }
+        for (int k = 0; k < count; k++) {
+            int v = readValue(p + k * size, type);
+            if (v == endOfVector(type)) {
+                return k == 0;
+            }
+            if (v == missingValue(type) || (v >> 1) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case 0:
+                return 0;
+            case TYPE_INT8:
+            case TYPE_CHAR:
+                return 1;
+            case TYPE_INT16:
+                return 2;
+            case TYPE_INT32:
+            case TYPE_FLOAT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Invalid BCF type " + type);
+        }
+    }
+
+    private static int missingValue(int type) {
+        return type == TYPE_INT8 ? Byte.MIN_VALUE : type == TYPE_INT16 ? Short.MIN_VALUE : Integer.MIN_VALUE;
+    }
+
+    private static int endOfVector(int type) {
+        return missingValue(type) + 1;
+    }
+
+    private int readValue(int p, int type) {
+        switch (type) {
+            case TYPE_INT8:
+                return data[p];
+            case TYPE_INT16:
+                return (short) (data[p] & 0xFF | (data[p + 1] & 0xFF) << 8);
+            case TYPE_INT32:
+                return readInt32(p);
+            default:
+                throw new IllegalArgumentException("Expected a BCF integer, found type " + type);
+        }
+    }
+
+    private int readInt32(int p) {
+        return BGZFInputStream.readInt(data, p);
+    }
+
+    /** Offset just past the typed value starting at {@code p}. */
+    private int skipTyped(int p) {
+        int type = data[p] & 0x0F;
+        int count = (data[p] & 0xFF) >>> 4;
+        p++;
+        if (count == 15) {
+            int countType = data[p] & 0x0F;
+            count = readValue(p + 1, countType);
+            p += 1 + typeSize(countType);
+        }
+        return p + count * typeSize(type);
+    }
+
+    /** The typed character vector at {@code p}, "." if empty. */
+    private String string(int p) {
+        int count = (data[p] & 0xFF) >>> 4;
+        int from = p + 1;
+        if (count == 15) {
+            int countType = data[from] & 0x0F;
+            count = readValue(from + 1, countType);
+            from += 1 + typeSize(countType);
+        }
+        int to = from + count;
+        while (to > from && data[to - 1] == 0) {
+            to--;
+        }
+        return to == from ? "." : new String(data, from, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reader for binary genotype (.bgt) files written by {@link BGTWriter}:
+ * the one-hot genotype encoding of {@link SNPEncoder} for every variant,
+ * bit-packed and stored in chunks that can be mapped and decoded
+ * independently, so no VCF text has to be parsed again.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header   "BGT\1", int version, int ploidy, int maxAlleles, int numSamples,
+ *          int chunkSize, numSamples x UTF sample name
+ * chunk    int count, int[count] contig, int[count] position,
+ *          int[count] width (ploidy &lt;&lt; 16 | alleles),
+ *          genotype bits, rowWords(width) longs per variant
+ * footer   int numContigs, numContigs x UTF contig name, long numVariants,
+ *          int numChunks, numChunks x (long offset, int count, long length)
+ * trailer  long footer offset, "BGT\1"
+ * </pre>
+ * Every variant is stored at its own width, so biallelic sites stay at
+ * ploidy * 2 bits per sample next to multi-allelic ones; the header holds
+ * the largest ploidy and number of alleles in the file. Sample s of a
+ * variant occupies bits [s*b, (s+1)*b) of its row, with b = ploidy *
+ * alleles of that variant, least significant bit first.
+ * <p>
+ * Version 1 files, with one width for the whole file taken from the
+ * header, no width array and no chunk length in the footer, are still read.
+ */
+public final class BGTFile implements Closeable {
+
+    static final byte[] MAGIC = {'B', 'G', 'T', 1};
+    static final int VERSION = 2;
+    static final int TRAILER_SIZE = 12;
+
+    private final String path;
+    private final FileChannel channel;
+    private final int ploidy;
+    private final int maxAlleles;
+    private final int version;
+    private final int chunkSize;
+    private final List<String> sampleNames;
+    private final List<String> contigs;
+    private final long numVariants;
+    private final long[] chunkOffsets;
+    private final int[] chunkCounts;
+    private final long[] chunkLengths;
+
+    public BGTFile(String path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < TRAILER_SIZE || !isBGT(path)) {
+                throw new IOException(path + " is not a BGT file");
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(trailer, size - TRAILER_SIZE);
+            long footerOffset = trailer.getLong(0);
+            if (!Arrays.equals(Arrays.copyOfRange(trailer.array(), 8, 12), MAGIC)) {
+                throw new IOException("Truncated BGT file " + path);
+            }
+
+            try (DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+                header.skipBytes(MAGIC.length);
+                version = header.readInt();
+                if (version != 1 && version != VERSION) {
+                    throw new IOException("Unsupported BGT version " + version + " in " + path);
+                }
+                ploidy = header.readInt();
+                maxAlleles = header.readInt();
+                int numSamples = header.readInt();
+                chunkSize = header.readInt();
+                List<String> names = new ArrayList<>(numSamples);
+                for (int i = 0; i < numSamples; i++) {
+                    names.add(header.readUTF());
+                }
+                sampleNames = Collections.unmodifiableList(names);
+            }
+
+            ByteBuffer footerBuffer = ByteBuffer.allocate((int) (size - TRAILER_SIZE - footerOffset));
+            readFully(footerBuffer, footerOffset);
+            DataInputStream footer = new DataInputStream(new ByteArrayInputStream(footerBuffer.array()));
+            int numContigs = footer.readInt();
+            List<String> names = new ArrayList<>(numContigs);
+            for (int i = 0; i < numContigs; i++) {
+                names.add(footer.readUTF());
+            }
+            contigs = Collections.unmodifiableList(names);
+            numVariants = footer.readLong();
+            int numChunks = footer.readInt();
+            chunkOffsets = new long[numChunks];
+            chunkCounts = new int[numChunks];
+            chunkLengths = new long[numChunks];
+            int v1RowWords = rowWords(sampleNames.size(), ploidy, maxAlleles);
+            for (int i = 0; i < numChunks; i++) {
+                chunkOffsets[i] = footer.readLong();
+                chunkCounts[i] = footer.readInt();
+                chunkLengths[i] = version == 1
+                        ? 4 + 8L * chunkCounts[i] + 8L * chunkCounts[i] * v1RowWords
+                        : footer.readLong();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated BGT file " + path);
+            }
+        }
+    }
+
+    /** Whether the file starts with the BGT magic. */
+    public static boolean isBGT(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            byte[] magic = new byte[MAGIC.length];
+            return BGZFInputStream.readFully(in, magic, 0, magic.length) == magic.length
+                    && Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    /** Longs needed for one variant's genotype bits at the given width. */
+    static int rowWords(int numSamples, int ploidy, int maxAlleles) {
+        return (int) (((long) numSamples * ploidy * maxAlleles + 63) / 64);
+    }
+
+    /** The largest ploidy of any variant. */
+    public int getPloidy() {
+        return ploidy;
+    }
+
+    /** The largest number of alleles of any variant. */
+    public int getMaxAlleles() {
+        return maxAlleles;
+    }
+
+    public int getNumSamples() {
+        return sampleNames.size();
+    }
+
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    public List<String> getContigs() {
+        return contigs;
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkOffsets.length;
+    }
+
+    /**
+     * Map chunk {@code i}. The returned chunk stays valid after the file is
+     * closed and may be decoded from any thread.
+     */
+    public Chunk chunk(int i) throws IOException {
+        int count = chunkCounts[i];
+        long length = chunkLengths[i];
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("BGT chunk " + i + " of " + path + " is larger than 2GB");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunkOffsets[i], length);
+        if (buffer.getInt(0) != count) {
+            throw new IOException("Corrupt BGT chunk " + i + " in " + path);
+        }
+        int[] widths = new int[count];
+        int bitsStart = 4 + 8 * count;
+        if (version == 1) {
+            Arrays.fill(widths, ploidy << 16 | maxAlleles);
+        } else {
+            for (int v = 0; v < count; v++) {
+                widths[v] = buffer.getInt(bitsStart + 4 * v);
+            }
+            bitsStart += 4 * count;
+        }
+        int[] offsets = new int[count];
+        long offset = bitsStart;
+        for (int v = 0; v < count; v++) {
+            offsets[v] = (int) offset;
+            offset += 8L * rowWords(getNumSamples(), widths[v] >>> 16, widths[v] & 0xFFFF);
+        }
+        if (offset != length) {
+            throw new IOException("Corrupt BGT chunk " + i + " in " + path);
+        }
+        return new Chunk(buffer, count, widths, offsets, 0, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The variants [from, to) of one mapped chunk.
+     */
+    public final class Chunk implements GenotypeBatch {
+        private final ByteBuffer buffer;
+        private final int count;
+        /** ploidy &lt;&lt; 16 | alleles of each variant of the chunk. */
+        private final int[] widths;
+        /** Byte offset of each variant's genotype bits. */
+        private final int[] offsets;
+        private final int from;
+        private final int to;
+
+        private Chunk(ByteBuffer buffer, int count, int[] widths, int[] offsets, int from, int to) {
+            this.buffer = buffer;
+            this.count = count;
+            this.widths = widths;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public String contig(int v) {
+            return contigs.get(buffer.getInt(4 + 4 * (from + v)));
+        }
+
+        @Override
+        public int position(int v) {
+            return buffer.getInt(4 + 4 * count + 4 * (from + v));
+        }
+
+        /** Variants [start, end) of this chunk, sharing the mapping. */
+        @Override
+        public Chunk slice(int start, int end) {
+            return new Chunk(buffer, count, widths, offsets, from + start, from + end);
+        }
+
+        @Override
+        public int ploidy(int v) {
+            return widths[from + v] >>> 16;
+        }
+
+        @Override
+        public int alleles(int v) {
+            return widths[from + v] & 0xFFFF;
+        }
+
+        /**
+         * Decode variant {@code v} into the {@link SNPEncoder} layout at its
+         * own width: one row of (ploidy(v) * alleles(v) + 31) / 32 ints per
+         * sample. Every word of {@code out} is overwritten, words past the
+         * variant's width with 0.
+         */
+        public void decode(int v, int[][] out) {
+            int bits = ploidy(v) * alleles(v);
+            int base = offsets[from + v];
+            for (int s = 0; s < out.length; s++) {
+                int[] row = out[s];
+                long bit = (long) s * bits;
+                for (int w = 0; w < row.length; w++, bit += 32) {
+                    int n = bits - 32 * w;
+                    row[w] = n <= 0 ? 0 : extract(base, bit, Math.min(32, n));
+                }
+            }
+        }
+
+        /**
+         * Variant {@code v} in the {@link SNPEncoder} layout for the given
+         * ploidy and number of alleles: {@link #decode} when they are the
+         * variant's own, otherwise its bits are moved to the requested width,
+         * dropping slots and alleles that do not fit as the text encoder does.
+         */
+        @Override
+        public void encodeGenotypes(int v, int ploidy, int maxAlleles, int[][] out) {
+            int ownPloidy = ploidy(v);
+            int ownAlleles = alleles(v);
+            if (ploidy == ownPloidy && maxAlleles == ownAlleles) {
+                decode(v, out);
+                return;
+            }
+            int bits = ownPloidy * ownAlleles;
+            int base = offsets[from + v];
+            int slots = Math.min(ploidy, ownPloidy);
+            int alleles = Math.min(maxAlleles, ownAlleles);
+            for (int s = 0; s < out.length; s++) {
+                int[] row = out[s];
+                Arrays.fill(row, 0);
+                long bit = (long) s * bits;
+                for (int slot = 0; slot < slots; slot++) {
+                    for (int a = 0; a < alleles; a++) {
+                        if (extract(base, bit + slot * ownAlleles + a, 1) != 0) {
+                            int k = slot * maxAlleles + a;
+                            row[k >>> 5] |= 1 << (k & 31);
+                        }
+                    }
+                }
+            }
+        }
+
+        /** {@code n} (at most 32) bits of the row at {@code base}, from bit {@code bit}. */
+        private int extract(int base, long bit, int n) {
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            long value = buffer.getLong(base + 8 * word) >>> shift;
+            if (shift + n > 64) {
+                value |= buffer.getLong(base + 8 * (word + 1)) << (64 - shift);
+            }
+            return (int) (value & ((1L << n) - 1));
+        }
+    }
+}
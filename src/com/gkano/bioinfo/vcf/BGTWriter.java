@@ -0,0 +1,422 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.gkano.bioinfo.var.Logger;
+
+/**
+ * Writes binary genotype (.bgt) files, see {@link BGTFile} for the layout.
+ * Variants are buffered and written one chunk at a time, each at its own
+ * width.
+ */
+public final class BGTWriter implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    /** Chunks are written early rather than grow past this many bytes. */
+    private static final int MAX_CHUNK_BYTES = Integer.MAX_VALUE / 2;
+
+    private final FileChannel channel;
+    private final int ploidy;
+    private final int maxAlleles;
+    private final int numSamples;
+    private final int chunkSize;
+    private int maxPloidySeen = 0;
+    private int maxAllelesSeen = 0;
+
+    private final List<String> contigs = new ArrayList<>();
+    private final Map<String, Integer> contigIndex = new HashMap<>();
+    private final List<long[]> chunks = new ArrayList<>();
+    private long numVariants = 0;
+
+    private final int[] chunkContigs;
+    private final int[] chunkPositions;
+    private final int[] chunkWidths;
+    private long[] chunkBits;
+    private int chunkWords = 0;
+    private int chunkCount = 0;
+
+    /**
+     * @param ploidy ploidy of the variants added without one
+     * @param maxAlleles number of alleles of the variants added without one
+     */
+    public BGTWriter(String path, List<String> sampleNames, int ploidy, int maxAlleles, int chunkSize) throws IOException {
+        if (ploidy <= 0 || maxAlleles <= 0) {
+            throw new IllegalArgumentException("Ploidy and number of alleles must be positive");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.ploidy = ploidy;
+        this.maxAlleles = maxAlleles;
+        this.numSamples = sampleNames.size();
+        this.chunkSize = chunkSize;
+        this.chunkContigs = new int[chunkSize];
+        this.chunkPositions = new int[chunkSize];
+        this.chunkWidths = new int[chunkSize];
+        this.chunkBits = new long[Math.min(chunkSize, 64) * BGTFile.rowWords(numSamples, ploidy, maxAlleles)];
+
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(buf);
+        header.write(BGTFile.MAGIC);
+        header.writeInt(BGTFile.VERSION);
+        header.writeInt(ploidy);
+        header.writeInt(maxAlleles);
+        header.writeInt(numSamples);
+        header.writeInt(chunkSize);
+        for (String name : sampleNames) {
+            header.writeUTF(name);
+        }
+        write(ByteBuffer.wrap(buf.toByteArray()));
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    /**
+     * Append a variant encoded by {@link SNPEncoder#encodeSNPOneHot} with
+     * the ploidy and maxAlleles this writer was created with.
+     */
+    public void add(String contig, int position, int[][] encoded) throws IOException {
+        add(contig, position, ploidy, maxAlleles, encoded);
+    }
+
+    /**
+     * Append a variant encoded by {@link SNPEncoder#encodeSNPOneHot} with
+     * its own ploidy and number of alleles.
+     */
+    public void add(String contig, int position, int variantPloidy, int variantAlleles, int[][] encoded)
+            throws IOException {
+        if (encoded.length != numSamples) {
+            throw new IllegalArgumentException("Variant has " + encoded.length + " samples, expected " + numSamples);
+        }
+        long[] row = new long[BGTFile.rowWords(numSamples, variantPloidy, variantAlleles)];
+        pack(encoded, variantPloidy * variantAlleles, row, 0);
+        add(contig, position, variantPloidy, variantAlleles, row, 0);
+    }
+
+    /** Append a variant already packed into {@code rows} at {@code offset}. */
+    void add(String contig, int position, int variantPloidy, int variantAlleles, long[] rows, int offset)
+            throws IOException {
+        if (variantPloidy <= 0 || variantAlleles <= 0 || variantPloidy > 0xFFFF || variantAlleles > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid ploidy " + variantPloidy + " or number of alleles "
+                    + variantAlleles);
+        }
+        int rowWords = BGTFile.rowWords(numSamples, variantPloidy, variantAlleles);
+        if (8L * (chunkWords + rowWords) > MAX_CHUNK_BYTES) {
+            flushChunk();
+            if (8L * rowWords > MAX_CHUNK_BYTES) {
+                throw new IllegalArgumentException("Variant at " + contig + ":" + position + " is too large for "
+                        + numSamples + " samples");
+            }
+        }
+        Integer index = contigIndex.get(contig);
+        if (index == null) {
+            index = contigs.size();
+            contigs.add(contig);
+            contigIndex.put(contig, index);
+        }
+        if (chunkWords + rowWords > chunkBits.length) {
+            chunkBits = Arrays.copyOf(chunkBits, (int) Math.min(MAX_CHUNK_BYTES / 8,
+                    Math.max(2L * chunkBits.length, chunkWords + rowWords)));
+        }
+        chunkContigs[chunkCount] = index;
+        chunkPositions[chunkCount] = position;
+        chunkWidths[chunkCount] = variantPloidy << 16 | variantAlleles;
+        System.arraycopy(rows, offset, chunkBits, chunkWords, rowWords);
+        chunkWords += rowWords;
+        chunkCount++;
+        numVariants++;
+        maxPloidySeen = Math.max(maxPloidySeen, variantPloidy);
+        maxAllelesSeen = Math.max(maxAllelesSeen, variantAlleles);
+        if (chunkCount == chunkSize) {
+            flushChunk();
+        }
+    }
+
+    /**
+     * Pack one variant's per-sample one-hot words, {@code bits} bits per
+     * sample, into the longs of {@code out} starting at {@code offset}.
+     */
+    static void pack(int[][] encoded, int bits, long[] out, int offset) {
+        pack(encoded, bits, (bits + 31) / 32, out, offset);
+    }
+
+    /** {@link #pack}, reading only the first {@code words} ints of each row. */
+    static void pack(int[][] encoded, int bits, int words, long[] out, int offset) {
+        for (int s = 0; s < encoded.length; s++) {
+            int[] row = encoded[s];
+            long bit = (long) s * bits;
+            for (int w = 0; w < words; w++, bit += 32) {
+                int n = Math.min(32, bits - 32 * w);
+                long value = row[w] & ((1L << n) - 1);
+                if (value == 0) continue;
+                int word = offset + (int) (bit >>> 6);
+                int shift = (int) (bit & 63);
+                out[word] |= value << shift;
+                if (shift + n > 64) {
+                    out[word + 1] |= value >>> (64 - shift);
+                }
+            }
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        if (chunkCount == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 12 * chunkCount + 8 * chunkWords);
+        buffer.putInt(chunkCount);
+        buffer.asIntBuffer().put(chunkContigs, 0, chunkCount).put(chunkPositions, 0, chunkCount)
+                .put(chunkWidths, 0, chunkCount);
+        buffer.position(4 + 12 * chunkCount);
+        buffer.asLongBuffer().put(chunkBits, 0, chunkWords);
+        buffer.rewind();
+        chunks.add(new long[]{channel.position(), chunkCount, buffer.capacity()});
+        write(buffer);
+        chunkWords = 0;
+        chunkCount = 0;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushChunk();
+            long footerOffset = channel.position();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream footer = new DataOutputStream(buf);
+            footer.writeInt(contigs.size());
+            for (String contig : contigs) {
+                footer.writeUTF(contig);
+            }
+            footer.writeLong(numVariants);
+            footer.writeInt(chunks.size());
+            for (long[] chunk : chunks) {
+                footer.writeLong(chunk[0]);
+                footer.writeInt((int) chunk[1]);
+                footer.writeLong(chunk[2]);
+            }
+            footer.writeLong(footerOffset);
+            footer.write(BGTFile.MAGIC);
+            write(ByteBuffer.wrap(buf.toByteArray()));
+            if (numVariants > 0) {
+                // the header holds the widest variant, e.g. for readers sizing buffers once
+                ByteBuffer widest = ByteBuffer.allocate(8).putInt(maxPloidySeen).putInt(maxAllelesSeen);
+                widest.rewind();
+                while (widest.hasRemaining()) {
+                    channel.write(widest, BGTFile.MAGIC.length + 4 + widest.position());
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** One batch of VCF lines, encoded and packed on a worker thread. */
+    private static final class PackedBatch {
+        final String[] contigs;
+        final int[] positions;
+        final int[] ploidies;
+        final int[] alleles;
+        /** Start of each variant's bits in {@code rows}, plus the end of the last. */
+        final int[] offsets;
+        final long[] rows;
+        final int size;
+        final int skipped;
+
+        PackedBatch(String[] contigs, int[] positions, int[] ploidies, int[] alleles, int[] offsets, long[] rows,
+                int size, int skipped) {
+            this.contigs = contigs;
+            this.positions = positions;
+            this.ploidies = ploidies;
+            this.alleles = alleles;
+            this.offsets = offsets;
+            this.rows = rows;
+            this.size = size;
+            this.skipped = skipped;
+        }
+    }
+
+    private static PackedBatch pack(VCFLineBatch lines, int ploidy, int maxAlleles, int numSamples) {
+        String[] contigs = new String[lines.size()];
+        int[] positions = new int[lines.size()];
+        int[] ploidies = new int[lines.size()];
+        int[] alleles = new int[lines.size()];
+        int[] offsets = new int[lines.size() + 1];
+        long[] rows = new long[lines.size() * BGTFile.rowWords(numSamples, ploidy, maxAlleles)];
+        byte[] data = lines.data();
+        byte[] lastContig = new byte[0];
+        String contig = null;
+        int size = 0;
+        int skipped = 0;
+        VariantEncoder encoder = new VariantEncoder(numSamples, ploidy);
+        for (int v = 0; v < lines.size(); v++) {
+            int start = lines.start(v);
+            int end = lines.end(v);
+            int tab1 = SNPEncoder.fieldEnd(data, start, end);
+            int tab2 = tab1 < end ? SNPEncoder.fieldEnd(data, tab1 + 1, end) : end;
+            int pos = tab2 < end ? SNPEncoder.parsePos(data, tab1 + 1, tab2) : -1;
+            try {
+                if (pos < 0) {
+                    throw new IllegalArgumentException("Invalid CHROM/POS");
+                }
+                encoder.encode(data, start, end);
+            } catch (IllegalArgumentException e) {
+                skipped++;
+                continue;
+            }
+            if (!Arrays.equals(lastContig, 0, lastContig.length, data, start, tab1)) {
+                lastContig = Arrays.copyOfRange(data, start, tab1);
+                contig = new String(lastContig, StandardCharsets.UTF_8);
+            }
+            int rowWords = BGTFile.rowWords(numSamples, encoder.ploidy(), encoder.alleles());
+            if (offsets[size] + rowWords > rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(2 * rows.length, offsets[size] + rowWords));
+            }
+            contigs[size] = contig;
+            positions[size] = pos;
+            ploidies[size] = encoder.ploidy();
+            alleles[size] = encoder.alleles();
+            pack(encoder.rows(), encoder.ploidy() * encoder.alleles(), encoder.words(), rows, offsets[size]);
+            offsets[size + 1] = offsets[size] + rowWords;
+            size++;
+        }
+        return new PackedBatch(contigs, positions, ploidies, alleles, offsets, rows, size, skipped);
+    }
+
+    /**
+     * Convert VCF inputs to one BGT file. Lines are read with the byte
+     * parser and encoded on {@code threads} threads, every variant at the
+     * width of its own alleles and called ploidy.
+     *
+     * @return the number of variants written
+     */
+    public static long convert(List<String> inputs, String output, int threads, int chunkSize, boolean verbose)
+            throws IOException {
+        List<String> sampleNames = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        ArrayDeque<Future<PackedBatch>> pending = new ArrayDeque<>();
+        BGTWriter writer = null;
+        long skipped = 0;
+        try (VCFByteStreamingIterator iterator = new VCFByteStreamingIterator(new VCFDecoder(),
+                new VCFInputOpener(threads), verbose, line -> readSamples(line, sampleNames), 1000,
+                VCFByteStreamingIterator.DEFAULT_CHUNK_SIZE, inputs)) {
+            for (VCFLineBatch lines : iterator) {
+                if (writer == null) {
+                    if (sampleNames.isEmpty()) {
+                        throw new IllegalStateException("No samples detected from #CHROM header.");
+                    }
+                    int[] ploidyMaxAlleles = SNPEncoder.guessPloidyAndMaxAllele(lines.data(), lines.start(0), lines.end(0));
+                    writer = new BGTWriter(output, sampleNames, ploidyMaxAlleles[0], ploidyMaxAlleles[1], chunkSize);
+                    Logger.info(writer, "ploidy=" + writer.ploidy + "\tmaxAlleles=" + writer.maxAlleles
+                            + "\tsamples=" + sampleNames.size());
+                }
+                int ploidy = writer.ploidy;
+                int maxAlleles = writer.maxAlleles;
+                pending.add(pool.submit(() -> pack(lines, ploidy, maxAlleles, sampleNames.size())));
+                while (pending.size() > 4 * threads) {
+                    skipped += write(writer, pending.poll());
+                }
+            }
+            while (!pending.isEmpty()) {
+                skipped += write(writer, pending.poll());
+            }
+            if (writer == null) {
+                throw new IllegalStateException("No variants found in " + inputs);
+            }
+            if (skipped > 0) {
+                Logger.warn(writer, "Skipped " + skipped + " variants without a usable GT field.");
+            }
+            return writer.getNumVariants();
+        } finally {
+            pool.shutdownNow();
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private static void readSamples(String headerLine, List<String> sampleNames) {
+        if (!headerLine.startsWith("#CHROM")) {
+            return;
+        }
+        String[] fields = headerLine.split("\t", -1);
+        List<String> samples = fields.length <= 9
+                ? new ArrayList<>()
+                : Arrays.asList(Arrays.copyOfRange(fields, 9, fields.length));
+        if (sampleNames.isEmpty()) {
+            sampleNames.addAll(samples);
+        } else if (!samples.equals(sampleNames)) {
+            throw new IllegalStateException("Input VCFs do not have the same samples ("
+                    + samples.size() + " vs " + sampleNames.size() + " columns)");
+        }
+    }
+
+    private static int write(BGTWriter writer, Future<PackedBatch> future) throws IOException {
+        PackedBatch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding variants", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        for (int v = 0; v < batch.size; v++) {
+            writer.add(batch.contigs[v], batch.positions[v], batch.ploidies[v], batch.alleles[v], batch.rows,
+                    batch.offsets[v]);
+        }
+        return batch.skipped;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader for BGZF (blocked gzip, as written by bgzip/htslib) streams.
+ * A BGZF file is a series of independent gzip members of at most 64KB,
+ * each carrying its compressed size in a "BC" extra subfield. Compressed
+ * blocks are read ahead on the calling thread and inflated on a pool of
+ * threads; the inflated blocks are returned strictly in file order.
+ */
+public class BGZFInputStream extends ParallelBlockInputStream {
+
+    static final int HEADER_SIZE = 18;
+    static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    private final InputStream in;
+
+    public BGZFInputStream(InputStream in, int threads) {
+        super(threads, 4 * Math.max(1, threads), "bgzf-inflater");
+        this.in = in;
+    }
+
+    /**
+     * Whether the first bytes of a stream are a gzip header carrying the
+     * BGZF "BC" extra subfield.
+     */
+    public static boolean isBGZF(byte[] header, int length) {
+        return length >= 16
+                && header[0] == (byte) 0x1F
+                && header[1] == (byte) 0x8B
+                && header[2] == 8
+                && (header[3] & 4) != 0
+                && (header[10] & 0xFF | (header[11] & 0xFF) << 8) >= 6
+                && header[12] == 'B'
+                && header[13] == 'C'
+                && header[14] == 2
+                && header[15] == 0;
+    }
+
+    /**
+     * Read one complete compressed BGZF block from the stream.
+     *
+     * @return the block bytes, or null on a clean end of stream
+     */
+    static byte[] readBlock(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int n = readFully(in, header, 0, HEADER_SIZE);
+        if (n == 0) {
+            return null;
+        }
+        if (n < HEADER_SIZE || !isBGZF(header, n)) {
+            throw new IOException("Invalid BGZF block header");
+        }
+        int blockSize = (header[16] & 0xFF | (header[17] & 0xFF) << 8) + 1;
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+        if (readFully(in, block, HEADER_SIZE, blockSize - HEADER_SIZE) < blockSize - HEADER_SIZE) {
+            throw new EOFException("Truncated BGZF block");
+        }
+        return block;
+    }
+
+    /**
+     * Inflate one compressed BGZF block and check its CRC32.
+     */
+    static byte[] inflateBlock(byte[] block) throws IOException {
+        int xlen = block[10] & 0xFF | (block[11] & 0xFF) << 8;
+        int cdataOffset = 12 + xlen;
+        int cdataLength = block.length - cdataOffset - 8;
+        int isize = readInt(block, block.length - 4);
+        int crc = readInt(block, block.length - 8);
+        byte[] out = new byte[isize];
+        if (isize == 0) {
+            return out;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, cdataOffset, cdataLength);
+            int total = 0;
+            while (total < isize) {
+                int n = inflater.inflate(out, total, isize - total);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                total += n;
+            }
+            if (total != isize) {
+                throw new IOException("BGZF block inflated to " + total + " bytes, expected " + isize);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(out, 0, isize);
+        if ((int) crc32.getValue() != crc) {
+            throw new IOException("BGZF block CRC mismatch");
+        }
+        return out;
+    }
+
+    static int readInt(byte[] b, int off) {
+        return b[off] & 0xFF | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+
+    static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(b, off + total, len - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    protected Callable<byte[]> nextBlock() throws IOException {
+        byte[] block = readBlock(in);
+        return block == null ? null : () -> inflateBlock(block);
+    }
+
+    @Override
+    protected void closeSource() throws IOException {
+        in.close();
+    }
+}
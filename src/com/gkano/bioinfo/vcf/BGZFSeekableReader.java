@@ -0,0 +1,186 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Random-access line reader over a BGZF file, addressed by virtual offsets
+ * (compressed block address << 16 | offset within the inflated block).
+ */
+public class BGZFSeekableReader implements Closeable {
+
+    private final FileChannel channel;
+    private final InputStream in;
+
+    private long blockAddress;
+    private long nextBlockAddress;
+    private byte[] block = new byte[0];
+    private int blockPos;
+
+    private byte[] line = new byte[1024];
+    private int lineLength;
+
+    public BGZFSeekableReader(String path) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.in = Channels.newInputStream(channel);
+    }
+
+    public void seek(long virtualOffset) throws IOException {
+        long address = virtualOffset >>> 16;
+        int offset = (int) (virtualOffset & 0xFFFF);
+        if (address != blockAddress || block.length == 0) {
+            loadBlock(address);
+        }
+        if (offset > block.length) {
+            throw new IOException("Virtual offset beyond BGZF block: " + virtualOffset);
+        }
+        blockPos = offset;
+    }
+
+    /** Virtual offset of the next unread byte. */
+    public long tell() {
+        if (blockPos >= block.length && block.length > 0) {
+            return nextBlockAddress << 16;
+        }
+        return blockAddress << 16 | blockPos;
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Address of the first BGZF block starting at or after {@code from}.
+     * A candidate header is only accepted if another block header (or the
+     * end of file) follows it, which rules out chance matches inside
+     * compressed data.
+     *
+     * @return the block address, or the file size if there is none
+     */
+    public long findBlockStart(long from) throws IOException {
+        long size = channel.size();
+        if (from <= 0) {
+            return 0;
+        }
+        int window = (int) Math.min(2L * BGZFInputStream.MAX_BLOCK_SIZE + BGZFInputStream.HEADER_SIZE, size - from);
+        if (window <= 0) {
+            return size;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(window);
+        while (buf.hasRemaining() && channel.read(buf, from + buf.position()) > 0) {
+            // fill the search window
+        }
+        byte[] b = buf.array();
+        byte[] header = new byte[BGZFInputStream.HEADER_SIZE];
+        for (int i = 0; i + BGZFInputStream.HEADER_SIZE <= buf.position(); i++) {
+            if (b[i] != (byte) 0x1F || b[i + 1] != (byte) 0x8B) continue;
+            System.arraycopy(b, i, header, 0, header.length);
+            if (!BGZFInputStream.isBGZF(header, header.length)) continue;
+            long next = from + i + (header[16] & 0xFF | (header[17] & 0xFF) << 8) + 1;
+            if (next == size || isBlockHeaderAt(next)) {
+                return from + i;
+            }
+        }
+        return size;
+    }
+
+    private boolean isBlockHeaderAt(long address) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BGZFInputStream.HEADER_SIZE);
+        while (buf.hasRemaining() && channel.read(buf, address + buf.position()) > 0) {
+            // read the header
+        }
+        return BGZFInputStream.isBGZF(buf.array(), buf.position());
+    }
+
+    private boolean loadBlock(long address) throws IOException {
+        channel.position(address);
+        byte[] compressed = BGZFInputStream.readBlock(in);
+        blockAddress = address;
+        blockPos = 0;
+        if (compressed == null) {
+            block = new byte[0];
+            nextBlockAddress = address;
+            return false;
+        }
+        nextBlockAddress = address + compressed.length;
+        block = BGZFInputStream.inflateBlock(compressed);
+        return true;
+    }
+
+    /**
+     * Read the next line, including its terminating '\n' if present, into
+     * the line buffer.
+     *
+     * @return false at end of file
+     */
+    public boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (blockPos >= block.length) {
+                if (!loadBlock(nextBlockAddress)) {
+                    return lineLength > 0;
+                }
+                continue;
+            }
+            int p = blockPos;
+            while (p < block.length && block[p] != '\n') p++;
+            boolean complete = p < block.length;
+            if (complete) p++;
+            append(block, blockPos, p - blockPos);
+            blockPos = p;
+            if (complete) {
+                return true;
+            }
+        }
+    }
+
+    private void append(byte[] src, int from, int len) {
+        if (lineLength + len > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + len));
+        }
+        System.arraycopy(src, from, line, lineLength, len);
+        lineLength += len;
+    }
+
+    /** Buffer holding the last line read; valid up to {@link #lineLength()}. */
+    public byte[] line() {
+        return line;
+    }
+
+    public int lineLength() {
+        return lineLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import org.itadaki.bzip2.BZip2InputStream;
+
+/**
+ * Multi-threaded bzip2 reader. The compressed stream is scanned bit by bit
+ * for the 48-bit block and end-of-stream markers; every block found is
+ * rewrapped as a standalone single-block bzip2 stream and decoded on the
+ * pool. Concatenated streams (as written by pbzip2) are followed through.
+ * Like pbzip2 and lbzip2, a marker pattern occurring by chance inside the
+ * compressed data would mis-split a block; the decoder then reports a CRC
+ * error rather than returning wrong data.
+ */
+public class BZip2BlockInputStream extends ParallelBlockInputStream {
+
+    static final long BLOCK_MAGIC = 0x314159265359L;
+    static final long EOS_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = (1L << 48) - 1;
+    /** Upper bound for one compressed block; a level 9 block is at most ~1MB. */
+    static final int MAX_COMPRESSED_BLOCK = 1 << 22;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    private long bytesRead = 0;
+
+    private int currentByte;
+    private int bitsLeft = 0;
+    private long window = 0;
+
+    /** Raw bytes of the block being scanned; pending[0] is file byte pendingBase. */
+    private byte[] pending = new byte[1 << 16];
+    private int pendingLength = 0;
+    private long pendingBase = 0;
+
+    private boolean inStream = false;
+    private int streams = 0;
+    private int level;
+    private long blockStart = -1;
+
+    public BZip2BlockInputStream(InputStream in, int threads) {
+        super(threads, 2 * Math.max(1, threads), "bzip2-decoder");
+        this.in = in;
+    }
+
+    private int nextByte() throws IOException {
+        if (bufferPos == bufferLength) {
+            bufferLength = Math.max(0, in.read(buffer));
+            bufferPos = 0;
+            if (bufferLength == 0) {
+                return -1;
+            }
+        }
+        int b = buffer[bufferPos++] & 0xFF;
+        if (pendingLength == pending.length) {
+            if (pendingLength >= MAX_COMPRESSED_BLOCK) {
+                throw new IOException("No bzip2 block boundary found within " + MAX_COMPRESSED_BLOCK + " bytes");
+            }
+            pending = Arrays.copyOf(pending, pendingLength * 2);
+        }
+        pending[pendingLength++] = (byte) b;
+        bytesRead++;
+        return b;
+    }
+
+    private int nextBit() throws IOException {
+        if (bitsLeft == 0) {
+            currentByte = nextByte();
+            if (currentByte < 0) {
+                throw new EOFException("Truncated bzip2 stream");
+            }
+            bitsLeft = 8;
+        }
+        bitsLeft--;
+        return currentByte >>> bitsLeft & 1;
+    }
+
+    private long bitPosition() {
+        return bytesRead * 8 - bitsLeft;
+    }
+
+    /**
+     * Read a "BZh1".."BZh9" stream header at a byte boundary.
+     *
+     * @return false at a clean end of input
+     */
+    private boolean readStreamHeader() throws IOException {
+        bitsLeft = 0;
+        pendingBase = bytesRead;
+        pendingLength = 0;
+        int b = nextByte();
+        if (b < 0) {
+            return false;
+        }
+        if (b != 'B' || nextByte() != 'Z' || nextByte() != 'h') {
+            if (streams > 0) {
+                // trailing garbage after a complete stream, ignored as bzip2 does
+                return false;
+            }
+            throw new IOException("Invalid bzip2 stream header");
+        }
+        level = nextByte() - '0';
+        if (level < 1 || level > 9) {
+            throw new IOException("Invalid bzip2 block size in stream header");
+        }
+        window = 0;
+        blockStart = -1;
+        streams++;
+        return true;
+    }
+
+    @Override
+    protected Callable<byte[]> nextBlock() throws IOException {
+        while (true) {
+            if (!inStream) {
+                if (!readStreamHeader()) {
+                    return null;
+                }
+                inStream = true;
+            }
+            window = (window << 1 | nextBit()) & MAGIC_MASK;
+            if (window == BLOCK_MAGIC) {
+                byte[] block = cut(bitPosition() - 48);
+                blockStart = bitPosition() - 48;
+                if (block != null) {
+                    return () -> decode(block);
+                }
+            } else if (window == EOS_MAGIC) {
+                byte[] block = cut(bitPosition() - 48);
+                // skip the combined CRC; the next stream starts at a byte boundary
+                for (int i = 0; i < 32; i++) {
+                    nextBit();
+                }
+                inStream = false;
+                if (block != null) {
+                    return () -> decode(block);
+                }
+            }
+        }
+    }
+
+    private int bitAt(long position) {
+        int b = pending[(int) ((position >>> 3) - pendingBase)];
+        return b >>> (7 - (int) (position & 7)) & 1;
+    }
+
+    /**
+     * Wrap the bits of the current block, ending at {@code end}, as a
+     * standalone bzip2 stream and drop them from the pending buffer.
+     *
+     * @return the stream, or null if no block was open
+     */
+    private byte[] cut(long end) {
+        if (blockStart < 0) {
+            return null;
+        }
+        long start = blockStart;
+        long bits = end - start;
+        BitWriter out = new BitWriter((int) ((bits + 7) / 8) + 16);
+        out.write(32, 'B' << 24 | 'Z' << 16 | 'h' << 8 | '0' + level);
+        int shift = (int) (start & 7);
+        int index = (int) ((start >>> 3) - pendingBase);
+        long whole = bits / 8;
+        for (long i = 0; i < whole; i++, index++) {
+            int b = pending[index] << shift | (pending[index + 1] & 0xFF) >>> (8 - shift);
+            out.write(8, b & 0xFF);
+        }
+        for (long p = start + whole * 8; p < end; p++) {
+            out.write(1, bitAt(p));
+        }
+        // a single block stream's combined CRC equals the block CRC
+        long crc = 0;
+        for (long p = start + 48; p < start + 80; p++) {
+            crc = crc << 1 | bitAt(p);
+        }
+        out.write(48, EOS_MAGIC);
+        out.write(32, crc);
+        blockStart = -1;
+
+        int keep = (int) ((end >>> 3) - pendingBase);
+        pendingLength -= keep;
+        System.arraycopy(pending, keep, pending, 0, pendingLength);
+        pendingBase += keep;
+        return out.toByteArray();
+    }
+
+    static byte[] decode(byte[] stream) throws IOException {
+        try (InputStream in = new BZip2InputStream(new ByteArrayInputStream(stream), false)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Override
+    protected void closeSource() throws IOException {
+        in.close();
+    }
+
+    /** MSB-first bit packer. */
+    private static final class BitWriter {
+        private byte[] data;
+        private int length = 0;
+        private long acc = 0;
+        private int accBits = 0;
+
+        BitWriter(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void write(int count, long value) {
+            if (count == 8 && accBits == 0 && length < data.length) {
+                data[length++] = (byte) value;
+                return;
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                acc = acc << 1 | (value >>> i & 1);
+                if (++accBits == 8) {
+                    if (length == data.length) {
+                        data = Arrays.copyOf(data, length * 2);
+                    }
+                    data[length++] = (byte) acc;
+                    acc = 0;
+                    accBits = 0;
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (accBits > 0) {
+                write(8 - accBits, 0);
+            }
+            return Arrays.copyOf(data, length);
+        }
+    }
+}
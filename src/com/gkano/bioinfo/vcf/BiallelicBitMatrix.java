@@ -0,0 +1,168 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.Arrays;
+
+/**
+ * {@link GenotypeBitMatrix} for biallelic variants of ploidy 1 or 2. A
+ * genotype is kept as 2 bits, the allele of each slot, 32 genotypes per
+ * long, next to a plane of the same shape telling which slots are called.
+ * Two samples share an allele in a slot when the slot is called in both
+ * and the allele bits agree, so a block's dot product is
+ * popcount(~(a ^ b) &amp; called_a &amp; called_b) over its words, and just
+ * 2 * variants - popcount(a ^ b) when neither sample has a missing call in
+ * the block. The results are those of the one-hot kernel, phase order and
+ * haploid calls included.
+ * <p>
+ * Not thread safe; each worker owns one per replicate.
+ */
+final class BiallelicBitMatrix implements GenotypeBlock {
+
+    /** Bytes of the sample rows compared together in one tile. */
+    private static final int TILE_BYTES = 16 << 10;
+    /**
+     * One-hot nibble (slot0 allele0, slot0 allele1, slot1 allele0, slot1
+     * allele1) to allele bits in the low 2 bits and called bits in the next 2.
+     */
+    private static final byte[] NIBBLE = new byte[16];
+
+    static {
+        for (int n = 0; n < 16; n++) {
+            int alleles = (n >>> 1 & 1) | (n >>> 2 & 2);
+            int called = ((n & 3) != 0 ? 1 : 0) | ((n & 12) != 0 ? 2 : 0);
+            NIBBLE[n] = (byte) (called << 2 | alleles);
+        }
+    }
+
+    private final int numSamples;
+    private final int words;
+    private final long[] alleles;
+    private final long[] called;
+    /** Samples with every slot of every variant of the block called. */
+    private final boolean[] complete;
+    private final long[] rowNorm;
+    private int used = 0;
+
+    BiallelicBitMatrix(int numSamples, int words) {
+        this.numSamples = numSamples;
+        this.words = Math.max(1, words);
+        this.alleles = new long[numSamples * this.words];
+        this.called = new long[numSamples * this.words];
+        this.complete = new boolean[numSamples];
+        this.rowNorm = new long[numSamples];
+        Arrays.fill(complete, true);
+    }
+
+    /** Whether {@link #append} takes variants of this ploidy and number of alleles. */
+    static boolean accepts(int ploidy, int alleles) {
+        return alleles == 2 && ploidy <= 2;
+    }
+
+    boolean isFull() {
+        return used == 32 * words;
+    }
+
+    /** Append a variant encoded with 2 alleles and ploidy 1 or 2. */
+    void append(int[][] rows) {
+        if (isFull()) {
+            throw new IllegalStateException("Bit matrix block is full");
+        }
+        int word = used >>> 5;
+        int shift = (used & 31) << 1;
+        for (int s = 0; s < numSamples; s++) {
+            int code = NIBBLE[rows[s][0] & 15];
+            int slots = code >>> 2;
+            if (slots != 3) {
+                complete[s] = false;
+                if (slots == 0) continue;
+            }
+            int a = s * words + word;
+            alleles[a] |= (long) (code & 3) << shift;
+            called[a] |= (long) slots << shift;
+        }
+        used++;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return used == 0;
+    }
+
+    @Override
+    public int numSamples() {
+        return numSamples;
+    }
+
+    @Override
+    public void addNorms(long[] norm) {
+        int k = (used + 31) >>> 5;
+        DistanceKernels kernels = DistanceKernels.INSTANCE;
+        for (int i = 0; i < numSamples; i++) {
+            long pop = kernels.popCount(called, i * words, k);
+            rowNorm[i] = pop;
+            norm[i] += pop;
+        }
+    }
+
+    @Override
+    public void multiply(TriangularMatrix dotProd, int i0, int i1, int j0, int j1) {
+        int k = (used + 31) >>> 5;
+        long slots = 2L * used;
+        long[] a = alleles;
+        long[] c = called;
+        long[] d = dotProd.values;
+        DistanceKernels kernels = DistanceKernels.INSTANCE;
+        int tile = Math.max(8, TILE_BYTES / (16 * k));
+        for (int ib = i0; ib < i1; ib += tile) {
+            int iEnd = Math.min(i1, ib + tile);
+            for (int jb = Math.max(j0, ib); jb < j1; jb += tile) {
+                int jEnd = Math.min(j1, jb + tile);
+                for (int i = ib; i < iEnd; i++) {
+                    if (rowNorm[i] == 0) {
+                        continue; // missing throughout the block
+                    }
+                    int ai = i * words;
+                    boolean completeI = complete[i];
+                    int row = dotProd.rowBase(i);
+                    for (int j = Math.max(i, jb); j < jEnd; j++) {
+                        int aj = j * words;
+                        d[row + j] += completeI && complete[j]
+                                ? slots - kernels.xorPopCount(a, ai, aj, k)
+                                : kernels.matchPopCount(a, c, ai, aj, k);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        int k = (used + 31) >>> 5;
+        for (int s = 0; s < numSamples; s++) {
+            Arrays.fill(alleles, s * words, s * words + k, 0L);
+            Arrays.fill(called, s * words, s * words + k, 0L);
+        }
+        Arrays.fill(complete, true);
+        used = 0;
+    }
+}
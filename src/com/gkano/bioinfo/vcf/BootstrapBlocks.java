@@ -0,0 +1,231 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Block bootstrap of the genotype distances. The genome is cut into
+ * blocks of {@code blockBp} base pairs per contig, and the workers fold
+ * the dot products and norms of every variant into its block, so each
+ * block keeps its own partial accumulators. A replicate is then formed at
+ * reduce time by drawing as many blocks as there are, with replacement,
+ * and summing their accumulators; replicate 0 takes every block once and
+ * is the original matrix. Resampling whole blocks keeps linked variants
+ * together, and the variants are encoded and multiplied only once
+ * whatever the number of replicates.
+ * <p>
+ * Blocks are ordered by contig name and position and replicate b draws
+ * from a generator seeded with the seed and b, so the replicates depend
+ * on the seed and the input only, not on the threads.
+ * <p>
+ * A block holds its dot products as int, half the memory of the long
+ * accumulators, and the blocks together may take at most half of the
+ * heap: one more block fails with the advice to raise the block size
+ * rather than running out of memory.
+ */
+final class BootstrapBlocks {
+
+    private final int numSamples;
+    private final int blockBp;
+    private final long seed;
+    private final long maxBytes;
+    private final Map<String, Map<Integer, Block>> blocks = new ConcurrentHashMap<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private List<Block> ordered;
+
+    BootstrapBlocks(int numSamples, int blockBp, long seed) {
+        this(numSamples, blockBp, seed, Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /** Blocks taking at most {@code maxBytes} together. */
+    BootstrapBlocks(int numSamples, int blockBp, long seed, long maxBytes) {
+        if (blockBp <= 0) {
+            throw new IllegalArgumentException("Bootstrap block size must be positive: " + blockBp);
+        }
+        if (TriangularMatrix.elements(numSamples, 0, numSamples) > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many samples for a packed accumulator: " + numSamples);
+        }
+        this.numSamples = numSamples;
+        this.blockBp = blockBp;
+        this.seed = seed;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Bytes of one block. */
+    long blockBytes() {
+        return 4L * TriangularMatrix.elements(numSamples, 0, numSamples) + 8L * numSamples;
+    }
+
+    /** Accumulators of the block holding 1-based position {@code pos} of {@code contig}. */
+    Block get(String contig, int pos) {
+        return blocks.computeIfAbsent(contig, c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(Math.max(0, pos - 1) / blockBp, bin -> newBlock());
+    }
+
+    private Block newBlock() {
+        long needed = (created.get() + 1L) * blockBytes();
+        if (needed > maxBytes) {
+            throw new IllegalStateException("Bootstrap blocks of " + blockBp + "bp need more than "
+                    + (maxBytes >> 20) + "MB for " + numSamples + " samples at block " + (created.get() + 1)
+                    + ": raise --bootstrap-block-bp, or the memory with --mem");
+        }
+        created.incrementAndGet();
+        return new Block();
+    }
+
+    /** Blocks by contig name, then position; fixed once the workers are done. */
+    synchronized List<Block> ordered() {
+        if (ordered == null) {
+            List<Block> list = new ArrayList<>();
+            blocks.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(contig ->
+                    contig.getValue().entrySet().stream().sorted(Map.Entry.comparingByKey())
+                            .forEach(bin -> list.add(bin.getValue())));
+            ordered = list;
+        }
+        return ordered;
+    }
+
+    int size() {
+        return ordered().size();
+    }
+
+    /**
+     * How many times replicate {@code replicate} draws each block of
+     * {@link #ordered()}: once each for replicate 0, a multinomial draw
+     * of {@link #size()} blocks otherwise.
+     */
+    int[] counts(int replicate) {
+        int k = size();
+        int[] counts = new int[k];
+        if (replicate == 0) {
+            Arrays.fill(counts, 1);
+            return counts;
+        }
+        SplittableRandom rand = new SplittableRandom(seed + replicate * 0x9E3779B97F4A7C15L);
+        for (int d = 0; d < k; d++) {
+            counts[rand.nextInt(k)]++;
+        }
+        return counts;
+    }
+
+    /** Add replicate {@code replicate} of the dot products and norms to the given accumulators. */
+    void sum(int replicate, TriangularMatrix dotProd, long[] norm) {
+        List<Block> list = ordered();
+        int[] counts = counts(replicate);
+        long[] values = dotProd.values;
+        for (int b = 0; b < counts.length; b++) {
+            long times = counts[b];
+            if (times == 0) continue;
+            Block block = list.get(b);
+            int[] blockDotProd = block.dotProd;
+            for (int k = 0; k < values.length; k++) {
+                values[k] += times * blockDotProd[k];
+            }
+            long[] blockNorm = block.norm;
+            for (int i = 0; i < numSamples; i++) {
+                norm[i] += times * blockNorm[i];
+            }
+        }
+    }
+
+    /** Dot products, as int, and norms of the variants of one block. */
+    final class Block {
+
+        private final int[] dotProd = new int[(int) TriangularMatrix.elements(numSamples, 0, numSamples)];
+        private final long[] norm = new long[numSamples];
+
+        /** Move the accumulators of a worker into the block, leaving them cleared. */
+        synchronized void fold(TriangularMatrix workerDotProd, long[] workerNorm) {
+            long[] values = workerDotProd.values;
+            for (int k = 0; k < values.length; k++) {
+                long sum = dotProd[k] + values[k];
+                if (sum != (int) sum) {
+                    throw new IllegalStateException("Dot products of a bootstrap block of " + blockBp
+                            + "bp overflow: lower --bootstrap-block-bp");
+                }
+                dotProd[k] = (int) sum;
+            }
+            for (int i = 0; i < numSamples; i++) {
+                norm[i] += workerNorm[i];
+            }
+            workerDotProd.clear();
+            Arrays.fill(workerNorm, 0L);
+        }
+    }
+
+    /**
+     * Per-worker shortcut to the block of consecutive variants, which
+     * mostly fall in the block of the variant before.
+     */
+    final class Cursor {
+
+        private String contig;
+        private byte[] contigBytes = new byte[0];
+        private int bin = -1;
+        private Block block;
+
+        Block at(String contig, int pos) {
+            int b = Math.max(0, pos - 1) / blockBp;
+            if (b != bin || !contig.equals(this.contig)) {
+                block = get(contig, pos);
+                this.contig = contig;
+                contigBytes = contig.getBytes(StandardCharsets.US_ASCII);
+                bin = b;
+            }
+            return block;
+        }
+
+        /** The block of the VCF data line {@code line[start, end)}; IllegalArgumentException on a bad POS. */
+        Block at(byte[] line, int start, int end) {
+            int tab = start;
+            while (tab < end && line[tab] != '\t') tab++;
+            int next = tab + 1;
+            while (next < end && line[next] != '\t') next++;
+            int pos = SNPEncoder.parsePos(line, tab + 1, next);
+            if (pos < 0) {
+                throw new IllegalArgumentException("Invalid POS: "
+                        + new String(line, start, Math.min(next, end) - start, StandardCharsets.US_ASCII));
+            }
+            int b = Math.max(0, pos - 1) / blockBp;
+            if (b == bin && Arrays.equals(line, start, tab, contigBytes, 0, contigBytes.length)) {
+                return block;
+            }
+            return at(new String(line, start, tab - start, StandardCharsets.US_ASCII), pos);
+        }
+
+        /** The block of the VCF data line {@code line}; IllegalArgumentException on a bad POS. */
+        Block at(String line) {
+            int tab = line.indexOf('\t');
+            int next = tab < 0 ? -1 : line.indexOf('\t', tab + 1);
+            byte[] bytes = line.substring(0, next < 0 ? line.length() : next).getBytes(StandardCharsets.US_ASCII);
+            return at(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+/**
+ * The inner loops of the distance computations: popcounts over rows of the
+ * genotype bit matrices and dot products over embeddings. This is the
+ * scalar Java 11 implementation. On Java 21 the multi-release jar adds
+ * {@code VectorDistanceKernels} (under META-INF/versions/21), which
+ * overrides every method with the incubating Vector API; it is loaded when
+ * the JVM runs with {@code --add-modules jdk.incubator.vector}, and this
+ * class is used otherwise.
+ */
+class DistanceKernels {
+
+    static final DistanceKernels INSTANCE = load();
+
+    private static DistanceKernels load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (DistanceKernels) Class.forName("com.gkano.bioinfo.vcf.VectorDistanceKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not running from the multi-release jar, or the API differs: stay scalar
+            }
+        }
+        return new DistanceKernels();
+    }
+
+    /** Short description for the log. */
+    String name() {
+        return "scalar";
+    }
+
+    /** Sum of bitCount(m[a + w]) for w in [0, k). */
+    long popCount(long[] m, int a, int k) {
+        long sum = 0;
+        for (int w = 0; w < k; w++) {
+            sum += Long.bitCount(m[a + w]);
+        }
+        return sum;
+    }
+
+    /** Sum of bitCount(m[a + w] &amp; m[b + w]) for w in [0, k). */
+    long andPopCount(long[] m, int a, int b, int k) {
+        long sum = 0;
+        for (int w = 0; w < k; w++) {
+            sum += Long.bitCount(m[a + w] & m[b + w]);
+        }
+        return sum;
+    }
+
+    /** Sum of bitCount(m[a + w] ^ m[b + w]) for w in [0, k). */
+    long xorPopCount(long[] m, int a, int b, int k) {
+        long sum = 0;
+        for (int w = 0; w < k; w++) {
+            sum += Long.bitCount(m[a + w] ^ m[b + w]);
+        }
+        return sum;
+    }
+
+    /**
+     * Sum of bitCount(~(m[a + w] ^ m[b + w]) &amp; mask[a + w] &amp; mask[b + w])
+     * for w in [0, k): the bits set in both masks on which m agrees.
+     */
+    long matchPopCount(long[] m, long[] mask, int a, int b, int k) {
+        long sum = 0;
+        for (int w = 0; w < k; w++) {
+            sum += Long.bitCount(~(m[a + w] ^ m[b + w]) & mask[a + w] & mask[b + w]);
+        }
+        return sum;
+    }
+
+    /** y[d] += weight * x[d] for d in [0, n). */
+    void addScaled(double[] y, double weight, double[] x, int n) {
+        for (int d = 0; d < n; d++) {
+            y[d] += weight * x[d];
+        }
+    }
+
+    /** Sum of x[d] * y[d] for d in [0, n). */
+    double dot(double[] x, double[] y, int n) {
+        double sum = 0.0;
+        for (int d = 0; d < n; d++) {
+            sum += x[d] * y[d];
+        }
+        return sum;
+    }
+}
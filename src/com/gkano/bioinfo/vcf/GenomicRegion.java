@@ -0,0 +1,151 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A closed, 1-based genomic interval on one sequence, as given on the
+ * command line ("chr", "chr:start", "chr:start-end") or read from a BED
+ * file (0-based, half-open).
+ */
+public final class GenomicRegion {
+
+    public static final int MAX_END = Integer.MAX_VALUE;
+
+    private final String chrom;
+    private final int start;
+    private final int end;
+
+    public GenomicRegion(String chrom, int start, int end) {
+        if (chrom == null || chrom.isEmpty()) {
+            throw new IllegalArgumentException("Region has no sequence name");
+        }
+        if (start < 1 || end < start) {
+            throw new IllegalArgumentException("Invalid region bounds: " + chrom + ":" + start + "-" + end);
+        }
+        this.chrom = chrom;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parse "chr", "chr:start", "chr:start-" or "chr:start-end". Thousands
+     * separators are accepted in the coordinates. A sequence name that
+     * itself contains ':' is kept whole when the suffix is not a range.
+     */
+    public static GenomicRegion parse(String spec) {
+        String s = spec.trim();
+        int colon = s.lastIndexOf(':');
+        if (colon > 0) {
+            String range = s.substring(colon + 1).replace(",", "");
+            if (range.matches("\\d+(-\\d*)?")) {
+                int dash = range.indexOf('-');
+                int start;
+                int end;
+                try {
+                    if (dash < 0) {
+                        start = Integer.parseInt(range);
+                        end = MAX_END;
+                    } else {
+                        start = Integer.parseInt(range.substring(0, dash));
+                        end = dash == range.length() - 1 ? MAX_END : Integer.parseInt(range.substring(dash + 1));
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid region: " + spec);
+                }
+                return new GenomicRegion(s.substring(0, colon), Math.max(1, start), end);
+            }
+        }
+        return new GenomicRegion(s, 1, MAX_END);
+    }
+
+    /**
+     * Expand region arguments: each one is either a region string or the
+     * path of a BED file whose intervals are all included.
+     */
+    public static List<GenomicRegion> parseAll(List<String> specs) throws IOException {
+        List<GenomicRegion> regions = new ArrayList<>();
+        for (String spec : specs) {
+            File file = new File(spec);
+            if (file.isFile()) {
+                regions.addAll(readBed(file));
+            } else {
+                regions.add(parse(spec));
+            }
+        }
+        return regions;
+    }
+
+    public static List<GenomicRegion> readBed(File bed) throws IOException {
+        List<GenomicRegion> regions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(bed))) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 3) {
+                    throw new IllegalArgumentException(bed + ":" + lineNo + ": expected chrom, start and end columns");
+                }
+                try {
+                    int bedStart = Integer.parseInt(fields[1].trim());
+                    int bedEnd = Integer.parseInt(fields[2].trim());
+                    regions.add(new GenomicRegion(fields[0], bedStart + 1, bedEnd));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(bed + ":" + lineNo + ": invalid coordinates");
+                }
+            }
+        }
+        return regions;
+    }
+
+    public String getChrom() {
+        return chrom;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    /** Whether the closed interval [from, to] overlaps this region. */
+    public boolean overlaps(int from, int to) {
+        return from <= end && to >= start;
+    }
+
+    @Override
+    public String toString() {
+        return end == MAX_END ? chrom + ":" + start + "-" : chrom + ":" + start + "-" + end;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+/**
+ * A batch of variants whose genotypes are already in binary form (a BGT
+ * chunk, BCF records or PLINK .bed rows), handed to the worker threads as
+ * is and decoded there.
+ */
+public interface GenotypeBatch {
+
+    int size();
+
+    String contig(int v);
+
+    /** 1-based POS. */
+    int position(int v);
+
+    /**
+     * Largest number of alleles per genotype of variant {@code v}: the
+     * ploidy it is encoded at in full.
+     *
+     * @throws IllegalArgumentException if the variant has no usable genotypes
+     */
+    int ploidy(int v);
+
+    /** Number of alleles (REF and ALT) of variant {@code v}. */
+    int alleles(int v);
+
+    /** Variants [from, to) of this batch, sharing its data. */
+    GenotypeBatch slice(int from, int to);
+
+    /**
+     * Encode the genotypes of variant {@code v} into the {@link SNPEncoder}
+     * one-hot layout, one row of (ploidy * maxAlleles + 31) / 32 ints per
+     * sample. Every word of {@code out} is overwritten.
+     *
+     * @throws IllegalArgumentException if the variant has no usable genotypes
+     */
+    void encodeGenotypes(int v, int ploidy, int maxAlleles, int[][] out);
+
+    /**
+     * Key of variant {@code v} for embedding lookups, or null if it has none.
+     */
+    default String variantKey(int v, VariantKeyExtractor keys) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no variant keys");
+    }
+
+    /**
+     * Number of non-reference alleles per sample of variant {@code v}, -1
+     * for missing, as {@link SNPEncoder#computeAlleleDosage} computes it.
+     *
+     * @throws IllegalArgumentException if the variant has no usable genotypes
+     */
+    default int[] alleleDosage(int v, int numSamples) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no allele dosages");
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.Arrays;
+
+/**
+ * A block of variants transposed into a sample-major bit matrix: every
+ * sample owns {@code words} consecutive longs holding the one-hot bits of
+ * all variants appended so far, one variant after the other. Since every
+ * sample uses the same bit positions for a variant, the dot product of two
+ * samples over the whole block is popcount(a &amp; b) summed over their
+ * words, so a biallelic diploid block covers 16 variants per popcount
+ * instead of one.
+ * <p>
+ * {@link #multiply} runs that product ({@link DistanceKernels}) over
+ * tiles of samples whose words fit in cache together and adds it to a
+ * worker's accumulators; a variant
+ * appended k times (a bootstrap replicate drawing it k times) counts k
+ * times. Not thread safe; each worker owns one per replicate.
+ */
+final class GenotypeBitMatrix implements GenotypeBlock {
+
+    /** Longs per sample of a block, unless memory is short. */
+    static final int DEFAULT_WORDS = 64;
+    /** Upper bound on the bytes of all blocks of one worker. */
+    private static final long WORKER_BYTES = 32L << 20;
+    /** Bytes of the sample rows compared together in one tile. */
+    private static final int TILE_BYTES = 16 << 10;
+
+    private final int numSamples;
+    private int words;
+    private long[] bits;
+    private int used = 0;
+    private final long[] rowNorm;
+
+    GenotypeBitMatrix(int numSamples, int words) {
+        this.numSamples = numSamples;
+        this.words = Math.max(1, words);
+        this.bits = new long[numSamples * this.words];
+        this.rowNorm = new long[numSamples];
+    }
+
+    /** Block words for {@code replicates} matrices per worker within the memory budget. */
+    static int wordsFor(int numSamples, int replicates) {
+        long words = WORKER_BYTES / (8L * Math.max(1, numSamples) * Math.max(1, replicates));
+        return (int) Math.max(1, Math.min(DEFAULT_WORDS, words));
+    }
+
+    /** Whether a variant of {@code width} bits still fits in this block. */
+    boolean fits(int width) {
+        return used + width <= 64 * words;
+    }
+
+    /**
+     * Append the first {@code width} bits of every sample's row. The block
+     * must be empty or {@link #fits} the variant; an empty block grows to
+     * hold a variant wider than it.
+     */
+    void append(int[][] rows, int width) {
+        if (!fits(width)) {
+            if (used > 0) {
+                throw new IllegalStateException("Bit matrix block is full");
+            }
+            words = (width + 63) / 64;
+            bits = new long[numSamples * words];
+        }
+        int intWords = (width + 31) / 32;
+        for (int s = 0; s < numSamples; s++) {
+            int[] row = rows[s];
+            int base = s * words;
+            int bit = used;
+            for (int w = 0; w < intWords; w++, bit += 32) {
+                int n = Math.min(32, width - 32 * w);
+                long value = row[w] & (-1L >>> (64 - n));
+                if (value == 0) continue;
+                int word = base + (bit >>> 6);
+                int shift = bit & 63;
+                bits[word] |= value << shift;
+                if (shift + n > 64) {
+                    bits[word + 1] |= value >>> (64 - shift);
+                }
+            }
+        }
+        used += width;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return used == 0;
+    }
+
+    @Override
+    public int numSamples() {
+        return numSamples;
+    }
+
+    @Override
+    public void addNorms(long[] norm) {
+        int k = (used + 63) / 64;
+        DistanceKernels kernels = DistanceKernels.INSTANCE;
+        for (int i = 0; i < numSamples; i++) {
+            long pop = kernels.popCount(bits, i * words, k);
+            rowNorm[i] = pop;
+            norm[i] += pop;
+        }
+    }
+
+    @Override
+    public void multiply(TriangularMatrix dotProd, int i0, int i1, int j0, int j1) {
+        int k = (used + 63) / 64;
+        long[] m = bits;
+        long[] d = dotProd.values;
+        DistanceKernels kernels = DistanceKernels.INSTANCE;
+        int tile = Math.max(8, TILE_BYTES / (8 * k));
+        for (int ib = i0; ib < i1; ib += tile) {
+            int iEnd = Math.min(i1, ib + tile);
+            for (int jb = Math.max(j0, ib); jb < j1; jb += tile) {
+                int jEnd = Math.min(j1, jb + tile);
+                for (int i = ib; i < iEnd; i++) {
+                    if (rowNorm[i] == 0) {
+                        continue; // missing throughout the block
+                    }
+                    int ai = i * words;
+                    int row = dotProd.rowBase(i);
+                    for (int j = Math.max(i, jb); j < jEnd; j++) {
+                        d[row + j] += kernels.andPopCount(m, ai, j * words, k);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        int k = (used + 63) / 64;
+        if (k == words) {
+            Arrays.fill(bits, 0L);
+        } else {
+            for (int s = 0; s < numSamples; s++) {
+                Arrays.fill(bits, s * words, s * words + k, 0L);
+            }
+        }
+        used = 0;
+    }
+}
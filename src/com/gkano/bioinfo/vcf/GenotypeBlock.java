@@ -0,0 +1,62 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+/**
+ * A block of variants held as sample-major bits, multiplied into the
+ * dot product and norm accumulators of the distance computation.
+ * {@link #addNorms} must run once before the block is multiplied; after
+ * that {@link #multiply} may be called for disjoint parts of the sample-pair
+ * triangle, from one thread at a time, until the block is {@link #clear}ed.
+ */
+interface GenotypeBlock {
+
+    int numSamples();
+
+    boolean isEmpty();
+
+    /** Add each sample's popcount over the block to {@code norm}. */
+    void addNorms(long[] norm);
+
+    /**
+     * Add the dot products over the block of the samples i in [i0, i1) and
+     * j in [j0, j1) with i &lt;= j to {@code dotProd}.
+     */
+    void multiply(TriangularMatrix dotProd, int i0, int i1, int j0, int j1);
+
+    /** Drop every variant of the block. */
+    void clear();
+
+    /**
+     * Add the dot products of every pair of samples over the block to
+     * {@code dotProd} and their popcounts to {@code norm}, then empty the
+     * block.
+     */
+    default void accumulate(TriangularMatrix dotProd, long[] norm) {
+        if (isEmpty()) {
+            return;
+        }
+        addNorms(norm);
+        multiply(dotProd, 0, numSamples(), 0, numSamples());
+        clear();
+    }
+}
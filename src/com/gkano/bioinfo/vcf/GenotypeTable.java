@@ -0,0 +1,200 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.Arrays;
+
+/**
+ * One-hot rows and allele dosages of every genotype of up to three bytes
+ * ("0/1", "1|1", "./.", "1", ...), built once for a ploidy and number of
+ * alleles. The bytes of a genotype are turned into a small integer code
+ * that indexes the table directly, so the workers do not hash or parse the
+ * common genotypes at all. Longer genotypes ("10/1", "0/1/2") fall back to
+ * {@link SNPEncoder#encodeGenotypeOneHot(byte[], int, int, int, int, int[], int)}.
+ */
+public final class GenotypeTable {
+
+    /** Symbols a genotype byte maps to: the ten digits, '.', '/', '|' and anything else. */
+    private static final int SYMBOLS = 14;
+    private static final int DOT = 10, SLASH = 11, PIPE = 12, OTHER = 13;
+    private static final byte[] SYMBOL = new byte[256];
+    private static final byte[] SYMBOL_BYTE = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '.', '/', '|', 'x'};
+    private static final int OFFSET_1 = 1;
+    private static final int OFFSET_2 = OFFSET_1 + SYMBOLS;
+    private static final int OFFSET_3 = OFFSET_2 + SYMBOLS * SYMBOLS;
+    static final int CODES = OFFSET_3 + SYMBOLS * SYMBOLS * SYMBOLS;
+    private static final int[] DOSAGE = new int[CODES];
+    private static final int[] SLOTS = new int[CODES];
+
+    static {
+        Arrays.fill(SYMBOL, (byte) OTHER);
+        for (int d = 0; d < 10; d++) {
+            SYMBOL['0' + d] = (byte) d;
+        }
+        SYMBOL['.'] = DOT;
+        SYMBOL['/'] = SLASH;
+        SYMBOL['|'] = PIPE;
+        for (int code = 0; code < CODES; code++) {
+            byte[] genotype = genotype(code);
+            DOSAGE[code] = SNPEncoder.computeGenotypeDosage(genotype, 0, genotype.length);
+            SLOTS[code] = SNPEncoder.genotypeSlots(genotype, 0, genotype.length);
+        }
+    }
+
+    private static volatile GenotypeTable last;
+
+    private final int ploidy;
+    private final int maxAlleles;
+    private final int words;
+    private final int[][] rows;
+
+    public GenotypeTable(int ploidy, int maxAlleles) {
+        this.ploidy = ploidy;
+        this.maxAlleles = maxAlleles;
+        this.words = (ploidy * maxAlleles + 31) / 32;
+        this.rows = new int[CODES][];
+        for (int code = 0; code < CODES; code++) {
+            byte[] genotype = genotype(code);
+            rows[code] = new int[words];
+            SNPEncoder.encodeGenotypeOneHot(genotype, 0, genotype.length, ploidy, maxAlleles, rows[code], 0);
+        }
+    }
+
+    /** A table for this encoding, reusing the one built last if it matches. */
+    public static GenotypeTable of(int ploidy, int maxAlleles) {
+        GenotypeTable table = last;
+        if (table == null || table.ploidy != ploidy || table.maxAlleles != maxAlleles) {
+            table = new GenotypeTable(ploidy, maxAlleles);
+            last = table;
+        }
+        return table;
+    }
+
+    public int getPloidy() {
+        return ploidy;
+    }
+
+    public int getMaxAlleles() {
+        return maxAlleles;
+    }
+
+    /** Ints per sample row. */
+    public int getWords() {
+        return words;
+    }
+
+    /** The genotype bytes a code stands for. */
+    private static byte[] genotype(int code) {
+        int length = code >= OFFSET_3 ? 3 : code >= OFFSET_2 ? 2 : code >= OFFSET_1 ? 1 : 0;
+        int offset = length == 3 ? OFFSET_3 : length == 2 ? OFFSET_2 : length == 1 ? OFFSET_1 : 0;
+        byte[] genotype = new byte[length];
+        for (int k = length - 1, c = code - offset; k >= 0; k--, c /= SYMBOLS) {
+            genotype[k] = SYMBOL_BYTE[c % SYMBOLS];
+        }
+        return genotype;
+    }
+
+    /** Code of the genotype bytes [from, to), or -1 if it is longer than three. */
+    static int code(byte[] line, int from, int to) {
+        switch (to - from) {
+            case 0:
+                return 0;
+            case 1:
+                return OFFSET_1 + SYMBOL[line[from] & 0xFF];
+            case 2:
+                return OFFSET_2 + SYMBOL[line[from] & 0xFF] * SYMBOLS + SYMBOL[line[from + 1] & 0xFF];
+            case 3:
+                return OFFSET_3 + (SYMBOL[line[from] & 0xFF] * SYMBOLS + SYMBOL[line[from + 1] & 0xFF]) * SYMBOLS
+                        + SYMBOL[line[from + 2] & 0xFF];
+            default:
+                return -1;
+        }
+    }
+
+    /** {@link #code(byte[], int, int)} for the characters [from, to) of a String. */
+    static int code(String line, int from, int to) {
+        switch (to - from) {
+            case 0:
+                return 0;
+            case 1:
+                return OFFSET_1 + symbol(line.charAt(from));
+            case 2:
+                return OFFSET_2 + symbol(line.charAt(from)) * SYMBOLS + symbol(line.charAt(from + 1));
+            case 3:
+                return OFFSET_3 + (symbol(line.charAt(from)) * SYMBOLS + symbol(line.charAt(from + 1))) * SYMBOLS
+                        + symbol(line.charAt(from + 2));
+            default:
+                return -1;
+        }
+    }
+
+    private static int symbol(char c) {
+        return c < 256 ? SYMBOL[c] : OTHER;
+    }
+
+    /**
+     * Overwrite {@code row} with the one-hot encoding of the genotype
+     * [from, to).
+     *
+     * @return its {@link SNPEncoder#genotypeSlots(byte[], int, int)}
+     */
+    int encode(byte[] line, int from, int to, int[] row) {
+        int code = code(line, from, to);
+        if (code >= 0) {
+            copy(rows[code], row);
+            return SLOTS[code];
+        }
+        Arrays.fill(row, 0);
+        SNPEncoder.encodeGenotypeOneHot(line, from, to, ploidy, maxAlleles, row, 0);
+        return SNPEncoder.genotypeSlots(line, from, to);
+    }
+
+    int encode(String line, int from, int to, int[] row) {
+        int code = code(line, from, to);
+        if (code >= 0) {
+            copy(rows[code], row);
+            return SLOTS[code];
+        }
+        Arrays.fill(row, 0);
+        SNPEncoder.encodeGenotypeOneHot(line, from, to, ploidy, maxAlleles, row, 0);
+        return SNPEncoder.genotypeSlots(line, from, to);
+    }
+
+    private void copy(int[] from, int[] to) {
+        if (words == 1) {
+            to[0] = from[0];
+        } else {
+            System.arraycopy(from, 0, to, 0, words);
+        }
+    }
+
+    /** Dosage of the genotype [from, to), as {@link SNPEncoder#computeGenotypeDosage(byte[], int, int)}. */
+    static int dosage(byte[] line, int from, int to) {
+        int code = code(line, from, to);
+        return code >= 0 ? DOSAGE[code] : SNPEncoder.computeGenotypeDosage(line, from, to);
+    }
+
+    static int dosage(String line, int from, int to) {
+        int code = code(line, from, to);
+        return code >= 0 ? DOSAGE[code] : SNPEncoder.computeGenotypeDosage(line, from, to);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.gkano.bioinfo.var.Logger;
+
+/**
+ * Cosine distances of cohorts too large for N&times;N accumulators on
+ * the heap. The triangle of sample pairs is cut into bands of rows small
+ * enough for the memory budget, and the input is read once per band: a
+ * pass runs a {@link VCFManager} whose workers share one
+ * {@link TiledAccumulator} over the rows of the band only. Since every
+ * pass sees every variant, the norms are complete at the end of a pass
+ * and the band is turned into distances straight away and written to a
+ * temporary file as square tiles of doubles (the upper triangle of
+ * tiles, each tile stored whole). {@link #writeRows} then reads back one
+ * strip of tiles at a time, transposing those below the diagonal, and
+ * hands out the rows of the full matrix in order.
+ * <p>
+ * The inputs must be files that read the same on every pass (not
+ * standard input); BGT or PLINK inputs make the extra passes cheap.
+ */
+public final class OutOfCoreDistances implements Closeable {
+
+    /** Receives the rows of the distance matrix, in order. */
+    public interface RowWriter {
+        void write(int i, double[] row) throws IOException;
+    }
+
+    /** Largest side, in samples, of a tile of the file. */
+    private static final int MAX_TILE = 256;
+
+    private final long budgetBytes;
+    private final Path file;
+    private final FileChannel channel;
+    private int numSamples = -1;
+    private List<String> sampleNames = Collections.emptyList();
+    private int numVariants;
+    private int tile;
+    private int tilesPerSide;
+    /** First row of the band of the next pass. */
+    private int nextRow = 0;
+    private ByteBuffer tileBuffer;
+
+    /**
+     * @param budgetBytes heap for the band accumulators and the output
+     *                    strips, in bytes
+     * @param directory   where the temporary tile file goes
+     */
+    public OutOfCoreDistances(long budgetBytes, Path directory) throws IOException {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+        this.file = Files.createTempFile(directory, "distances", ".tiles");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Run one pass per band, each with a fresh manager from {@code passes}
+     * configured like any other run, until every row is on disk.
+     */
+    public void compute(Supplier<VCFManager> passes) throws IOException, InterruptedException {
+        int pass = 0;
+        do {
+            VCFManager vcfm = passes.get();
+            vcfm.setOutOfCore(this);
+            vcfm.init();
+            new Thread(vcfm).start();
+            vcfm.awaitFinalization();
+            storePass(vcfm, ++pass);
+        } while (nextRow < numSamples);
+    }
+
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    public int getNumSamples() {
+        return Math.max(0, numSamples);
+    }
+
+    public int getNumVariants() {
+        return numVariants;
+    }
+
+    /**
+     * Rows [first, end) of the band of the current pass; the first call
+     * plans the tiles and bands for {@code samples} samples.
+     */
+    synchronized int[] nextBand(int samples) {
+        if (numSamples < 0) {
+            plan(samples);
+        } else if (samples != numSamples) {
+            throw new IllegalStateException("Input changed between passes: " + samples
+                    + " samples instead of " + numSamples);
+        }
+        int end = Math.min(numSamples, nextRow + tile);
+        long bandBytes = budgetBytes / 2;
+        while (end < numSamples && 8 * TriangularMatrix.elements(numSamples, nextRow, Math.min(numSamples, end + tile)) <= bandBytes) {
+            end = Math.min(numSamples, end + tile);
+        }
+        return new int[] { nextRow, end };
+    }
+
+    private void plan(int samples) {
+        numSamples = samples;
+        // an output strip holds tile rows of every sample, twice over while it is assembled
+        long strip = budgetBytes / 4 / (16L * Math.max(1, samples));
+        tile = (int) Math.max(1, Math.min(MAX_TILE, Long.highestOneBit(Math.max(1, strip))));
+        tilesPerSide = (samples + tile - 1) / tile;
+        tileBuffer = ByteBuffer.allocateDirect(8 * tile * tile).order(ByteOrder.nativeOrder());
+        long tiles = (long) tilesPerSide * (tilesPerSide + 1) / 2;
+        Logger.info(this, "Out-of-core distances: " + samples + " samples in tiles of " + tile
+                + ", " + ((tiles * 8 * tile * tile) >> 20) + "MB on disk in " + file.getParent());
+    }
+
+    private void storePass(VCFManager vcfm, int pass) throws IOException {
+        List<String> names = vcfm.getSampleNames() == null ? Collections.emptyList() : vcfm.getSampleNames();
+        if (pass == 1) {
+            sampleNames = names;
+            numVariants = vcfm.getNumVariants();
+        } else if (!names.equals(sampleNames) || vcfm.getNumVariants() != numVariants) {
+            throw new IllegalStateException("Input changed between passes: " + vcfm.getNumVariants()
+                    + " variants instead of " + numVariants);
+        }
+        TiledAccumulator accumulator = vcfm.getSharedAccumulator();
+        if (accumulator == null) {
+            // no variant was read, so no worker asked for a band
+            int[] band = nextBand(names.size());
+            accumulator = new TiledAccumulator(1, numSamples, band[0], band[1]);
+        }
+        TriangularMatrix dotProd = accumulator.dotProd[0];
+        Logger.info(this, "Pass " + pass + ": rows " + dotProd.firstRow + "-" + dotProd.endRow
+                + " of " + numSamples);
+        writeBand(dotProd, accumulator.norm[0]);
+        nextRow = dotProd.endRow;
+    }
+
+    /** Turn the band into distances and write its tiles. */
+    private void writeBand(TriangularMatrix dotProd, long[] norm) throws IOException {
+        double[] sqrt = new double[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            sqrt[i] = Math.sqrt(norm[i]);
+        }
+        for (int a = dotProd.firstRow / tile; a * tile < dotProd.endRow; a++) {
+            int i0 = a * tile;
+            int i1 = Math.min(numSamples, i0 + tile);
+            for (int b = a; b < tilesPerSide; b++) {
+                int j0 = b * tile;
+                int j1 = Math.min(numSamples, j0 + tile);
+                DoubleBuffer values = clearedTile();
+                for (int i = i0; i < i1; i++) {
+                    for (int j = j0; j < j1; j++) {
+                        // below the diagonal of a diagonal tile, (j, i) is in the band too
+                        long dot = dotProd.get(i, j);
+                        values.put((i - i0) * tile + (j - j0), VCFManager.cosineDistance(dot, sqrt[i], sqrt[j], i == j));
+                    }
+                }
+                writeTile(a, b);
+            }
+        }
+    }
+
+    /**
+     * Read the matrix back one strip of rows at a time and pass every row,
+     * in order, to {@code out}.
+     */
+    public void writeRows(RowWriter out) throws IOException {
+        double[][] strip = new double[Math.min(tile, getNumSamples())][numSamples];
+        for (int a = 0; a < tilesPerSide; a++) {
+            int i0 = a * tile;
+            int rows = Math.min(tile, numSamples - i0);
+            for (int b = 0; b < tilesPerSide; b++) {
+                int j0 = b * tile;
+                int cols = Math.min(tile, numSamples - j0);
+                // tiles left of the diagonal are stored transposed, as (b, a)
+                DoubleBuffer values = readTile(Math.min(a, b), Math.max(a, b));
+                for (int r = 0; r < rows; r++) {
+                    double[] row = strip[r];
+                    for (int c = 0; c < cols; c++) {
+                        row[j0 + c] = b >= a ? values.get(r * tile + c) : values.get(c * tile + r);
+                    }
+                }
+            }
+            for (int r = 0; r < rows; r++) {
+                out.write(i0 + r, strip[r]);
+            }
+        }
+    }
+
+    private long tileOffset(int a, int b) {
+        long index = (long) a * tilesPerSide - (long) a * (a - 1) / 2 + (b - a);
+        return index * 8L * tile * tile;
+    }
+
+    private DoubleBuffer clearedTile() {
+        tileBuffer.clear();
+        DoubleBuffer values = tileBuffer.asDoubleBuffer();
+        for (int k = 0; k < values.capacity(); k++) {
+            values.put(k, 0.0);
+        }
+        return values;
+    }
+
+    private void writeTile(int a, int b) throws IOException {
+        long position = tileOffset(a, b);
+        while (tileBuffer.hasRemaining()) {
+            channel.write(tileBuffer, position + tileBuffer.position());
+        }
+    }
+
+    private DoubleBuffer readTile(int a, int b) throws IOException {
+        tileBuffer.clear();
+        long position = tileOffset(a, b);
+        while (tileBuffer.hasRemaining()) {
+            if (channel.read(tileBuffer, position + tileBuffer.position()) < 0) {
+                throw new IOException("Tile file " + file + " is truncated");
+            }
+        }
+        tileBuffer.flip();
+        return tileBuffer.asDoubleBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
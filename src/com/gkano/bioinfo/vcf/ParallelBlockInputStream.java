@@ -0,0 +1,143 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Base for decompressors whose input splits into independently decodable
+ * blocks. Subclasses hand out one decoding task per block, in file order;
+ * the tasks run on a pool of threads and their outputs are returned
+ * strictly in the order the tasks were handed out.
+ */
+public abstract class ParallelBlockInputStream extends InputStream {
+
+    private final ExecutorService pool;
+    private final int maxInFlight;
+    private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+    private boolean sourceExhausted = false;
+
+    private byte[] current = new byte[0];
+    private int currentPos = 0;
+
+    /**
+     * @param threads decoding threads
+     * @param maxInFlight blocks decoded or queued ahead of the reader
+     * @param threadName name of the pool threads
+     */
+    protected ParallelBlockInputStream(int threads, int maxInFlight, String threadName) {
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Split off the next block of the source.
+     *
+     * @return a task decoding that block, or null at the end of the source
+     */
+    protected abstract Callable<byte[]> nextBlock() throws IOException;
+
+    /** Release the underlying source. */
+    protected abstract void closeSource() throws IOException;
+
+    private void fillPipeline() throws IOException {
+        while (!sourceExhausted && inFlight.size() < maxInFlight) {
+            Callable<byte[]> task = nextBlock();
+            if (task == null) {
+                sourceExhausted = true;
+                break;
+            }
+            inFlight.add(pool.submit(task));
+        }
+    }
+
+    /**
+     * Make sure the current block has unread bytes.
+     *
+     * @return false at end of stream
+     */
+    private boolean ensureCurrent() throws IOException {
+        while (currentPos >= current.length) {
+            fillPipeline();
+            Future<byte[]> next = inFlight.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decoding block", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            currentPos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        return current[currentPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - currentPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        inFlight.clear();
+        closeSource();
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reader for PLINK 1 binary filesets: genotypes in {@code prefix.bed},
+ * variants in {@code prefix.bim} and samples in {@code prefix.fam}.
+ * <p>
+ * The .bed file holds, after a 3 byte header, one row of ceil(n / 4) bytes
+ * per variant with 2 bits per sample, first sample in the least significant
+ * bits: 00 homozygous A1, 01 missing, 10 heterozygous, 11 homozygous A2.
+ * Rows are mapped, never copied or parsed, and travel to the workers as
+ * {@link Chunk}s. A2 is taken as the reference allele and A1 as the
+ * alternate, which is how PLINK writes filesets converted from VCF with
+ * --keep-allele-order; cosine distances do not depend on the choice.
+ */
+public final class PlinkFileset implements Closeable {
+
+    static final byte[] MAGIC = {0x6C, 0x1B, 0x01};
+    private static final int HEADER_SIZE = 3;
+    /** Size of the .bed regions mapped at a time. */
+    private static final long REGION_SIZE = 1L << 26;
+    /** Missing value of the alleles of a variant in .bim. */
+    private static final String NO_ALLELE = "0";
+
+    private final String prefix;
+    private final FileChannel bed;
+    private final BufferedReader bim;
+    private final List<String> sampleNames;
+    private final int bytesPerVariant;
+    private final long numVariants;
+
+    private long nextVariant;
+    private String lastContig;
+    private ByteBuffer region;
+    private long regionStart;
+    private long regionEnd;
+
+    /**
+     * @param prefix path of the fileset without extension, or of its .bed file
+     */
+    public PlinkFileset(String prefix) throws IOException {
+        this.prefix = prefix.endsWith(".bed") ? prefix.substring(0, prefix.length() - 4) : prefix;
+        this.sampleNames = readSampleNames(this.prefix + ".fam");
+        this.bytesPerVariant = (sampleNames.size() + 3) / 4;
+        this.bed = FileChannel.open(Paths.get(this.prefix + ".bed"), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && bed.read(header) >= 0) { }
+            if (header.position() < HEADER_SIZE || header.get(0) != MAGIC[0] || header.get(1) != MAGIC[1]) {
+                throw new IOException(this.prefix + ".bed is not a PLINK .bed file");
+            }
+            if (header.get(2) != MAGIC[2]) {
+                throw new IOException(this.prefix + ".bed is in sample-major order; rewrite it with plink --make-bed");
+            }
+            long data = bed.size() - HEADER_SIZE;
+            if (bytesPerVariant == 0 || data % bytesPerVariant != 0) {
+                throw new IOException("Size of " + this.prefix + ".bed does not match the "
+                        + sampleNames.size() + " samples of " + this.prefix + ".fam");
+            }
+            this.numVariants = data / bytesPerVariant;
+            this.bim = Files.newBufferedReader(Paths.get(this.prefix + ".bim"), StandardCharsets.UTF_8);
+        } catch (IOException | RuntimeException e) {
+            bed.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The fileset prefix {@code path} names, or null if it is not one:
+     * either the path of an existing .bed file or a prefix with a .bed file
+     * next to it.
+     */
+    public static String prefixOf(String path) {
+        if (path.endsWith(".bed") && new File(path).isFile()) {
+            return path.substring(0, path.length() - 4);
+        }
+        if (!new File(path).exists() && new File(path + ".bed").isFile()) {
+            return path;
+        }
+        return null;
+    }
+
+    private static List<String> readSampleNames(String fam) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fam), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields[0].isEmpty()) {
+                    continue;
+                }
+                if (fields.length < 2) {
+                    throw new IOException("Malformed line in " + fam + ": " + line);
+                }
+                names.add(fields[1]);
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    public int getNumSamples() {
+        return sampleNames.size();
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    /**
+     * The next (at most) {@code maxVariants} variants, or null after the
+     * last one. The returned chunk stays valid after the fileset is closed
+     * and may be decoded from any thread.
+     */
+    public Chunk next(int maxVariants) throws IOException {
+        int count = (int) Math.min(maxVariants, numVariants - nextVariant);
+        String[] contigs = new String[count];
+        int[] positions = new int[count];
+        String[] ids = new String[count];
+        String[] alt = new String[count];
+        String[] ref = new String[count];
+        int n = 0;
+        String line;
+        while (n < count && (line = bim.readLine()) != null) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+            if (fields.length < 6) {
+                throw new IOException("Malformed line in " + prefix + ".bim: " + line);
+            }
+            if (!fields[0].equals(lastContig)) {
+                lastContig = fields[0];
+            }
+            contigs[n] = lastContig;
+            try {
+                positions[n] = Integer.parseInt(fields[3]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed position in " + prefix + ".bim: " + line);
+            }
+            ids[n] = fields[1];
+            alt[n] = NO_ALLELE.equals(fields[4]) ? "." : fields[4];
+            ref[n] = fields[5];
+            n++;
+        }
+        if (n < count) {
+            throw new IOException(prefix + ".bim lists fewer variants than the " + numVariants + " of " + prefix + ".bed");
+        }
+        if (count == 0) {
+            while ((line = bim.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    throw new IOException(prefix + ".bim lists more variants than the " + numVariants + " of "
+                            + prefix + ".bed");
+                }
+            }
+            return null;
+        }
+        long offset = HEADER_SIZE + nextVariant * bytesPerVariant;
+        long length = (long) count * bytesPerVariant;
+        if (region == null || offset < regionStart || offset + length > regionEnd) {
+            long size = Math.min(Math.max(REGION_SIZE, length), bed.size() - offset);
+            region = bed.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            regionStart = offset;
+            regionEnd = offset + size;
+        }
+        nextVariant += count;
+        return new Chunk(region, (int) (offset - regionStart), contigs, positions, ids, ref, alt, 0, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            bim.close();
+        } finally {
+            bed.close();
+        }
+    }
+
+    /** One-hot rows of the four 2-bit codes for the given encoding. */
+    static int[][] codeRows(int ploidy, int maxAlleles) {
+        // alleles (A2 = 0, A1 = 1) of the two slots, per code; null is missing
+        int[][] alleles = {{1, 1}, null, {0, 1}, {0, 0}};
+        int[][] rows = new int[4][(ploidy * maxAlleles + 31) / 32];
+        for (int code = 0; code < 4; code++) {
+            if (alleles[code] == null) {
+                continue;
+            }
+            for (int k = 0; k < 2 && k < ploidy; k++) {
+                int allele = alleles[code][k];
+                if (allele < maxAlleles) {
+                    int bitIndex = k * maxAlleles + allele;
+                    rows[code][bitIndex / 32] |= (1 << (bitIndex % 32));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Variants [from, to) of a run of consecutive .bed rows, with their .bim
+     * entries.
+     */
+    public final class Chunk implements GenotypeBatch {
+        private final ByteBuffer rows;
+        private final int base;
+        private final String[] contigs;
+        private final int[] positions;
+        private final String[] ids;
+        private final String[] ref;
+        private final String[] alt;
+        private final int from;
+        private final int to;
+        private int[][] codeRows;
+        private int codePloidy;
+        private int codeMaxAlleles;
+
+        private Chunk(ByteBuffer rows, int base, String[] contigs, int[] positions, String[] ids,
+                String[] ref, String[] alt, int from, int to) {
+            this.rows = rows;
+            this.base = base;
+            this.contigs = contigs;
+            this.positions = positions;
+            this.ids = ids;
+            this.ref = ref;
+            this.alt = alt;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public String contig(int v) {
+            return contigs[from + v];
+        }
+
+        @Override
+        public int position(int v) {
+            return positions[from + v];
+        }
+
+        @Override
+        public int ploidy(int v) {
+            return 2;
+        }
+
+        @Override
+        public int alleles(int v) {
+            return 2;
+        }
+
+        @Override
+        public Chunk slice(int start, int end) {
+            return new Chunk(rows, base, contigs, positions, ids, ref, alt, from + start, from + end);
+        }
+
+        /**
+         * Genotypes are diploid and biallelic; a heterozygote is encoded as
+         * "0/1".
+         */
+        @Override
+        public void encodeGenotypes(int v, int ploidy, int maxAlleles, int[][] out) {
+            checkSamples(out.length);
+            if (codeRows == null || codePloidy != ploidy || codeMaxAlleles != maxAlleles) {
+                codeRows = codeRows(ploidy, maxAlleles);
+                codePloidy = ploidy;
+                codeMaxAlleles = maxAlleles;
+            }
+            int p = base + (from + v) * bytesPerVariant;
+            for (int s = 0; s < out.length; s += 4) {
+                int codes = rows.get(p + (s >> 2));
+                for (int k = s; k < s + 4 && k < out.length; k++, codes >>>= 2) {
+                    int[] row = out[k];
+                    System.arraycopy(codeRows[codes & 3], 0, row, 0, row.length);
+                }
+            }
+        }
+
+        @Override
+        public String variantKey(int v, VariantKeyExtractor keys) {
+            return keys.extractKey(contig(v), position(v), ids[from + v], ref[from + v], alt[from + v]);
+        }
+
+        @Override
+        public int[] alleleDosage(int v, int numSamples) {
+            checkSamples(numSamples);
+            int[] dosage = new int[numSamples];
+            int p = base + (from + v) * bytesPerVariant;
+            for (int s = 0; s < numSamples; s += 4) {
+                int codes = rows.get(p + (s >> 2));
+                for (int k = s; k < s + 4 && k < numSamples; k++, codes >>>= 2) {
+                    switch (codes & 3) {
+                        case 0: dosage[k] = 2; break;
+                        case 1: dosage[k] = -1; break;
+                        case 2: dosage[k] = 1; break;
+                        default: dosage[k] = 0; break;
+                    }
+                }
+            }
+            return dosage;
+        }
+
+        private void checkSamples(int expected) {
+            if (expected != sampleNames.size()) {
+                throw new IllegalArgumentException("Expected " + expected + " samples, " + prefix + " has "
+                        + sampleNames.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Decouples a (decompressing) stream from its reader: a background thread
+ * fills fixed-size buffers from the source while the caller frames lines
+ * from buffers already filled. The number of buffers is fixed and they
+ * are recycled, which bounds both the memory used and how far the
+ * decompressor can run ahead.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    public static final int DEFAULT_DEPTH = 4;
+
+    private static final class Filled {
+        final byte[] data;
+        final int length;
+        final IOException error;
+        Filled(byte[] data, int length, IOException error) {
+            this.data = data;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    private final InputStream in;
+    private final BlockingQueue<byte[]> free;
+    private final BlockingQueue<Filled> filled = new LinkedBlockingQueue<>();
+    private final Thread reader;
+    private volatile boolean closed = false;
+
+    private Filled current;
+    private int pos;
+    private boolean eof = false;
+
+    public ReadAheadInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE, DEFAULT_DEPTH);
+    }
+
+    public ReadAheadInputStream(InputStream in, int bufferSize, int depth) {
+        this.in = in;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, depth));
+        for (int i = 0; i < Math.max(1, depth); i++) {
+            free.add(new byte[bufferSize]);
+        }
+        this.reader = new Thread(this::fill, "vcf-read-ahead");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void fill() {
+        try {
+            while (!closed) {
+                byte[] buf = free.take();
+                int n;
+                try {
+                    n = BGZFInputStream.readFully(in, buf, 0, buf.length);
+                } catch (IOException e) {
+                    filled.put(new Filled(null, -1, e));
+                    return;
+                }
+                filled.put(new Filled(buf, n, null));
+                if (n < buf.length) {
+                    filled.put(new Filled(null, -1, null));
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed while waiting for a free buffer
+        }
+    }
+
+    /**
+     * Make sure the current buffer has unread bytes.
+     *
+     * @return false at end of stream
+     */
+    private boolean ensureCurrent() throws IOException {
+        while (current == null || pos >= current.length) {
+            if (eof) {
+                return false;
+            }
+            if (current != null) {
+                free.offer(current.data);
+                current = null;
+            }
+            Filled next;
+            try {
+                next = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for input");
+            }
+            if (next.error != null) {
+                eof = true;
+                throw next.error;
+            }
+            if (next.data == null) {
+                eof = true;
+                return false;
+            }
+            current = next;
+            pos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        return current.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        reader.interrupt();
+        in.close();
+    }
+}
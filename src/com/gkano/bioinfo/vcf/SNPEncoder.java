@@ -23,67 +23,10 @@ package com.gkano.bioinfo.vcf;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.Map;
 import java.util.function.Function;
 
 public class SNPEncoder {
 
-    /**
-     * Encodes a SNP VCF line into one-hot genotype vectors.
-     *
-     * @param snpLine full tab-separated VCF line
-     * @param ploidy e.g., 2 for diploid
-     * @param maxNumAlleles global maximum number of alleles (for padding)
-     * @return 2D array: each row is one sample's encoded genotype vector
-     */
-    public static int[][] encodeSNPOneHot(String snpLine, int ploidy, int maxAlleles, Map<String, int[]> encodingCache, int numSamples) throws IllegalArgumentException {
-        //String[] fields = snpLine.split("\t");
-        int[][] encoded = new int[numSamples][];
-        int expectedColumns = numSamples + 9;
-        int fieldStart = 0, fieldEnd, col = 0;
-        String[] fields = new String[expectedColumns];
-        while ((fieldEnd = snpLine.indexOf('\t', fieldStart)) != -1 && col < expectedColumns) {
-            fields[col++] = snpLine.substring(fieldStart, fieldEnd);
-            fieldStart = fieldEnd + 1;
-        }
-        fields[col] = snpLine.substring(fieldStart);
-
-        // Parse FORMAT field to locate GT index
-        String formatString = fields[8];
-        int gtIndex = -1;
-        int fieldIdx = 0;
-        int pos = 0;
-        while (formatString!=null && pos < formatString.length()) {
-            int sep = formatString.indexOf(':', pos);
-            if (sep == -1) {
-                sep = formatString.length();
-            }
-            String token = formatString.substring(pos, sep);
-            if (token.equals("GT")) {
-                gtIndex = fieldIdx;
-                break;
-            }
-            pos = sep + 1;
-            fieldIdx++;
-        }
-        if (gtIndex == -1) {
-            throw new IllegalArgumentException("FORMAT field does not contain GT");
-        }
-
-        for (int i = 0; i < numSamples; i++) {
-            String sampleField = fields[i + 9];
-            String[] sampleParts = sampleField.split(":");
-            if (gtIndex >= sampleParts.length) {
-                continue; // missing → already zero-filled
-            }
-            String genotype = sampleParts[gtIndex];
-            int[] encoding = encodingCache.computeIfAbsent(genotype, g -> encodeGenotypeOneHot(g, ploidy, maxAlleles));
-            encoded[i] = encoding;
-        }
-
-        return encoded;
-    }
-
     public static int[] encodeGenotypeOneHot(String genotype, int ploidy, int maxAlleles) {
         //byte[] oneHot = new byte[ploidy * maxNumAlleles];
         int totalBits = ploidy * maxAlleles;
@@ -110,6 +53,399 @@ public class SNPEncoder {
         return oneHot;
     }
 
+    /**
+     * Encodes a SNP VCF line into {@code out}, one row of
+     * (ploidy * maxAlleles + 31) / 32 ints per sample, overwriting every
+     * word. The line is scanned once and nothing is allocated, so a worker
+     * can reuse the same buffer for every variant. The GT sub-field is found
+     * by counting ':' separators; when FORMAT is exactly "GT" the whole
+     * sample column is the genotype and that scan is skipped.
+     */
+    public static void encodeSNPOneHot(String line, int ploidy, int maxAlleles, int[][] out) throws IllegalArgumentException {
+        encodeSNPOneHot(line, GenotypeTable.of(ploidy, maxAlleles), out);
+    }
+
+    /**
+     * {@link #encodeSNPOneHot(String, int, int, int[][])} with the genotypes
+     * looked up in {@code table}.
+     *
+     * @return the largest number of alleles in a called genotype of the
+     * line, see {@link #genotypeSlots(byte[], int, int)}; alleles beyond the
+     * table's ploidy are not encoded
+     */
+    public static int encodeSNPOneHot(String line, GenotypeTable table, int[][] out) throws IllegalArgumentException {
+        int end = line.length();
+        int formatStart = skipFields(line, 0, 8);
+        if (formatStart < 0) {
+            throw new IllegalArgumentException("SNP line does not contain FORMAT and sample fields.");
+        }
+        int formatEnd = fieldEnd(line, formatStart);
+        boolean onlyGT = formatEnd - formatStart == 2 && line.startsWith("GT", formatStart);
+        int gtIndex = onlyGT ? 0 : findGTIndex(line, formatStart, formatEnd);
+        if (gtIndex == -1) {
+            throw new IllegalArgumentException("FORMAT field does not contain GT");
+        }
+
+        int p = formatEnd + 1;
+        int slots = 0;
+        for (int i = 0; i < out.length; i++) {
+            if (p > end) {
+                throw new IllegalArgumentException("SNP line has fewer sample columns than the header.");
+            }
+            int sampleEnd = fieldEnd(line, p);
+            int gtStart = onlyGT ? p : skipSubFields(line, p, sampleEnd, gtIndex);
+            if (gtStart >= 0) {
+                int gtSlots = table.encode(line, gtStart, onlyGT ? sampleEnd : subFieldEnd(line, gtStart, sampleEnd), out[i]);
+                if (gtSlots > slots) slots = gtSlots;
+            } else {
+                Arrays.fill(out[i], 0); // missing → zero-filled
+            }
+            p = sampleEnd + 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Byte-level variant of {@link #encodeSNPOneHot(String, int, int, int[][])}
+     * working on the raw line slice [start, end), allocating the result.
+     *
+     * @return 2D array: each row is one sample's encoded genotype vector
+     */
+    public static int[][] encodeSNPOneHot(byte[] line, int start, int end, int ploidy, int maxAlleles, int numSamples) throws IllegalArgumentException {
+        int[][] encoded = new int[numSamples][(ploidy * maxAlleles + 31) / 32];
+        encodeSNPOneHot(line, start, end, ploidy, maxAlleles, encoded);
+        return encoded;
+    }
+
+    /**
+     * Byte-level variant of {@link #encodeSNPOneHot(String, int, int, int[][])}
+     * for the raw line slice [start, end); no String is created for the line
+     * or its columns.
+     */
+    public static void encodeSNPOneHot(byte[] line, int start, int end, int ploidy, int maxAlleles, int[][] out) throws IllegalArgumentException {
+        encodeSNPOneHot(line, start, end, GenotypeTable.of(ploidy, maxAlleles), out);
+    }
+
+    /**
+     * {@link #encodeSNPOneHot(byte[], int, int, int, int, int[][])} with the
+     * genotypes looked up in {@code table}.
+     *
+     * @return the largest number of alleles in a called genotype of the line
+     */
+    public static int encodeSNPOneHot(byte[] line, int start, int end, GenotypeTable table, int[][] out) throws IllegalArgumentException {
+        int formatStart = skipFields(line, start, end, 8);
+        if (formatStart < 0) {
+            throw new IllegalArgumentException("SNP line does not contain FORMAT and sample fields.");
+        }
+        int formatEnd = fieldEnd(line, formatStart, end);
+        boolean onlyGT = formatEnd - formatStart == 2 && line[formatStart] == 'G' && line[formatStart + 1] == 'T';
+        int gtIndex = onlyGT ? 0 : findGTIndex(line, formatStart, formatEnd);
+        if (gtIndex == -1) {
+            throw new IllegalArgumentException("FORMAT field does not contain GT");
+        }
+
+        int p = formatEnd + 1;
+        int slots = 0;
+        for (int i = 0; i < out.length; i++) {
+            if (p > end) {
+                throw new IllegalArgumentException("SNP line has fewer sample columns than the header.");
+            }
+            int sampleEnd = fieldEnd(line, p, end);
+            int gtStart = onlyGT ? p : skipSubFields(line, p, sampleEnd, gtIndex);
+            if (gtStart >= 0) {
+                int gtSlots = table.encode(line, gtStart, onlyGT ? sampleEnd : subFieldEnd(line, gtStart, sampleEnd), out[i]);
+                if (gtSlots > slots) slots = gtSlots;
+            } else {
+                Arrays.fill(out[i], 0); // missing → zero-filled
+            }
+            p = sampleEnd + 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Decodes the genotype bytes [from, to) (e.g. "0/1", "1|1", "./.") in
+     * place and ORs its one-hot bits into {@code out} starting at word
+     * {@code offset}. Semantics match {@link #encodeGenotypeOneHot(String, int, int)}:
+     * any '.' makes the genotype missing, alleles beyond the ploidy or
+     * outside [0, maxAlleles) and non-numeric alleles are ignored.
+     */
+    public static void encodeGenotypeOneHot(byte[] line, int from, int to, int ploidy, int maxAlleles, int[] out, int offset) {
+        if (from >= to) {
+            return;
+        }
+        for (int k = from; k < to; k++) {
+            if (line[k] == '.') {
+                return;
+            }
+        }
+        int slot = 0;
+        int allele = 0;
+        boolean valid = false;
+        for (int k = from; k <= to && slot < ploidy; k++) {
+            byte b = k < to ? line[k] : (byte) '/';
+            if (b == '/' || b == '|') {
+                if (valid && allele < maxAlleles) {
+                    int bitIndex = slot * maxAlleles + allele;
+                    out[offset + bitIndex / 32] |= (1 << (bitIndex % 32));
+                }
+                slot++;
+                allele = 0;
+                valid = false;
+            } else if (b >= '0' && b <= '9' && allele <= MAX_PARSED_ALLELE) {
+                allele = allele * 10 + (b - '0');
+                valid = true;
+            } else {
+                // not a number (or absurdly large): this slot is ignored
+                allele = MAX_PARSED_ALLELE + 1;
+                valid = false;
+                while (k + 1 < to && line[k + 1] != '/' && line[k + 1] != '|') k++;
+            }
+        }
+    }
+
+    /**
+     * {@link #encodeGenotypeOneHot(byte[], int, int, int, int, int[], int)}
+     * for the characters [from, to) of a String.
+     */
+    public static void encodeGenotypeOneHot(String line, int from, int to, int ploidy, int maxAlleles, int[] out, int offset) {
+        if (from >= to || hasDot(line, from, to)) {
+            return;
+        }
+        int slot = 0;
+        int allele = 0;
+        boolean valid = false;
+        for (int k = from; k <= to && slot < ploidy; k++) {
+            char c = k < to ? line.charAt(k) : '/';
+            if (c == '/' || c == '|') {
+                if (valid && allele < maxAlleles) {
+                    int bitIndex = slot * maxAlleles + allele;
+                    out[offset + bitIndex / 32] |= (1 << (bitIndex % 32));
+                }
+                slot++;
+                allele = 0;
+                valid = false;
+            } else if (c >= '0' && c <= '9' && allele <= MAX_PARSED_ALLELE) {
+                allele = allele * 10 + (c - '0');
+                valid = true;
+            } else {
+                allele = MAX_PARSED_ALLELE + 1;
+                valid = false;
+                while (k + 1 < to && line.charAt(k + 1) != '/' && line.charAt(k + 1) != '|') k++;
+            }
+        }
+    }
+
+    private static boolean hasDot(String line, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (line.charAt(k) == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of alleles of the genotype bytes [from, to) as
+     * {@code split("[/|]")} counts them (trailing empty alleles dropped), or
+     * 0 if it is missing. This is the ploidy needed to encode it in full.
+     */
+    public static int genotypeSlots(byte[] line, int from, int to) {
+        int slots = 0, tokens = 0;
+        boolean nonEmpty = false;
+        for (int k = from; k < to; k++) {
+            byte b = line[k];
+            if (b == '.') {
+                return 0;
+            }
+            if (b == '/' || b == '|') {
+                tokens++;
+                if (nonEmpty) slots = tokens;
+                nonEmpty = false;
+            } else {
+                nonEmpty = true;
+            }
+        }
+        return nonEmpty ? tokens + 1 : slots;
+    }
+
+    public static int genotypeSlots(String line, int from, int to) {
+        int slots = 0, tokens = 0;
+        boolean nonEmpty = false;
+        for (int k = from; k < to; k++) {
+            char c = line.charAt(k);
+            if (c == '.') {
+                return 0;
+            }
+            if (c == '/' || c == '|') {
+                tokens++;
+                if (nonEmpty) slots = tokens;
+                nonEmpty = false;
+            } else {
+                nonEmpty = true;
+            }
+        }
+        return nonEmpty ? tokens + 1 : slots;
+    }
+
+    /**
+     * Number of alleles (REF plus ALT) of the line slice [start, end), from
+     * its ALT column: 1 when ALT is ".".
+     */
+    public static int alleleCount(byte[] line, int start, int end) {
+        int altStart = skipFields(line, start, end, 4);
+        if (altStart < 0) {
+            throw new IllegalArgumentException("SNP line does not contain an ALT field.");
+        }
+        int altEnd = fieldEnd(line, altStart, end);
+        if (altEnd - altStart == 1 && line[altStart] == '.') {
+            return 1;
+        }
+        int alleles = 2;
+        for (int k = altStart; k < altEnd; k++) {
+            if (line[k] == ',') alleles++;
+        }
+        return alleles;
+    }
+
+    public static int alleleCount(String line) {
+        int altStart = skipFields(line, 0, 4);
+        if (altStart < 0) {
+            throw new IllegalArgumentException("SNP line does not contain an ALT field.");
+        }
+        int altEnd = fieldEnd(line, altStart);
+        if (altEnd - altStart == 1 && line.charAt(altStart) == '.') {
+            return 1;
+        }
+        int alleles = 2;
+        for (int k = altStart; k < altEnd; k++) {
+            if (line.charAt(k) == ',') alleles++;
+        }
+        return alleles;
+    }
+
+    private static final int MAX_PARSED_ALLELE = 1 << 20;
+
+    /**
+     * Position just after the n-th TAB at or after {@code from}, or -1 if the
+     * slice [from, end) holds fewer than n TABs.
+     */
+    static int skipFields(byte[] line, int from, int end, int n) {
+        int p = from;
+        while (n > 0) {
+            while (p < end && line[p] != '\t') p++;
+            if (p >= end) return -1;
+            p++;
+            n--;
+        }
+        return p;
+    }
+
+    /** Exclusive end of the TAB-delimited field starting at {@code from}. */
+    static int fieldEnd(byte[] line, int from, int end) {
+        int p = from;
+        while (p < end && line[p] != '\t') p++;
+        return p;
+    }
+
+    /** Unsigned decimal in [from, to), or -1 if it is not a valid position. */
+    static int parsePos(byte[] line, int from, int to) {
+        if (from >= to || to - from > 10) return -1;
+        long pos = 0;
+        for (int k = from; k < to; k++) {
+            byte b = line[k];
+            if (b < '0' || b > '9') return -1;
+            pos = pos * 10 + (b - '0');
+        }
+        return pos > Integer.MAX_VALUE ? -1 : (int) pos;
+    }
+    /**
+     * Start of the n-th ':'-delimited sub-field of [from, end), or -1 when
+     * the field has fewer sub-fields.
+     */
+    static int skipSubFields(byte[] line, int from, int end, int n) {
+        int p = from;
+        while (n > 0) {
+            while (p < end && line[p] != ':') p++;
+            if (p >= end) return -1;
+            p++;
+            n--;
+        }
+        return p;
+    }
+
+    /** Exclusive end of the ':'-delimited sub-field starting at {@code from}. */
+    static int subFieldEnd(byte[] line, int from, int end) {
+        int p = from;
+        while (p < end && line[p] != ':') p++;
+        return p;
+    }
+
+    /**
+     * Index of the "GT" key within the FORMAT field [formatStart, formatEnd),
+     * or -1 if absent.
+     */
+    static int findGTIndex(byte[] line, int formatStart, int formatEnd) {
+        int fieldIdx = 0;
+        int p = formatStart;
+        while (p < formatEnd) {
+            int sep = subFieldEnd(line, p, formatEnd);
+            if (sep - p == 2 && line[p] == 'G' && line[p + 1] == 'T') {
+                return fieldIdx;
+            }
+            p = sep + 1;
+            fieldIdx++;
+        }
+        return -1;
+    }
+
+    /** {@link #skipFields(byte[], int, int, int)} for a String. */
+    static int skipFields(String line, int from, int n) {
+        int p = from;
+        while (n > 0) {
+            p = line.indexOf('\t', p);
+            if (p < 0) return -1;
+            p++;
+            n--;
+        }
+        return p;
+    }
+
+    static int fieldEnd(String line, int from) {
+        int p = line.indexOf('\t', from);
+        return p < 0 ? line.length() : p;
+    }
+
+    static int skipSubFields(String line, int from, int end, int n) {
+        int p = from;
+        while (n > 0) {
+            p = line.indexOf(':', p);
+            if (p < 0 || p >= end) return -1;
+            p++;
+            n--;
+        }
+        return p;
+    }
+
+    static int subFieldEnd(String line, int from, int end) {
+        int p = line.indexOf(':', from);
+        return p < 0 || p > end ? end : p;
+    }
+
+    static int findGTIndex(String line, int formatStart, int formatEnd) {
+        int fieldIdx = 0;
+        int p = formatStart;
+        while (p < formatEnd) {
+            int sep = subFieldEnd(line, p, formatEnd);
+            if (sep - p == 2 && line.startsWith("GT", p)) {
+                return fieldIdx;
+            }
+            p = sep + 1;
+            fieldIdx++;
+        }
+        return -1;
+    }
+
     public static int[] guessPloidyAndMaxAllele(String vcfLine) {
         // Expect VCF with at least 10 columns
         final String[] fields = vcfLine.split("\t", -1);
@@ -156,6 +492,67 @@ public class SNPEncoder {
         return new int[]{inferredPloidy, maxAllele + 1}; // +1 to get allele count, not max index
     }
 
+    /**
+     * Byte-level variant of {@link #guessPloidyAndMaxAllele(String)} for the
+     * raw line slice [start, end).
+     */
+    public static int[] guessPloidyAndMaxAllele(byte[] line, int start, int end) {
+        int formatStart = skipFields(line, start, end, 8);
+        if (formatStart < 0) {
+            throw new IllegalArgumentException("SNP line does not contain FORMAT and sample fields.");
+        }
+        int formatEnd = fieldEnd(line, formatStart, end);
+        if (formatEnd >= end) {
+            throw new IllegalArgumentException("SNP line does not contain FORMAT and sample fields.");
+        }
+        int gtIndex = findGTIndex(line, formatStart, formatEnd);
+        if (gtIndex < 0) {
+            throw new IllegalArgumentException("GT field not found in FORMAT.");
+        }
+
+        int inferredPloidy = -1;
+        int maxAllele = -1;
+
+        int p = formatEnd + 1;
+        for (int probe = 0; probe < 8 && p <= end; probe++) {
+            int sampleEnd = fieldEnd(line, p, end);
+            int gtStart = skipSubFields(line, p, sampleEnd, gtIndex);
+            p = sampleEnd + 1;
+            if (gtStart < 0) {
+                continue;
+            }
+            int gtEnd = subFieldEnd(line, gtStart, sampleEnd);
+            if (gtEnd == gtStart || (gtEnd - gtStart == 1 && line[gtStart] == '.')) {
+                continue;
+            }
+
+            // Same token rules as String.split("[/|]"): trailing empty alleles are dropped.
+            int alleles = 0;
+            int nonEmpty = 0;
+            int tokenStart = gtStart;
+            int m = 0;
+            for (int k = gtStart; k <= gtEnd; k++) {
+                if (k == gtEnd || line[k] == '/' || line[k] == '|') {
+                    alleles++;
+                    if (k > tokenStart) {
+                        nonEmpty = alleles;
+                        if (!(k - tokenStart == 1 && line[tokenStart] == '.')) {
+                            int v = Integer.parseInt(new String(line, tokenStart, k - tokenStart, StandardCharsets.US_ASCII));
+                            if (v > m) m = v;
+                        }
+                    }
+                    tokenStart = k + 1;
+                }
+            }
+            if (nonEmpty == 0) continue;
+            inferredPloidy = Math.max(inferredPloidy, nonEmpty);
+            maxAllele = Math.max(maxAllele, m);
+        }
+
+        if (inferredPloidy <= 0) throw new IllegalArgumentException("Could not infer ploidy from GTs.");
+        return new int[]{inferredPloidy, maxAllele + 1}; // +1 to get allele count, not max index
+    }
+
     private static int maxAlleleCount(String[] a) {
         int m = 0;
         for (String x : a) {
@@ -196,49 +593,150 @@ public class SNPEncoder {
      */
     public static int[] computeAlleleDosage(String snpLine, int numSamples) throws IllegalArgumentException {
         int[] dosage = new int[numSamples];
-        Arrays.fill(dosage, -1); // -1 indicates missing
+        computeAlleleDosage(snpLine, dosage);
+        return dosage;
+    }
 
-        int expectedColumns = numSamples + 9;
-        int fieldStart = 0, fieldEnd, col = 0;
-        String[] fields = new String[expectedColumns];
-        while ((fieldEnd = snpLine.indexOf('\t', fieldStart)) != -1 && col < expectedColumns) {
-            fields[col++] = snpLine.substring(fieldStart, fieldEnd);
-            fieldStart = fieldEnd + 1;
+    /**
+     * {@link #computeAlleleDosage(String, int)} into a reusable buffer of
+     * one entry per sample, scanning the line as
+     * {@link #encodeSNPOneHot(String, int, int, int[][])} does.
+     */
+    public static void computeAlleleDosage(String line, int[] dosage) throws IllegalArgumentException {
+        int end = line.length();
+        int formatStart = skipFields(line, 0, 8);
+        if (formatStart < 0) {
+            throw new IllegalArgumentException("SNP line does not contain FORMAT and sample fields.");
+        }
+        int formatEnd = fieldEnd(line, formatStart);
+        boolean onlyGT = formatEnd - formatStart == 2 && line.startsWith("GT", formatStart);
+        int gtIndex = onlyGT ? 0 : findGTIndex(line, formatStart, formatEnd);
+        if (gtIndex == -1) {
+            throw new IllegalArgumentException("FORMAT field does not contain GT");
         }
-        fields[col] = snpLine.substring(fieldStart);
 
-        // Parse FORMAT field to locate GT index
-        String formatString = fields[8];
-        int gtIndex = -1;
-        int fieldIdx = 0;
-        int pos = 0;
-        while (formatString != null && pos < formatString.length()) {
-            int sep = formatString.indexOf(':', pos);
-            if (sep == -1) {
-                sep = formatString.length();
+        int p = formatEnd + 1;
+        for (int i = 0; i < dosage.length; i++) {
+            if (p > end) {
+                throw new IllegalArgumentException("SNP line has fewer sample columns than the header.");
             }
-            String token = formatString.substring(pos, sep);
-            if (token.equals("GT")) {
-                gtIndex = fieldIdx;
-                break;
-            }
-            pos = sep + 1;
-            fieldIdx++;
+            int sampleEnd = fieldEnd(line, p);
+            int gtStart = onlyGT ? p : skipSubFields(line, p, sampleEnd, gtIndex);
+            dosage[i] = gtStart < 0 ? -1
+                    : GenotypeTable.dosage(line, gtStart, onlyGT ? sampleEnd : subFieldEnd(line, gtStart, sampleEnd));
+            p = sampleEnd + 1;
+        }
+    }
+
+    /**
+     * Byte-level variant of {@link #computeAlleleDosage(String, int)} for the
+     * raw line slice [start, end).
+     */
+    public static int[] computeAlleleDosage(byte[] line, int start, int end, int numSamples) throws IllegalArgumentException {
+        int[] dosage = new int[numSamples];
+        computeAlleleDosage(line, start, end, dosage);
+        return dosage;
+    }
+
+    /**
+     * {@link #computeAlleleDosage(byte[], int, int, int)} into a reusable
+     * buffer of one entry per sample.
+     */
+    public static void computeAlleleDosage(byte[] line, int start, int end, int[] dosage) throws IllegalArgumentException {
+        int formatStart = skipFields(line, start, end, 8);
+        if (formatStart < 0) {
+            throw new IllegalArgumentException("SNP line does not contain FORMAT and sample fields.");
         }
+        int formatEnd = fieldEnd(line, formatStart, end);
+        boolean onlyGT = formatEnd - formatStart == 2 && line[formatStart] == 'G' && line[formatStart + 1] == 'T';
+        int gtIndex = onlyGT ? 0 : findGTIndex(line, formatStart, formatEnd);
         if (gtIndex == -1) {
             throw new IllegalArgumentException("FORMAT field does not contain GT");
         }
 
-        for (int i = 0; i < numSamples; i++) {
-            String sampleField = fields[i + 9];
-            String[] sampleParts = sampleField.split(":");
-            if (gtIndex >= sampleParts.length) {
-                continue; // missing
+        int p = formatEnd + 1;
+        for (int i = 0; i < dosage.length; i++) {
+            if (p > end) {
+                throw new IllegalArgumentException("SNP line has fewer sample columns than the header.");
             }
-            String genotype = sampleParts[gtIndex];
-            dosage[i] = computeGenotypeDosage(genotype);
+            int sampleEnd = fieldEnd(line, p, end);
+            int gtStart = onlyGT ? p : skipSubFields(line, p, sampleEnd, gtIndex);
+            dosage[i] = gtStart < 0 ? -1
+                    : GenotypeTable.dosage(line, gtStart, onlyGT ? sampleEnd : subFieldEnd(line, gtStart, sampleEnd));
+            p = sampleEnd + 1;
         }
+    }
 
+    /**
+     * Byte-level variant of {@link #computeGenotypeDosage(String)} for the
+     * genotype bytes [from, to).
+     */
+    public static int computeGenotypeDosage(byte[] line, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (line[k] == '.') {
+                return -1; // missing
+            }
+        }
+        // Trailing empty alleles are dropped, as String.split would do.
+        while (to > from && (line[to - 1] == '/' || line[to - 1] == '|')) {
+            to--;
+        }
+        int dosage = 0;
+        int allele = 0;
+        int digits = 0;
+        for (int k = from; k <= to; k++) {
+            byte b = k < to ? line[k] : (byte) '/';
+            if (b == '/' || b == '|') {
+                if (digits == 0) {
+                    return -1; // invalid
+                }
+                if (allele > 0) {
+                    dosage++; // count non-reference alleles
+                }
+                allele = 0;
+                digits = 0;
+            } else if (b >= '0' && b <= '9' && digits < 9) {
+                allele = allele * 10 + (b - '0');
+                digits++;
+            } else {
+                return -1; // invalid
+            }
+        }
+        return dosage;
+    }
+
+    /**
+     * {@link #computeGenotypeDosage(byte[], int, int)} for the characters
+     * [from, to) of a String.
+     */
+    public static int computeGenotypeDosage(String line, int from, int to) {
+        if (hasDot(line, from, to)) {
+            return -1; // missing
+        }
+        while (to > from && (line.charAt(to - 1) == '/' || line.charAt(to - 1) == '|')) {
+            to--;
+        }
+        int dosage = 0;
+        int allele = 0;
+        int digits = 0;
+        for (int k = from; k <= to; k++) {
+            char c = k < to ? line.charAt(k) : '/';
+            if (c == '/' || c == '|') {
+                if (digits == 0) {
+                    return -1; // invalid
+                }
+                if (allele > 0) {
+                    dosage++;
+                }
+                allele = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 9) {
+                allele = allele * 10 + (c - '0');
+                digits++;
+            } else {
+                return -1; // invalid
+            }
+        }
         return dosage;
     }
 
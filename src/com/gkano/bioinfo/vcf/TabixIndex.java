@@ -0,0 +1,276 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-memory tabix (.tbi) or CSI (.csi) index of a bgzipped VCF. Answers
+ * region queries with the list of BGZF virtual-offset chunks that may hold
+ * overlapping records, following the binning scheme of the htslib
+ * specification (tbi: min_shift 14, depth 5; csi: from the header).
+ */
+public class TabixIndex {
+
+    private static final int TBI_MAGIC = 0x01494254; // "TBI\1"
+    private static final int CSI_MAGIC = 0x01495343; // "CSI\1"
+
+    private final boolean csi;
+    private final int minShift;
+    private final int depth;
+    private final Map<String, Integer> sequences = new LinkedHashMap<>();
+    private final List<Map<Integer, long[]>> binChunks = new ArrayList<>();
+    private final List<Map<Integer, Long>> binLoffsets = new ArrayList<>();
+    private final List<long[]> linearIndex = new ArrayList<>();
+
+    private TabixIndex(boolean csi, int minShift, int depth) {
+        this.csi = csi;
+        this.minShift = minShift;
+        this.depth = depth;
+    }
+
+    /**
+     * Locate the index next to a bgzipped VCF ("in.vcf.gz.tbi" or
+     * "in.vcf.gz.csi").
+     *
+     * @return the index path, or null if there is none
+     */
+    public static String findIndex(String vcfPath) {
+        for (String suffix : new String[]{".tbi", ".csi"}) {
+            if (new File(vcfPath + suffix).isFile()) {
+                return vcfPath + suffix;
+            }
+        }
+        return null;
+    }
+
+    public static TabixIndex load(String indexPath) throws IOException {
+        ByteBuffer buf;
+        try (InputStream in = new GZIPInputStream(new FileInputStream(indexPath))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] b = new byte[1 << 16];
+            int n;
+            while ((n = in.read(b)) != -1) {
+                out.write(b, 0, n);
+            }
+            buf = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            int magic = buf.getInt();
+            if (magic == TBI_MAGIC) {
+                return parseTbi(buf);
+            } else if (magic == CSI_MAGIC) {
+                return parseCsi(buf);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated index: " + indexPath);
+        }
+        throw new IOException("Not a tabix or CSI index: " + indexPath);
+    }
+
+    private static TabixIndex parseTbi(ByteBuffer buf) {
+        int nRef = buf.getInt();
+        TabixIndex index = new TabixIndex(false, 14, 5);
+        index.readNames(buf);
+        for (int r = 0; r < nRef; r++) {
+            index.readBins(buf, false);
+            long[] linear = new long[buf.getInt()];
+            for (int i = 0; i < linear.length; i++) {
+                linear[i] = buf.getLong();
+            }
+            index.linearIndex.add(linear);
+        }
+        return index;
+    }
+
+    private static TabixIndex parseCsi(ByteBuffer buf) {
+        int minShift = buf.getInt();
+        int depth = buf.getInt();
+        int lAux = buf.getInt();
+        TabixIndex index = new TabixIndex(true, minShift, depth);
+        int auxEnd = buf.position() + lAux;
+        if (lAux >= 28) {
+            index.readNames(buf);
+        }
+        buf.position(auxEnd);
+        int nRef = buf.getInt();
+        for (int r = 0; r < nRef; r++) {
+            index.readBins(buf, true);
+        }
+        return index;
+    }
+
+    /** Tabix header (format, columns, meta, skip) followed by the names. */
+    private void readNames(ByteBuffer buf) {
+        buf.position(buf.position() + 6 * 4);
+        int lNm = buf.getInt();
+        byte[] names = new byte[lNm];
+        buf.get(names);
+        int from = 0;
+        for (int i = 0; i < lNm; i++) {
+            if (names[i] == 0) {
+                sequences.put(new String(names, from, i - from), sequences.size());
+                from = i + 1;
+            }
+        }
+    }
+
+    private void readBins(ByteBuffer buf, boolean withLoffset) {
+        int nBin = buf.getInt();
+        Map<Integer, long[]> chunks = new HashMap<>(nBin * 2);
+        Map<Integer, Long> loffsets = withLoffset ? new HashMap<>(nBin * 2) : null;
+        for (int b = 0; b < nBin; b++) {
+            int bin = buf.getInt();
+            if (withLoffset) {
+                loffsets.put(bin, buf.getLong());
+            }
+            long[] pairs = new long[2 * buf.getInt()];
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i] = buf.getLong();
+            }
+            chunks.put(bin, pairs);
+        }
+        binChunks.add(chunks);
+        binLoffsets.add(loffsets);
+    }
+
+    /** Sequence names in index (and therefore file) order. */
+    public List<String> getSequenceNames() {
+        return Collections.unmodifiableList(new ArrayList<>(sequences.keySet()));
+    }
+
+    /** Position of a sequence in the index, or -1 if it is not indexed. */
+    public int getSequenceIndex(String chrom) {
+        Integer tid = sequences.get(chrom);
+        return tid == null ? -1 : tid;
+    }
+
+    /** Largest coordinate addressable by the binning scheme. */
+    public long getMaxPosition() {
+        return 1L << (minShift + 3 * depth);
+    }
+
+    /**
+     * Virtual-offset chunks that may contain records overlapping the
+     * region, sorted and with overlapping chunks merged.
+     *
+     * @return flattened [begin, end) pairs; empty if the sequence is not
+     * indexed or has no records in the region
+     */
+    public long[] query(GenomicRegion region) {
+        int tid = getSequenceIndex(region.getChrom());
+        if (tid < 0 || tid >= binChunks.size()) {
+            return new long[0];
+        }
+        long beg = region.getStart() - 1L;
+        long end = Math.min((long) region.getEnd(), getMaxPosition());
+        if (beg >= end) {
+            return new long[0];
+        }
+        long minOffset = minOffset(tid, beg);
+        Map<Integer, long[]> bins = binChunks.get(tid);
+        List<long[]> selected = new ArrayList<>();
+        for (int bin : reg2bins(beg, end, minShift, depth)) {
+            long[] pairs = bins.get(bin);
+            if (pairs == null) continue;
+            for (int i = 0; i < pairs.length; i += 2) {
+                if (pairs[i + 1] > minOffset) {
+                    selected.add(new long[]{Math.max(pairs[i], minOffset), pairs[i + 1]});
+                }
+            }
+        }
+        selected.sort((a, b) -> Long.compare(a[0], b[0]));
+        long[] merged = new long[2 * selected.size()];
+        int n = 0;
+        for (long[] chunk : selected) {
+            if (n > 0 && chunk[0] <= merged[n - 1]) {
+                if (chunk[1] > merged[n - 1]) {
+                    merged[n - 1] = chunk[1];
+                }
+            } else {
+                merged[n++] = chunk[0];
+                merged[n++] = chunk[1];
+            }
+        }
+        return Arrays.copyOf(merged, n);
+    }
+
+    /**
+     * Smallest virtual offset a record overlapping position {@code beg} can
+     * start at: the linear index for tbi, the loffset of the deepest
+     * present bin containing {@code beg} for csi.
+     */
+    private long minOffset(int tid, long beg) {
+        if (!csi) {
+            long[] linear = linearIndex.get(tid);
+            if (linear.length == 0) return 0;
+            int w = (int) (beg >> minShift);
+            return linear[Math.min(w, linear.length - 1)];
+        }
+        Map<Integer, Long> loffsets = binLoffsets.get(tid);
+        int bin = binFirst(depth) + (int) (beg >> minShift);
+        while (true) {
+            Long off = loffsets.get(bin);
+            if (off != null) return off;
+            if (bin == 0) return 0;
+            bin = (bin - 1) >> 3;
+        }
+    }
+
+    private static int binFirst(int level) {
+        return ((1 << (3 * level)) - 1) / 7;
+    }
+
+    /**
+     * All bins overlapping the 0-based half-open interval [beg, end), level
+     * by level from the root.
+     */
+    static List<Integer> reg2bins(long beg, long end, int minShift, int depth) {
+        List<Integer> bins = new ArrayList<>();
+        end -= 1;
+        int s = minShift + depth * 3;
+        for (int level = 0, t = 0; level <= depth; level++, s -= 3) {
+            int b = t + (int) (beg >> s);
+            int e = t + (int) (end >> s);
+            for (int i = b; i <= e; i++) {
+                bins.add(i);
+            }
+            t += 1 << (level * 3);
+        }
+        return bins;
+    }
+}
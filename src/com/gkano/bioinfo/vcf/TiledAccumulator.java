@@ -0,0 +1,140 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One set of dot product and norm accumulators shared by every worker.
+ * The upper triangle of sample pairs is cut into square tiles of
+ * {@link #TILE_SAMPLES} samples, each guarded by a lock; a worker adds a
+ * full block by multiplying it into whichever tiles it can lock, trying
+ * the ones still busy again afterwards, so workers holding different
+ * blocks fill different tiles at the same time. Accumulator memory is one
+ * {@link TriangularMatrix} per replicate whatever the number of threads,
+ * and there is nothing to merge at the end. The accumulator may cover a
+ * band of rows only, while the norms always cover every sample.
+ */
+final class TiledAccumulator {
+
+    /** Samples per side of a tile. */
+    static final int TILE_SAMPLES = 256;
+
+    final TriangularMatrix[] dotProd; // [replicate]
+    final long[][] norm;      // [replicate][i]
+    private final int numSamples;
+    private final int endRow;
+    private final int[] tileRows;
+    private final int[] tileCols;
+    private final ReentrantLock[][] locks; // [replicate][tile]
+    private final ReentrantLock[] normLocks;
+    /** Spreads the first tile of concurrent adds across the triangle. */
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    TiledAccumulator(int numReplicates, int numSamples) {
+        this(numReplicates, numSamples, 0, numSamples);
+    }
+
+    /** Accumulators for the pairs (i, j), j &gt;= i, of the rows i in [firstRow, endRow). */
+    TiledAccumulator(int numReplicates, int numSamples, int firstRow, int endRow) {
+        this.numSamples = numSamples;
+        this.endRow = endRow;
+        this.dotProd = new TriangularMatrix[numReplicates];
+        this.norm = new long[numReplicates][numSamples];
+        int tiles = 0;
+        for (int i = firstRow; i < endRow; i += TILE_SAMPLES) {
+            tiles += (numSamples - i + TILE_SAMPLES - 1) / TILE_SAMPLES;
+        }
+        this.tileRows = new int[tiles];
+        this.tileCols = new int[tiles];
+        int t = 0;
+        for (int i = firstRow; i < endRow; i += TILE_SAMPLES) {
+            for (int j = i; j < numSamples; j += TILE_SAMPLES, t++) {
+                tileRows[t] = i;
+                tileCols[t] = j;
+            }
+        }
+        this.locks = new ReentrantLock[numReplicates][tiles];
+        this.normLocks = new ReentrantLock[numReplicates];
+        for (int r = 0; r < numReplicates; r++) {
+            dotProd[r] = new TriangularMatrix(numSamples, firstRow, endRow);
+            for (int k = 0; k < tiles; k++) {
+                locks[r][k] = new ReentrantLock();
+            }
+            normLocks[r] = new ReentrantLock();
+        }
+    }
+
+    /** Multiply {@code block} into the accumulators of replicate {@code r}, then empty it. */
+    void add(GenotypeBlock block, int r) {
+        if (block.isEmpty()) {
+            return;
+        }
+        normLocks[r].lock();
+        try {
+            block.addNorms(norm[r]);
+        } finally {
+            normLocks[r].unlock();
+        }
+        int tiles = tileRows.length;
+        boolean[] done = new boolean[tiles];
+        int remaining = tiles;
+        int start = tiles == 0 ? 0 : Math.floorMod(nextStart.getAndIncrement(), tiles);
+        while (remaining > 0) {
+            int busy = -1;
+            boolean progress = false;
+            for (int k = 0; k < tiles; k++) {
+                int t = (start + k) % tiles;
+                if (done[t]) continue;
+                if (!locks[r][t].tryLock()) {
+                    if (busy < 0) busy = t;
+                    continue;
+                }
+                multiplyTile(block, r, t);
+                done[t] = true;
+                remaining--;
+                progress = true;
+            }
+            if (!progress) {
+                // every tile left is busy: wait for one instead of spinning
+                locks[r][busy].lock();
+                multiplyTile(block, r, busy);
+                done[busy] = true;
+                remaining--;
+            }
+        }
+        block.clear();
+    }
+
+    /** Multiply {@code block} into tile {@code t}, whose lock the caller holds, and release it. */
+    private void multiplyTile(GenotypeBlock block, int r, int t) {
+        try {
+            int i0 = tileRows[t];
+            int j0 = tileCols[t];
+            block.multiply(dotProd[r], i0, Math.min(endRow, i0 + TILE_SAMPLES),
+                    j0, Math.min(numSamples, j0 + TILE_SAMPLES));
+        } finally {
+            locks[r][t].unlock();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.Arrays;
+
+/**
+ * Upper triangle (diagonal included) of a symmetric {@code size} x
+ * {@code size} matrix of counts, packed row after row into one flat
+ * array: row i holds columns i to size - 1, so element (i, j), j &gt;= i,
+ * is {@code values[rowBase(i) + j]}. Half the memory of a square
+ * long[size][size], and merging or clearing is one pass over one array.
+ * <p>
+ * A band holds only the rows {@code firstRow} to {@code endRow - 1} of
+ * the triangle, for the passes of {@link OutOfCoreDistances}.
+ */
+final class TriangularMatrix {
+
+    final int size;
+    final int firstRow;
+    final int endRow;
+    final long[] values;
+
+    TriangularMatrix(int size) {
+        this(size, 0, size);
+    }
+
+    /** The rows [firstRow, endRow) of the triangle of a {@code size} x {@code size} matrix. */
+    TriangularMatrix(int size, int firstRow, int endRow) {
+        long length = elements(size, firstRow, endRow);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many samples for a packed accumulator: " + size
+                    + (endRow - firstRow < size ? " (rows " + firstRow + "-" + endRow + ")" : ""));
+        }
+        this.size = size;
+        this.firstRow = firstRow;
+        this.endRow = endRow;
+        this.values = new long[(int) length];
+    }
+
+    /** Elements of the rows [firstRow, endRow) of the triangle. */
+    static long elements(int size, int firstRow, int endRow) {
+        return start(size, endRow) - start(size, firstRow);
+    }
+
+    /** Position of element (i, i) in the whole packed triangle. */
+    private static long start(int size, int i) {
+        return (long) i * size - (long) i * (i - 1) / 2;
+    }
+
+    /** Offset such that element (i, j), j &gt;= i, is at rowBase(i) + j. */
+    int rowBase(int i) {
+        return (int) (start(size, i) - start(size, firstRow) - i);
+    }
+
+    /** Element (i, j) of the symmetric matrix, for any order of i and j. */
+    long get(int i, int j) {
+        return i <= j ? values[rowBase(i) + j] : values[rowBase(j) + i];
+    }
+
+    /** Add {@code other}, of the same size and rows, element by element. */
+    void add(TriangularMatrix other) {
+        long[] o = other.values;
+        for (int k = 0; k < values.length; k++) {
+            values[k] += o[k];
+        }
+    }
+
+    void clear() {
+        Arrays.fill(values, 0L);
+    }
+}
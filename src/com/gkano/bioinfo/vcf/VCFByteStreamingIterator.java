@@ -0,0 +1,248 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+import com.gkano.bioinfo.var.Logger;
+
+/**
+ * Byte-level counterpart of {@link VCFStreamingIterator}. Input is read in
+ * large chunks and framed into lines in place by {@link VCFDecoder#frame};
+ * data lines are handed out as {@link VCFLineBatch} slices of the chunk and
+ * never turned into Strings. Header lines ("#...") are rare and are passed
+ * as Strings to the supplied header sink.
+ */
+public class VCFByteStreamingIterator implements Iterable<VCFLineBatch>, Iterator<VCFLineBatch>, AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    private final List<String> inputPaths;
+    private final VCFDecoder decoder;
+    private final VCFInputOpener opener;
+    private final Consumer<String> headerSink;
+    private final int maxLinesPerBatch;
+    private final int chunkSize;
+    private InputStream currentStream;
+    private int currentPathIndex;
+    private boolean usingStdin = false;
+    private boolean verbose = false;
+
+    // Current chunk: bytes [0, filled) are valid, framing resumes at 'pos'.
+    private byte[] chunk;
+    private int filled;
+    private int pos;
+    private boolean eof;
+
+    private VCFLineBatch nextBatch;
+
+    public VCFByteStreamingIterator(VCFDecoder decoder, boolean verbose, Consumer<String> headerSink,
+            int maxLinesPerBatch, List<String> inputPaths) {
+        this(decoder, verbose, headerSink, maxLinesPerBatch, DEFAULT_CHUNK_SIZE, inputPaths);
+    }
+
+    public VCFByteStreamingIterator(VCFDecoder decoder, boolean verbose, Consumer<String> headerSink,
+            int maxLinesPerBatch, int chunkSize, List<String> inputPaths) {
+        this(decoder, new VCFInputOpener(), verbose, headerSink, maxLinesPerBatch, chunkSize, inputPaths);
+    }
+
+    public VCFByteStreamingIterator(VCFDecoder decoder, VCFInputOpener opener, boolean verbose,
+            Consumer<String> headerSink, int maxLinesPerBatch, int chunkSize, List<String> inputPaths) {
+        this.opener = opener;
+        this.inputPaths = inputPaths;
+        this.decoder = decoder;
+        this.verbose = verbose;
+        this.headerSink = headerSink;
+        this.maxLinesPerBatch = maxLinesPerBatch;
+        this.chunkSize = chunkSize;
+        this.currentPathIndex = -1;
+        Logger.setVerbose(this.verbose);
+        advanceFile();  // Open first input
+        advance();      // Frame first batch
+    }
+
+    public VCFByteStreamingIterator(VCFDecoder decoder, boolean verbose, Consumer<String> headerSink,
+            int maxLinesPerBatch, String... inputPaths) {
+        this(decoder, verbose, headerSink, maxLinesPerBatch, Arrays.asList(inputPaths));
+    }
+
+    private void advanceFile() {
+        try {
+            if (currentStream != null && !usingStdin) {
+                currentStream.close();
+            }
+
+            currentPathIndex++;
+            if (currentPathIndex < inputPaths.size()) {
+                String path = inputPaths.get(currentPathIndex);
+                Logger.info(this, "Reading from: " + path);
+
+                usingStdin = VCFInputOpener.isStdin(path);
+                currentStream = opener.open(path);
+                chunk = new byte[chunkSize];
+                filled = 0;
+                pos = 0;
+                eof = false;
+            } else {
+                currentStream = null;
+            }
+
+        } catch (IOException e) {
+            Logger.error(this, "Error opening input: " + inputPaths.get(currentPathIndex));
+            Logger.error(this, e.getMessage());
+            currentStream = null;
+        }
+    }
+
+    /**
+     * Starts a fresh chunk, carrying over the unframed tail of the current
+     * one, and fills it from the stream. Batches already handed out keep
+     * referencing the previous chunk, which is never written again.
+     *
+     * @return false if the stream is exhausted and nothing is left to frame
+     */
+    private boolean refill() throws IOException {
+        int tail = filled - pos;
+        if (eof) {
+            return false;
+        }
+        byte[] next = chunk;
+        if (pos > 0 || tail == chunk.length) {
+            // a single line longer than the chunk doubles the chunk size
+            next = new byte[tail == chunk.length ? chunk.length * 2 : chunk.length];
+            System.arraycopy(chunk, pos, next, 0, tail);
+        }
+        chunk = next;
+        filled = tail;
+        pos = 0;
+        while (filled < chunk.length) {
+            int n = currentStream.read(chunk, filled, chunk.length - filled);
+            if (n < 0) {
+                eof = true;
+                // Terminate a last line lacking its LF so it can be framed.
+                if (filled > 0 && chunk[filled - 1] != '\n') {
+                    if (filled == chunk.length) {
+                        chunk = Arrays.copyOf(chunk, chunk.length + 1);
+                    }
+                    chunk[filled++] = '\n';
+                }
+                break;
+            }
+            filled += n;
+        }
+        return filled > 0;
+    }
+
+    private void advance() {
+        nextBatch = null;
+        try {
+            while (currentStream != null) {
+                VCFLineBatch batch = frameBatch();
+                if (batch != null) {
+                    nextBatch = batch;
+                    return;
+                }
+                if (!refill()) {
+                    advanceFile();  // move to next file or end
+                }
+            }
+        } catch (IOException e) {
+            Logger.error(this, "Error reading input");
+        }
+    }
+
+    /**
+     * Frames up to maxLinesPerBatch data lines from the current chunk.
+     *
+     * @return the batch, or null if the chunk holds no further complete data line
+     */
+    private VCFLineBatch frameBatch() {
+        if (pos >= filled) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, filled);
+        buffer.position(pos);
+        VCFLineBatch batch = null;
+        while (batch == null || batch.size() < maxLinesPerBatch) {
+            int lineStart = buffer.position();
+            int lineEnd = decoder.frame(buffer);
+            if (lineEnd < 0) {
+                break;
+            }
+            if (lineEnd == lineStart) {
+                continue;
+            }
+            if (chunk[lineStart] == '#') {
+                headerSink.accept(new String(chunk, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+                continue;
+            }
+            if (batch == null) {
+                batch = new VCFLineBatch(chunk, maxLinesPerBatch);
+            }
+            batch.add(lineStart, lineEnd);
+        }
+        pos = buffer.position();
+        return batch;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextBatch != null;
+    }
+
+    @Override
+    public VCFLineBatch next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        VCFLineBatch result = nextBatch;
+        advance();
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove() not supported.");
+    }
+
+    @Override
+    public Iterator<VCFLineBatch> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (currentStream != null && !usingStdin) {
+                currentStream.close();
+            }
+        } catch (IOException e) {
+            // suppress
+        }
+    }
+}
@@ -37,52 +37,60 @@ public class VCFDecoder {
     }
 
     public String decode(ByteBuffer buffer) {
+        while (true) {
+            int lineStartPos = buffer.position();
+            int lineEndPos = frame(buffer);
+            if (lineEndPos < 0) {
+                return null;
+            }
+            if (lineEndPos == lineStartPos) {
+                continue;
+            }
+            byte[] line = new byte[lineEndPos - lineStartPos];
+            for (int i = 0; i < line.length; i++) {
+                line[i] = buffer.get(lineStartPos + i);
+            }
+            return new String(line, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Frames the next line of the buffer in place, without copying it.
+     * The line starts at the current buffer position. If a LF is found the
+     * position is moved just past it and the exclusive end of the line
+     * content (trailing CRs excluded) is returned. If no LF remains the
+     * position is left untouched and -1 is returned.
+     */
+    public int frame(ByteBuffer buffer) {
         int lineStartPos = buffer.position();
         int limit = buffer.limit();
-        int crs = 0;
-        while (buffer.hasRemaining()) {
-            byte b = buffer.get();
-            if (b == CR) {
-                crs++;
-            } else if (b == LF) { // reached line feed so parse line
-                int lineEndPos = buffer.position();
-                // set positions for one row duplication
-                if (buffer.limit() < lineEndPos + 1) {
-                    buffer.position(lineStartPos).limit(lineEndPos);
-                } else {
-                    buffer.position(lineStartPos).limit(lineEndPos + 1);
-                }
-
-                byte[] line = parseBytes(buffer, lineEndPos - lineStartPos - 1, crs);
-                crs = 0;
-
-                if (line != null) {
-                    // reset main buffer
-                    buffer.position(lineEndPos);
-                    buffer.limit(limit);
-                    // set start after LF
-                    lineStartPos = lineEndPos;
+        int lf = -1;
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset();
+            for (int i = lineStartPos; i < limit; i++) {
+                if (array[offset + i] == LF) {
+                    lf = i;
+                    break;
                 }
-                if (line != null && line.length == 0) {
-                    continue;
+            }
+        } else {
+            for (int i = lineStartPos; i < limit; i++) {
+                if (buffer.get(i) == LF) {
+                    lf = i;
+                    break;
                 }
-
-                return new String(line, StandardCharsets.UTF_8);
             }
         }
-        buffer.position(lineStartPos);
-        return null;
-    }
-
-    private byte[] parseBytes(ByteBuffer buffer, int length, int crs) {
-        byte[] bytes = new byte[length - crs];
-        for (int i = 0; i < length; i++) {
-            byte b = buffer.get();
-            if (b != CR) {
-                bytes[i] = b;
-            }
+        if (lf < 0) {
+            return -1;
+        }
+        int lineEndPos = lf;
+        while (lineEndPos > lineStartPos && buffer.get(lineEndPos - 1) == CR) {
+            lineEndPos--;
         }
-        return bytes;
+        buffer.position(lf + 1);
+        return lineEndPos;
     }
 
     @SuppressWarnings("unused")
@@ -0,0 +1,222 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.itadaki.bzip2.BZip2InputStream;
+import org.tukaani.xz.XZInputStream;
+
+import com.gkano.bioinfo.var.Logger;
+
+/**
+ * Opens VCF inputs (files or stdin as "-") and transparently wraps them
+ * with the matching decompressor. Shared by the line and byte iterators.
+ */
+public class VCFInputOpener {
+
+    private final int decompressionThreads;
+    private List<GenomicRegion> regions = Collections.emptyList();
+
+    public VCFInputOpener() {
+        this(1);
+    }
+
+    /**
+     * @param decompressionThreads threads used to decode BGZF, bzip2 and
+     * multi-block xz input; with a single thread these are read through the
+     * plain single-stream decoders
+     */
+    public VCFInputOpener(int decompressionThreads) {
+        this.decompressionThreads = Math.max(1, decompressionThreads);
+    }
+
+    public int getDecompressionThreads() {
+        return decompressionThreads;
+    }
+
+    /**
+     * Restrict every opened input to the records overlapping these regions.
+     * Inputs must then be bgzipped files with a .tbi or .csi index.
+     */
+    public void setRegions(List<GenomicRegion> regions) {
+        this.regions = regions == null ? Collections.emptyList() : regions;
+    }
+
+    public List<GenomicRegion> getRegions() {
+        return regions;
+    }
+
+    public static boolean isStdin(String path) {
+        return path.equals("-");
+    }
+
+    public InputStream open(String path) throws IOException {
+        if (!regions.isEmpty()) {
+            return openRegions(path);
+        }
+        InputStream in;
+        if (isStdin(path)) {
+            in = System.in;
+        } else {
+            if (decompressionThreads > 1 && detect(path) == Compression.XZ) {
+                InputStream xz = openXZBlocks(path);
+                if (xz != null) {
+                    return xz;
+                }
+            }
+            File file = new File(path);
+            in = new FileInputStream(file);
+        }
+        // Automatically detect and wrap compressed stream if needed
+        return detectAndWrap(in);
+    }
+
+    private InputStream openRegions(String path) throws IOException {
+        if (isStdin(path)) {
+            throw new IOException("Region queries need an indexed file, not standard input");
+        }
+        String indexPath = TabixIndex.findIndex(path);
+        if (indexPath == null) {
+            throw new IOException("Region queries need a .tbi or .csi index next to " + path);
+        }
+        Logger.info(this, "Using index " + indexPath + " for " + regions.size() + " region(s).");
+        return new VCFRegionInputStream(path, TabixIndex.load(indexPath), regions);
+    }
+
+    /**
+     * Multi-block .xz files are decoded block by block in parallel; a single
+     * block file has nothing to split and goes through the stream decoder.
+     */
+    private InputStream openXZBlocks(String path) throws IOException {
+        XZBlockInputStream xz = new XZBlockInputStream(path, decompressionThreads);
+        if (!xz.isSplittable()) {
+            xz.close();
+            return null;
+        }
+        Logger.info(this, "Detected xz compression with " + xz.getBlockCount() + " blocks, decoding with " + decompressionThreads + " threads.");
+        return xz;
+    }
+
+    public enum Compression { NONE, GZIP, BZIP2, XZ }
+
+    /** Compression format announced by the first bytes of a stream. */
+    public static Compression detect(byte[] signature, int read) {
+        // gzip magic: 1F 8B
+        if (read >= 2
+                && signature[0] == (byte) 0x1F
+                && signature[1] == (byte) 0x8B) {
+            return Compression.GZIP;
+        }
+        // bzip2 magic: 42 5A 68 ("BZh")
+        if (read >= 3
+                && signature[0] == (byte) 0x42
+                && signature[1] == (byte) 0x5A
+                && signature[2] == (byte) 0x68) {
+            return Compression.BZIP2;
+        }
+        // xz magic: FD 37 7A 58 5A 00
+        if (read >= 6
+                && signature[0] == (byte) 0xFD
+                && signature[1] == (byte) 0x37
+                && signature[2] == (byte) 0x7A
+                && signature[3] == (byte) 0x58
+                && signature[4] == (byte) 0x5A
+                && signature[5] == (byte) 0x00) {
+            return Compression.XZ;
+        }
+        return Compression.NONE;
+    }
+
+    /** Compression format of a file, from its first bytes. */
+    public static Compression detect(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            byte[] signature = new byte[6];
+            return detect(signature, BGZFInputStream.readFully(in, signature, 0, signature.length));
+        }
+    }
+
+    /**
+     * With more than one thread, run a single-stream decompressor on its
+     * own thread so that decoding overlaps with line framing.
+     */
+    private InputStream readAhead(InputStream decompressed) {
+        if (decompressionThreads <= 1) {
+            return decompressed;
+        }
+        Logger.info(this, "Decompressing on a read-ahead thread.");
+        return new ReadAheadInputStream(decompressed);
+    }
+
+    public InputStream detectAndWrap(InputStream in) throws IOException {
+        final int MAX_MAGIC = 16;
+        PushbackInputStream pb = new PushbackInputStream(in, MAX_MAGIC);
+
+        byte[] signature = new byte[MAX_MAGIC];
+        int read = BGZFInputStream.readFully(pb, signature, 0, signature.length);
+        if (read == 0) {
+            read = -1;
+        }
+
+        // If we read anything, push it back so downstream consumers see a full stream
+        if (read > 0) {
+            pb.unread(signature, 0, read);
+        } else if (read == -1) {
+            // Empty stream
+            Logger.info(this, "Empty stream; no compression detected.");
+            return pb;
+        }
+
+        switch (detect(signature, read)) {
+            case GZIP:
+                if (decompressionThreads > 1 && BGZFInputStream.isBGZF(signature, read)) {
+                    Logger.info(this, "Detected BGZF compression, inflating with " + decompressionThreads + " threads.");
+                    return new BGZFInputStream(pb, decompressionThreads);
+                }
+                Logger.info(this, "Detected gzip compression.");
+                return readAhead(new GZIPInputStream(pb));
+            case BZIP2:
+                if (decompressionThreads > 1) {
+                    Logger.info(this, "Detected bzip2 compression, decoding blocks with " + decompressionThreads + " threads.");
+                    return new BZip2BlockInputStream(pb, decompressionThreads);
+                }
+                Logger.info(this, "Detected bzip2 compression.");
+                // 'false': the stream carries its own "BZh" header
+                return readAhead(new BZip2InputStream(pb, false));
+            case XZ:
+                Logger.info(this, "Detected xz compression.");
+                return readAhead(new XZInputStream(pb));
+            default:
+                break;
+        }
+
+        Logger.info(this, "No compression detected.");
+        return pb;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.Arrays;
+
+/**
+ * A batch of raw VCF data lines. Lines are kept as [start, end) slices of a
+ * shared backing byte array, so no String is ever created for them.
+ * The backing array must not be modified once the batch is handed out.
+ */
+public final class VCFLineBatch {
+
+    private final byte[] data;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    public VCFLineBatch(byte[] data, int capacity) {
+        this.data = data;
+        this.starts = new int[Math.max(1, capacity)];
+        this.ends = new int[Math.max(1, capacity)];
+        this.size = 0;
+    }
+
+    private VCFLineBatch(byte[] data, int[] starts, int[] ends) {
+        this.data = data;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = starts.length;
+    }
+
+    public void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Lines [from, to) of this batch as a new batch sharing the same backing array.
+     */
+    public VCFLineBatch slice(int from, int to) {
+        return new VCFLineBatch(data,
+                Arrays.copyOfRange(starts, from, to),
+                Arrays.copyOfRange(ends, from, to));
+    }
+}
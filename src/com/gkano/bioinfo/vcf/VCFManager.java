@@ -21,22 +21,31 @@
  */
 package com.gkano.bioinfo.vcf;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import com.gkano.bioinfo.var.GeneralTools;
@@ -47,30 +56,61 @@ public class VCFManager implements Runnable {
 
     /**
      * Queue item passed from the producer to worker threads.
-     * Three kinds: DATA (a batch of variant lines), BARRIER (window boundary
-     * sentinel, each worker must consume exactly one per window flush) and
-     * POISON (terminate worker).
+     * Three kinds: DATA (a batch of variant lines, either as Strings, as
+     * raw byte slices or as a memory-mapped chunk still to be split, or
+     * a {@link GenotypeBatch} of binary records: BGT, BCF or PLINK .bed),
+     * BARRIER (window boundary sentinel, each worker must consume exactly
+     * one per window flush) and POISON (terminate worker).
      */
     static final class Batch {
         enum Kind { DATA, BARRIER, POISON }
         final Kind kind;
         final List<String> lines;
-        private Batch(Kind k, List<String> l) { kind = k; lines = l; }
-        static Batch data(List<String> l) { return new Batch(Kind.DATA, l); }
-        static final Batch BARRIER = new Batch(Kind.BARRIER, null);
-        static final Batch POISON = new Batch(Kind.POISON, null);
+        final VCFLineBatch raw;
+        final VCFMappedFile.Chunk mapped;
+        final GenotypeBatch genotypes;
+        private Batch(Kind k, List<String> l, VCFLineBatch r, VCFMappedFile.Chunk m, GenotypeBatch g) {
+            kind = k; lines = l; raw = r; mapped = m; genotypes = g;
+        }
+        static Batch data(List<String> l) { return new Batch(Kind.DATA, l, null, null, null); }
+        static Batch data(VCFLineBatch r) { return new Batch(Kind.DATA, null, r, null, null); }
+        static Batch data(VCFMappedFile.Chunk m) { return new Batch(Kind.DATA, null, null, m, null); }
+        static Batch data(GenotypeBatch g) { return new Batch(Kind.DATA, null, null, null, g); }
+        static final Batch BARRIER = new Batch(Kind.BARRIER, null, null, null, null);
+        static final Batch POISON = new Batch(Kind.POISON, null, null, null, null);
+        /**
+         * Raw lines of the batch. A mapped chunk is split here, on the
+         * worker, copying it into {@code buffer} when that is large enough.
+         */
+        VCFLineBatch raw(byte[] buffer, VCFDecoder decoder) {
+            return mapped != null ? mapped.load(buffer, decoder) : raw;
+        }
     }
 
     private final int batchSize = 1000;
 
+    /** Default bootstrap block: 1 Mb of each contig. */
+    public static final int DEFAULT_BOOTSTRAP_BLOCK_BP = 1_000_000;
+    public static final long DEFAULT_BOOTSTRAP_SEED = 1L;
+
     private final List<String> inputFileNames;
     private int usingThreads;
     private final int maxSizeOfVariantCache;
     private final Function<String, String> variantParser;
     private boolean verbose = false;
+    private boolean byteParser = false;
+    private List<GenomicRegion> regions = Collections.emptyList();
+    private int shardCount = 1;
+    private VCFShard.Mode shardMode = VCFShard.Mode.BYTES;
+    private boolean parallelInputs = false;
+    private boolean memoryMapped = false;
+    private boolean sharedAccumulator = false;
+    private InputFormat inputFormat = InputFormat.VCF;
+
+    /** Kind of the input files; all inputs of a run have the same. */
+    private enum InputFormat { VCF, BCF, BGT, PLINK }
 
     private BlockingQueue<Batch> variantRawCache;
-    private Map<String, int[]> genotypeEncodingCache;
 
     // Windowing state (only populated when WindowPolicy is configured)
     private WindowPolicy windowPolicy;
@@ -78,6 +118,14 @@ public class VCFManager implements Runnable {
     private CyclicBarrier windowBarrier;
     private BlockingQueue<WindowPolicy.Window> pendingWindows;
     private ProcessorResult[] workerResults;
+    /** Accumulators of every worker when {@link #sharedAccumulator} is set. */
+    private TiledAccumulator tiledAccumulator;
+    /** Per-block accumulators of a genotype bootstrap. */
+    private BootstrapBlocks bootstrapBlocks;
+    /** Why a worker stopped adding variants to {@link #bootstrapBlocks}. */
+    private volatile IllegalStateException bootstrapFailure;
+    /** Set for one pass of an {@link OutOfCoreDistances} computation. */
+    private OutOfCoreDistances outOfCore;
 
     private List<String> commentData;
     private String headerData;
@@ -98,6 +146,8 @@ public class VCFManager implements Runnable {
     private List<CompletableFuture<EmbeddingProcessorResult>> embeddingProcessors;
 
     private int numBootstraps = 0; // Set this from the constructor or a setter
+    private int bootstrapBlockBp = DEFAULT_BOOTSTRAP_BLOCK_BP;
+    private long bootstrapSeed = DEFAULT_BOOTSTRAP_SEED;
 
     // Embedding mode fields
     private boolean embeddingMode = false;
@@ -109,22 +159,26 @@ public class VCFManager implements Runnable {
      * Result container for standard genotype-based processing.
      */
     public static class ProcessorResult {
-        long[][][] dotProd; // [replicate][i][j]
-        long[][] norm;      // [replicate][i]
+        TriangularMatrix[] dotProd; // [replicate], upper triangle of i x j
+        long[][] norm;              // [replicate][i]
         int numReplicates;
         private ProcessorResult(int numReplicates, int numSamples) {
-            this.numReplicates = numReplicates;
-            this.dotProd = new long[numReplicates][numSamples][numSamples];
-            this.norm = new long[numReplicates][numSamples];
+            this(new TriangularMatrix[numReplicates], new long[numReplicates][numSamples]);
+            for (int r = 0; r < numReplicates; r++) {
+                dotProd[r] = new TriangularMatrix(numSamples);
+            }
+        }
+        private ProcessorResult(TriangularMatrix[] dotProd, long[][] norm) {
+            this.numReplicates = norm.length;
+            this.dotProd = dotProd;
+            this.norm = norm;
         }
         public void merge(ProcessorResult other) {
             for (int r = 0; r < numReplicates; r++) {
                 for (int i = 0; i < norm[r].length; i++) {
                     norm[r][i] += other.norm[r][i];
-                    for (int j = i; j < norm[r].length; j++) {
-                        dotProd[r][i][j] += other.dotProd[r][i][j];
-                    }
                 }
+                dotProd[r].add(other.dotProd[r]);
             }
         }
     }
@@ -215,6 +269,129 @@ public class VCFManager implements Runnable {
         this.windowWriter = writer;
     }
 
+    /**
+     * Read and encode data lines as raw bytes instead of Strings. Lines then
+     * travel to the workers as {@link VCFLineBatch} slices and no String is
+     * created for any data line; the String variant parser is bypassed.
+     * Must be called before {@link #init()}.
+     */
+    public void setByteParser(boolean byteParser) {
+        this.byteParser = byteParser;
+    }
+
+    public boolean isByteParser() {
+        return byteParser;
+    }
+
+    /**
+     * Only read the records overlapping these regions, seeking through the
+     * tabix/CSI index of each (bgzipped) input. Must be called before
+     * {@link #init()}.
+     */
+    public void setRegions(List<GenomicRegion> regions) {
+        this.regions = regions == null ? Collections.emptyList() : regions;
+    }
+
+    /**
+     * Read the (single, bgzipped) input with {@code shardCount} parallel
+     * readers instead of one producer. Shards feed the same worker queue,
+     * so the per-worker accumulators are merged at the end as usual. Must
+     * be called before {@link #init()}.
+     */
+    public void setSharding(int shardCount, VCFShard.Mode shardMode) {
+        this.shardCount = Math.max(1, shardCount);
+        this.shardMode = shardMode;
+    }
+
+    /**
+     * Read multiple input files concurrently (e.g. one VCF per chromosome)
+     * instead of one after another. All files must have the same samples.
+     * Must be called before {@link #init()}.
+     */
+    public void setParallelInputs(boolean parallelInputs) {
+        this.parallelInputs = parallelInputs;
+    }
+
+    /**
+     * Memory-map uncompressed input files and let the workers split and
+     * encode lines straight from the mapping; compressed inputs and
+     * standard input are still streamed. Not used for windowed output or
+     * region queries. Must be called before {@link #init()}.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Let all workers add into one dot product matrix, cut into tiles of
+     * sample pairs that a worker locks while it multiplies its block into
+     * them, instead of giving each worker its own N&times;N accumulators
+     * and merging them at the end. Set automatically when the per-worker
+     * accumulators would take more than half of the heap. Must be called
+     * before {@link #init()}.
+     */
+    public void setSharedAccumulator(boolean sharedAccumulator) {
+        this.sharedAccumulator = sharedAccumulator;
+    }
+
+    /**
+     * Accumulate only the band of rows of the next pass of
+     * {@code distances}. Must be called before {@link #init()}.
+     */
+    void setOutOfCore(OutOfCoreDistances distances) {
+        this.outOfCore = distances;
+    }
+
+    /** The accumulators shared by the workers, or null if each had its own. */
+    TiledAccumulator getSharedAccumulator() {
+        return tiledAccumulator;
+    }
+
+    /**
+     * Inputs are opened with one decompression thread per worker, so BGZF
+     * blocks are inflated in parallel rather than on the producer thread.
+     */
+    private VCFInputOpener newInputOpener() {
+        return newInputOpener(usingThreads);
+    }
+
+    private VCFInputOpener newInputOpener(int decompressionThreads) {
+        VCFInputOpener opener = new VCFInputOpener(decompressionThreads);
+        opener.setRegions(regions);
+        return opener;
+    }
+
+    /**
+     * Whether the inputs are VCF text, BCF (see {@link BCFReader}),
+     * pre-encoded BGT files (see {@link BGTWriter}) or PLINK filesets (see
+     * {@link PlinkFileset}); formats cannot be mixed. Standard input is
+     * always read as VCF text.
+     */
+    private InputFormat detectInputFormat() {
+        InputFormat detected = null;
+        for (String path : inputFileNames) {
+            InputFormat format = InputFormat.VCF;
+            try {
+                if (VCFInputOpener.isStdin(path)) {
+                    format = InputFormat.VCF;
+                } else if (PlinkFileset.prefixOf(path) != null) {
+                    format = InputFormat.PLINK;
+                } else if (BGTFile.isBGT(path)) {
+                    format = InputFormat.BGT;
+                } else if (BCFReader.isBCF(path)) {
+                    format = InputFormat.BCF;
+                }
+            } catch (IOException e) {
+                // unreadable inputs are reported when they are opened
+            }
+            if (detected != null && format != detected) {
+                throw new IllegalArgumentException("Inputs must all be VCF, all BCF, all BGT files or all PLINK filesets.");
+            }
+            detected = format;
+        }
+        return detected;
+    }
+
     private boolean isWindowed() {
         return windowPolicy != null && windowPolicy.getMode() != WindowPolicy.Mode.NONE;
     }
@@ -225,16 +402,54 @@ public class VCFManager implements Runnable {
             Logger.error(this, "No VCF input files provided.");
             throw new IllegalArgumentException("No VCF input files provided.");
         }
+        if (shardCount > 1) {
+            if (inputFileNames.size() != 1 || VCFInputOpener.isStdin(inputFileNames.get(0))) {
+                throw new IllegalArgumentException("Sharded reading needs exactly one bgzipped input file.");
+            }
+            if (isWindowed()) {
+                throw new IllegalArgumentException("Sharded reading cannot be combined with windowed output.");
+            }
+            if (!regions.isEmpty()) {
+                throw new IllegalArgumentException("Sharded reading cannot be combined with region queries.");
+            }
+        }
+        inputFormat = detectInputFormat();
+        if (inputFormat == InputFormat.BGT && embeddingMode) {
+            throw new IllegalArgumentException("Embeddings need VCF, BCF or PLINK input; BGT files hold genotypes only.");
+        }
+        if (inputFormat != InputFormat.VCF && (shardCount > 1 || !regions.isEmpty())) {
+            throw new IllegalArgumentException("Sharded reading and region queries need VCF input, not "
+                    + inputFormat + " files.");
+        }
+        if (isWindowed() && numBootstraps > 0 && !embeddingMode) {
+            throw new IllegalArgumentException("Bootstrap replicates cannot be combined with windowed output.");
+        }
+        if (outOfCore != null) {
+            if (isWindowed() || embeddingMode || numBootstraps > 0) {
+                throw new IllegalArgumentException(
+                        "Out-of-core distances cannot be combined with windows, embeddings or bootstraps.");
+            }
+            if (inputFileNames.stream().anyMatch(VCFInputOpener::isStdin)) {
+                throw new IllegalArgumentException("Out-of-core distances read the input once per band, not from standard input.");
+            }
+        }
+        if (parallelInputs && inputFileNames.size() > 1) {
+            if (isWindowed()) {
+                throw new IllegalArgumentException("Parallel input reading cannot be combined with windowed output.");
+            }
+            if (inputFileNames.stream().anyMatch(VCFInputOpener::isStdin)) {
+                throw new IllegalArgumentException("Parallel input reading cannot read from standard input.");
+            }
+        }
 
         variantRawCache = new LinkedBlockingQueue<>(maxSizeOfVariantCache);
-        genotypeEncodingCache = new ConcurrentHashMap<>();
         commentData = new ArrayList<>();
         currVariantCount = new AtomicInteger(0);
         skippedVariantCount = new AtomicInteger(0);
 
         int cpus = Runtime.getRuntime().availableProcessors();
         usingThreads = (cpus < usingThreads ? cpus : usingThreads);
-        Logger.info(this, "cpus=" + cpus + "\tusing=" + usingThreads);
+        Logger.info(this, "cpus=" + cpus + "\tusing=" + usingThreads + "\tkernels=" + DistanceKernels.INSTANCE.name());
 
         startSignal = new CountDownLatch(1);
         doneSignal = new CountDownLatch(1);
@@ -273,18 +488,20 @@ public class VCFManager implements Runnable {
                     throw new RuntimeException(e);
                 }
 
-                int numReplicates = numBootstraps > 0 ? numBootstraps + 1 : 1;
-                ProcessorResult result = new ProcessorResult(numReplicates, numSamples);
+                // shared accumulators leave the worker nothing of its own to return,
+                // and a bootstrap folds the worker's into the blocks
+                ProcessorResult result = tiledAccumulator != null ? null : new ProcessorResult(1, numSamples);
                 if (workerResults != null) {
                     workerResults[slot] = result;
                 }
-                java.util.Random rand = new java.util.Random();
+                WorkerBlocks blocks = new WorkerBlocks(result, tiledAccumulator);
+                BootstrapBlocks.Cursor bootstrap = bootstrapBlocks != null ? bootstrapBlocks.new Cursor() : null;
 
                 Batch item;
-                int[][] variantEncoded;
-                int count, step;
-                int[] di, dj;
-                long norm, dotProd;
+                // one row per sample, reused for every variant at that variant's width
+                VariantEncoder encoder = new VariantEncoder(numSamples, ploidy);
+                byte[] chunkBuffer = null;
+                VCFDecoder chunkDecoder = new VCFDecoder();
                 while (true) {
                     try {
                         item = variantRawCache.take();
@@ -296,6 +513,8 @@ public class VCFManager implements Runnable {
                         break;
                     }
                     if (item.kind == Batch.Kind.BARRIER) {
+                        // the window is reduced from the accumulators, so empty the blocks first
+                        blocks.flush();
                         try {
                             windowBarrier.await();
                         } catch (InterruptedException e) {
@@ -306,52 +525,150 @@ public class VCFManager implements Runnable {
                         }
                         continue;
                     }
-                    for (String variant : item.lines) {
-                        count = currVariantCount.incrementAndGet();
-                        if(verbose){
-                            step = GeneralTools.getAdaptiveVariantStep(count);
-                            if (count % step == 0) {
-                                Logger.infoCarret(this, "Variants:\t" + count);
+                    if (bootstrapFailure != null) {
+                        // the blocks are full: drain the batches so the reader can finish
+                        continue;
+                    }
+                    try {
+                        if (item.genotypes != null) {
+                            for (int v = 0; v < item.genotypes.size(); v++) {
+                                countVariant();
+                                try {
+                                    encoder.encode(item.genotypes, v);
+                                    if (bootstrap != null) {
+                                        blocks.moveTo(bootstrap.at(item.genotypes.contig(v), item.genotypes.position(v)));
+                                    }
+                                } catch (IllegalArgumentException e) {
+                                    continue;
+                                }
+                                blocks.add(encoder);
                             }
-                        }
-                        try {
-                            variantEncoded = SNPEncoder.encodeSNPOneHot(
-                                variant, ploidy, maxAlleles, genotypeEncodingCache, numSamples);
-                        } catch (IllegalArgumentException e) {
                             continue;
                         }
-                        // For each replicate, decide if this SNP is included (with replacement)
-                        // Replicate 0 is always the original (no resampling)
-                        int[] replicateCounts = new int[numReplicates];
-                        replicateCounts[0] = 1; // always include in original
-                        for (int r = 1; r < numReplicates; r++) {
-                            replicateCounts[r] = poisson1(rand); // 0 or more times
-                        }
-                        for (int r = 0; r < numReplicates; r++) {
-                            if (replicateCounts[r] == 0) continue;
-                            for (int i = 0; i < numSamples; i++) {
-                                di = variantEncoded[i];
-                                norm = 0;
-                                for (int k = 0; k < di.length; k++) {
-                                    norm += Integer.bitCount(di[k]);
+                        VCFLineBatch raw = item.raw(chunkBuffer, chunkDecoder);
+                        if (item.mapped != null) chunkBuffer = raw.data();
+                        for (int v = 0, n = raw != null ? raw.size() : item.lines.size(); v < n; v++) {
+                            countVariant();
+                            try {
+                                if (raw != null) {
+                                    encoder.encode(raw.data(), raw.start(v), raw.end(v));
+                                } else {
+                                    encoder.encode(item.lines.get(v));
                                 }
-                                result.norm[r][i] += norm * replicateCounts[r];
-                                for (int j = i; j < numSamples; j++) {
-                                    dj = variantEncoded[j];
-                                    dotProd = 0;
-                                    for (int k = 0; k < di.length; k++) dotProd += Integer.bitCount(di[k] & dj[k]);
-                                    result.dotProd[r][i][j] += dotProd * replicateCounts[r];
+                                if (bootstrap != null) {
+                                    blocks.moveTo(raw != null ? bootstrap.at(raw.data(), raw.start(v), raw.end(v))
+                                            : bootstrap.at(item.lines.get(v)));
                                 }
+                            } catch (IllegalArgumentException e) {
+                                continue;
                             }
+                            blocks.add(encoder);
                         }
+                    } catch (IllegalStateException e) {
+                        if (bootstrap == null) throw e;
+                        failBootstrap(e);
                     }
                 }
-                return result;
+                try {
+                    blocks.flush();
+                } catch (IllegalStateException e) {
+                    if (bootstrap == null) throw e;
+                    failBootstrap(e);
+                }
+                return bootstrap != null ? null : result;
             }, pool);
             variantProcessors.add(variantProcessor);
         }
     }
 
+    /**
+     * The bit matrix blocks of one worker, where encoded variants are
+     * buffered and multiplied a block at a time: the 2-bit block for
+     * biallelic haploid or diploid variants, the one-hot block for the
+     * rest. Full blocks are multiplied into the worker's own accumulators,
+     * or into shared ones when {@code target} is set; in a bootstrap the
+     * worker's accumulators are folded into {@code block} on leaving it.
+     */
+    private final class WorkerBlocks {
+
+        private final GenotypeBitMatrix oneHot;
+        private final BiallelicBitMatrix biallelic;
+        private final ProcessorResult result;
+        private final TiledAccumulator target;
+        private BootstrapBlocks.Block block;
+        private boolean pending;
+
+        WorkerBlocks(ProcessorResult result, TiledAccumulator target) {
+            int blockWords = GenotypeBitMatrix.wordsFor(numSamples, 3);
+            this.oneHot = new GenotypeBitMatrix(numSamples, blockWords);
+            this.biallelic = new BiallelicBitMatrix(numSamples, blockWords);
+            this.result = result;
+            this.target = target;
+        }
+
+        /** Add the variant last encoded by {@code encoder}. */
+        void add(VariantEncoder encoder) {
+            if (BiallelicBitMatrix.accepts(encoder.ploidy(), encoder.alleles())) {
+                if (biallelic.isFull()) {
+                    multiply(biallelic);
+                }
+                biallelic.append(encoder.rows());
+            } else {
+                int width = encoder.ploidy() * encoder.alleles();
+                if (!oneHot.fits(width)) {
+                    multiply(oneHot);
+                }
+                oneHot.append(encoder.rows(), width);
+            }
+        }
+
+        /** Send the next variants to bootstrap block {@code next}, flushing those of another block. */
+        void moveTo(BootstrapBlocks.Block next) {
+            if (next != block) {
+                flush();
+                block = next;
+            }
+        }
+
+        void flush() {
+            multiply(oneHot);
+            multiply(biallelic);
+            if (pending && block != null) {
+                block.fold(result.dotProd[0], result.norm[0]);
+                pending = false;
+            }
+        }
+
+        private void multiply(GenotypeBlock block) {
+            if (block.isEmpty()) {
+                return;
+            }
+            if (target != null) {
+                target.add(block, 0);
+            } else {
+                block.accumulate(result.dotProd[0], result.norm[0]);
+                pending = true;
+            }
+        }
+    }
+
+    private synchronized void failBootstrap(IllegalStateException e) {
+        if (bootstrapFailure == null) {
+            bootstrapFailure = e;
+            Logger.error(this, e.getMessage());
+        }
+    }
+
+    private void countVariant() {
+        int count = currVariantCount.incrementAndGet();
+        if (verbose) {
+            int step = GeneralTools.getAdaptiveVariantStep(count);
+            if (count % step == 0) {
+                Logger.infoCarret(this, "Variants:\t" + count);
+            }
+        }
+    }
+
     /**
      * Initialize worker threads for embedding-based processing.
      * Uses kernel trick: K[v,w] = e_v · e_w decomposed as h_i = Σ_v contrib_v × e_v
@@ -373,10 +690,11 @@ public class VCFManager implements Runnable {
 
                 int numReplicates = numBootstraps > 0 ? numBootstraps + 1 : 1;
                 EmbeddingProcessorResult result = new EmbeddingProcessorResult(numReplicates, numSamples, embeddingDim);
-                java.util.Random rand = new java.util.Random();
 
                 Batch item;
-                int count, step;
+                byte[] chunkBuffer = null;
+                VCFDecoder chunkDecoder = new VCFDecoder();
+                int[] dosage = new int[numSamples];
 
                 while (true) {
                     try {
@@ -402,17 +720,36 @@ public class VCFManager implements Runnable {
                         continue;
                     }
 
-                    for (String variant : item.lines) {
-                        count = currVariantCount.incrementAndGet();
-                        if (verbose) {
-                            step = GeneralTools.getAdaptiveVariantStep(count);
-                            if (count % step == 0) {
-                                Logger.infoCarret(this, "Variants:\t" + count);
+                    if (item.genotypes != null) {
+                        GenotypeBatch genotypes = item.genotypes;
+                        for (int v = 0; v < genotypes.size(); v++) {
+                            countVariant();
+                            String variantKey = genotypes.variantKey(v, keyExtractor);
+                            double[] embedding = variantKey == null ? null : variantEmbeddings.get(variantKey);
+                            int[] alleleDosage;
+                            try {
+                                alleleDosage = embedding == null ? null : genotypes.alleleDosage(v, numSamples);
+                            } catch (IllegalArgumentException e) {
+                                alleleDosage = null;
                             }
+                            if (alleleDosage == null) {
+                                skippedVariantCount.incrementAndGet();
+                                continue;
+                            }
+                            accumulateEmbedding(result, embedding, alleleDosage, numReplicates, variantKey);
                         }
+                        continue;
+                    }
+
+                    VCFLineBatch raw = item.raw(chunkBuffer, chunkDecoder);
+                    if (item.mapped != null) chunkBuffer = raw.data();
+                    for (int v = 0, n = raw != null ? raw.size() : item.lines.size(); v < n; v++) {
+                        countVariant();
 
                         // Extract variant key and lookup embedding
-                        String variantKey = keyExtractor.extractKey(variant);
+                        String variantKey = raw != null
+                                ? keyExtractor.extractKey(raw.data(), raw.start(v), raw.end(v))
+                                : keyExtractor.extractKey(item.lines.get(v));
                         if (variantKey == null) {
                             skippedVariantCount.incrementAndGet();
                             continue;
@@ -427,41 +764,18 @@ public class VCFManager implements Runnable {
 
                         // Compute allele dosage for each sample
                         // Dosage = count of alternate alleles (0, 1, 2, ... or -1 for missing)
-                        int[] alleleDosage;
                         try {
-                            alleleDosage = SNPEncoder.computeAlleleDosage(variant, numSamples);
+                            if (raw != null) {
+                                SNPEncoder.computeAlleleDosage(raw.data(), raw.start(v), raw.end(v), dosage);
+                            } else {
+                                SNPEncoder.computeAlleleDosage(item.lines.get(v), dosage);
+                            }
                         } catch (IllegalArgumentException e) {
                             skippedVariantCount.incrementAndGet();
                             continue;
                         }
 
-                        // Bootstrap resampling
-                        int[] replicateCounts = new int[numReplicates];
-                        replicateCounts[0] = 1; // always include in original
-                        for (int r = 1; r < numReplicates; r++) {
-                            replicateCounts[r] = poisson1(rand);
-                        }
-
-                        // Accumulate embeddings for each sample
-                        // h_i[d] += dosage × replicateCount × embedding[d]
-                        // where dosage = count of alternate alleles (0, 1, 2, ...)
-                        for (int r = 0; r < numReplicates; r++) {
-                            if (replicateCounts[r] == 0) continue;
-
-                            for (int i = 0; i < numSamples; i++) {
-                                int dosage = alleleDosage[i];
-
-                                if (dosage <= 0) continue; // Missing or reference-only genotype
-
-                                // Weight = dosage × replicateCount
-                                double weight = dosage * replicateCounts[r];
-
-                                // Accumulate weighted embedding
-                                for (int d = 0; d < embeddingDim; d++) {
-                                    result.sampleEmbeddings[r][i][d] += weight * embedding[d];
-                                }
-                            }
-                        }
+                        accumulateEmbedding(result, embedding, dosage, numReplicates, variantKey);
                     }
                 }
                 return result;
@@ -470,6 +784,43 @@ public class VCFManager implements Runnable {
         }
     }
 
+    /**
+     * Add one variant's embedding, weighted by each sample's dosage, to the
+     * worker accumulators of every replicate. The variant's bootstrap draws
+     * come from the seed and its key, whichever worker takes it.
+     */
+    private void accumulateEmbedding(EmbeddingProcessorResult result, double[] embedding, int[] alleleDosage,
+            int numReplicates, String variantKey) {
+        // Bootstrap resampling
+        int[] replicateCounts = new int[numReplicates];
+        replicateCounts[0] = 1; // always include in original
+        if (numReplicates > 1) {
+            SplittableRandom rand = new SplittableRandom(variantSeed(variantKey));
+            for (int r = 1; r < numReplicates; r++) {
+                replicateCounts[r] = poisson1(rand);
+            }
+        }
+
+        // Accumulate embeddings for each sample
+        // h_i[d] += dosage × replicateCount × embedding[d]
+        // where dosage = count of alternate alleles (0, 1, 2, ...)
+        for (int r = 0; r < numReplicates; r++) {
+            if (replicateCounts[r] == 0) continue;
+
+            for (int i = 0; i < numSamples; i++) {
+                int dosage = alleleDosage[i];
+
+                if (dosage <= 0) continue; // Missing or reference-only genotype
+
+                // Weight = dosage × replicateCount
+                double weight = dosage * replicateCounts[r];
+
+                // Accumulate weighted embedding
+                DistanceKernels.INSTANCE.addScaled(result.sampleEmbeddings[r][i], weight, embedding, embeddingDim);
+            }
+        }
+    }
+
     public void awaitFinalization() throws InterruptedException {
         doneSignal.await();
     }
@@ -489,9 +840,32 @@ public class VCFManager implements Runnable {
 
             VCFDecoder decoder = new VCFDecoder();
             List<String> batch = new ArrayList<>(2500);
-            try (VCFStreamingIterator iterator = new VCFStreamingIterator(decoder, verbose, inputFileNames)) {
-                for (String line : iterator) {
-                    if (line != null) processVariantLine(line, batch);
+            if (inputFormat == InputFormat.BGT) {
+                readBinary();
+            } else if (inputFormat == InputFormat.BCF) {
+                readBCF();
+            } else if (inputFormat == InputFormat.PLINK) {
+                readPlink();
+            } else if (shardCount > 1) {
+                readShards();
+            } else if (parallelInputs && inputFileNames.size() > 1) {
+                readInputsInParallel();
+            } else if (memoryMapped && regions.isEmpty()) {
+                for (String path : inputFileNames) {
+                    readMappedOrStream(path);
+                }
+            } else if (byteParser) {
+                try (VCFByteStreamingIterator iterator = new VCFByteStreamingIterator(decoder, newInputOpener(), verbose,
+                        this::processHeaderLine, batchSize, VCFByteStreamingIterator.DEFAULT_CHUNK_SIZE, inputFileNames)) {
+                    for (VCFLineBatch lines : iterator) {
+                        processVariantLines(lines);
+                    }
+                }
+            } else {
+                try (VCFStreamingIterator iterator = new VCFStreamingIterator(decoder, newInputOpener(), verbose, inputFileNames)) {
+                    for (String line : iterator) {
+                        if (line != null) processVariantLine(line, batch);
+                    }
                 }
             }
             // Push the last partial batch if needed
@@ -529,6 +903,323 @@ public class VCFManager implements Runnable {
         }
     }
 
+    /**
+     * Queue the chunks of pre-encoded BGT inputs; workers decode the
+     * genotype bits straight from the mapped chunks.
+     */
+    private void readBinary() throws Exception {
+        readBinary(this::queue);
+    }
+
+    private void readBinary(GenotypeSink sink) throws Exception {
+        for (String path : inputFileNames) {
+            try (BGTFile bgt = new BGTFile(path)) {
+                Logger.info(this, "Reading from: " + path + " (" + bgt.getNumVariants() + " encoded variants)");
+                useBinaryHeader(path, bgt.getSampleNames(), bgt.getPloidy(), bgt.getMaxAlleles());
+                for (int c = 0; c < bgt.getChunkCount(); c++) {
+                    sink.accept(bgt.chunk(c));
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue BCF inputs as batches of raw records; workers decode the typed
+     * GT vectors themselves. The text header goes through the usual header
+     * handling.
+     */
+    private void readBCF() throws Exception {
+        readBCF(this::queue);
+    }
+
+    private void readBCF(GenotypeSink sink) throws Exception {
+        for (String path : inputFileNames) {
+            try (BCFReader reader = openBCF(path)) {
+                BCFRecordBatch records;
+                while ((records = reader.next(batchSize)) != null) {
+                    if (ploidy <= 0) {
+                        inferPloidy(records);
+                    }
+                    sink.accept(records);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue PLINK filesets as runs of mapped .bed rows; workers expand the
+     * 2-bit codes into the diploid, biallelic genotype encoding.
+     */
+    private void readPlink() throws Exception {
+        readPlink(this::queue);
+    }
+
+    private void readPlink(GenotypeSink sink) throws Exception {
+        for (String path : inputFileNames) {
+            try (PlinkFileset plink = new PlinkFileset(PlinkFileset.prefixOf(path))) {
+                Logger.info(this, "Reading from: " + plink.getPrefix() + " (PLINK, " + plink.getNumVariants()
+                        + " variants)");
+                useBinaryHeader(path, plink.getSampleNames(), 2, 2);
+                PlinkFileset.Chunk chunk;
+                while ((chunk = plink.next(batchSize)) != null) {
+                    sink.accept(chunk);
+                }
+            }
+        }
+    }
+
+    /** Where the binary readers hand their batches. */
+    private interface GenotypeSink {
+        void accept(GenotypeBatch batch) throws InterruptedException;
+    }
+
+    private void queue(GenotypeBatch batch) throws InterruptedException {
+        variantRawCache.put(Batch.data(batch));
+    }
+
+    private BCFReader openBCF(String path) throws IOException {
+        Logger.info(this, "Reading from: " + path + " (BCF)");
+        BCFReader reader = new BCFReader(newInputOpener().open(path));
+        if (reader.getHeader().getGTKey() < 0) {
+            Logger.warn(this, "BCF header of " + path + " declares no GT format field.");
+        }
+        for (String line : reader.getHeader().getLines()) {
+            processHeaderLine(line);
+        }
+        return reader;
+    }
+
+    /**
+     * Record the ploidy and number of alleles of the first variant and
+     * release the workers waiting for them. Workers start from that ploidy
+     * but encode every variant at its own width.
+     */
+    private synchronized void useEncoding(int inferredPloidy, int inferredMaxAlleles) {
+        ploidy = inferredPloidy;
+        maxAlleles = inferredMaxAlleles;
+        if (ploidy > 0) {
+            if (!embeddingMode && startSignal.getCount() > 0) {
+                useAccumulators();
+            }
+            startSignal.countDown();
+        }
+    }
+
+    /**
+     * Create the shared accumulators once the number of samples is known:
+     * the {@link BootstrapBlocks} of a bootstrap, or a
+     * {@link TiledAccumulator} if asked to or if one triangular matrix per
+     * worker would take more than half of the heap.
+     */
+    private void useAccumulators() {
+        if (outOfCore != null) {
+            int[] band = outOfCore.nextBand(numSamples);
+            tiledAccumulator = new TiledAccumulator(1, numSamples, band[0], band[1]);
+            return;
+        }
+        if (numBootstraps > 0) {
+            bootstrapBlocks = new BootstrapBlocks(numSamples, bootstrapBlockBp, bootstrapSeed);
+            return;
+        }
+        long bytes = 8L * numSamples * (numSamples + 1) / 2;
+        if (!sharedAccumulator && usingThreads > 1 && bytes * usingThreads > Runtime.getRuntime().maxMemory() / 2) {
+            Logger.info(this, "Per-thread accumulators would need " + ((bytes * usingThreads) >> 20)
+                    + "MB, sharing one tiled accumulator between the threads");
+            sharedAccumulator = true;
+        }
+        if (sharedAccumulator) {
+            tiledAccumulator = new TiledAccumulator(1, numSamples);
+        }
+    }
+
+    private synchronized void inferPloidy(BCFRecordBatch records) {
+        if (ploidy > 0) {
+            return;
+        }
+        try {
+            int[] ploidy_maxAlleles = records.guessPloidyAndMaxAllele(0);
+            useEncoding(ploidy_maxAlleles[0], ploidy_maxAlleles[1]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Failed to infer ploidy / maxAlleles: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Samples come from the first BGT or PLINK input; every other input must
+     * have the same. Variants carry their own width, so inputs may differ in
+     * ploidy and number of alleles.
+     */
+    private void useBinaryHeader(String path, List<String> names, int inputPloidy, int inputMaxAlleles) {
+        if (sampleNames == null) {
+            sampleNames = names;
+            numSamples = sampleNames.size();
+            useEncoding(inputPloidy, inputMaxAlleles);
+        } else if (!names.equals(sampleNames)) {
+            throw new IllegalStateException("Samples of " + path + " do not match those of "
+                    + inputFileNames.get(0));
+        }
+    }
+
+    /**
+     * Read the single input with one reader thread per {@link VCFShard}.
+     * The header and the first data line (for ploidy) are read up front,
+     * so shards only ever see data lines and can feed the queue directly.
+     */
+    private void readShards() throws Exception {
+        String path = inputFileNames.get(0);
+        readHeaderAndPloidy(path);
+        List<VCFShard> shards = VCFShard.plan(path, shardCount, shardMode);
+        Logger.info(this, "Reading " + path + " with " + shards.size() + " shards (" + shardMode + ")");
+        List<Callable<Void>> readers = new ArrayList<>();
+        for (VCFShard shard : shards) {
+            VCFInputOpener opener = new VCFInputOpener() {
+                @Override
+                public InputStream open(String ignored) throws IOException {
+                    return shard.open();
+                }
+            };
+            readers.add(() -> {
+                readSource(opener, shard.toString(), line -> { });
+                return null;
+            });
+        }
+        runReaders(readers, shards.size());
+    }
+
+    /**
+     * Read all inputs concurrently, one reader per file, all feeding the
+     * same worker queue. The first file's header defines the samples (and
+     * its first data line the ploidy); every other file must list the same
+     * samples in the same order.
+     */
+    private void readInputsInParallel() throws Exception {
+        readHeaderAndPloidy(inputFileNames.get(0));
+        List<Callable<Void>> readers = new ArrayList<>();
+        for (String path : inputFileNames) {
+            readers.add(() -> {
+                boolean[] seenSamples = new boolean[1];
+                readSource(newInputOpener(1), path, line -> {
+                    if (line.startsWith("#CHROM")) {
+                        checkSamples(path, line);
+                        seenSamples[0] = true;
+                    }
+                });
+                if (!seenSamples[0]) {
+                    throw new IllegalStateException("No #CHROM header in " + path);
+                }
+                return null;
+            });
+        }
+        int threads = Math.min(inputFileNames.size(), usingThreads);
+        Logger.info(this, "Reading " + inputFileNames.size() + " inputs with " + threads + " parallel readers");
+        runReaders(readers, threads);
+    }
+
+    private void checkSamples(String path, String headerLine) {
+        String[] fields = headerLine.split("\t", -1);
+        List<String> samples = fields.length <= 9
+                ? Collections.emptyList()
+                : Arrays.asList(Arrays.copyOfRange(fields, 9, fields.length));
+        if (!samples.equals(sampleNames)) {
+            throw new IllegalStateException("Samples in " + path + " do not match those in "
+                    + inputFileNames.get(0) + " (" + samples.size() + " vs " + sampleNames.size() + " columns)");
+        }
+    }
+
+    private void runReaders(List<Callable<Void>> readers, int threads) throws Exception {
+        if (readers.isEmpty()) {
+            return;
+        }
+        ExecutorService readerPool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> reader : readers) {
+                futures.add(readerPool.submit(reader));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+                }
+            }
+        } finally {
+            readerPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue an uncompressed file as memory-mapped chunks, or stream it as
+     * usual if it is compressed or standard input.
+     */
+    private void readMappedOrStream(String path) throws Exception {
+        if (VCFInputOpener.isStdin(path) || VCFInputOpener.detect(path) != VCFInputOpener.Compression.NONE) {
+            readSource(newInputOpener(), path, this::processHeaderLine);
+            return;
+        }
+        Logger.info(this, "Reading from: " + path + " (memory-mapped)");
+        try (VCFMappedFile mapped = new VCFMappedFile(path)) {
+            long pos = mapped.readHeader(this::processHeaderLine);
+            if (pos < mapped.size() && ploidy <= 0) {
+                byte[] first = mapped.lineAt(pos);
+                inferPloidy(first, 0, first.length);
+            }
+            VCFMappedFile.Chunk chunk;
+            while ((chunk = mapped.chunk(pos, VCFMappedFile.DEFAULT_CHUNK_SIZE)) != null) {
+                variantRawCache.put(Batch.data(chunk));
+                pos = chunk.end();
+            }
+        }
+    }
+
+    /** Header lines and the first data line's ploidy, from the start of the input. */
+    private void readHeaderAndPloidy(String path) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(newInputOpener(1).open(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                if (line.startsWith("#")) {
+                    processHeaderLine(line);
+                } else {
+                    inferPloidy(line);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Feed one input to the worker queue from a reader thread. Header lines
+     * go to {@code headerSink}; the shared header state is never touched.
+     */
+    private void readSource(VCFInputOpener opener, String input, Consumer<String> headerSink) throws Exception {
+        VCFDecoder decoder = new VCFDecoder();
+        List<String> inputs = Collections.singletonList(input);
+        if (byteParser) {
+            try (VCFByteStreamingIterator iterator = new VCFByteStreamingIterator(decoder, opener, verbose,
+                    headerSink, batchSize, VCFByteStreamingIterator.DEFAULT_CHUNK_SIZE, inputs)) {
+                for (VCFLineBatch lines : iterator) {
+                    processVariantLines(lines);
+                }
+            }
+        } else {
+            List<String> batch = new ArrayList<>(batchSize);
+            try (VCFStreamingIterator iterator = new VCFStreamingIterator(decoder, opener, verbose, inputs)) {
+                for (String line : iterator) {
+                    if (line == null) continue;
+                    if (line.startsWith("#")) {
+                        headerSink.accept(line);
+                    } else {
+                        processVariantLine(line, batch);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) variantRawCache.put(Batch.data(new ArrayList<>(batch)));
+        }
+    }
+
     /**
      * Producer loop for windowed mode. For each variant, extract CHROM/POS,
      * consult {@link WindowPolicy} to detect window boundaries, and inject
@@ -541,62 +1232,53 @@ public class VCFManager implements Runnable {
 
             VCFDecoder decoder = new VCFDecoder();
             List<String> batch = new ArrayList<>(2500);
-            try (VCFStreamingIterator iterator = new VCFStreamingIterator(decoder, verbose, inputFileNames)) {
-                for (String line : iterator) {
-                    if (line == null) continue;
-                    if (line.startsWith("##")) {
-                        commentData.add(line);
-                    } else if (line.startsWith("#")) {
-                        headerData = line;
-                        sampleNames = getSampleNamesFromHeader();
-                        if (sampleNames == null || sampleNames.isEmpty()) {
-                            throw new IllegalStateException("No samples detected from #CHROM header.");
-                        }
-                        numSamples = sampleNames.size();
-                    } else {
-                        // Extract CHROM and POS without splitting the whole line.
-                        int tab1 = line.indexOf('\t');
-                        if (tab1 < 0) continue;
-                        int tab2 = line.indexOf('\t', tab1 + 1);
-                        if (tab2 < 0) continue;
-                        String chrom = line.substring(0, tab1);
-                        int pos;
-                        try {
-                            pos = Integer.parseInt(line.substring(tab1 + 1, tab2));
-                        } catch (NumberFormatException nfe) {
-                            continue;
-                        }
-
-                        if (ploidy <= 0) {
+            if (inputFormat == InputFormat.BGT) {
+                readBinary(this::queueWindowed);
+            } else if (inputFormat == InputFormat.BCF) {
+                readBCF(this::queueWindowed);
+            } else if (inputFormat == InputFormat.PLINK) {
+                readPlink(this::queueWindowed);
+            } else if (byteParser) {
+                runWindowedBytes(decoder);
+            } else {
+                try (VCFStreamingIterator iterator = new VCFStreamingIterator(decoder, newInputOpener(), verbose, inputFileNames)) {
+                    for (String line : iterator) {
+                        if (line == null) continue;
+                        if (line.startsWith("#")) {
+                            processHeaderLine(line);
+                        } else {
+                            // Extract CHROM and POS without splitting the whole line.
+                            int tab1 = line.indexOf('\t');
+                            if (tab1 < 0) continue;
+                            int tab2 = line.indexOf('\t', tab1 + 1);
+                            if (tab2 < 0) continue;
+                            String chrom = line.substring(0, tab1);
+                            int pos;
                             try {
-                                int[] ploidy_maxAlleles = SNPEncoder.guessPloidyAndMaxAllele(line);
-                                ploidy = ploidy_maxAlleles[0];
-                                maxAlleles = ploidy_maxAlleles[1];
-                                if (ploidy > 0) startSignal.countDown();
-                            } catch (IllegalArgumentException e) {
-                                throw new IllegalStateException(
-                                        "Failed to infer ploidy / maxAlleles: " + e.getMessage(), e);
+                                pos = Integer.parseInt(line.substring(tab1 + 1, tab2));
+                            } catch (NumberFormatException nfe) {
+                                continue;
                             }
-                        }
 
-                        boolean boundary = windowPolicy.advance(chrom, pos);
-                        if (boundary) {
-                            if (!batch.isEmpty()) {
-                                variantRawCache.put(Batch.data(new ArrayList<>(batch)));
-                                batch.clear();
+                            if (ploidy <= 0) {
+                                inferPloidy(line);
                             }
-                            WindowPolicy.Window closed = windowPolicy.consumeClosedWindow();
-                            if (closed != null) pendingWindows.put(closed);
-                            for (int i = 0; i < usingThreads; i++) {
-                                variantRawCache.put(Batch.BARRIER);
+
+                            boolean boundary = windowPolicy.advance(chrom, pos);
+                            if (boundary) {
+                                if (!batch.isEmpty()) {
+                                    variantRawCache.put(Batch.data(new ArrayList<>(batch)));
+                                    batch.clear();
+                                }
+                                closeWindow();
                             }
-                        }
 
-                        String parsed = variantParser.apply(line);
-                        batch.add(parsed);
-                        if (batch.size() >= batchSize) {
-                            variantRawCache.put(Batch.data(new ArrayList<>(batch)));
-                            batch.clear();
+                            String parsed = variantParser.apply(line);
+                            batch.add(parsed);
+                            if (batch.size() >= batchSize) {
+                                variantRawCache.put(Batch.data(new ArrayList<>(batch)));
+                                batch.clear();
+                            }
                         }
                     }
                 }
@@ -637,6 +1319,86 @@ public class VCFManager implements Runnable {
         }
     }
 
+    /**
+     * Byte-parser flavour of the {@link #runWindowed()} read loop. CHROM and
+     * POS are read from the raw line bytes; a CHROM String is only created
+     * when the contig changes.
+     */
+    private void runWindowedBytes(VCFDecoder decoder) throws Exception {
+        byte[] chromBytes = new byte[0];
+        String chrom = null;
+        try (VCFByteStreamingIterator iterator = new VCFByteStreamingIterator(decoder, newInputOpener(), verbose,
+                this::processHeaderLine, batchSize, VCFByteStreamingIterator.DEFAULT_CHUNK_SIZE, inputFileNames)) {
+            for (VCFLineBatch lines : iterator) {
+                byte[] data = lines.data();
+                VCFLineBatch out = new VCFLineBatch(data, lines.size());
+                for (int v = 0; v < lines.size(); v++) {
+                    int start = lines.start(v);
+                    int end = lines.end(v);
+                    int tab1 = SNPEncoder.fieldEnd(data, start, end);
+                    if (tab1 >= end) continue;
+                    int tab2 = SNPEncoder.fieldEnd(data, tab1 + 1, end);
+                    if (tab2 >= end) continue;
+                    int pos = SNPEncoder.parsePos(data, tab1 + 1, tab2);
+                    if (pos < 0) continue;
+                    if (!Arrays.equals(chromBytes, 0, chromBytes.length, data, start, tab1)) {
+                        chromBytes = Arrays.copyOfRange(data, start, tab1);
+                        chrom = new String(chromBytes, StandardCharsets.UTF_8);
+                    }
+
+                    if (ploidy <= 0) {
+                        inferPloidy(data, start, end);
+                    }
+
+                    if (windowPolicy.advance(chrom, pos)) {
+                        if (!out.isEmpty()) {
+                            variantRawCache.put(Batch.data(out));
+                            out = new VCFLineBatch(data, lines.size() - v);
+                        }
+                        closeWindow();
+                    }
+                    out.add(start, end);
+                }
+                if (!out.isEmpty()) {
+                    variantRawCache.put(Batch.data(out));
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary flavour of the {@link #runWindowed()} read loop: BGT chunks,
+     * BCF record batches and PLINK rows are split at window boundaries
+     * using the CHROM and POS of each variant.
+     */
+    private void queueWindowed(GenotypeBatch batch) throws InterruptedException {
+        int from = 0;
+        for (int v = 0; v < batch.size(); v++) {
+            if (windowPolicy.advance(batch.contig(v), batch.position(v))) {
+                if (v > from) {
+                    variantRawCache.put(Batch.data(batch.slice(from, v)));
+                    from = v;
+                }
+                closeWindow();
+            }
+        }
+        if (from < batch.size()) {
+            variantRawCache.put(Batch.data(from == 0 ? batch : batch.slice(from, batch.size())));
+        }
+    }
+
+    /**
+     * Hand the window just closed by {@link WindowPolicy#advance} to the
+     * workers: queue it for emission and send one BARRIER per worker.
+     */
+    private void closeWindow() throws InterruptedException {
+        WindowPolicy.Window closed = windowPolicy.consumeClosedWindow();
+        if (closed != null) pendingWindows.put(closed);
+        for (int i = 0; i < usingThreads; i++) {
+            variantRawCache.put(Batch.BARRIER);
+        }
+    }
+
     /**
      * Runs in the last worker to arrive at {@link #windowBarrier}, while every
      * other worker is parked inside await(). All shared state is therefore
@@ -654,74 +1416,122 @@ public class VCFManager implements Runnable {
             }
         }
         // Reset accumulators for the next window.
-        for (ProcessorResult r : workerResults) {
+        for (ProcessorResult r : liveResults()) {
             if (r == null) continue;
-            for (int i = 0; i < numSamples; i++) {
-                r.norm[0][i] = 0L;
-                long[] row = r.dotProd[0][i];
-                for (int j = 0; j < numSamples; j++) {
-                    row[j] = 0L;
-                }
-            }
+            Arrays.fill(r.norm[0], 0L);
+            r.dotProd[0].clear();
         }
     }
 
+    /** The accumulators the workers are adding to: theirs, or the shared one. */
+    private ProcessorResult[] liveResults() {
+        return tiledAccumulator != null ? new ProcessorResult[] { sharedResult() } : workerResults;
+    }
+
+    /** The {@link TiledAccumulator} arrays as a result, without copying. */
+    private ProcessorResult sharedResult() {
+        return new ProcessorResult(tiledAccumulator.dotProd, tiledAccumulator.norm);
+    }
+
     /**
      * Per-window reduction equivalent to {@link #reduceDotProdToDistances()},
      * but reads accumulators from {@link #workerResults} (live arrays) instead
      * of joined CompletableFutures, and uses only replicate 0.
      */
     private double[][] reduceCurrentFromShared() {
-        long[][] finalDotProd = new long[numSamples][numSamples];
-        long[] finalNorm = new long[numSamples];
-        for (ProcessorResult r : workerResults) {
+        ProcessorResult merged = new ProcessorResult(1, numSamples);
+        for (ProcessorResult r : liveResults()) {
             if (r == null) continue;
-            for (int i = 0; i < numSamples; i++) {
-                finalNorm[i] += r.norm[0][i];
-                for (int j = i; j < numSamples; j++) {
-                    finalDotProd[i][j] += r.dotProd[0][i][j];
-                }
-            }
+            merged.merge(r);
         }
+        return toCosineDistances(merged.dotProd[0], merged.norm[0]);
+    }
+
+    /**
+     * Cosine distances from the dot products and squared norms of the
+     * samples; a sample with no called genotype is at distance 0 from
+     * itself and 1 from everyone else.
+     */
+    private double[][] toCosineDistances(TriangularMatrix dotProd, long[] norm) {
+        long[] dots = dotProd.values;
         double[][] cosineDist = new double[numSamples][numSamples];
         for (int i = 0; i < numSamples; i++) {
-            double normI = Math.sqrt(finalNorm[i]);
+            double normI = Math.sqrt(norm[i]);
+            int row = dotProd.rowBase(i);
             for (int j = i; j < numSamples; j++) {
-                double normJ = Math.sqrt(finalNorm[j]);
-                double dot = finalDotProd[i][j];
-                double similarity = ((normI > 0 && normJ > 0) ? (dot / (normI * normJ)) : 0.0);
-                if (j == i && normI == 0 && normJ == 0) similarity = 1.0;
-                double dist = 1.0 - similarity;
-                if (dist < 0) dist = 0.0;
-                cosineDist[i][j] = cosineDist[j][i] = dist;
+                double normJ = Math.sqrt(norm[j]);
+                cosineDist[i][j] = cosineDist[j][i] = cosineDistance(dots[row + j], normI, normJ, i == j);
             }
         }
         return cosineDist;
     }
 
+    /** Cosine distance of two samples from their dot product and the square roots of their norms. */
+    static double cosineDistance(double dot, double normI, double normJ, boolean self) {
+        double similarity = ((normI > 0 && normJ > 0) ? (dot / (normI * normJ)) : 0.0);
+        if (self && normI == 0) {
+            similarity = 1.0;
+        }
+        double dist = 1.0 - similarity;
+        if (dist < 0) dist = 0.0;
+        return dist;
+    }
+
+    private void processHeaderLine(String line) {
+        if (line.startsWith("##")) {
+            commentData.add(line);
+        } else {
+            headerData = line;
+            sampleNames = getSampleNamesFromHeader();
+            if (sampleNames == null || sampleNames.size() <= 0) {
+                throw new IllegalStateException("No samples detected from #CHROM header.");
+            }
+            numSamples = sampleNames.size();
+        }
+    }
+
+    /**
+     * Byte-parser counterpart of {@link #processVariantLine}: the whole
+     * batch of raw lines is queued as is.
+     */
+    private void processVariantLines(VCFLineBatch lines) throws InterruptedException {
+        if (ploidy <= 0) {
+            inferPloidy(lines.data(), lines.start(0), lines.end(0));
+        }
+        variantRawCache.put(Batch.data(lines));
+    }
+
+    private synchronized void inferPloidy(String line) {
+        if (ploidy > 0) {
+            return;
+        }
+        try {
+            int[] ploidy_maxAlleles = SNPEncoder.guessPloidyAndMaxAllele(line);
+            useEncoding(ploidy_maxAlleles[0], ploidy_maxAlleles[1]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Failed to infer ploidy / maxAlleles: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized void inferPloidy(byte[] line, int start, int end) {
+        if (ploidy > 0) {
+            return;
+        }
+        try {
+            int[] ploidy_maxAlleles = SNPEncoder.guessPloidyAndMaxAllele(line, start, end);
+            useEncoding(ploidy_maxAlleles[0], ploidy_maxAlleles[1]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Failed to infer ploidy / maxAlleles: " + e.getMessage(), e);
+        }
+    }
+
     private void processVariantLine(String line, List<String> batch) throws Exception {
         try {
-            if (line.startsWith("##")) {
-                commentData.add(line);
-            } else if (line.startsWith("#")) {
-                headerData = line;
-                sampleNames = getSampleNamesFromHeader();
-                if (sampleNames == null || sampleNames.size() <= 0) {
-                    throw new IllegalStateException("No samples detected from #CHROM header.");
-                }
-                numSamples = sampleNames.size();
+            if (line.startsWith("#")) {
+                processHeaderLine(line);
             } else {
                 if (ploidy <= 0) {
-                    try {
-                        int[] ploidy_maxAlleles = SNPEncoder.guessPloidyAndMaxAllele(line);
-                        ploidy = ploidy_maxAlleles[0];
-                        maxAlleles = ploidy_maxAlleles[1];
-                        if (ploidy > 0) {
-                            startSignal.countDown();
-                        }
-                    } catch (IllegalArgumentException e) {
-                        throw new IllegalStateException("Failed to infer ploidy / maxAlleles: " + e.getMessage(), e);
-                    }
+                    inferPloidy(line);
                 }
                 String parsed = variantParser.apply(line);
                 batch.add(parsed);
@@ -743,40 +1553,41 @@ public class VCFManager implements Runnable {
             return reduceEmbeddingsToDistances();
         }
         try {
-            long[][] finalDotProd = new long[numSamples][numSamples];
-            long[] finalNorm = new long[numSamples];
-
-            for (CompletableFuture<ProcessorResult> vp : variantProcessors) {
-                ProcessorResult r = vp.join();
-                for (int i = 0; i < numSamples; i++) {
-                    finalNorm[i] += r.norm[0][i];
-                    for (int j = i; j < numSamples; j++) {
-                        finalDotProd[i][j] += r.dotProd[0][i][j];
-                    }
-                }
-            }
-
-            double[][] cosineDist = new double[numSamples][numSamples];
-            for (int i = 0; i < numSamples; i++) {
-                double normI = Math.sqrt(finalNorm[i]);
-                for (int j = i; j < numSamples; j++) {
-                    double normJ = Math.sqrt(finalNorm[j]);
-                    double dot = finalDotProd[i][j];
-                    double similarity = ((normI > 0 && normJ > 0) ? (dot / (normI * normJ)) : 0.0f);
-                    if (j == i && normI == 0 && normJ == 0) {
-                        similarity = 1.0;
-                    }
-                    double dist = 1.0 - similarity;
-                    if(dist<0) dist = 0.0;
-                    cosineDist[i][j] = cosineDist[j][i] = dist;
-                }
-            }
-            return cosineDist;
+            ProcessorResult merged = mergeResults();
+            return toCosineDistances(merged.dotProd[0], merged.norm[0]);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Wait for the workers and add up their accumulators; with a
+     * {@link TiledAccumulator} they already share one, which is returned
+     * as is, and with {@link BootstrapBlocks} every block is added once.
+     */
+    private ProcessorResult mergeResults() {
+        awaitWorkers();
+        if (tiledAccumulator != null) {
+            return sharedResult();
+        }
+        ProcessorResult merged = new ProcessorResult(1, numSamples);
+        if (bootstrapBlocks != null) {
+            bootstrapBlocks.sum(0, merged.dotProd[0], merged.norm[0]);
+            return merged;
+        }
+        for (CompletableFuture<ProcessorResult> vp : variantProcessors) {
+            merged.merge(vp.join());
+        }
+        return merged;
+    }
+
+    private void awaitWorkers() {
+        CompletableFuture.allOf(variantProcessors.toArray(new CompletableFuture<?>[0])).join();
+        if (bootstrapFailure != null) {
+            throw new IllegalStateException(bootstrapFailure.getMessage(), bootstrapFailure);
+        }
+    }
+
     /**
      * Reduce embedding accumulations to distance matrix.
      * Computes cosine distance in embedding space.
@@ -810,40 +1621,9 @@ public class VCFManager implements Runnable {
             return reduceEmbeddingsToDistancesBootstraps();
         }
         try {
-            int numReplicates = numBootstraps > 0 ? numBootstraps + 1 : 1;
-            long[][][] finalDotProd = new long[numReplicates][numSamples][numSamples];
-            long[][] finalNorm = new long[numReplicates][numSamples];
-
-            for (CompletableFuture<ProcessorResult> vp : variantProcessors) {
-                ProcessorResult r = vp.join();
-                for (int rep = 0; rep < numReplicates; rep++) {
-                    for (int i = 0; i < numSamples; i++) {
-                        finalNorm[rep][i] += r.norm[rep][i];
-                        for (int j = i; j < numSamples; j++) {
-                            finalDotProd[rep][i][j] += r.dotProd[rep][i][j];
-                        }
-                    }
-                }
-            }
-
             List<double[][]> allDistances = new ArrayList<>();
-            for (int rep = 0; rep < numReplicates; rep++) {
-                double[][] cosineDist = new double[numSamples][numSamples];
-                for (int i = 0; i < numSamples; i++) {
-                    double normI = Math.sqrt(finalNorm[rep][i]);
-                    for (int j = i; j < numSamples; j++) {
-                        double normJ = Math.sqrt(finalNorm[rep][j]);
-                        double dot = finalDotProd[rep][i][j];
-                        double similarity = ((normI > 0 && normJ > 0) ? (dot / (normI * normJ)) : 0.0);
-                        if (j == i && normI == 0 && normJ == 0) {
-                            similarity = 1.0;
-                        }
-                        double dist = 1.0 - similarity;
-                        if(dist<0) dist = 0.0;
-                        cosineDist[i][j] = cosineDist[j][i] = dist;
-                    }
-                }
-                allDistances.add(cosineDist);
+            for (int rep = 0; rep <= numBootstraps; rep++) {
+                allDistances.add(reduceBlocksToDistances(rep));
             }
             return allDistances;
         } catch (OutOfMemoryError e) {
@@ -855,6 +1635,43 @@ public class VCFManager implements Runnable {
         }
     }
 
+    /**
+     * Distances of bootstrap replicate {@code replicate}, in [0,
+     * numBootstraps], replicate 0 being those of the input itself: summed
+     * from the resampled genome blocks, or merged from the worker
+     * embeddings of that replicate. One matrix is built per call, so the
+     * replicates can be turned into trees one at a time instead of
+     * holding every matrix.
+     */
+    public double[][] reduceDotProdToDistancesBootstrap(int replicate) {
+        if (replicate < 0 || replicate > numBootstraps) {
+            throw new IllegalArgumentException("No bootstrap replicate " + replicate + " of " + numBootstraps);
+        }
+        return embeddingMode ? reduceEmbeddingsToDistancesBootstrap(replicate) : reduceBlocksToDistances(replicate);
+    }
+
+    /** Distances of genotype replicate {@code replicate}, summing its resampled blocks anew. */
+    private double[][] reduceBlocksToDistances(int replicate) {
+        if (replicate == 0 || bootstrapBlocks == null) {
+            ProcessorResult merged = mergeResults();
+            return toCosineDistances(merged.dotProd[0], merged.norm[0]);
+        }
+        awaitWorkers();
+        TriangularMatrix dotProd = new TriangularMatrix(numSamples);
+        long[] norm = new long[numSamples];
+        bootstrapBlocks.sum(replicate, dotProd, norm);
+        return toCosineDistances(dotProd, norm);
+    }
+
+    /** Number of genome blocks the bootstrap resamples, 0 without a bootstrap. */
+    public int getNumBootstrapBlocks() {
+        if (bootstrapBlocks == null) {
+            return 0;
+        }
+        awaitWorkers();
+        return bootstrapBlocks.size();
+    }
+
     /**
      * Reduce with bootstrap replicates for embedding mode.
      */
@@ -862,25 +1679,10 @@ public class VCFManager implements Runnable {
         try {
             int numReplicates = numBootstraps > 0 ? numBootstraps + 1 : 1;
 
-            // Merge sample embeddings from all worker threads for all replicates
-            double[][][] finalEmbeddings = new double[numReplicates][numSamples][embeddingDim];
-
-            for (CompletableFuture<EmbeddingProcessorResult> ep : embeddingProcessors) {
-                EmbeddingProcessorResult r = ep.join();
-                for (int rep = 0; rep < numReplicates; rep++) {
-                    for (int i = 0; i < numSamples; i++) {
-                        for (int d = 0; d < embeddingDim; d++) {
-                            finalEmbeddings[rep][i][d] += r.sampleEmbeddings[rep][i][d];
-                        }
-                    }
-                }
-            }
-
             // Compute pairwise cosine distances for each replicate
             List<double[][]> allDistances = new ArrayList<>();
             for (int rep = 0; rep < numReplicates; rep++) {
-                double[][] cosineDist = computeCosineDistancesFromEmbeddings(finalEmbeddings[rep]);
-                allDistances.add(cosineDist);
+                allDistances.add(reduceEmbeddingsToDistancesBootstrap(rep));
             }
 
             return allDistances;
@@ -892,6 +1694,23 @@ public class VCFManager implements Runnable {
         }
     }
 
+    /**
+     * Distances of embedding bootstrap replicate {@code replicate}, merging
+     * that replicate's sample embeddings from all worker threads.
+     */
+    private double[][] reduceEmbeddingsToDistancesBootstrap(int replicate) {
+        double[][] finalEmbeddings = new double[numSamples][embeddingDim];
+        for (CompletableFuture<EmbeddingProcessorResult> ep : embeddingProcessors) {
+            double[][] r = ep.join().sampleEmbeddings[replicate];
+            for (int i = 0; i < numSamples; i++) {
+                for (int d = 0; d < embeddingDim; d++) {
+                    finalEmbeddings[i][d] += r[i][d];
+                }
+            }
+        }
+        return computeCosineDistancesFromEmbeddings(finalEmbeddings);
+    }
+
     /**
      * Compute pairwise cosine distances from sample embeddings.
      *
@@ -903,13 +1722,10 @@ public class VCFManager implements Runnable {
         double[][] cosineDist = new double[n][n];
 
         // Pre-compute norms
+        DistanceKernels kernels = DistanceKernels.INSTANCE;
         double[] norms = new double[n];
         for (int i = 0; i < n; i++) {
-            double sumSq = 0.0;
-            for (int d = 0; d < embeddings[i].length; d++) {
-                sumSq += embeddings[i][d] * embeddings[i][d];
-            }
-            norms[i] = Math.sqrt(sumSq);
+            norms[i] = Math.sqrt(kernels.dot(embeddings[i], embeddings[i], embeddings[i].length));
         }
 
         // Compute pairwise cosine distances
@@ -919,10 +1735,7 @@ public class VCFManager implements Runnable {
                 double normJ = norms[j];
 
                 // Compute dot product
-                double dot = 0.0;
-                for (int d = 0; d < embeddings[i].length; d++) {
-                    dot += embeddings[i][d] * embeddings[j][d];
-                }
+                double dot = kernels.dot(embeddings[i], embeddings[j], embeddings[i].length);
 
                 double similarity;
                 if (normI > 0 && normJ > 0) {
@@ -986,6 +1799,19 @@ public class VCFManager implements Runnable {
         this.numBootstraps = replicates;
     }
 
+    /**
+     * Resample the genome in blocks of {@code blockBp} base pairs per
+     * contig, with replicates drawn from {@code seed}; see
+     * {@link BootstrapBlocks}. Embedding bootstraps still resample single
+     * variants, with draws from {@code seed} and the variant key. Must be
+     * called before {@link #init()}.
+     */
+    public void setBootstrapBlocks(int blockBp, long seed) {
+        if (blockBp <= 0) throw new IllegalArgumentException("bootstrap block size must be > 0");
+        this.bootstrapBlockBp = blockBp;
+        this.bootstrapSeed = seed;
+    }
+
     /**
      * Get number of variants skipped (only meaningful in embedding mode).
      */
@@ -993,7 +1819,16 @@ public class VCFManager implements Runnable {
         return skippedVariantCount != null ? skippedVariantCount.get() : 0;
     }
 
-    private static int poisson1(java.util.Random rand) {
+    /** Seed of the bootstrap draws of the variant with key {@code variantKey}: FNV-1a over the key from the seed. */
+    private long variantSeed(String variantKey) {
+        long h = bootstrapSeed * 0x9E3779B97F4A7C15L;
+        for (int k = 0; k < variantKey.length(); k++) {
+            h = (h ^ variantKey.charAt(k)) * 0x100000001B3L;
+        }
+        return h;
+    }
+
+    private static int poisson1(SplittableRandom rand) {
         double L = Math.exp(-1.0);
         int k = 0;
         double p = 1.0;
@@ -0,0 +1,219 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Memory-mapped uncompressed VCF, cut into chunks that start and end on
+ * line boundaries. Finding a chunk only scans for one '\n' near its end,
+ * so the producer does almost no work; the workers copy each chunk out of
+ * the mapping and split it into lines themselves.
+ * <p>
+ * The file is mapped in segments of at most 1GB (a single mapping cannot
+ * exceed 2GB); a new segment is mapped at the start of the first chunk
+ * that does not fit the current one.
+ */
+public class VCFMappedFile implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+    static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    private final String path;
+    private final FileChannel channel;
+    private final long size;
+    private final long maxSegmentSize;
+
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long segmentEnd;
+
+    public VCFMappedFile(String path) throws IOException {
+        this(path, MAX_SEGMENT_SIZE);
+    }
+
+    VCFMappedFile(String path, long maxSegmentSize) throws IOException {
+        this.path = path;
+        this.maxSegmentSize = maxSegmentSize;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** Map the segment starting at {@code start}. */
+    private void map(long start) throws IOException {
+        segmentStart = start;
+        segmentEnd = Math.min(size, start + maxSegmentSize);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart);
+    }
+
+    /**
+     * Offset just past the first '\n' at or after {@code from}, mapping a
+     * new segment starting at {@code anchor} if the current one ends first.
+     */
+    private long lineEndAfter(long anchor, long from) throws IOException {
+        if (segment == null || anchor < segmentStart || from >= segmentEnd && segmentEnd < size) {
+            map(anchor);
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            for (long p = Math.max(from, segmentStart); p < segmentEnd; p++) {
+                if (segment.get((int) (p - segmentStart)) == '\n') {
+                    return p + 1;
+                }
+            }
+            if (segmentEnd == size) {
+                return size;
+            }
+            if (segmentStart == anchor) {
+                break;
+            }
+            map(anchor);
+        }
+        throw new IOException("Line longer than " + maxSegmentSize + " bytes in " + path);
+    }
+
+    /**
+     * Pass the header lines to {@code headerSink}.
+     *
+     * @return the offset of the first data line (the file size if none)
+     */
+    public long readHeader(Consumer<String> headerSink) throws IOException {
+        long pos = 0;
+        while (pos < size) {
+            long end = lineEndAfter(pos, pos);
+            byte[] line = line(pos, end);
+            if (line.length > 0) {
+                if (line[0] != '#') {
+                    return pos;
+                }
+                headerSink.accept(new String(line, StandardCharsets.UTF_8));
+            }
+            pos = end;
+        }
+        return size;
+    }
+
+    /** The line starting at {@code offset}, without its line terminator. */
+    public byte[] lineAt(long offset) throws IOException {
+        return line(offset, lineEndAfter(offset, offset));
+    }
+
+    private byte[] line(long start, long end) {
+        long stop = end;
+        while (stop > start && (segment.get((int) (stop - 1 - segmentStart)) == '\n'
+                || segment.get((int) (stop - 1 - segmentStart)) == '\r')) {
+            stop--;
+        }
+        byte[] line = new byte[(int) (stop - start)];
+        ByteBuffer view = segment.duplicate();
+        view.position((int) (start - segmentStart));
+        view.get(line);
+        return line;
+    }
+
+    /**
+     * The chunk starting at {@code start} (a line start) and ending after
+     * the first line end at or beyond {@code start + chunkSize}.
+     *
+     * @return the chunk, or null if {@code start} is at the end of the file
+     */
+    public Chunk chunk(long start, int chunkSize) throws IOException {
+        if (start >= size) {
+            return null;
+        }
+        // Keep chunks well inside one segment so a new mapping is rarely needed.
+        long length = Math.min(chunkSize, maxSegmentSize / 2);
+        long end = lineEndAfter(start, Math.min(size, start + length) - 1);
+        return new Chunk(segment, (int) (start - segmentStart), (int) (end - start), end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mappings stay valid after the channel is closed; they are released
+        // once the last chunk referring to them is collected.
+        channel.close();
+    }
+
+    /** A line-aligned slice of a mapped segment. */
+    public static final class Chunk {
+
+        private final ByteBuffer segment;
+        private final int offset;
+        private final int length;
+        private final long end;
+
+        private Chunk(ByteBuffer segment, int offset, int length, long end) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.end = end;
+        }
+
+        /** File offset just past this chunk, i.e. the start of the next one. */
+        public long end() {
+            return end;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Copy the chunk out of the mapping and split it into data lines.
+         * Header and empty lines are skipped.
+         *
+         * @param buffer array to reuse if it is large enough, may be null
+         */
+        public VCFLineBatch load(byte[] buffer, VCFDecoder decoder) {
+            byte[] data = buffer != null && buffer.length >= length ? buffer : new byte[length];
+            ByteBuffer view = segment.duplicate();
+            view.position(offset);
+            view.get(data, 0, length);
+            ByteBuffer lines = ByteBuffer.wrap(data, 0, length);
+            VCFLineBatch batch = new VCFLineBatch(data, 1024);
+            while (lines.hasRemaining()) {
+                int lineStart = lines.position();
+                int lineEnd = decoder.frame(lines);
+                if (lineEnd < 0) {
+                    // Last line of the file without a trailing '\n'.
+                    lineEnd = length;
+                    while (lineEnd > lineStart && data[lineEnd - 1] == '\r') lineEnd--;
+                    lines.position(length);
+                }
+                if (lineEnd > lineStart && data[lineStart] != '#') {
+                    batch.add(lineStart, lineEnd);
+                }
+            }
+            return batch;
+        }
+    }
+}
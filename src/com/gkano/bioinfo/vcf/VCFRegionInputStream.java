@@ -0,0 +1,233 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.gkano.bioinfo.var.Logger;
+
+/**
+ * Presents the header plus the records of a bgzipped, indexed VCF that
+ * overlap a set of regions as one plain VCF stream. The index is used to
+ * seek straight to the BGZF chunks of each region, so the rest of the file
+ * is never read or inflated.
+ * <p>
+ * Regions are sorted into file order and overlapping ones merged, so the
+ * output keeps the file's record order and, because records are tracked by
+ * virtual offset, a record overlapping several regions is emitted once.
+ * Overlap is judged on POS and the length of REF.
+ */
+public class VCFRegionInputStream extends InputStream {
+
+    private static final int TARGET_FILL = 1 << 16;
+
+    private final BGZFSeekableReader reader;
+    private final TabixIndex index;
+    private final List<GenomicRegion> regions;
+
+    private int regionIndex = -1;
+    private long[] chunks = new long[0];
+    private int chunkIndex = 0;
+    private long chunkEnd = -1;
+    private long lastEmitted = -1;
+
+    private byte[] out = new byte[TARGET_FILL];
+    private int outPos = 0;
+    private int outLength = 0;
+
+    public VCFRegionInputStream(String path, TabixIndex index, List<GenomicRegion> regions) throws IOException {
+        this(path, index, regions, true);
+    }
+
+    /**
+     * @param includeHeader whether to emit the header lines before the
+     * records; parallel shards of one file leave it out
+     */
+    public VCFRegionInputStream(String path, TabixIndex index, List<GenomicRegion> regions,
+            boolean includeHeader) throws IOException {
+        this.reader = new BGZFSeekableReader(path);
+        this.index = index;
+        this.regions = normalize(index, regions);
+        if (includeHeader) {
+            readHeader();
+        }
+    }
+
+    /**
+     * Drop regions on sequences the index does not know, sort the rest by
+     * (sequence order, start) and merge overlapping or touching ones.
+     */
+    private List<GenomicRegion> normalize(TabixIndex index, List<GenomicRegion> input) {
+        List<GenomicRegion> known = new ArrayList<>();
+        for (GenomicRegion r : input) {
+            if (index.getSequenceIndex(r.getChrom()) < 0) {
+                Logger.warn(this, "Sequence " + r.getChrom() + " is not in the index, skipping region " + r);
+            } else {
+                known.add(r);
+            }
+        }
+        known.sort(Comparator.<GenomicRegion>comparingInt(r -> index.getSequenceIndex(r.getChrom()))
+                .thenComparingInt(GenomicRegion::getStart));
+        List<GenomicRegion> merged = new ArrayList<>();
+        for (GenomicRegion r : known) {
+            GenomicRegion last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.getChrom().equals(r.getChrom())
+                    && (long) r.getStart() <= (long) last.getEnd() + 1) {
+                merged.set(merged.size() - 1, new GenomicRegion(last.getChrom(), last.getStart(),
+                        Math.max(last.getEnd(), r.getEnd())));
+            } else {
+                merged.add(r);
+            }
+        }
+        return merged;
+    }
+
+    private void readHeader() throws IOException {
+        reader.seek(0);
+        while (reader.readLine()) {
+            if (reader.lineLength() == 0 || reader.line()[0] != '#') {
+                break;
+            }
+            emit(reader.line(), reader.lineLength());
+        }
+    }
+
+    private void emit(byte[] line, int length) {
+        if (outLength + length + 1 > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + length + 1));
+        }
+        System.arraycopy(line, 0, out, outLength, length);
+        outLength += length;
+        if (line[length - 1] != '\n') {
+            out[outLength++] = '\n';
+        }
+    }
+
+    /** Move to the next chunk, advancing through regions as needed. */
+    private boolean nextChunk() throws IOException {
+        while (chunkIndex >= chunks.length) {
+            regionIndex++;
+            if (regionIndex >= regions.size()) {
+                return false;
+            }
+            chunks = index.query(regions.get(regionIndex));
+            chunkIndex = 0;
+        }
+        long begin = chunks[chunkIndex++];
+        chunkEnd = chunks[chunkIndex++];
+        reader.seek(begin);
+        return true;
+    }
+
+    /** Append the next matching record to the output buffer. */
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            if (chunkEnd < 0 && !nextChunk()) {
+                return false;
+            }
+            long offset = reader.tell();
+            if (offset >= chunkEnd || !reader.readLine()) {
+                chunkEnd = -1;
+                continue;
+            }
+            if (offset <= lastEmitted) {
+                continue;
+            }
+            byte[] line = reader.line();
+            int end = reader.lineLength();
+            int chromEnd = SNPEncoder.fieldEnd(line, 0, end);
+            int posEnd = SNPEncoder.fieldEnd(line, chromEnd + 1, end);
+            int refStart = SNPEncoder.skipFields(line, posEnd + 1, end, 1);
+            if (refStart < 0) {
+                continue;
+            }
+            int refEnd = SNPEncoder.fieldEnd(line, refStart, end);
+            int pos = SNPEncoder.parsePos(line, chromEnd + 1, posEnd);
+            GenomicRegion region = regions.get(regionIndex);
+            if (pos < 0 || !sameChrom(line, chromEnd, region.getChrom())) {
+                continue;
+            }
+            if (pos > region.getEnd()) {
+                // Records are sorted: nothing further in this region can overlap.
+                chunkIndex = chunks.length;
+                chunkEnd = -1;
+                continue;
+            }
+            int last = pos + Math.max(1, refEnd - refStart) - 1;
+            if (!region.overlaps(pos, last)) {
+                continue;
+            }
+            emit(line, end);
+            lastEmitted = offset;
+            return true;
+        }
+    }
+
+    private static boolean sameChrom(byte[] line, int chromEnd, String chrom) {
+        if (chromEnd != chrom.length()) return false;
+        for (int i = 0; i < chromEnd; i++) {
+            if (line[i] != chrom.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        outPos = 0;
+        outLength = 0;
+        while (outLength < TARGET_FILL && nextRecord()) {
+            // keep appending records
+        }
+        return outLength > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (outPos >= outLength && !fill()) {
+            return -1;
+        }
+        return out[outPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (outPos >= outLength && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, outLength - outPos);
+        System.arraycopy(out, outPos, b, off, n);
+        outPos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
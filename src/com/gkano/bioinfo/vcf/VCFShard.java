@@ -0,0 +1,218 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One independently readable part of a bgzipped VCF, so that several
+ * readers can scan a single file in parallel. A shard yields data lines
+ * only; the header is read once by the caller.
+ * <p>
+ * {@link Mode#BYTES} cuts the compressed file into equal byte ranges
+ * aligned to BGZF blocks and needs no index. A range owns the lines that
+ * start after its first byte and at or before the first byte of the next
+ * range: every range but the first drops its leading line, and every range
+ * finishes the line crossing its end. {@link Mode#CHROMOSOME} hands whole
+ * sequences to shards through the .tbi/.csi index, balancing the shards by
+ * the compressed size of each sequence.
+ */
+public final class VCFShard {
+
+    public enum Mode { BYTES, CHROMOSOME }
+
+    private final String path;
+    private final long startAddress;
+    private final long endAddress;
+    private final TabixIndex index;
+    private final List<GenomicRegion> regions;
+
+    private VCFShard(String path, long startAddress, long endAddress) {
+        this.path = path;
+        this.startAddress = startAddress;
+        this.endAddress = endAddress;
+        this.index = null;
+        this.regions = null;
+    }
+
+    private VCFShard(String path, TabixIndex index, List<GenomicRegion> regions) {
+        this.path = path;
+        this.startAddress = -1;
+        this.endAddress = -1;
+        this.index = index;
+        this.regions = regions;
+    }
+
+    /**
+     * Split a bgzipped VCF into at most {@code count} shards. Fewer are
+     * returned when the file has fewer blocks or sequences than requested.
+     */
+    public static List<VCFShard> plan(String path, int count, Mode mode) throws IOException {
+        if (mode == Mode.CHROMOSOME) {
+            String indexPath = TabixIndex.findIndex(path);
+            if (indexPath == null) {
+                throw new IOException("Sharding by chromosome needs a .tbi or .csi index next to " + path);
+            }
+            return planByChromosome(path, TabixIndex.load(indexPath), count);
+        }
+        return planByBytes(path, count);
+    }
+
+    private static List<VCFShard> planByBytes(String path, int count) throws IOException {
+        List<VCFShard> shards = new ArrayList<>();
+        try (BGZFSeekableReader reader = new BGZFSeekableReader(path)) {
+            if (reader.findBlockStart(0) != 0 || reader.size() == 0) {
+                throw new IOException("Not a BGZF file: " + path);
+            }
+            long size = reader.size();
+            long start = 0;
+            for (int i = 1; i <= count; i++) {
+                long end = i == count ? size : reader.findBlockStart(size * i / count);
+                if (end > start) {
+                    shards.add(new VCFShard(path, start, end));
+                    start = end;
+                }
+            }
+        }
+        return shards;
+    }
+
+    private static List<VCFShard> planByChromosome(String path, TabixIndex index, int count) {
+        List<String> names = index.getSequenceNames();
+        long[] sizes = new long[names.size()];
+        Integer[] order = new Integer[names.size()];
+        for (int s = 0; s < names.size(); s++) {
+            long[] chunks = index.query(new GenomicRegion(names.get(s), 1, GenomicRegion.MAX_END));
+            sizes[s] = chunks.length == 0 ? 0 : (chunks[chunks.length - 1] >>> 16) - (chunks[0] >>> 16) + 1;
+            order[s] = s;
+        }
+        // Longest sequence first onto the currently lightest shard.
+        Arrays.sort(order, (a, b) -> Long.compare(sizes[b], sizes[a]));
+        int n = Math.min(count, names.size());
+        long[] load = new long[n];
+        List<List<GenomicRegion>> assigned = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            assigned.add(new ArrayList<>());
+        }
+        for (int s : order) {
+            if (sizes[s] == 0) continue;
+            int lightest = 0;
+            for (int i = 1; i < n; i++) {
+                if (load[i] < load[lightest]) lightest = i;
+            }
+            load[lightest] += sizes[s];
+            assigned.get(lightest).add(new GenomicRegion(names.get(s), 1, GenomicRegion.MAX_END));
+        }
+        List<VCFShard> shards = new ArrayList<>();
+        for (List<GenomicRegion> regions : assigned) {
+            if (!regions.isEmpty()) {
+                shards.add(new VCFShard(path, index, regions));
+            }
+        }
+        return shards;
+    }
+
+    /** Open the shard's data lines as a plain VCF stream without header. */
+    public InputStream open() throws IOException {
+        if (regions != null) {
+            return new VCFRegionInputStream(path, index, regions, false);
+        }
+        return new RangeInputStream(path, startAddress, endAddress);
+    }
+
+    @Override
+    public String toString() {
+        return regions != null ? path + " " + regions : path + " [" + startAddress + ", " + endAddress + ")";
+    }
+
+    /** Data lines owned by one compressed byte range. */
+    private static final class RangeInputStream extends InputStream {
+
+        private final BGZFSeekableReader reader;
+        private final long endOffset;
+        private boolean done = false;
+
+        private byte[] line;
+        private int linePos;
+        private int lineLength;
+
+        RangeInputStream(String path, long startAddress, long endAddress) throws IOException {
+            this.reader = new BGZFSeekableReader(path);
+            this.endOffset = endAddress << 16;
+            reader.seek(startAddress << 16);
+            if (startAddress > 0) {
+                reader.readLine();
+            }
+        }
+
+        private boolean nextLine() throws IOException {
+            while (!done) {
+                if (reader.tell() > endOffset || !reader.readLine()) {
+                    done = true;
+                    break;
+                }
+                if (reader.lineLength() > 0 && reader.line()[0] != '#') {
+                    line = reader.line();
+                    lineLength = reader.lineLength();
+                    linePos = 0;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (linePos >= lineLength && !nextLine()) {
+                return -1;
+            }
+            return line[linePos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int total = 0;
+            while (total < len) {
+                if (linePos >= lineLength && !nextLine()) {
+                    break;
+                }
+                int n = Math.min(len - total, lineLength - linePos);
+                System.arraycopy(line, linePos, b, off + total, n);
+                linePos += n;
+                total += n;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -22,20 +22,13 @@
 package com.gkano.bioinfo.vcf;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PushbackInputStream;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.zip.GZIPInputStream;
-
-import org.itadaki.bzip2.BZip2InputStream;
-import org.tukaani.xz.XZInputStream;
 
 import com.gkano.bioinfo.var.Logger;
 
@@ -43,6 +36,7 @@ public class VCFStreamingIterator implements Iterable<String>, Iterator<String>,
 
     private final List<String> inputPaths;
     private final VCFDecoder decoder;
+    private final VCFInputOpener opener;
     private BufferedReader currentReader;
     private int currentPathIndex;
     private String nextLine;
@@ -51,6 +45,11 @@ public class VCFStreamingIterator implements Iterable<String>, Iterator<String>,
     private boolean verbose = false;
 
     public VCFStreamingIterator(VCFDecoder decoder, boolean verbose, List<String> inputPaths) {
+        this(decoder, new VCFInputOpener(), verbose, inputPaths);
+    }
+
+    public VCFStreamingIterator(VCFDecoder decoder, VCFInputOpener opener, boolean verbose, List<String> inputPaths) {
+        this.opener = opener;
         this.inputPaths = inputPaths;
         this.decoder = decoder;
         this.verbose = verbose;
@@ -75,17 +74,8 @@ public class VCFStreamingIterator implements Iterable<String>, Iterator<String>,
                 String path = inputPaths.get(currentPathIndex);
                 Logger.info(this, "Reading from: " + path);
 
-                InputStream in;
-                if (path.equals("-")) {
-                    in = System.in;
-                    usingStdin = true;
-                } else {
-                    File file = new File(path);
-                    in = new FileInputStream(file);
-                }
-
-                // Automatically detect and wrap compressed stream if needed
-                in = detectAndWrap(in);
+                usingStdin = VCFInputOpener.isStdin(path);
+                InputStream in = opener.open(path);
                 currentReader = new BufferedReader(new InputStreamReader(in));
 
             } else {
@@ -98,56 +88,6 @@ public class VCFStreamingIterator implements Iterable<String>, Iterator<String>,
         }
     }
 
-    private InputStream detectAndWrap(InputStream in) throws IOException {
-        final int MAX_MAGIC = 6;
-        PushbackInputStream pb = new PushbackInputStream(in, MAX_MAGIC);
-
-        byte[] signature = new byte[MAX_MAGIC];
-        int read = pb.read(signature, 0, signature.length);
-
-        // If we read anything, push it back so downstream consumers see a full stream
-        if (read > 0) {
-            pb.unread(signature, 0, read);
-        } else if (read == -1) {
-            // Empty stream
-            Logger.info(this, "Empty stream; no compression detected.");
-            return pb;
-        }
-
-        // gzip magic: 1F 8B
-        if (read >= 2
-                && signature[0] == (byte) 0x1F
-                && signature[1] == (byte) 0x8B) {
-            Logger.info(this, "Detected gzip compression.");
-            return new GZIPInputStream(pb);
-        }
-
-        // bzip2 magic: 42 5A 68 ("BZh")
-        if (read >= 3
-                && signature[0] == (byte) 0x42
-                && signature[1] == (byte) 0x5A
-                && signature[2] == (byte) 0x68) {
-            Logger.info(this, "Detected bzip2 compression.");
-            // 'true' to decompress concatenated streams if present
-            return new BZip2InputStream(pb, false);
-        }
-
-        // xz magic: FD 37 7A 58 5A 00
-        if (read >= 6
-                && signature[0] == (byte) 0xFD
-                && signature[1] == (byte) 0x37
-                && signature[2] == (byte) 0x7A
-                && signature[3] == (byte) 0x58
-                && signature[4] == (byte) 0x5A
-                && signature[5] == (byte) 0x00) {
-            Logger.info(this, "Detected xz compression.");
-            return new XZInputStream(pb);
-        }
-
-        Logger.info(this, "No compression detected.");
-        return pb;
-    }
-
     private void advance() {
         try {
             while (currentReader != null) {
@@ -0,0 +1,141 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.util.Arrays;
+
+/**
+ * Encodes variants one at a time into a reusable buffer of one-hot rows,
+ * each variant at its own width: the number of alleles comes from its
+ * REF/ALT (or the binary record) and the ploidy from its largest called
+ * genotype. A multi-allelic or polyploid site therefore neither widens the
+ * encoding of the biallelic sites around it nor gets truncated to the width
+ * guessed from the first line. Bits are laid out as in
+ * {@link SNPEncoder}, slot * alleles + allele, so dot products between two
+ * samples do not depend on the width chosen.
+ * <p>
+ * Not thread safe; each worker owns one.
+ */
+final class VariantEncoder {
+
+    private final int numSamples;
+    private int ploidyLimit;
+    private int[][] rows;
+    private int capacity = 1;
+    /** Tables built so far, by ploidy and number of alleles. */
+    private GenotypeTable[][] tables = new GenotypeTable[0][];
+
+    private int ploidy;
+    private int alleles;
+    private int words;
+
+    /**
+     * @param initialPloidy ploidy encoded without a second pass, e.g. the one
+     * guessed from the first data line; it grows when a variant needs more
+     */
+    VariantEncoder(int numSamples, int initialPloidy) {
+        this.numSamples = numSamples;
+        this.ploidyLimit = Math.max(1, initialPloidy);
+        this.rows = new int[numSamples][1];
+    }
+
+    /** Encode the text line slice [start, end). */
+    void encode(byte[] line, int start, int end) throws IllegalArgumentException {
+        int lineAlleles = SNPEncoder.alleleCount(line, start, end);
+        int slots = SNPEncoder.encodeSNPOneHot(line, start, end, table(lineAlleles), rows);
+        if (slots > ploidyLimit) {
+            ploidyLimit = slots;
+            SNPEncoder.encodeSNPOneHot(line, start, end, table(lineAlleles), rows);
+        }
+        setWidth(slots, lineAlleles);
+    }
+
+    void encode(String line) throws IllegalArgumentException {
+        int lineAlleles = SNPEncoder.alleleCount(line);
+        int slots = SNPEncoder.encodeSNPOneHot(line, table(lineAlleles), rows);
+        if (slots > ploidyLimit) {
+            ploidyLimit = slots;
+            SNPEncoder.encodeSNPOneHot(line, table(lineAlleles), rows);
+        }
+        setWidth(slots, lineAlleles);
+    }
+
+    /** Encode variant {@code v} of a binary batch. */
+    void encode(GenotypeBatch batch, int v) throws IllegalArgumentException {
+        int batchPloidy = Math.max(1, batch.ploidy(v));
+        int batchAlleles = Math.max(1, batch.alleles(v));
+        ensureWords((batchPloidy * batchAlleles + 31) / 32);
+        batch.encodeGenotypes(v, batchPloidy, batchAlleles, rows);
+        setWidth(batchPloidy, batchAlleles);
+    }
+
+    /** The table for the current ploidy limit and {@code lineAlleles}. */
+    private GenotypeTable table(int lineAlleles) {
+        if (ploidyLimit >= tables.length) {
+            tables = Arrays.copyOf(tables, ploidyLimit + 1);
+        }
+        GenotypeTable[] byAlleles = tables[ploidyLimit];
+        if (byAlleles == null || lineAlleles >= byAlleles.length) {
+            byAlleles = tables[ploidyLimit] = byAlleles == null
+                    ? new GenotypeTable[lineAlleles + 1] : Arrays.copyOf(byAlleles, lineAlleles + 1);
+        }
+        GenotypeTable table = byAlleles[lineAlleles];
+        if (table == null) {
+            table = byAlleles[lineAlleles] = new GenotypeTable(ploidyLimit, lineAlleles);
+        }
+        ensureWords(table.getWords());
+        return table;
+    }
+
+    private void ensureWords(int needed) {
+        if (capacity < needed) {
+            capacity = needed;
+            rows = new int[numSamples][capacity];
+        }
+    }
+
+    private void setWidth(int variantPloidy, int variantAlleles) {
+        ploidy = Math.max(1, variantPloidy);
+        alleles = variantAlleles;
+        words = (ploidy * alleles + 31) / 32;
+    }
+
+    /**
+     * Rows of the last variant; only the first {@link #words()} ints of each
+     * row belong to it.
+     */
+    int[][] rows() {
+        return rows;
+    }
+
+    int ploidy() {
+        return ploidy;
+    }
+
+    int alleles() {
+        return alleles;
+    }
+
+    int words() {
+        return words;
+    }
+}
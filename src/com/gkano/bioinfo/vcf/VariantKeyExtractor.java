@@ -21,6 +21,8 @@
  */
 package com.gkano.bioinfo.vcf;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Extracts variant keys from VCF lines for embedding lookup.
  *
@@ -71,6 +73,70 @@ public class VariantKeyExtractor {
         }
     }
 
+    /**
+     * Extract variant key from the raw VCF data line slice [start, end).
+     * Only the key itself is materialised as a String.
+     *
+     * @return Variant key in the configured format, or null if parsing fails
+     */
+    public String extractKey(byte[] line, int start, int end) {
+        if (line == null || start >= end || line[start] == '#') {
+            return null;
+        }
+
+        int[] tabs = new int[5]; // Need columns 0-4
+        int count = 0;
+        for (int p = start; p < end && count < tabs.length; p++) {
+            if (line[p] == '\t') {
+                tabs[count++] = p;
+            }
+        }
+        if (count < tabs.length) {
+            return null;
+        }
+
+        switch (format) {
+            case CHROM_POS:
+                return text(line, start, tabs[0]) + ":" + text(line, tabs[0] + 1, tabs[1]);
+            case CHROM_POS_REF_ALT:
+                return text(line, start, tabs[0]) + ":" + text(line, tabs[0] + 1, tabs[1])
+                        + ":" + text(line, tabs[2] + 1, tabs[3]) + ":" + text(line, tabs[3] + 1, tabs[4]);
+            case VCF_ID:
+                if (tabs[2] - tabs[1] == 2 && line[tabs[1] + 1] == '.') {
+                    return null;
+                }
+                return text(line, tabs[1] + 1, tabs[2]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Variant key from already decoded columns (e.g. of a BCF record), with
+     * ALT comma-joined as in VCF text.
+     *
+     * @return Variant key in the configured format, or null if unavailable
+     */
+    public String extractKey(String chrom, int pos, String id, String ref, String alt) {
+        if (chrom == null) {
+            return null;
+        }
+        switch (format) {
+            case CHROM_POS:
+                return chrom + ":" + pos;
+            case CHROM_POS_REF_ALT:
+                return chrom + ":" + pos + ":" + ref + ":" + alt;
+            case VCF_ID:
+                return ".".equals(id) ? null : id;
+            default:
+                return null;
+        }
+    }
+
+    private static String text(byte[] line, int from, int to) {
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+
     /**
      * Find positions of first n tabs in the string.
      *
@@ -0,0 +1,108 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+
+/**
+ * Multi-threaded reader for .xz files with more than one block (as written
+ * by "xz -T" or pixz). The block index at the end of the file gives every
+ * block's uncompressed offset and size; each pool thread keeps its own
+ * seekable decoder and decodes whole blocks, which are returned in file
+ * order. Needs a regular file, since the index is read from the end.
+ */
+public class XZBlockInputStream extends ParallelBlockInputStream {
+
+    /** Largest uncompressed block decoded in one piece. */
+    static final long MAX_BLOCK_SIZE = 1L << 30;
+
+    private final String path;
+    private final SeekableXZInputStream index;
+    private final List<SeekableXZInputStream> decoders = new ArrayList<>();
+    private final ThreadLocal<SeekableXZInputStream> threadDecoder = new ThreadLocal<>();
+    private int nextBlock = 0;
+
+    public XZBlockInputStream(String path, int threads) throws IOException {
+        super(threads, 2 * Math.max(1, threads), "xz-decoder");
+        this.path = path;
+        this.index = new SeekableXZInputStream(new SeekableFileInputStream(path));
+    }
+
+    public int getBlockCount() {
+        return index.getBlockCount();
+    }
+
+    /** Whether the file has several blocks, each small enough to decode in memory. */
+    public boolean isSplittable() {
+        return index.getBlockCount() > 1 && index.getLargestBlockSize() <= MAX_BLOCK_SIZE;
+    }
+
+    private SeekableXZInputStream decoder() throws IOException {
+        SeekableXZInputStream decoder = threadDecoder.get();
+        if (decoder == null) {
+            decoder = new SeekableXZInputStream(new SeekableFileInputStream(path));
+            synchronized (decoders) {
+                decoders.add(decoder);
+            }
+            threadDecoder.set(decoder);
+        }
+        return decoder;
+    }
+
+    private byte[] decodeBlock(long position, int size) throws IOException {
+        SeekableXZInputStream decoder = decoder();
+        decoder.seek(position);
+        byte[] out = new byte[size];
+        if (BGZFInputStream.readFully(decoder, out, 0, size) < size) {
+            throw new IOException("Truncated xz block at offset " + position);
+        }
+        return out;
+    }
+
+    @Override
+    protected Callable<byte[]> nextBlock() {
+        if (nextBlock >= index.getBlockCount()) {
+            return null;
+        }
+        long position = index.getBlockPos(nextBlock);
+        int size = (int) index.getBlockSize(nextBlock);
+        nextBlock++;
+        return () -> decodeBlock(position, size);
+    }
+
+    @Override
+    protected void closeSource() throws IOException {
+        index.close();
+        synchronized (decoders) {
+            for (SeekableXZInputStream decoder : decoders) {
+                decoder.close();
+            }
+            decoders.clear();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ * BioInfoJava-Utils
+ *
+ * Copyright (C) 2021 Anestis Gkanogiannis <anestis@gkanogiannis.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ */
+package com.gkano.bioinfo.vcf;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link DistanceKernels} on the Vector API, at the preferred vector size
+ * of the CPU. Popcounts use lanewise BIT_COUNT and add up per lane, so the
+ * genotype results are exactly the scalar ones; {@link #addScaled} does one
+ * multiply and one add per element like the scalar loop, while {@link #dot}
+ * sums in lane order and may differ from it in the last bits.
+ * <p>
+ * Compiled with --release 21 into META-INF/versions/21 of the jar and
+ * loaded by {@link DistanceKernels} only when jdk.incubator.vector is
+ * present.
+ */
+final class VectorDistanceKernels extends DistanceKernels {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    String name() {
+        return "Vector API, " + LONGS.vectorBitSize() + " bit";
+    }
+
+    @Override
+    long popCount(long[] m, int a, int k) {
+        int w = 0;
+        LongVector acc = LongVector.zero(LONGS);
+        for (int upper = LONGS.loopBound(k); w < upper; w += LONGS.length()) {
+            acc = acc.add(LongVector.fromArray(LONGS, m, a + w).lanewise(VectorOperators.BIT_COUNT));
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; w < k; w++) {
+            sum += Long.bitCount(m[a + w]);
+        }
+        return sum;
+    }
+
+    @Override
+    long andPopCount(long[] m, int a, int b, int k) {
+        int w = 0;
+        LongVector acc = LongVector.zero(LONGS);
+        for (int upper = LONGS.loopBound(k); w < upper; w += LONGS.length()) {
+            LongVector x = LongVector.fromArray(LONGS, m, a + w);
+            LongVector y = LongVector.fromArray(LONGS, m, b + w);
+            acc = acc.add(x.and(y).lanewise(VectorOperators.BIT_COUNT));
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; w < k; w++) {
+            sum += Long.bitCount(m[a + w] & m[b + w]);
+        }
+        return sum;
+    }
+
+    @Override
+    long xorPopCount(long[] m, int a, int b, int k) {
+        int w = 0;
+        LongVector acc = LongVector.zero(LONGS);
+        for (int upper = LONGS.loopBound(k); w < upper; w += LONGS.length()) {
+            LongVector x = LongVector.fromArray(LONGS, m, a + w);
+            LongVector y = LongVector.fromArray(LONGS, m, b + w);
+            acc = acc.add(x.lanewise(VectorOperators.XOR, y).lanewise(VectorOperators.BIT_COUNT));
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; w < k; w++) {
+            sum += Long.bitCount(m[a + w] ^ m[b + w]);
+        }
+        return sum;
+    }
+
+    @Override
+    long matchPopCount(long[] m, long[] mask, int a, int b, int k) {
+        int w = 0;
+        LongVector acc = LongVector.zero(LONGS);
+        for (int upper = LONGS.loopBound(k); w < upper; w += LONGS.length()) {
+            LongVector x = LongVector.fromArray(LONGS, m, a + w);
+            LongVector y = LongVector.fromArray(LONGS, m, b + w);
+            LongVector both = LongVector.fromArray(LONGS, mask, a + w).and(LongVector.fromArray(LONGS, mask, b + w));
+            acc = acc.add(x.lanewise(VectorOperators.XOR, y).not().and(both).lanewise(VectorOperators.BIT_COUNT));
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; w < k; w++) {
+            sum += Long.bitCount(~(m[a + w] ^ m[b + w]) & mask[a + w] & mask[b + w]);
+        }
+        return sum;
+    }
+
+    @Override
+    void addScaled(double[] y, double weight, double[] x, int n) {
+        int d = 0;
+        for (int upper = DOUBLES.loopBound(n); d < upper; d += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, x, d).mul(weight).add(DoubleVector.fromArray(DOUBLES, y, d))
+                    .intoArray(y, d);
+        }
+        for (; d < n; d++) {
+            y[d] += weight * x[d];
+        }
+    }
+
+    @Override
+    double dot(double[] x, double[] y, int n) {
+        int d = 0;
+        DoubleVector acc = DoubleVector.zero(DOUBLES);
+        for (int upper = DOUBLES.loopBound(n); d < upper; d += DOUBLES.length()) {
+            acc = DoubleVector.fromArray(DOUBLES, x, d).fma(DoubleVector.fromArray(DOUBLES, y, d), acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; d < n; d++) {
+            sum += x[d] * y[d];
+        }
+        return sum;
+    }
+}
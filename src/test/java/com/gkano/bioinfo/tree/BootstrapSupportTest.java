@@ -0,0 +1,132 @@
+package com.gkano.bioinfo.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class BootstrapSupportTest {
+
+    private static final int SAMPLES = 12;
+    private static final int REPLICATES = 30;
+
+    /** Two groups of samples, blurred by replicate-specific noise. */
+    private static double[][] replicate(int b) {
+        Random rand = new Random(b);
+        double[][] d = new double[SAMPLES][SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            for (int j = i + 1; j < SAMPLES; j++) {
+                double base = (i < SAMPLES / 2) == (j < SAMPLES / 2) ? 0.3 : 0.6;
+                d[i][j] = d[j][i] = base + 0.25 * rand.nextDouble();
+            }
+        }
+        return d;
+    }
+
+    private static String[] labels() {
+        String[] labels = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) labels[i] = "s" + i;
+        return labels;
+    }
+
+    private static Clade tree(int b) throws Exception {
+        return (Clade) new HierarchicalCluster(false).hclusteringTree(labels(), replicate(b), null)[1];
+    }
+
+    @Test
+    void parallelTreesGiveTheSupportOfTheSequentialOnes() throws Exception {
+        Clade sequential = tree(0);
+        List<Clade> trees = new ArrayList<>();
+        for (int b = 1; b <= REPLICATES; b++) {
+            trees.add(tree(b));
+        }
+        Clade.annotateTreeWithBootstrap(sequential, trees, SAMPLES, REPLICATES);
+        String expected = Clade.cladeToString(sequential);
+
+        for (int threads : new int[] {1, 4}) {
+            Clade parallel = tree(0);
+            BootstrapSupport support = new BootstrapSupport(parallel, SAMPLES);
+            support.addReplicates(labels(), BootstrapSupportTest::replicate, REPLICATES, threads, () -> new HierarchicalCluster(false));
+            support.annotate(REPLICATES);
+            assertEquals(expected, Clade.cladeToString(parallel), threads + " threads");
+        }
+        // the two groups come back in every replicate
+        assertEquals(100, ((Clade) sequential.getChildAt(0)).getBootstrapSupport());
+    }
+
+    /** A random binary tree of {@code n} leaves, or a caterpillar as deep as it has leaves. */
+    private static Clade randomTree(int n, Random rand, boolean caterpillar) {
+        List<Clade> pool = new ArrayList<>();
+        for (int i = 0; i < n; i++) pool.add(new Clade("s" + i, 0));
+        Collections.shuffle(pool, rand);
+        while (pool.size() > 1) {
+            Clade a = pool.remove(caterpillar ? pool.size() - 1 : rand.nextInt(pool.size()));
+            Clade b = pool.remove(caterpillar ? pool.size() - 1 : rand.nextInt(pool.size()));
+            Clade joined = new Clade();
+            joined.add(a);
+            joined.add(b);
+            pool.add(joined);
+        }
+        return pool.get(0);
+    }
+
+    @Test
+    void hashedCladesCountLikeLeafSets() {
+        Random rand = new Random(5);
+        int n = 40;
+        Clade original = randomTree(n, rand, false);
+        BootstrapSupport support = new BootstrapSupport(original, n);
+        List<Set<Set<String>>> replicates = new ArrayList<>();
+        for (int b = 0; b < 8; b++) {
+            // half of the replicates are the original tree itself
+            Clade tree = b % 2 == 0 ? original : randomTree(n, rand, false);
+            support.add(tree);
+            replicates.add(Clade.extractCladesFromTree(tree, n));
+        }
+        support.annotate(8);
+        for (Clade node : nodes(original)) {
+            if (node.isLeaf() || node == original) {
+                assertEquals(-1, node.getBootstrapSupport());
+                continue;
+            }
+            Set<String> leaves = Clade.extractCladesFromTree(node, n + 1).stream()
+                    .max((a, b) -> Integer.compare(a.size(), b.size())).get();
+            long count = replicates.stream().filter(r -> r.contains(leaves)).count();
+            assertEquals(Math.round(100.0 * count / 8), node.getBootstrapSupport());
+        }
+    }
+
+    @Test
+    void deepTreesAreWalkedWithoutRecursion() {
+        Random rand = new Random(6);
+        int n = 50_000;
+        Clade original = randomTree(n, rand, true);
+        BootstrapSupport support = new BootstrapSupport(original, n);
+        support.add(original);
+        support.add(randomTree(n, rand, true));
+        support.add(original);
+        support.annotate(3);
+        for (Clade node : nodes(original)) {
+            if (!node.isLeaf() && node != original) {
+                int s = node.getBootstrapSupport();
+                assertTrue(s == 67 || s == 100, "support " + s);
+            }
+        }
+    }
+
+    private static List<Clade> nodes(Clade root) {
+        List<Clade> nodes = new ArrayList<>();
+        nodes.add(root);
+        for (int k = 0; k < nodes.size(); k++) {
+            Clade node = nodes.get(k);
+            for (int i = 0; i < node.getChildCount(); i++) nodes.add((Clade) node.getChildAt(i));
+        }
+        return nodes;
+    }
+}
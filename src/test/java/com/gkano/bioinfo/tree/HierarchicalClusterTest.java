@@ -0,0 +1,143 @@
+package com.gkano.bioinfo.tree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HierarchicalClusterTest {
+
+    /** L1 distances of random points, rounded to one decimal to make ties when asked. */
+    private static double[][] distances(int n, long seed, boolean ties) {
+        Random rand = new Random(seed);
+        double[][] points = new double[n][4];
+        for (double[] p : points) {
+            for (int k = 0; k < p.length; k++) p[k] = rand.nextDouble();
+        }
+        double[][] d = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) sum += Math.abs(points[i][k] - points[j][k]);
+                d[i][j] = d[j][i] = ties ? Math.round(sum * 10) / 10.0 : sum;
+            }
+        }
+        return d;
+    }
+
+    private static String tree(double[][] d, String linkage, String algorithm) throws Exception {
+        String[] labels = new String[d.length];
+        for (int i = 0; i < labels.length; i++) labels[i] = "s" + i;
+        HierarchicalCluster hc = new HierarchicalCluster(d, labels, linkage, false);
+        hc.setAlgorithm(algorithm);
+        return Clade.cladeToString(hc.cluster());
+    }
+
+    @Test
+    void nearestNeighbourChainBuildsThePairwiseTree() throws Exception {
+        for (String linkage : HierarchicalCluster.LINKAGE_METHODS) {
+            for (boolean ties : new boolean[] {false, true}) {
+                for (long seed = 0; seed < 3; seed++) {
+                    double[][] d = distances(150, seed, ties);
+                    double[][] copy = new double[d.length][];
+                    for (int i = 0; i < d.length; i++) copy[i] = d[i].clone();
+                    String expected = tree(d, linkage, HierarchicalCluster.PAIRWISE);
+                    assertEquals(expected, tree(d, linkage, HierarchicalCluster.NN_CHAIN),
+                            linkage + (ties ? " with ties" : ""));
+                    // the matrix is restored after clustering
+                    assertArrayEquals(copy, d);
+                }
+            }
+        }
+    }
+
+    @Test
+    void algorithmFollowsTheNumberOfSamplesUnlessSet() {
+        HierarchicalCluster hc = new HierarchicalCluster(false);
+        hc.setDistanceMatrix(new double[10][10]);
+        assertEquals(HierarchicalCluster.PAIRWISE, hc.getAlgorithm());
+        int n = HierarchicalCluster.NN_CHAIN_MIN_SAMPLES;
+        hc.setDistanceMatrix(new double[n][n]);
+        assertEquals(HierarchicalCluster.NN_CHAIN, hc.getAlgorithm());
+        hc.setAlgorithm(HierarchicalCluster.PAIRWISE);
+        assertEquals(HierarchicalCluster.PAIRWISE, hc.getAlgorithm());
+        assertThrows(IllegalArgumentException.class, () -> hc.setAlgorithm("Fastest"));
+    }
+
+    @Test
+    void spanningTreeBuildsThePairwiseSingleLinkageTree() throws Exception {
+        double[][] d = distances(200, 7, false);
+        assertEquals(tree(d, HierarchicalCluster.SINGLE, HierarchicalCluster.PAIRWISE),
+                tree(d, HierarchicalCluster.SINGLE, HierarchicalCluster.MST));
+        for (boolean ties : new boolean[] {false, true}) {
+            double[][] m = distances(200, 8, ties);
+            MinimumSpanningTree sequential = MinimumSpanningTree.prim(m, 1, 16);
+            MinimumSpanningTree parallel = MinimumSpanningTree.prim(m, 4, 16);
+            assertArrayEquals(sequential.from, parallel.from);
+            assertArrayEquals(sequential.to, parallel.to);
+            assertArrayEquals(sequential.weight, parallel.weight, 0.0);
+        }
+        assertThrows(IllegalStateException.class,
+                () -> tree(d, HierarchicalCluster.COMPLETE, HierarchicalCluster.MST));
+    }
+
+    @Test
+    void spanningTreeRelaxesTwoChunksAtTheDefaultSize() throws Exception {
+        double[][] d = distances(2 * MinimumSpanningTree.MIN_CHUNK + 37, 10, true);
+        MinimumSpanningTree sequential = MinimumSpanningTree.prim(d, 1);
+        MinimumSpanningTree parallel = MinimumSpanningTree.prim(d, 2);
+        assertEquals(d.length - 1, parallel.size());
+        assertArrayEquals(sequential.from, parallel.from);
+        assertArrayEquals(sequential.to, parallel.to);
+        assertArrayEquals(sequential.weight, parallel.weight, 0.0);
+    }
+
+    @Test
+    void singleLinkageStreamsTheRowsOfADistanceFile(@TempDir Path dir) throws Exception {
+        double[][] d = distances(120, 9, false);
+        Path file = write(d, dir.resolve("single.dist"));
+        DistanceFileRows rows = new DistanceFileRows(file.toString());
+        assertEquals(120, rows.size());
+        assertEquals(tree(d, HierarchicalCluster.SINGLE, HierarchicalCluster.PAIRWISE), streamedTree(rows));
+
+        // tied distances are joined in the same order in memory and streamed
+        double[][] tied = distances(120, 9, true);
+        Path tiedFile = write(tied, dir.resolve("tied.dist"));
+        assertEquals(tree(tied, HierarchicalCluster.SINGLE, HierarchicalCluster.MST),
+                streamedTree(new DistanceFileRows(tiedFile.toString())));
+    }
+
+    @Test
+    void truncatedDistanceFilesNameTheMissingRow(@TempDir Path dir) throws Exception {
+        Path file = write(distances(5, 11, false), dir.resolve("cut.dist"));
+        DistanceFileRows rows = new DistanceFileRows(file.toString());
+        List<String> lines = Files.readAllLines(file);
+        Files.write(file, lines.subList(0, 4));
+        IOException e = assertThrows(IOException.class, () -> rows.forEachRow((i, row) -> { }));
+        assertTrue(e.getMessage().contains(file.toString()) && e.getMessage().contains("row 3"), e.getMessage());
+    }
+
+    private static Path write(double[][] d, Path file) throws Exception {
+        StringBuilder sb = new StringBuilder().append(d.length).append("\t0\n");
+        for (int i = 0; i < d.length; i++) {
+            sb.append("s").append(i);
+            for (double v : d[i]) sb.append('\t').append(v);
+            sb.append('\n');
+        }
+        return Files.writeString(file, sb);
+    }
+
+    private static String streamedTree(DistanceFileRows rows) throws Exception {
+        HierarchicalCluster hc = new HierarchicalCluster(null, rows.getSampleNames(), HierarchicalCluster.SINGLE, false);
+        return Clade.cladeToString(hc.clusterSingleLinkage(rows));
+    }
+}
@@ -0,0 +1,126 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BCFReaderTest {
+
+    private static final String MIXED = "##fileformat=VCFv4.2\n"
+            + "##FILTER=<ID=q10,Description=\"Quality, below 10\">\n"
+            + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ta\tb\tc\td\n"
+            + "chr1\t10\trs1\tA\tT\t.\tPASS\t.\tGT\t0/1\t1|1\t./.\t0/0\n"
+            + "chr1\t20\t.\tCAT\tC,CATAT\t.\tq10\t.\tDP:GT\t7:0/2\t.:2/2\t3:.\t12:1/2\n"
+            + "chr2\t5\trs3\tG\t.\t.\tPASS\t.\tGT\t0\t1\t0/1\t.|1\n"
+            + "chr2\t9\t.\tAAAAAAAAAAAAAAAAAAAA\tA\t.\tPASS\t.\tGT:DP\t1/1/0\t0/0/0\t0/1\t.\n"
+            + "chr2\t12\t.\tA\tG\t.\tPASS\t.\tDP\t1\t2\t3\t4\n";
+
+    @Test
+    void recordsDecodeLikeTextLines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (String line : MIXED.split("\n")) if (!line.startsWith("#")) lines.add(line);
+        VariantKeyExtractor refAlt = new VariantKeyExtractor(VariantKeyExtractor.KeyFormat.CHROM_POS_REF_ALT);
+        VariantKeyExtractor ids = new VariantKeyExtractor(VariantKeyExtractor.KeyFormat.VCF_ID);
+
+        try (BCFReader reader = new BCFReader(new ByteArrayInputStream(BCFTestFiles.bcf(MIXED)))) {
+            BCFHeader header = reader.getHeader();
+            assertEquals(List.of("a", "b", "c", "d"), header.getSampleNames());
+            assertEquals(List.of("chr1", "chr2"), header.getContigs());
+            assertTrue(header.getLines().get(header.getLines().size() - 1).startsWith("#CHROM"));
+            BCFRecordBatch batch = reader.next(2);
+            List<BCFRecordBatch> batches = new ArrayList<>();
+            while (batch != null) {
+                batches.add(batch);
+                batch = reader.next(2);
+            }
+            assertEquals(3, batches.size());
+
+            int v = 0;
+            for (BCFRecordBatch records : batches) {
+                for (int i = 0; i < records.size(); i++, v++) {
+                    String line = lines.get(v);
+                    byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+                    String[] f = line.split("\t");
+                    assertEquals(f[0], records.contig(i));
+                    assertEquals(Integer.parseInt(f[1]), records.position(i));
+                    assertEquals(refAlt.extractKey(line), refAlt.extractKey(records.contig(i),
+                            records.position(i), records.id(i), records.ref(i), records.alt(i)));
+                    assertEquals(ids.extractKey(line), ids.extractKey(records.contig(i),
+                            records.position(i), records.id(i), records.ref(i), records.alt(i)));
+                    if (v == 4) {
+                        // no GT in FORMAT
+                        int record = i;
+                        assertThrows(IllegalArgumentException.class,
+                                () -> records.encodeGenotypes(record, 2, 3, new int[4][1]));
+                        continue;
+                    }
+                    assertArrayEquals(SNPEncoder.guessPloidyAndMaxAllele(line),
+                            records.guessPloidyAndMaxAllele(i), line);
+                    for (int[] pm : new int[][]{{2, 2}, {2, 3}, {3, 2}, {1, 40}}) {
+                        int[][] decoded = new int[4][(pm[0] * pm[1] + 31) / 32];
+                        records.encodeGenotypes(i, pm[0], pm[1], decoded);
+                        assertArrayEquals(SNPEncoder.encodeSNPOneHot(bytes, 0, bytes.length, pm[0], pm[1], 4),
+                                decoded, line);
+                    }
+                    assertArrayEquals(SNPEncoder.computeAlleleDosage(bytes, 0, bytes.length, 4),
+                            records.alleleDosage(i, 4), line);
+                }
+            }
+            assertEquals(5, v);
+        }
+    }
+
+    @Test
+    void bcfInputGivesSameResults(@TempDir Path dir) throws Exception {
+        String vcf = BGZFTestFiles.sampleVcf();
+        Path text = dir.resolve("in.vcf");
+        Files.writeString(text, vcf);
+        Path bcf = dir.resolve("in.bcf");
+        Files.write(bcf, BCFTestFiles.bcf(vcf));
+        Path bgzf = dir.resolve("in.bcf.gz");
+        Files.write(bgzf, BGZFTestFiles.bgzip(BCFTestFiles.bcf(vcf), 5000));
+        assertTrue(BCFReader.isBCF(bgzf.toString()));
+
+        double[] expected = distances(text.toString(), null);
+        assertArrayEquals(expected, distances(bcf.toString(), null), 0.0);
+        assertArrayEquals(expected, distances(bgzf.toString(), null), 0.0);
+
+        Map<String, double[]> embeddings = new HashMap<>();
+        for (String line : vcf.split("\n")) {
+            String[] f = line.split("\t");
+            if (!line.startsWith("#") && f[1].endsWith("7")) {
+                embeddings.put(f[0] + ":" + f[1] + ":" + f[3] + ":" + f[4], new double[]{f[1].length(), 1, -0.5});
+            }
+        }
+        assertArrayEquals(distances(text.toString(), embeddings), distances(bgzf.toString(), embeddings), 1e-12);
+
+        VCFManager mixed = new VCFManager(List.of(text.toString(), bcf.toString()), 1,
+                SNPEncoder.StringToStringParser, false);
+        assertThrows(IllegalArgumentException.class, mixed::init);
+    }
+
+    private static double[] distances(String path, Map<String, double[]> embeddings) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setEmbeddings(embeddings, VariantKeyExtractor.KeyFormat.CHROM_POS_REF_ALT);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(1200, vcfm.getNumVariants());
+        assertEquals(List.of("s1", "s2", "s3", "s4", "s5"), vcfm.getSampleNames());
+        return Arrays.stream(vcfm.reduceDotProdToDistances()).flatMapToDouble(Arrays::stream).toArray();
+    }
+}
@@ -0,0 +1,165 @@
+package com.gkano.bioinfo.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Minimal VCF text to BCF2.2 encoder for tests (no bcftools needed). */
+final class BCFTestFiles {
+
+    private BCFTestFiles() {
+    }
+
+    /**
+     * Uncompressed BCF of a VCF whose FORMAT keys are GT or integers. The
+     * header gets ##contig and ##FORMAT lines for whatever the records use;
+     * an unrelated ##INFO line shifts the dictionary indices.
+     */
+    static byte[] bcf(String vcf) {
+        List<String> meta = new ArrayList<>();
+        String chromLine = null;
+        List<String[]> records = new ArrayList<>();
+        Set<String> contigs = new LinkedHashSet<>();
+        Set<String> formats = new LinkedHashSet<>();
+        for (String line : vcf.split("\n")) {
+            if (line.startsWith("##INFO") || line.startsWith("##FORMAT") || line.startsWith("##contig")) {
+                continue; // regenerated below
+            } else if (line.startsWith("##")) {
+                meta.add(line);
+            } else if (line.startsWith("#")) {
+                chromLine = line;
+            } else if (!line.isEmpty()) {
+                String[] f = line.split("\t", -1);
+                records.add(f);
+                contigs.add(f[0]);
+                for (String key : f[8].split(":")) formats.add(key);
+            }
+        }
+        List<String> dictionary = new ArrayList<>();
+        dictionary.add("PASS");
+        StringBuilder header = new StringBuilder();
+        for (String line : meta) {
+            header.append(line).append('\n');
+            if (line.startsWith("##FILTER=<ID=")) {
+                dictionary.add(line.substring(13, line.indexOf(',')));
+            }
+        }
+        header.append("##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count, in genotypes\">\n");
+        dictionary.add("AC");
+        for (String key : formats) {
+            header.append("##FORMAT=<ID=").append(key).append(",Number=1,Type=")
+                    .append(key.equals("GT") ? "String" : "Integer").append(",Description=\"").append(key).append("\">\n");
+            dictionary.add(key);
+        }
+        List<String> contigList = new ArrayList<>(contigs);
+        for (String contig : contigList) header.append("##contig=<ID=").append(contig).append(">\n");
+        header.append(chromLine).append('\n').append('\0');
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('B');
+        out.write('C');
+        out.write('F');
+        out.write(2);
+        out.write(2);
+        byte[] text = header.toString().getBytes(StandardCharsets.UTF_8);
+        int32(out, text.length);
+        out.write(text, 0, text.length);
+
+        for (String[] f : records) {
+            int samples = f.length - 9;
+            String[] alleles = (f[3] + (f[4].equals(".") ? "" : "," + f[4])).split(",");
+            ByteArrayOutputStream shared = new ByteArrayOutputStream();
+            int32(shared, contigList.indexOf(f[0]));
+            int32(shared, Integer.parseInt(f[1]) - 1);
+            int32(shared, f[3].length());
+            int32(shared, 0x7F800001);
+            int32(shared, alleles.length << 16);
+            int32(shared, f[8].split(":").length << 24 | samples);
+            string(shared, f[2].equals(".") ? "" : f[2]);
+            for (String allele : alleles) string(shared, allele);
+            if (f[6].equals("PASS")) {
+                shared.write(0x11);
+                shared.write(0);
+            } else {
+                shared.write(0);
+            }
+
+            ByteArrayOutputStream indiv = new ByteArrayOutputStream();
+            String[] keys = f[8].split(":");
+            for (int k = 0; k < keys.length; k++) {
+                indiv.write(0x11);
+                indiv.write(dictionary.indexOf(keys[k]));
+                String[] values = new String[samples];
+                for (int s = 0; s < samples; s++) {
+                    String[] parts = f[9 + s].split(":", -1);
+                    values[s] = k < parts.length ? parts[k] : ".";
+                }
+                if (keys[k].equals("GT")) {
+                    int width = 1;
+                    for (String v : values) width = Math.max(width, genotype(v).size());
+                    indiv.write(width << 4 | 1);
+                    for (String v : values) {
+                        List<Integer> gt = genotype(v);
+                        for (int i = 0; i < width; i++) {
+                            indiv.write(i < gt.size() ? gt.get(i) : 0x81);
+                        }
+                    }
+                } else {
+                    indiv.write(1 << 4 | 2);
+                    for (String v : values) {
+                        int16(indiv, v.equals(".") ? Short.MIN_VALUE : Integer.parseInt(v));
+                    }
+                }
+            }
+            int32(out, shared.size());
+            int32(out, indiv.size());
+            out.write(shared.toByteArray(), 0, shared.size());
+            out.write(indiv.toByteArray(), 0, indiv.size());
+        }
+        return out.toByteArray();
+    }
+
+    /** BCF GT values: (allele + 1) << 1 | phased, with 0/1 for a missing allele. */
+    private static List<Integer> genotype(String v) {
+        List<Integer> values = new ArrayList<>();
+        boolean phased = false;
+        int start = 0;
+        for (int i = 0; i <= v.length(); i++) {
+            if (i == v.length() || v.charAt(i) == '/' || v.charAt(i) == '|') {
+                String allele = v.substring(start, i);
+                int flag = phased ? 1 : 0;
+                values.add(allele.equals(".") ? flag : (Integer.parseInt(allele) + 1) << 1 | flag);
+                if (i < v.length()) phased = v.charAt(i) == '|';
+                start = i + 1;
+            }
+        }
+        return values;
+    }
+
+    private static void string(ByteArrayOutputStream out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length < 15) {
+            out.write(b.length << 4 | 7);
+        } else {
+            out.write(0xF7);
+            out.write(0x11);
+            out.write(b.length);
+        }
+        out.write(b, 0, b.length);
+    }
+
+    private static void int16(ByteArrayOutputStream out, int v) {
+        out.write(v);
+        out.write(v >>> 8);
+    }
+
+    private static void int32(ByteArrayOutputStream out, int v) {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+}
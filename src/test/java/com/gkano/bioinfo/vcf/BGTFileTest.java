@@ -0,0 +1,104 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BGTFileTest {
+
+    @Test
+    void packedVariantsReadBackPerChunk(@TempDir Path dir) throws Exception {
+        // 3 x 12 = 36 bits per sample: two words, straddling long boundaries
+        int ploidy = 3, maxAlleles = 12, samples = 7, variants = 23;
+        List<String> names = List.of("a", "b", "c", "d", "e", "f", "g");
+        Random rand = new Random(5);
+        List<int[][]> expected = new ArrayList<>();
+        Path path = dir.resolve("x.bgt");
+        try (BGTWriter writer = new BGTWriter(path.toString(), names, ploidy, maxAlleles, 5)) {
+            for (int v = 0; v < variants; v++) {
+                int[][] encoded = new int[samples][];
+                for (int s = 0; s < samples; s++) {
+                    String gt = rand.nextInt(5) == 0 ? "./." : rand.nextInt(maxAlleles) + "/"
+                            + rand.nextInt(maxAlleles) + "/" + rand.nextInt(maxAlleles);
+                    encoded[s] = SNPEncoder.encodeGenotypeOneHot(gt, ploidy, maxAlleles);
+                }
+                expected.add(encoded);
+                writer.add(v < 12 ? "chr1" : "chr2", 100 * v + 1, encoded);
+            }
+        }
+
+        try (BGTFile bgt = new BGTFile(path.toString())) {
+            assertEquals(names, bgt.getSampleNames());
+            assertEquals(ploidy, bgt.getPloidy());
+            assertEquals(maxAlleles, bgt.getMaxAlleles());
+            assertEquals(variants, bgt.getNumVariants());
+            assertEquals(List.of("chr1", "chr2"), bgt.getContigs());
+            assertEquals(5, bgt.getChunkCount());
+            int[][] decoded = new int[samples][2];
+            // chunks in any order
+            for (int c = bgt.getChunkCount() - 1; c >= 0; c--) {
+                BGTFile.Chunk chunk = bgt.chunk(c);
+                for (int i = 0; i < chunk.size(); i++) {
+                    int v = 5 * c + i;
+                    chunk.decode(i, decoded);
+                    assertArrayEquals(expected.get(v), decoded, "variant " + v);
+                    assertEquals(100 * v + 1, chunk.position(i));
+                    assertEquals(v < 12 ? "chr1" : "chr2", chunk.contig(i));
+                }
+            }
+            BGTFile.Chunk slice = bgt.chunk(2).slice(1, 4);
+            assertEquals(3, slice.size());
+            assertEquals(1201, slice.position(1));
+            assertEquals("chr2", slice.contig(1));
+        }
+    }
+
+    @Test
+    void convertedInputGivesSameDistances(@TempDir Path dir) throws Exception {
+        Path vcf = dir.resolve("in.vcf");
+        Files.writeString(vcf, BGZFTestFiles.sampleVcf());
+        Path bgt = dir.resolve("in.bgt");
+        assertEquals(1200, BGTWriter.convert(List.of(vcf.toString()), bgt.toString(), 2, 100, false));
+        assertTrue(BGTFile.isBGT(bgt.toString()));
+        assertArrayEquals(distances(vcf.toString()), distances(bgt.toString()), 0.0);
+        assertEquals(windows(vcf.toString()), windows(bgt.toString()));
+
+        VCFManager mixed = new VCFManager(List.of(vcf.toString(), bgt.toString()), 1,
+                SNPEncoder.StringToStringParser, false);
+        assertThrows(IllegalArgumentException.class, mixed::init);
+    }
+
+    private static double[] distances(String path) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path, path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(2400, vcfm.getNumVariants());
+        assertEquals(5, vcfm.getNumSamples());
+        return Arrays.stream(vcfm.reduceDotProdToDistances()).flatMapToDouble(Arrays::stream).toArray();
+    }
+
+    private static List<String> windows(String path) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        List<String> captured = new ArrayList<>();
+        vcfm.setWindowing(new WindowPolicy(WindowPolicy.Mode.VARIANTS, 150, 150, 1),
+                (chrom, start, end, n, names, d) -> captured.add(chrom + ":" + start + "-" + end + " " + n
+                        + " " + Arrays.deepToString(d)));
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(9, captured.size());
+        return captured;
+    }
+}
@@ -0,0 +1,93 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BGZFInputStreamTest {
+
+    private static byte[] sampleText(int lines) {
+        Random rand = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("chr1\t").append(i + 1).append("\t.\tA\tT\t.\tPASS\t.\tGT");
+            for (int s = 0; s < 20; s++) sb.append('\t').append(rand.nextInt(2)).append('/').append(rand.nextInt(2));
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] readAll(InputStream in, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    @Test
+    void inflatesBlocksInOrder() throws IOException {
+        byte[] data = sampleText(5000);
+        byte[] compressed = BGZFTestFiles.bgzip(data, 4000);
+        for (int threads : new int[]{1, 3, 8}) {
+            try (InputStream in = new BGZFInputStream(new ByteArrayInputStream(compressed), threads)) {
+                assertArrayEquals(data, readAll(in, 1000));
+            }
+        }
+    }
+
+    @Test
+    void openerDetectsBGZFAndFallsBackForPlainGzip(@TempDir Path dir) throws IOException {
+        byte[] data = sampleText(2000);
+        Path bgz = dir.resolve("in.vcf.gz");
+        Files.write(bgz, BGZFTestFiles.bgzip(data, 65280));
+        Path gz = dir.resolve("plain.vcf.gz");
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buf)) {
+            gzip.write(data);
+        }
+        Files.write(gz, buf.toByteArray());
+
+        VCFInputOpener opener = new VCFInputOpener(4);
+        try (InputStream in = opener.open(bgz.toString())) {
+            assertTrue(in instanceof BGZFInputStream);
+            assertArrayEquals(data, readAll(in, 8192));
+        }
+        try (InputStream in = opener.open(gz.toString())) {
+            assertFalse(in instanceof BGZFInputStream);
+            assertArrayEquals(data, readAll(in, 8192));
+        }
+        try (InputStream in = new VCFInputOpener(1).open(bgz.toString())) {
+            assertFalse(in instanceof BGZFInputStream);
+            assertArrayEquals(data, readAll(in, 8192));
+        }
+    }
+
+    @Test
+    void corruptBlockIsReported() throws IOException {
+        byte[] compressed = BGZFTestFiles.bgzip(sampleText(500), 4000);
+        compressed[compressed.length / 2] ^= 0x55;
+        try (InputStream in = new BGZFInputStream(new ByteArrayInputStream(compressed), 2)) {
+            assertThrows(IOException.class, () -> readAll(in, 1000));
+        }
+        byte[] truncated = Arrays.copyOf(BGZFTestFiles.bgzip(sampleText(500), 4000), 100);
+        try (InputStream in = new BGZFInputStream(new ByteArrayInputStream(truncated), 2)) {
+            assertThrows(IOException.class, () -> readAll(in, 1000));
+        }
+    }
+}
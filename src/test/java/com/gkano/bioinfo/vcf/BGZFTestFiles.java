@@ -0,0 +1,176 @@
+package com.gkano.bioinfo.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/** Minimal BGZF and tabix/CSI writers for tests (no bgzip/tabix needed). */
+final class BGZFTestFiles {
+
+    private BGZFTestFiles() {
+    }
+
+    /** Three sequences, positions spanning several 16kb index windows. */
+    static String sampleVcf() {
+        Random rand = new Random(11);
+        StringBuilder sb = new StringBuilder();
+        sb.append("##fileformat=VCFv4.2\n");
+        sb.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\ts4\ts5\n");
+        for (String chrom : new String[]{"chr1", "chr2", "chrX"}) {
+            int pos = 1;
+            for (int i = 0; i < 400; i++) {
+                pos += 1 + rand.nextInt(1500);
+                String ref = rand.nextInt(10) == 0 ? "ACGTACGTAC" : "A";
+                sb.append(chrom).append('\t').append(pos).append("\t.\t").append(ref).append("\tT\t.\tPASS\t.\tGT");
+                for (int s = 0; s < 5; s++) sb.append('\t').append(rand.nextInt(2)).append('/').append(rand.nextInt(2));
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /** One BGZF block per {@code blockSize} input bytes, plus the EOF marker. */
+    static byte[] bgzip(byte[] data, int blockSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < data.length; off += blockSize) {
+            writeBlock(out, data, off, Math.min(blockSize, data.length - off));
+        }
+        writeBlock(out, data, 0, 0);
+        return out.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, byte[] data, int off, int len) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        byte[] cdata = new byte[len + 1024];
+        int clen = deflater.deflate(cdata);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        int bsize = clen + 25;
+        byte[] header = {0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0,
+            (byte) bsize, (byte) (bsize >>> 8)};
+        out.write(header, 0, header.length);
+        out.write(cdata, 0, clen);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, len);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+
+    private static final class Ref {
+        final TreeMap<Integer, List<long[]>> bins = new TreeMap<>();
+        final TreeMap<Integer, Long> loffsets = new TreeMap<>();
+        long[] linear = new long[0];
+    }
+
+    private static int reg2bin(long beg, long end) {
+        end--;
+        int s = 14;
+        for (int level = 5, t = ((1 << 15) - 1) / 7; level > 0; level--, s += 3, t -= 1 << (level * 3)) {
+            if (beg >> s == end >> s) return t + (int) (beg >> s);
+        }
+        return 0;
+    }
+
+    /**
+     * Index for {@code bgzip(vcf, blockSize)}, as a gzip-compressed .tbi
+     * (or .csi with min_shift 14, depth 5).
+     */
+    static byte[] index(byte[] vcf, int blockSize, boolean csi) throws IOException {
+        byte[] compressed = bgzip(vcf, blockSize);
+        List<Long> addresses = new ArrayList<>();
+        for (int p = 0; p < compressed.length; ) {
+            addresses.add((long) p);
+            p += (compressed[p + 16] & 0xFF | (compressed[p + 17] & 0xFF) << 8) + 1;
+        }
+        Map<String, Ref> refs = new LinkedHashMap<>();
+        int lineStart = 0;
+        for (int i = 0; i < vcf.length; i++) {
+            if (vcf[i] != '\n') continue;
+            int lineEnd = i + 1;
+            if (vcf[lineStart] != '#') {
+                String[] f = new String(vcf, lineStart, i - lineStart, StandardCharsets.US_ASCII).split("\t");
+                long beg = Long.parseLong(f[1]) - 1;
+                long end = beg + f[3].length();
+                long vBeg = addresses.get(lineStart / blockSize) << 16 | (lineStart % blockSize);
+                long vEnd = addresses.get(lineEnd / blockSize) << 16 | (lineEnd % blockSize);
+                Ref ref = refs.computeIfAbsent(f[0], k -> new Ref());
+                int bin = reg2bin(beg, end);
+                List<long[]> chunks = ref.bins.computeIfAbsent(bin, k -> new ArrayList<>());
+                if (!chunks.isEmpty() && chunks.get(chunks.size() - 1)[1] == vBeg) {
+                    chunks.get(chunks.size() - 1)[1] = vEnd;
+                } else {
+                    chunks.add(new long[]{vBeg, vEnd});
+                }
+                ref.loffsets.putIfAbsent(bin, vBeg);
+                int lastWindow = (int) ((end - 1) >> 14);
+                if (ref.linear.length <= lastWindow) {
+                    long[] grown = new long[lastWindow + 1];
+                    System.arraycopy(ref.linear, 0, grown, 0, ref.linear.length);
+                    for (int w = ref.linear.length; w < grown.length; w++) grown[w] = -1;
+                    ref.linear = grown;
+                }
+                for (int w = (int) (beg >> 14); w <= lastWindow; w++) {
+                    if (ref.linear[w] == -1) ref.linear[w] = vBeg;
+                }
+            }
+            lineStart = lineEnd;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(1 << 22).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (String name : refs.keySet()) {
+            names.write(name.getBytes(StandardCharsets.US_ASCII));
+            names.write(0);
+        }
+        if (csi) {
+            buf.put("CSI\1".getBytes(StandardCharsets.US_ASCII)).putInt(14).putInt(5).putInt(28 + names.size());
+        } else {
+            buf.put("TBI\1".getBytes(StandardCharsets.US_ASCII)).putInt(refs.size());
+        }
+        buf.putInt(2).putInt(1).putInt(2).putInt(0).putInt('#').putInt(0).putInt(names.size()).put(names.toByteArray());
+        if (csi) {
+            buf.putInt(refs.size());
+        }
+        for (Ref ref : refs.values()) {
+            buf.putInt(ref.bins.size());
+            for (Map.Entry<Integer, List<long[]>> e : ref.bins.entrySet()) {
+                buf.putInt(e.getKey());
+                if (csi) buf.putLong(ref.loffsets.get(e.getKey()));
+                buf.putInt(e.getValue().size());
+                for (long[] c : e.getValue()) buf.putLong(c[0]).putLong(c[1]);
+            }
+            if (!csi) {
+                buf.putInt(ref.linear.length);
+                long prev = 0;
+                for (long v : ref.linear) {
+                    prev = v == -1 ? prev : v;
+                    buf.putLong(prev);
+                }
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(buf.array(), 0, buf.position());
+        }
+        return out.toByteArray();
+    }
+}
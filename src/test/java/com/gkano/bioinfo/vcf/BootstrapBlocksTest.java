@@ -0,0 +1,202 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BootstrapBlocksTest {
+
+    private static final int SAMPLES = 10;
+    private static final int BLOCK_BP = 10_000;
+
+    /** Two contigs of 200 biallelic sites 1 kb apart, with a triallelic one now and then. */
+    private static String vcf() {
+        Random rand = new Random(11);
+        StringBuilder sb = new StringBuilder();
+        sb.append("##fileformat=VCFv4.2\n");
+        sb.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (int s = 0; s < SAMPLES; s++) sb.append("\ts").append(s);
+        sb.append('\n');
+        for (String chrom : new String[] {"chr1", "chr2"}) {
+            for (int v = 0; v < 200; v++) {
+                int alleles = v % 37 == 5 ? 3 : 2;
+                sb.append(chrom).append('\t').append(1000 * v + 1).append("\t.\tA\t")
+                        .append(alleles == 3 ? "T,G" : "T").append("\t.\tPASS\t.\tGT");
+                for (int s = 0; s < SAMPLES; s++) {
+                    sb.append('\t');
+                    if (rand.nextInt(25) == 0) {
+                        sb.append("./.");
+                    } else {
+                        sb.append(rand.nextInt(alleles)).append('/').append(rand.nextInt(alleles));
+                    }
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /** 10 blocks of chr2 and 2 of chr1, visited out of order. */
+    private static BootstrapBlocks blocks(long seed) {
+        BootstrapBlocks blocks = new BootstrapBlocks(SAMPLES, BLOCK_BP, seed);
+        BootstrapBlocks.Cursor cursor = blocks.new Cursor();
+        for (int pos = 1; pos <= 95_000; pos += 500) {
+            cursor.at("chr2", pos);
+        }
+        cursor.at("chr1\t10000\t.\tA\tT");
+        cursor.at("chr1\t10001\t.\tA\tT");
+        return blocks;
+    }
+
+    @Test
+    void replicatesDrawAsManyBlocksAsThereAre() {
+        BootstrapBlocks blocks = blocks(7);
+        assertEquals(12, blocks.size());
+        int[] once = new int[12];
+        Arrays.fill(once, 1);
+        assertArrayEquals(once, blocks.counts(0));
+        for (int b = 1; b <= 5; b++) {
+            assertEquals(12, Arrays.stream(blocks.counts(b)).sum());
+            assertArrayEquals(blocks.counts(b), blocks(7).counts(b));
+        }
+    }
+
+    @Test
+    void badPositionsAreRejectedByBothParsers(@TempDir Path dir) throws Exception {
+        BootstrapBlocks.Cursor cursor = blocks(7).new Cursor();
+        for (String line : new String[] {"chr1\t12x\t.\tA\tT", "chr1\t\t.\tA\tT", "chr1"}) {
+            byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+            assertThrows(IllegalArgumentException.class, () -> cursor.at(line), line);
+            assertThrows(IllegalArgumentException.class, () -> cursor.at(bytes, 0, bytes.length), line);
+        }
+        assertEquals(cursor.at("chr1\t12000\t.\tA\tT"), cursor.at("chr1\t12001".getBytes(StandardCharsets.US_ASCII), 0, 10));
+
+        // a variant with a bad POS is skipped, like one that cannot be encoded
+        String vcf = vcf();
+        Path good = dir.resolve("good.vcf");
+        Files.writeString(good, vcf);
+        Path bad = dir.resolve("bad.vcf");
+        int last = vcf.lastIndexOf('\n', vcf.length() - 2) + 1;
+        Files.writeString(bad, vcf + vcf.substring(last).replaceFirst("\t\\d+\t", "\tnope\t"));
+        double[][][] expected = replicates(good.toString(), 2, 3, 5);
+        double[][][] skipped = replicates(bad.toString(), 2, 3, 5);
+        for (int b = 0; b < expected.length; b++) {
+            assertArrayEquals(flatten(expected[b]), flatten(skipped[b]), 0.0, "replicate " + b);
+        }
+    }
+
+    @Test
+    void blocksBeyondTheMemoryBudgetAskForLargerBlocks() {
+        long blockBytes = new BootstrapBlocks(SAMPLES, BLOCK_BP, 7).blockBytes();
+        BootstrapBlocks blocks = new BootstrapBlocks(SAMPLES, BLOCK_BP, 7, 3 * blockBytes);
+        BootstrapBlocks.Cursor cursor = blocks.new Cursor();
+        for (int pos = 1; pos <= 3 * BLOCK_BP; pos += 500) {
+            cursor.at("chr1", pos);
+        }
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> cursor.at("chr1", 3 * BLOCK_BP + 1));
+        assertTrue(e.getMessage().contains("--bootstrap-block-bp"), e.getMessage());
+        assertEquals(3, blocks.size());
+    }
+
+    @Test
+    void replicatesDependOnSeedOnly(@TempDir Path dir) throws Exception {
+        Path vcf = dir.resolve("boot.vcf");
+        Files.writeString(vcf, vcf());
+        Path bgt = dir.resolve("boot.bgt");
+        assertEquals(400, BGTWriter.convert(List.of(vcf.toString()), bgt.toString(), 2, 64, false));
+
+        double[][][] expected = replicates(vcf.toString(), 1, 3, 5);
+        assertArrayEquals(plainDistances(vcf.toString()), flatten(expected[0]), 0.0);
+        assertFalse(Arrays.equals(flatten(expected[0]), flatten(expected[1])));
+        assertFalse(Arrays.equals(flatten(expected[1]), flatten(expected[2])));
+
+        double[][][] again = replicates(bgt.toString(), 3, 3, 5);
+        for (int b = 0; b < expected.length; b++) {
+            assertArrayEquals(flatten(expected[b]), flatten(again[b]), 0.0, "replicate " + b);
+        }
+        double[][][] otherSeed = replicates(vcf.toString(), 1, 3, 6);
+        assertArrayEquals(flatten(expected[0]), flatten(otherSeed[0]), 0.0);
+        assertFalse(Arrays.equals(flatten(expected[1]), flatten(otherSeed[1])));
+    }
+
+    @Test
+    void embeddingReplicatesDependOnSeedOnly(@TempDir Path dir) throws Exception {
+        Path vcf = dir.resolve("boot.vcf");
+        Files.writeString(vcf, vcf());
+        Map<String, double[]> embeddings = new HashMap<>();
+        for (String line : vcf().split("\n")) {
+            String[] f = line.split("\t");
+            if (!line.startsWith("#")) {
+                embeddings.put(f[0] + ":" + f[1] + ":" + f[3] + ":" + f[4], new double[] {f[1].length(), 1, -0.5});
+            }
+        }
+        List<double[][]> expected = embeddingReplicates(vcf.toString(), embeddings, 1, 5);
+        List<double[][]> again = embeddingReplicates(vcf.toString(), embeddings, 1, 5);
+        List<double[][]> threads = embeddingReplicates(vcf.toString(), embeddings, 3, 5);
+        List<double[][]> otherSeed = embeddingReplicates(vcf.toString(), embeddings, 1, 6);
+        for (int b = 0; b < expected.size(); b++) {
+            assertArrayEquals(flatten(expected.get(b)), flatten(again.get(b)), 0.0, "replicate " + b);
+            assertArrayEquals(flatten(expected.get(b)), flatten(threads.get(b)), 1e-12, "replicate " + b);
+        }
+        assertFalse(Arrays.equals(flatten(expected.get(1)), flatten(expected.get(2))));
+        assertArrayEquals(flatten(expected.get(0)), flatten(otherSeed.get(0)), 0.0);
+        assertFalse(Arrays.equals(flatten(expected.get(1)), flatten(otherSeed.get(1))));
+    }
+
+    private static List<double[][]> embeddingReplicates(String path, Map<String, double[]> embeddings, int threads,
+            long seed) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), threads, SNPEncoder.StringToStringParser, false);
+        vcfm.setEmbeddings(embeddings, VariantKeyExtractor.KeyFormat.CHROM_POS_REF_ALT);
+        vcfm.setNumBootstraps(3);
+        vcfm.setBootstrapBlocks(BLOCK_BP, seed);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        List<double[][]> reps = vcfm.reduceDotProdToDistancesBootstraps();
+        for (int b = 0; b < reps.size(); b++) {
+            assertArrayEquals(flatten(reps.get(b)), flatten(vcfm.reduceDotProdToDistancesBootstrap(b)), 0.0);
+        }
+        return reps;
+    }
+
+    private static double[][][] replicates(String path, int threads, int bootstraps, long seed) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), threads, SNPEncoder.StringToStringParser, false);
+        vcfm.setNumBootstraps(bootstraps);
+        vcfm.setBootstrapBlocks(BLOCK_BP, seed);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        double[][][] reps = new double[bootstraps + 1][][];
+        for (int b = 0; b <= bootstraps; b++) {
+            reps[b] = vcfm.reduceDotProdToDistancesBootstrap(b);
+        }
+        assertEquals(40, vcfm.getNumBootstrapBlocks());
+        return reps;
+    }
+
+    private static double[] plainDistances(String path) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 1, SNPEncoder.StringToStringParser, false);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        return flatten(vcfm.reduceDotProdToDistances());
+    }
+
+    private static double[] flatten(double[][] m) {
+        return Arrays.stream(m).flatMapToDouble(Arrays::stream).toArray();
+    }
+}
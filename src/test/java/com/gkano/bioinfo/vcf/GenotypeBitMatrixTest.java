@@ -0,0 +1,139 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class GenotypeBitMatrixTest {
+
+    @Test
+    void bitMatrixBlocksMatchPerVariantLoop() {
+        Random rand = new Random(9);
+        int n = 11;
+        // 2 longs per sample: blocks fill up and flush mid-stream, and a
+        // 200-bit variant arrives while the block is still empty
+        GenotypeBitMatrix block = new GenotypeBitMatrix(n, 2);
+        TriangularMatrix dot = new TriangularMatrix(n);
+        long[] norm = new long[n];
+        TriangularMatrix expectedDot = new TriangularMatrix(n);
+        long[] expectedNorm = new long[n];
+        for (int v = 0; v < 60; v++) {
+            int width = v == 0 ? 200 : new int[]{4, 6, 9, 12, 33, 64}[rand.nextInt(6)];
+            int[][] rows = new int[n][(width + 31) / 32 + 1];
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < rows[i].length; k++) rows[i][k] = i == 3 ? 0 : rand.nextInt();
+                int tail = width % 32;
+                if (tail != 0) rows[i][width / 32] &= (1 << tail) - 1;
+                rows[i][rows[i].length - 1] = 0;
+            }
+            int copies = v == 0 ? 1 : rand.nextInt(3);
+            for (int c = 0; c < copies; c++) {
+                if (!block.fits(width)) block.accumulate(dot, norm);
+                block.append(rows, width);
+            }
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < rows[i].length; k++) {
+                    expectedNorm[i] += Integer.bitCount(rows[i][k]) * copies;
+                }
+                for (int j = i; j < n; j++) {
+                    for (int k = 0; k < rows[i].length; k++) {
+                        expectedDot.values[expectedDot.rowBase(i) + j] += Integer.bitCount(rows[i][k] & rows[j][k]) * copies;
+                    }
+                }
+            }
+        }
+        block.accumulate(dot, norm);
+        assertArrayEquals(expectedNorm, norm);
+        assertArrayEquals(expectedDot.values, dot.values);
+    }
+
+    @Test
+    void biallelicBlocksMatchOneHotBlocks() {
+        Random rand = new Random(4);
+        int n = 13;
+        // 0/0, 0/1, 1/0, 1/1, haploid 0 and 1, a lone second slot, missing
+        int[] nibbles = {5, 9, 6, 10, 1, 2, 4, 0};
+        GenotypeBitMatrix oneHot = new GenotypeBitMatrix(n, 1);
+        BiallelicBitMatrix biallelic = new BiallelicBitMatrix(n, 1);
+        TriangularMatrix dot = new TriangularMatrix(n);
+        long[] norm = new long[n];
+        TriangularMatrix expectedDot = new TriangularMatrix(n);
+        long[] expectedNorm = new long[n];
+        for (int v = 0; v < 150; v++) {
+            int[][] rows = new int[n][1];
+            // mostly complete blocks, with missing and haploid calls in some of them
+            boolean gaps = v >= 64 && v < 100;
+            for (int i = 0; i < n; i++) {
+                rows[i][0] = nibbles[rand.nextInt(gaps ? nibbles.length : 4)];
+            }
+            for (int c = 0, copies = rand.nextInt(3); c < copies; c++) {
+                if (!oneHot.fits(4)) oneHot.accumulate(expectedDot, expectedNorm);
+                oneHot.append(rows, 4);
+                if (biallelic.isFull()) biallelic.accumulate(dot, norm);
+                biallelic.append(rows);
+            }
+        }
+        oneHot.accumulate(expectedDot, expectedNorm);
+        biallelic.accumulate(dot, norm);
+        assertArrayEquals(expectedNorm, norm);
+        assertArrayEquals(expectedDot.values, dot.values);
+    }
+
+    @Test
+    void sharedTiledAccumulatorMatchesPerThreadAccumulators() throws Exception {
+        // 600 samples: a 3 x 3 triangle of tiles, the last ones partial
+        int n = 600;
+        int threads = 4;
+        TiledAccumulator shared = new TiledAccumulator(1, n);
+        TriangularMatrix expectedDot = new TriangularMatrix(n);
+        long[] expectedNorm = new long[n];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random rand = new Random(t);
+            int[][][] variants = new int[150][n][1];
+            for (int[][] rows : variants) {
+                for (int i = 0; i < n; i++) rows[i][0] = rand.nextInt(16);
+            }
+            GenotypeBitMatrix check = new GenotypeBitMatrix(n, 1);
+            for (int[][] rows : variants) {
+                if (!check.fits(4)) check.accumulate(expectedDot, expectedNorm);
+                check.append(rows, 4);
+            }
+            check.accumulate(expectedDot, expectedNorm);
+            workers.add(new Thread(() -> {
+                GenotypeBitMatrix block = new GenotypeBitMatrix(n, 1);
+                for (int[][] rows : variants) {
+                    if (!block.fits(4)) shared.add(block, 0);
+                    block.append(rows, 4);
+                }
+                shared.add(block, 0);
+            }));
+        }
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        assertArrayEquals(expectedNorm, shared.norm[0]);
+        assertArrayEquals(expectedDot.values, shared.dotProd[0].values);
+    }
+
+    @Test
+    void triangularMatrixPacksEveryPairOnce() {
+        int n = 37;
+        TriangularMatrix m = new TriangularMatrix(n);
+        assertEquals(n * (n + 1) / 2, m.values.length);
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                m.values[m.rowBase(i) + j] += 1000L * i + j;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                assertEquals(1000L * Math.min(i, j) + Math.max(i, j), m.get(i, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutOfCoreDistancesTest {
+
+    private static VCFManager manager(Path input) {
+        return new VCFManager(List.of(input.toString()), 2, SNPEncoder.StringToStringParser, false);
+    }
+
+    private static double[][] standard(Path input) throws Exception {
+        VCFManager vcfm = manager(input);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        return vcfm.reduceDotProdToDistances();
+    }
+
+    private static double[][] outOfCore(Path input, long budgetBytes, Path dir) throws Exception {
+        try (OutOfCoreDistances distances = new OutOfCoreDistances(budgetBytes, dir)) {
+            distances.compute(() -> manager(input));
+            assertEquals(1200, distances.getNumVariants());
+            double[][] rows = new double[distances.getNumSamples()][];
+            distances.writeRows((i, row) -> rows[i] = row.clone());
+            return rows;
+        }
+    }
+
+    @Test
+    void bandsGiveTheSameMatrix(@TempDir Path dir) throws Exception {
+        Path vcf = dir.resolve("sample.vcf");
+        Files.writeString(vcf, BGZFTestFiles.sampleVcf());
+        Path bgt = dir.resolve("sample.bgt");
+        BGTWriter.convert(List.of(vcf.toString()), bgt.toString(), 2, 64, false);
+
+        double[][] expected = standard(vcf);
+        // one tile per sample and two bands, then everything in one band
+        for (long budget : new long[] { 200, 1 << 20 }) {
+            double[][] fromVcf = outOfCore(vcf, budget, dir);
+            double[][] fromBgt = outOfCore(bgt, budget, dir);
+            for (int i = 0; i < expected.length; i++) {
+                assertArrayEquals(expected[i], fromVcf[i], 0.0);
+                assertArrayEquals(expected[i], fromBgt[i], 0.0);
+            }
+        }
+        try (var files = Files.list(dir)) {
+            assertEquals(2, files.count(), "the tile files are removed on close");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.itadaki.bzip2.BZip2OutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+class ParallelBlockDecompressionTest {
+
+    /** Several 100k bzip2 blocks worth of VCF text. */
+    private static byte[] sample() {
+        return BGZFTestFiles.sampleVcf().repeat(6).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bzip2(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (BZip2OutputStream out = new BZip2OutputStream(buf, level)) {
+            out.write(data);
+        }
+        return buf.toByteArray();
+    }
+
+    private static byte[] xz(byte[] data, int blockSize) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (XZOutputStream out = new XZOutputStream(buf, new LZMA2Options(1))) {
+            for (int off = 0; off < data.length; off += blockSize) {
+                out.write(data, off, Math.min(blockSize, data.length - off));
+                out.endBlock();
+            }
+        }
+        return buf.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = new byte[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    @Test
+    void bzip2BlocksAndStreamsDecodeInOrder() throws IOException {
+        byte[] data = sample();
+        byte[] compressed = bzip2(data, 1);
+        for (int threads : new int[]{1, 3}) {
+            try (InputStream in = new BZip2BlockInputStream(new ByteArrayInputStream(compressed), threads)) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+        }
+        // pbzip2 style: one stream per chunk, different block sizes
+        byte[] twice = concat(compressed, bzip2(data, 9));
+        try (InputStream in = new BZip2BlockInputStream(new ByteArrayInputStream(twice), 2)) {
+            assertArrayEquals(concat(data, data), in.readAllBytes());
+        }
+        try (InputStream in = new BZip2BlockInputStream(new ByteArrayInputStream(bzip2(new byte[0], 9)), 2)) {
+            assertArrayEquals(new byte[0], in.readAllBytes());
+        }
+    }
+
+    @Test
+    void corruptBzip2IsReported() throws IOException {
+        byte[] compressed = bzip2(sample(), 1);
+        byte[] corrupt = compressed.clone();
+        corrupt[corrupt.length / 2] ^= 0x10;
+        try (InputStream in = new BZip2BlockInputStream(new ByteArrayInputStream(corrupt), 2)) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        try (InputStream in = new BZip2BlockInputStream(new ByteArrayInputStream(truncated), 2)) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+    }
+
+    @Test
+    void openerPicksBlockDecoders(@TempDir Path dir) throws IOException {
+        byte[] data = sample();
+        Path bz2 = dir.resolve("in.vcf.bz2");
+        Files.write(bz2, bzip2(data, 1));
+        Path multi = dir.resolve("multi.vcf.xz");
+        Files.write(multi, xz(data, 20000));
+        Path single = dir.resolve("single.vcf.xz");
+        Files.write(single, xz(data, data.length));
+
+        VCFInputOpener opener = new VCFInputOpener(3);
+        try (InputStream in = opener.open(bz2.toString())) {
+            assertTrue(in instanceof BZip2BlockInputStream);
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        try (InputStream in = opener.open(multi.toString())) {
+            assertTrue(in instanceof XZBlockInputStream);
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        try (InputStream in = opener.open(single.toString())) {
+            assertFalse(in instanceof XZBlockInputStream);
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        try (InputStream in = new VCFInputOpener(1).open(multi.toString())) {
+            assertFalse(in instanceof XZBlockInputStream);
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+}
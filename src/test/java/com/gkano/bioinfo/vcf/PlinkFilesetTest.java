@@ -0,0 +1,137 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlinkFilesetTest {
+
+    private static final int SAMPLES = 9;
+    private static final String[] GENOTYPES = {"0/0", "0/1", "1/1", "./."};
+    /** .bed codes of {@link #GENOTYPES}. */
+    private static final int[] CODES = {3, 2, 0, 1};
+
+    /** Biallelic diploid VCF and the same variants as a PLINK fileset. */
+    private static String writeFileset(Path dir) throws Exception {
+        Random rand = new Random(5);
+        StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        StringBuilder fam = new StringBuilder();
+        StringBuilder bim = new StringBuilder();
+        ByteArrayOutputStream bed = new ByteArrayOutputStream();
+        bed.write(PlinkFileset.MAGIC);
+        for (int s = 0; s < SAMPLES; s++) {
+            vcf.append("\ts").append(s);
+            fam.append("f").append(s).append(" s").append(s).append(" 0 0 0 -9\n");
+        }
+        vcf.append('\n');
+        for (String chrom : new String[]{"1", "2"}) {
+            int pos = 1;
+            for (int i = 0; i < 300; i++) {
+                pos += 1 + rand.nextInt(500);
+                vcf.append(chrom).append('\t').append(pos).append("\trs").append(pos).append("\tC\tG\t.\tPASS\t.\tGT");
+                bim.append(chrom).append("\trs").append(pos).append("\t0\t").append(pos).append("\tG\tC\n");
+                byte[] row = new byte[(SAMPLES + 3) / 4];
+                for (int s = 0; s < SAMPLES; s++) {
+                    int g = rand.nextInt(10) == 0 ? 3 : rand.nextInt(3);
+                    vcf.append('\t').append(GENOTYPES[g]);
+                    row[s / 4] |= CODES[g] << (2 * (s % 4));
+                }
+                vcf.append('\n');
+                bed.write(row);
+            }
+        }
+        Files.writeString(dir.resolve("in.vcf"), vcf);
+        Files.writeString(dir.resolve("set.fam"), fam);
+        Files.writeString(dir.resolve("set.bim"), bim);
+        Files.write(dir.resolve("set.bed"), bed.toByteArray());
+        return vcf.toString();
+    }
+
+    @Test
+    void rowsDecodeLikeTextLines(@TempDir Path dir) throws Exception {
+        String vcf = writeFileset(dir);
+        List<String> lines = new ArrayList<>();
+        for (String line : vcf.split("\n")) if (!line.startsWith("#")) lines.add(line);
+        VariantKeyExtractor keys = new VariantKeyExtractor(VariantKeyExtractor.KeyFormat.CHROM_POS_REF_ALT);
+
+        String prefix = dir.resolve("set").toString();
+        assertEquals(prefix, PlinkFileset.prefixOf(prefix));
+        assertEquals(prefix, PlinkFileset.prefixOf(prefix + ".bed"));
+        assertNull(PlinkFileset.prefixOf(dir.resolve("in.vcf").toString()));
+        try (PlinkFileset plink = new PlinkFileset(prefix)) {
+            assertEquals(SAMPLES, plink.getNumSamples());
+            assertEquals("s8", plink.getSampleNames().get(8));
+            assertEquals(600, plink.getNumVariants());
+            int v = 0;
+            PlinkFileset.Chunk chunk;
+            while ((chunk = plink.next(256)) != null) {
+                for (int i = 0; i < chunk.size(); i++, v++) {
+                    String line = lines.get(v);
+                    byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+                    assertEquals(line.split("\t")[0], chunk.contig(i));
+                    assertEquals(Integer.parseInt(line.split("\t")[1]), chunk.position(i));
+                    assertEquals(keys.extractKey(line), chunk.variantKey(i, keys));
+                    for (int[] pm : new int[][]{{2, 2}, {2, 3}, {3, 2}, {1, 40}}) {
+                        int[][] decoded = new int[SAMPLES][(pm[0] * pm[1] + 31) / 32];
+                        chunk.encodeGenotypes(i, pm[0], pm[1], decoded);
+                        assertArrayEquals(SNPEncoder.encodeSNPOneHot(bytes, 0, bytes.length, pm[0], pm[1], SAMPLES),
+                                decoded, line);
+                    }
+                    assertArrayEquals(SNPEncoder.computeAlleleDosage(bytes, 0, bytes.length, SAMPLES),
+                            chunk.alleleDosage(i, SAMPLES), line);
+                }
+            }
+            assertEquals(600, v);
+        }
+
+        Files.write(dir.resolve("set.bed"), Arrays.copyOf(Files.readAllBytes(dir.resolve("set.bed")), 100));
+        assertThrows(java.io.IOException.class, () -> new PlinkFileset(prefix));
+    }
+
+    @Test
+    void plinkInputGivesSameResults(@TempDir Path dir) throws Exception {
+        String vcf = writeFileset(dir);
+        String text = dir.resolve("in.vcf").toString();
+        String prefix = dir.resolve("set").toString();
+
+        assertArrayEquals(distances(text, null), distances(prefix, null), 0.0);
+
+        Map<String, double[]> embeddings = new HashMap<>();
+        for (String line : vcf.split("\n")) {
+            String[] f = line.split("\t");
+            if (!line.startsWith("#") && f[1].endsWith("3")) {
+                embeddings.put(f[0] + ":" + f[1] + ":" + f[3] + ":" + f[4], new double[]{f[1].length(), 1, -0.5});
+            }
+        }
+        assertArrayEquals(distances(text, embeddings), distances(prefix + ".bed", embeddings), 1e-12);
+
+        VCFManager mixed = new VCFManager(List.of(text, prefix), 1, SNPEncoder.StringToStringParser, false);
+        assertThrows(IllegalArgumentException.class, mixed::init);
+    }
+
+    private static double[] distances(String path, Map<String, double[]> embeddings) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setEmbeddings(embeddings, VariantKeyExtractor.KeyFormat.CHROM_POS_REF_ALT);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(600, vcfm.getNumVariants());
+        assertEquals("s0", vcfm.getSampleNames().get(0));
+        return Arrays.stream(vcfm.reduceDotProdToDistances()).flatMapToDouble(Arrays::stream).toArray();
+    }
+}
@@ -0,0 +1,87 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReadAheadInputStreamTest {
+
+    private static byte[] randomBytes(int n) {
+        byte[] data = new byte[n];
+        new Random(3).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    void deliversSourceBytesInOrder() throws IOException {
+        byte[] data = randomBytes(100_003);
+        for (int bufferSize : new int[]{1, 7, 4096, 1 << 20}) {
+            try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), bufferSize, 3)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                out.write(in.read());
+                byte[] buf = new byte[333];
+                int n;
+                while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+                assertArrayEquals(data, out.toByteArray(), "bufferSize=" + bufferSize);
+                assertEquals(-1, in.read());
+            }
+        }
+    }
+
+    @Test
+    void sourceErrorsReachTheReader() throws IOException {
+        InputStream failing = new InputStream() {
+            private int left = 10_000;
+            @Override
+            public int read() throws IOException {
+                if (left-- <= 0) throw new IOException("corrupt stream");
+                return 'A';
+            }
+        };
+        try (InputStream in = new ReadAheadInputStream(failing, 1024, 2)) {
+            IOException e = assertThrows(IOException.class, () -> in.transferTo(new ByteArrayOutputStream()));
+            assertEquals("corrupt stream", e.getMessage());
+        }
+    }
+
+    @Test
+    void closingEarlyStopsTheReadAheadThread() throws IOException {
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 'A';
+            }
+        };
+        InputStream in = new ReadAheadInputStream(endless, 64, 2);
+        assertEquals('A', in.read());
+        in.close();
+    }
+
+    @Test
+    void openerReadsGzipAheadWithSeveralThreads(@TempDir Path dir) throws IOException {
+        byte[] data = randomBytes(3_000_000);
+        Path gz = dir.resolve("in.vcf.gz");
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+            out.write(data);
+        }
+        Files.write(gz, buf.toByteArray());
+        try (InputStream in = new VCFInputOpener(2).open(gz.toString())) {
+            assertTrue(in instanceof ReadAheadInputStream);
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+}
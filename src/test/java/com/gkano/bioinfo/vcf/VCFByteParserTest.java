@@ -0,0 +1,199 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VCFByteParserTest {
+
+    private static final String VCF =
+            "##fileformat=VCFv4.2\n"
+          + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\ts4\n"
+          + "chr1\t100\t.\tA\tT\t.\tPASS\t.\tGT\t0/0\t0/1\t1/1\t./.\n"
+          + "chr1\t200\t.\tG\tC,T\t.\tPASS\t.\tGT:DP\t0|1:3\t1|1:7\t0/2:1\t.:0\n"
+          + "chr1\t300\t.\tC\tA\t.\tPASS\t.\tDP:GT\t5:1/1\t.\t3:0/0\t4:0/1\n"
+          + "chr2\t150\t.\tT\tG\t.\tPASS\t.\tGT\t1\t0/1\t1/\t/1\n"
+          + "chr2\t250\t.\tA\tG\t.\tPASS\t.\tGT\t1/1\t0/0\t0/1\t1/0\r\n"
+          + "chr2\t900\t.\tA\tG\t.\tPASS\t.\tGT\t0/1\t0/0\t1/1\t1/1";
+
+    private static final String[] GENOTYPES = {
+        "0/0", "0/1", "1|1", "./.", ".", "", "1", "1/", "/1", "0/2", "10/1", "1/x", "2|0|1"
+    };
+
+    private static double[][] distances(String path, boolean byteParser) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setByteParser(byteParser);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        return vcfm.reduceDotProdToDistances();
+    }
+
+    private static List<double[][]> windows(String path, boolean byteParser) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setByteParser(byteParser);
+        List<double[][]> captured = new ArrayList<>();
+        vcfm.setWindowing(new WindowPolicy(WindowPolicy.Mode.BP, 200, 200, 1),
+                (chrom, start, end, n, names, d) -> captured.add(d));
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        return captured;
+    }
+
+    /** Reference encoding: split the columns and encode each GT on its own. */
+    private static int[][] splitEncode(String line, int ploidy, int maxAlleles, int numSamples) {
+        String[] fields = line.split("\t");
+        int gtIndex = Arrays.asList(fields[8].split(":")).indexOf("GT");
+        int[][] encoded = new int[numSamples][];
+        for (int i = 0; i < numSamples; i++) {
+            String[] parts = fields[i + 9].split(":");
+            encoded[i] = SNPEncoder.encodeGenotypeOneHot(gtIndex < parts.length ? parts[gtIndex] : null, ploidy, maxAlleles);
+        }
+        return encoded;
+    }
+
+    @Test
+    void genotypeTableMatchesDecoder() {
+        Random rand = new Random(3);
+        char[] alphabet = {'0', '1', '2', '7', '.', '/', '|', 'x', '\r'};
+        for (int[] pm : new int[][]{{2, 2}, {2, 3}, {3, 4}, {1, 40}}) {
+            GenotypeTable table = new GenotypeTable(pm[0], pm[1]);
+            int[] row = new int[table.getWords()];
+            for (int n = 0; n < 5000; n++) {
+                StringBuilder gt = new StringBuilder();
+                for (int k = rand.nextInt(6); k > 0; k--) gt.append(alphabet[rand.nextInt(alphabet.length)]);
+                byte[] bytes = gt.toString().getBytes(StandardCharsets.US_ASCII);
+                int[] expected = new int[table.getWords()];
+                SNPEncoder.encodeGenotypeOneHot(bytes, 0, bytes.length, pm[0], pm[1], expected, 0);
+                Arrays.fill(row, -1);
+                table.encode(bytes, 0, bytes.length, row);
+                assertArrayEquals(expected, row, gt.toString());
+                Arrays.fill(row, -1);
+                table.encode(gt.toString(), 0, bytes.length, row);
+                assertArrayEquals(expected, row, gt.toString());
+                assertEquals(SNPEncoder.computeGenotypeDosage(bytes, 0, bytes.length),
+                        GenotypeTable.dosage(gt.toString(), 0, bytes.length), gt.toString());
+            }
+        }
+    }
+
+    @Test
+    void genotypeBytesEncodeLikeStrings() {
+        for (String gt : GENOTYPES) {
+            byte[] bytes = gt.getBytes(StandardCharsets.US_ASCII);
+            int[] fromBytes = new int[1];
+            SNPEncoder.encodeGenotypeOneHot(bytes, 0, bytes.length, 2, 3, fromBytes, 0);
+            assertArrayEquals(SNPEncoder.encodeGenotypeOneHot(gt, 2, 3), fromBytes, gt);
+            assertEquals(SNPEncoder.computeGenotypeDosage(gt),
+                    SNPEncoder.computeGenotypeDosage(bytes, 0, bytes.length), gt);
+        }
+    }
+
+    @Test
+    void lineBytesEncodeLikeStrings() {
+        String line = "chr1\t200\t.\tG\tC,T\t.\tPASS\t.\tGT:DP\t0|1:3\t1|1:7\t0/2:1\t.:0";
+        byte[] bytes = ("xx" + line + "yy").getBytes(StandardCharsets.US_ASCII);
+        int start = 2;
+        int end = bytes.length - 2;
+        assertArrayEquals(SNPEncoder.guessPloidyAndMaxAllele(line),
+                SNPEncoder.guessPloidyAndMaxAllele(bytes, start, end));
+        int[][] expected = splitEncode(line, 2, 3, 4);
+        int[][] got = SNPEncoder.encodeSNPOneHot(bytes, start, end, 2, 3, 4);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(expected[i], got[i], "sample " + i);
+        }
+        assertArrayEquals(SNPEncoder.computeAlleleDosage(line, 4),
+                SNPEncoder.computeAlleleDosage(bytes, start, end, 4));
+        VariantKeyExtractor keys = new VariantKeyExtractor(VariantKeyExtractor.KeyFormat.CHROM_POS_REF_ALT);
+        assertEquals(keys.extractKey(line), keys.extractKey(bytes, start, end));
+    }
+
+    @Test
+    void reusedBuffersEncodeLikeStrings() {
+        int[][] fromString = new int[4][1];
+        int[][] fromBytes = new int[4][1];
+        int[] dosage = new int[4];
+        for (String line : VCF.split("\n")) {
+            if (line.startsWith("#")) continue;
+            byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+            for (int[] row : fromBytes) Arrays.fill(row, -1);
+            Arrays.fill(dosage, 7);
+            SNPEncoder.encodeSNPOneHot(line, 2, 3, fromString);
+            SNPEncoder.encodeSNPOneHot(bytes, 0, bytes.length, 2, 3, fromBytes);
+            int[][] expected = splitEncode(line, 2, 3, 4);
+            for (int i = 0; i < 4; i++) {
+                assertArrayEquals(expected[i], fromString[i], line);
+                assertArrayEquals(expected[i], fromBytes[i], line);
+            }
+            SNPEncoder.computeAlleleDosage(line, dosage);
+            assertArrayEquals(SNPEncoder.computeAlleleDosage(bytes, 0, bytes.length, 4), dosage, line);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> SNPEncoder.encodeSNPOneHot("chr1\t1\t.\tA\tT\t.\tPASS\t.\tGT\t0/1", 2, 2, new int[2][1]));
+    }
+
+    @Test
+    void smallChunksFrameSameLines(@TempDir Path tmp) throws Exception {
+        Path vcf = tmp.resolve("in.vcf");
+        Files.writeString(vcf, VCF);
+        List<String> expected = new ArrayList<>();
+        try (VCFStreamingIterator it = new VCFStreamingIterator(new VCFDecoder(), false, vcf.toString())) {
+            for (String line : it) {
+                if (!line.startsWith("#")) expected.add(line.replace("\r", ""));
+            }
+        }
+        for (int chunkSize : new int[]{8, 33, 1 << 16}) {
+            List<String> headers = new ArrayList<>();
+            List<String> got = new ArrayList<>();
+            try (VCFByteStreamingIterator it = new VCFByteStreamingIterator(
+                    new VCFDecoder(), false, headers::add, 2, chunkSize, List.of(vcf.toString()))) {
+                for (VCFLineBatch batch : it) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        got.add(new String(batch.data(), batch.start(i), batch.end(i) - batch.start(i),
+                                StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            assertEquals(2, headers.size());
+            assertEquals(expected, got, "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    void byteParserMatchesStringParser(@TempDir Path tmp) throws Exception {
+        Path vcf = tmp.resolve("in.vcf");
+        Files.writeString(vcf, VCF);
+        double[][] expected = distances(vcf.toString(), false);
+        double[][] got = distances(vcf.toString(), true);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], got[i], 0.0);
+        }
+    }
+
+    @Test
+    void windowedByteParserMatchesStringParser(@TempDir Path tmp) throws Exception {
+        Path vcf = tmp.resolve("in.vcf");
+        Files.writeString(vcf, VCF);
+        List<double[][]> expected = windows(vcf.toString(), false);
+        List<double[][]> got = windows(vcf.toString(), true);
+        assertEquals(5, expected.size());
+        assertEquals(expected.size(), got.size());
+        for (int w = 0; w < expected.size(); w++) {
+            for (int i = 0; i < expected.get(w).length; i++) {
+                assertArrayEquals(expected.get(w)[i], got.get(w)[i], 0.0);
+            }
+        }
+    }
+}
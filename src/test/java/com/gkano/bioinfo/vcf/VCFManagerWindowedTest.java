@@ -1,5 +1,6 @@
 package com.gkano.bioinfo.vcf;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -60,8 +61,14 @@ class VCFManagerWindowedTest {
 
     private static List<CapturedWindow> runWindowed(String vcfPath, WindowPolicy policy)
             throws Exception {
+        return runWindowed(vcfPath, policy, false);
+    }
+
+    private static List<CapturedWindow> runWindowed(String vcfPath, WindowPolicy policy, boolean shared)
+            throws Exception {
         VCFManager vcfm = new VCFManager(
                 List.of(vcfPath), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setSharedAccumulator(shared);
         List<CapturedWindow> captured = new ArrayList<>();
         WindowedDistanceWriter writer = (chrom, start, end, n, names, d) ->
                 captured.add(new CapturedWindow(chrom, start, end, n, names, d));
@@ -106,6 +113,21 @@ class VCFManagerWindowedTest {
         }
     }
 
+    @Test
+    void sharedMatrixGivesSameWindows(@TempDir Path tmp) throws Exception {
+        Path vcf = writeVcf(tmp, "two.vcf", VCF_TWO_CHROMS);
+        WindowPolicy policy = new WindowPolicy(WindowPolicy.Mode.VARIANTS, 1, 1, 1);
+        List<CapturedWindow> expected = runWindowed(vcf.toString(), policy);
+        List<CapturedWindow> got = runWindowed(vcf.toString(), policy, true);
+        assertEquals(expected.size(), got.size());
+        for (int w = 0; w < expected.size(); w++) {
+            assertEquals(expected.get(w).start, got.get(w).start);
+            for (int i = 0; i < expected.get(w).dist.length; i++) {
+                assertArrayEquals(expected.get(w).dist[i], got.get(w).dist[i], 0.0);
+            }
+        }
+    }
+
     @Test
     void contigChangeProducesSeparateWindows(@TempDir Path tmp) throws Exception {
         Path vcf = writeVcf(tmp, "two.vcf", VCF_TWO_CHROMS);
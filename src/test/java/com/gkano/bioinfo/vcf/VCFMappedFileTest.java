@@ -0,0 +1,79 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VCFMappedFileTest {
+
+    private static List<String> mappedLines(Path path, long segmentSize, int chunkSize, List<String> header)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        VCFDecoder decoder = new VCFDecoder();
+        try (VCFMappedFile mapped = new VCFMappedFile(path.toString(), segmentSize)) {
+            long pos = mapped.readHeader(header::add);
+            VCFMappedFile.Chunk chunk;
+            byte[] buffer = null;
+            while ((chunk = mapped.chunk(pos, chunkSize)) != null) {
+                VCFLineBatch batch = chunk.load(buffer, decoder);
+                buffer = batch.data();
+                for (int i = 0; i < batch.size(); i++) {
+                    lines.add(new String(batch.data(), batch.start(i), batch.end(i) - batch.start(i),
+                            StandardCharsets.US_ASCII));
+                }
+                pos = chunk.end();
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    void chunksSplitOnLineBoundaries(@TempDir Path dir) throws IOException {
+        String vcf = BGZFTestFiles.sampleVcf();
+        List<String> expected = new ArrayList<>();
+        for (String line : vcf.split("\n")) {
+            if (!line.startsWith("#")) expected.add(line);
+        }
+        // CRLF endings and no final newline are handled like the stream readers do.
+        Path path = dir.resolve("in.vcf");
+        String crlf = vcf.replace("\n", "\r\n");
+        Files.writeString(path, crlf.substring(0, crlf.length() - 2));
+        for (long segment : new long[]{VCFMappedFile.MAX_SEGMENT_SIZE, 4096, 300}) {
+            for (int chunk : new int[]{1, 97, 5000, 1 << 22}) {
+                List<String> header = new ArrayList<>();
+                assertEquals(expected, mappedLines(path, segment, chunk, header), segment + "/" + chunk);
+                assertEquals(2, header.size());
+            }
+        }
+        assertThrows(IOException.class, () -> mappedLines(path, 20, 10, new ArrayList<>()));
+    }
+
+    @Test
+    void mappedDistancesMatchStreaming(@TempDir Path dir) throws Exception {
+        Path path = dir.resolve("in.vcf");
+        Files.writeString(path, BGZFTestFiles.sampleVcf());
+        double[] streamed = distances(path.toString(), false);
+        assertArrayEquals(streamed, distances(path.toString(), true), 0.0);
+    }
+
+    private static double[] distances(String path, boolean mmap) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path, path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setMemoryMapped(mmap);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(2400, vcfm.getNumVariants());
+        return Arrays.stream(vcfm.reduceDotProdToDistances()).flatMapToDouble(Arrays::stream).toArray();
+    }
+}
@@ -0,0 +1,80 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VCFParallelInputsTest {
+
+    /** Split the sample VCF into one file per sequence: plain, gzip and BGZF. */
+    private static List<String> perChromosomeFiles(Path dir) throws IOException {
+        String header = "";
+        Map<String, StringBuilder> byChrom = new LinkedHashMap<>();
+        for (String line : BGZFTestFiles.sampleVcf().split("\n")) {
+            if (line.startsWith("#")) {
+                header += line + "\n";
+            } else {
+                byChrom.computeIfAbsent(line.substring(0, line.indexOf('\t')), k -> new StringBuilder())
+                        .append(line).append('\n');
+            }
+        }
+        List<String> paths = new ArrayList<>();
+        int i = 0;
+        for (Map.Entry<String, StringBuilder> e : byChrom.entrySet()) {
+            byte[] data = (header + e.getValue()).getBytes(StandardCharsets.US_ASCII);
+            Path path;
+            if (i == 0) {
+                path = dir.resolve(e.getKey() + ".vcf");
+                Files.write(path, data);
+            } else if (i == 1) {
+                path = dir.resolve(e.getKey() + ".vcf.gz");
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                try (GZIPOutputStream gz = new GZIPOutputStream(buf)) {
+                    gz.write(data);
+                }
+                Files.write(path, buf.toByteArray());
+            } else {
+                path = dir.resolve(e.getKey() + ".bgz.vcf.gz");
+                Files.write(path, BGZFTestFiles.bgzip(data, 4000));
+            }
+            paths.add(path.toString());
+            i++;
+        }
+        return paths;
+    }
+
+    @Test
+    void parallelReadersMatchSequentialReading(@TempDir Path dir) throws Exception {
+        List<String> paths = perChromosomeFiles(dir);
+        for (boolean byteParser : new boolean[]{false, true}) {
+            double[] sequential = distances(paths, byteParser, false);
+            assertArrayEquals(sequential, distances(paths, byteParser, true), 0.0);
+        }
+    }
+
+    private static double[] distances(List<String> paths, boolean byteParser, boolean parallel) throws Exception {
+        VCFManager vcfm = new VCFManager(paths, 3, SNPEncoder.StringToStringParser, false);
+        vcfm.setByteParser(byteParser);
+        vcfm.setParallelInputs(parallel);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(1200, vcfm.getNumVariants());
+        assertEquals(5, vcfm.getSampleNames().size());
+        return Arrays.stream(vcfm.reduceDotProdToDistances()).flatMapToDouble(Arrays::stream).toArray();
+    }
+}
@@ -0,0 +1,132 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VCFRegionTest {
+
+    private static final int BLOCK_SIZE = 3000;
+
+    private static Path write(Path dir, String vcf, boolean csi) throws IOException {
+        byte[] data = vcf.getBytes(StandardCharsets.US_ASCII);
+        Path path = dir.resolve("in.vcf.gz");
+        Files.write(path, BGZFTestFiles.bgzip(data, BLOCK_SIZE));
+        Files.write(dir.resolve(csi ? "in.vcf.gz.csi" : "in.vcf.gz.tbi"), BGZFTestFiles.index(data, BLOCK_SIZE, csi));
+        return path;
+    }
+
+    /** Header plus every record overlapping any region, in file order. */
+    private static String expected(String vcf, List<GenomicRegion> regions) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : vcf.split("\n")) {
+            if (line.startsWith("#")) {
+                sb.append(line).append('\n');
+                continue;
+            }
+            String[] f = line.split("\t");
+            int pos = Integer.parseInt(f[1]);
+            for (GenomicRegion r : regions) {
+                if (r.getChrom().equals(f[0]) && r.overlaps(pos, pos + f[3].length() - 1)) {
+                    sb.append(line).append('\n');
+                    break;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String read(Path path, List<GenomicRegion> regions) throws IOException {
+        VCFInputOpener opener = new VCFInputOpener();
+        opener.setRegions(regions);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = opener.open(path.toString())) {
+            in.transferTo(out);
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void parsesRegionStrings() {
+        GenomicRegion r = GenomicRegion.parse("chr1:1,000-2,000");
+        assertEquals("chr1", r.getChrom());
+        assertEquals(1000, r.getStart());
+        assertEquals(2000, r.getEnd());
+        assertEquals(GenomicRegion.MAX_END, GenomicRegion.parse("chr2").getEnd());
+        assertEquals(GenomicRegion.MAX_END, GenomicRegion.parse("chr2:50").getEnd());
+        assertEquals("HLA-A*01:01:01:01N", GenomicRegion.parse("HLA-A*01:01:01:01N").getChrom());
+        assertThrows(IllegalArgumentException.class, () -> GenomicRegion.parse("chr1:200-100"));
+    }
+
+    @Test
+    void regionQueriesMatchFullScan(@TempDir Path dir) throws IOException {
+        String vcf = BGZFTestFiles.sampleVcf();
+        for (boolean csi : new boolean[]{false, true}) {
+            Path sub = Files.createDirectories(dir.resolve(csi ? "csi" : "tbi"));
+            Path path = write(sub, vcf, csi);
+            List<List<GenomicRegion>> queries = List.of(
+                    List.of(GenomicRegion.parse("chr1:10000-60000")),
+                    List.of(GenomicRegion.parse("chr2")),
+                    List.of(GenomicRegion.parse("chrX:250000-")),
+                    List.of(GenomicRegion.parse("chr1:5-5")),
+                    // overlapping, out of order, unknown sequence
+                    List.of(GenomicRegion.parse("chrX:1000-90000"), GenomicRegion.parse("chr1:20000-30000"),
+                            GenomicRegion.parse("chr1:25000-70000"), GenomicRegion.parse("chr7:1-100"),
+                            GenomicRegion.parse("chrX:90001-100000")));
+            for (List<GenomicRegion> regions : queries) {
+                List<GenomicRegion> known = new ArrayList<>(regions);
+                known.removeIf(r -> r.getChrom().equals("chr7"));
+                assertEquals(expected(vcf, known), read(path, regions), csi + " " + regions);
+            }
+        }
+    }
+
+    @Test
+    void bedRegionsAndDistances(@TempDir Path dir) throws Exception {
+        String vcf = BGZFTestFiles.sampleVcf();
+        Path path = write(dir, vcf, false);
+        Path bed = dir.resolve("genes.bed");
+        Files.writeString(bed, "track name=genes\nchr1\t9999\t60000\nchr2\t100000\t200000\n");
+        List<GenomicRegion> regions = GenomicRegion.parseAll(List.of(bed.toString()));
+        assertEquals(2, regions.size());
+        assertEquals(10000, regions.get(0).getStart());
+
+        Path plain = dir.resolve("subset.vcf");
+        Files.writeString(plain, expected(vcf, regions));
+        assertArrayEquals(flatten(distances(plain.toString(), List.of())),
+                flatten(distances(path.toString(), regions)), 0.0);
+    }
+
+    @Test
+    void missingIndexIsReported(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("noindex.vcf.gz");
+        Files.write(path, BGZFTestFiles.bgzip(BGZFTestFiles.sampleVcf().getBytes(StandardCharsets.US_ASCII), BLOCK_SIZE));
+        assertThrows(IOException.class, () -> read(path, List.of(GenomicRegion.parse("chr1"))));
+    }
+
+    private static double[][] distances(String path, List<GenomicRegion> regions) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setRegions(regions);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        return vcfm.reduceDotProdToDistances();
+    }
+
+    private static double[] flatten(double[][] m) {
+        return Arrays.stream(m).flatMapToDouble(Arrays::stream).toArray();
+    }
+}
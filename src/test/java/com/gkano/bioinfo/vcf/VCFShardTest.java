@@ -0,0 +1,101 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VCFShardTest {
+
+    private static final int BLOCK_SIZE = 2500;
+
+    private static Path write(Path dir, String vcf) throws IOException {
+        byte[] data = vcf.getBytes(StandardCharsets.US_ASCII);
+        Path path = dir.resolve("in.vcf.gz");
+        Files.write(path, BGZFTestFiles.bgzip(data, BLOCK_SIZE));
+        Files.write(dir.resolve("in.vcf.gz.tbi"), BGZFTestFiles.index(data, BLOCK_SIZE, false));
+        return path;
+    }
+
+    private static List<String> dataLines(String vcf) {
+        List<String> lines = new ArrayList<>();
+        for (String line : vcf.split("\n")) {
+            if (!line.startsWith("#")) lines.add(line);
+        }
+        return lines;
+    }
+
+    private static List<String> readShards(List<VCFShard> shards) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (VCFShard shard : shards) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = shard.open()) {
+                in.transferTo(out);
+            }
+            String text = out.toString(StandardCharsets.US_ASCII);
+            if (!text.isEmpty()) lines.addAll(Arrays.asList(text.split("\n")));
+        }
+        return lines;
+    }
+
+    @Test
+    void byteRangesPartitionTheDataLines(@TempDir Path dir) throws IOException {
+        String vcf = BGZFTestFiles.sampleVcf();
+        Path path = write(dir, vcf);
+        for (int count : new int[]{1, 2, 3, 7, 50, 1000}) {
+            List<VCFShard> shards = VCFShard.plan(path.toString(), count, VCFShard.Mode.BYTES);
+            assertTrue(shards.size() <= count);
+            assertEquals(dataLines(vcf), readShards(shards), "shards=" + count);
+        }
+    }
+
+    @Test
+    void chromosomeShardsCoverEverySequence(@TempDir Path dir) throws IOException {
+        String vcf = BGZFTestFiles.sampleVcf();
+        Path path = write(dir, vcf);
+        for (int count : new int[]{1, 2, 3, 8}) {
+            List<VCFShard> shards = VCFShard.plan(path.toString(), count, VCFShard.Mode.CHROMOSOME);
+            assertEquals(Math.min(count, 3), shards.size());
+            List<String> expected = dataLines(vcf);
+            List<String> actual = readShards(shards);
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(expected, actual, "shards=" + count);
+        }
+    }
+
+    @Test
+    void shardedDistancesMatchSingleReader(@TempDir Path dir) throws Exception {
+        Path path = write(dir, BGZFTestFiles.sampleVcf());
+        for (boolean byteParser : new boolean[]{false, true}) {
+            double[] expected = distances(path.toString(), byteParser, 1, VCFShard.Mode.BYTES);
+            assertArrayEquals(expected, distances(path.toString(), byteParser, 4, VCFShard.Mode.BYTES), 0.0);
+            assertArrayEquals(expected, distances(path.toString(), byteParser, 2, VCFShard.Mode.CHROMOSOME), 0.0);
+        }
+    }
+
+    private static double[] distances(String path, boolean byteParser, int shards, VCFShard.Mode mode)
+            throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.setByteParser(byteParser);
+        vcfm.setSharding(shards, mode);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(1200, vcfm.getNumVariants());
+        return Arrays.stream(vcfm.reduceDotProdToDistances()).flatMapToDouble(Arrays::stream).toArray();
+    }
+}
@@ -0,0 +1,136 @@
+package com.gkano.bioinfo.vcf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VariantEncoderTest {
+
+    private static final int SAMPLES = 6;
+
+    /**
+     * A triallelic first site, then biallelic sites with the odd haploid
+     * call, a 5-allele site and a triploid one.
+     */
+    private static String mixedVcf() {
+        Random rand = new Random(3);
+        StringBuilder sb = new StringBuilder();
+        sb.append("##fileformat=VCFv4.2\n");
+        sb.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (int s = 0; s < SAMPLES; s++) sb.append("\ts").append(s);
+        sb.append('\n');
+        for (int v = 0; v < 300; v++) {
+            int alleles = v == 0 || v % 50 == 7 ? 3 : v % 97 == 11 ? 5 : 2;
+            int ploidy = v % 61 == 13 ? 3 : 2;
+            String[] alt = {"T", "G", "C", "TT"};
+            sb.append("chr1\t").append(v + 1).append("\t.\tA\t")
+                    .append(String.join(",", Arrays.copyOf(alt, alleles - 1))).append("\t.\tPASS\t.\tGT");
+            for (int s = 0; s < SAMPLES; s++) {
+                sb.append('\t');
+                int r = rand.nextInt(20);
+                if (r == 0) {
+                    sb.append("./.");
+                } else if (r == 1) {
+                    sb.append(rand.nextInt(alleles));
+                } else {
+                    for (int p = 0; p < ploidy; p++) {
+                        if (p > 0) sb.append(rand.nextBoolean() ? '/' : '|');
+                        sb.append(rand.nextInt(alleles));
+                    }
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Cosine distances counting, per variant, the slots where two samples carry the same allele. */
+    private static double[] bruteForce(String vcf) {
+        long[][] dot = new long[SAMPLES][SAMPLES];
+        long[] norm = new long[SAMPLES];
+        for (String line : vcf.split("\n")) {
+            if (line.startsWith("#")) continue;
+            String[] f = line.split("\t");
+            String[][] gt = new String[SAMPLES][];
+            for (int s = 0; s < SAMPLES; s++) {
+                gt[s] = f[9 + s].contains(".") ? new String[0] : f[9 + s].split("[/|]");
+                norm[s] += gt[s].length;
+            }
+            for (int i = 0; i < SAMPLES; i++) {
+                for (int j = 0; j < SAMPLES; j++) {
+                    for (int k = 0; k < Math.min(gt[i].length, gt[j].length); k++) {
+                        if (gt[i][k].equals(gt[j][k])) dot[i][j]++;
+                    }
+                }
+            }
+        }
+        double[] dist = new double[SAMPLES * SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            for (int j = 0; j < SAMPLES; j++) {
+                dist[i * SAMPLES + j] = Math.max(0, 1 - dot[i][j] / Math.sqrt((double) norm[i] * norm[j]));
+            }
+        }
+        return dist;
+    }
+
+    @Test
+    void everyVariantIsEncodedAtItsOwnWidth() {
+        String[] lines = mixedVcf().split("\n");
+        VariantEncoder encoder = new VariantEncoder(SAMPLES, 2);
+        for (String line : lines) {
+            if (line.startsWith("#")) continue;
+            byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+            encoder.encode(bytes, 0, bytes.length);
+            String[] f = line.split("\t");
+            int alleles = f[4].split(",").length + 1;
+            int ploidy = 1;
+            for (int s = 0; s < SAMPLES; s++) {
+                if (!f[9 + s].contains(".")) ploidy = Math.max(ploidy, f[9 + s].split("[/|]").length);
+            }
+            assertEquals(alleles, encoder.alleles(), line);
+            assertEquals(ploidy, encoder.ploidy(), line);
+            for (int s = 0; s < SAMPLES; s++) {
+                int[] expected = SNPEncoder.encodeGenotypeOneHot(f[9 + s], ploidy, alleles);
+                assertArrayEquals(expected, Arrays.copyOf(encoder.rows()[s], encoder.words()), line);
+            }
+        }
+    }
+
+    @Test
+    void mixedWidthsGiveSameDistancesInEveryFormat(@TempDir Path dir) throws Exception {
+        String text = mixedVcf();
+        Path vcf = dir.resolve("mixed.vcf");
+        Files.writeString(vcf, text);
+        Path bcf = dir.resolve("mixed.bcf");
+        Files.write(bcf, BCFTestFiles.bcf(text));
+        Path bgt = dir.resolve("mixed.bgt");
+        assertEquals(300, BGTWriter.convert(List.of(vcf.toString()), bgt.toString(), 2, 64, false));
+
+        double[] expected = distances(vcf.toString());
+        assertArrayEquals(bruteForce(text), expected, 1e-12);
+        assertArrayEquals(expected, distances(bcf.toString()), 0.0);
+        assertArrayEquals(expected, distances(bgt.toString()), 0.0);
+        try (BGTFile file = new BGTFile(bgt.toString())) {
+            assertEquals(3, file.getPloidy());
+            assertEquals(5, file.getMaxAlleles());
+        }
+    }
+
+    private static double[] distances(String path) throws Exception {
+        VCFManager vcfm = new VCFManager(List.of(path), 2, SNPEncoder.StringToStringParser, false);
+        vcfm.init();
+        new Thread(vcfm).start();
+        vcfm.awaitFinalization();
+        assertEquals(300, vcfm.getNumVariants());
+        return Arrays.stream(vcfm.reduceDotProdToDistances()).flatMapToDouble(Arrays::stream).toArray();
+    }
+}